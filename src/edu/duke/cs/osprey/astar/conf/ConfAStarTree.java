@@ -34,11 +34,13 @@ package edu.duke.cs.osprey.astar.conf;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import edu.duke.cs.osprey.astar.AStarProgress;
 import edu.duke.cs.osprey.astar.conf.linked.LinkedConfAStarFactory;
 import edu.duke.cs.osprey.astar.conf.order.*;
+import edu.duke.cs.osprey.astar.conf.packed.PackedConfAStarFactory;
 import edu.duke.cs.osprey.astar.conf.pruning.AStarPruner;
 import edu.duke.cs.osprey.astar.conf.scoring.AStarScorer;
 import edu.duke.cs.osprey.astar.conf.scoring.MPLPPairwiseHScorer;
@@ -64,6 +66,7 @@ import edu.duke.cs.osprey.parallelism.Parallelism;
 import edu.duke.cs.osprey.parallelism.TaskExecutor;
 import edu.duke.cs.osprey.pruning.PruningMatrix;
 import edu.duke.cs.osprey.tools.MathTools;
+import edu.duke.cs.osprey.tools.Metrics;
 import edu.duke.cs.osprey.tools.ObjectPool;
 import edu.duke.cs.osprey.tools.ObjectPool.Checkout;
 
@@ -86,6 +89,7 @@ public class ConfAStarTree implements ConfSearch {
 		private ConfAStarFactory factory = new LinkedConfAStarFactory();
 		private AStarPruner pruner = null;
 		private Long maxNumNodes = null;
+		private int expansionBatchSize = 1;
 
 		public Builder(EnergyMatrix emat, SimpleConfSpace confSpace) {
 			this(emat, new RCs(confSpace));
@@ -199,6 +203,27 @@ public class ConfAStarTree implements ConfSearch {
 			factory = new EMConfAStarFactory();
 			return this;
 		}
+
+		/**
+		 * Store A* nodes as compact fixed-width records in off-heap memory,
+		 * rather than as linked objects on the Java heap.
+		 *
+		 * Large A* searches can queue tens of millions of nodes, so this can save
+		 * a lot of memory and garbage collection time.
+		 *
+		 * Off-heap memory is limited by the JVM's -XX:MaxDirectMemorySize option,
+		 * which defaults to the maximum heap size.
+		 */
+		public Builder usePackedMemory() {
+
+			// just in case...
+			if (maxNumNodes != null) {
+				throw new IllegalArgumentException("packed memory is incompatible with bounded memory");
+			}
+
+			factory = new PackedConfAStarFactory();
+			return this;
+		}
 		
 		public Builder setShowProgress(boolean val) {
 			showProgress = val;
@@ -216,6 +241,9 @@ public class ConfAStarTree implements ConfSearch {
 			if (val != null && factory instanceof EMConfAStarFactory) {
 				throw new IllegalArgumentException("bounded memory is incompatible with external memory");
 			}
+			if (val != null && factory instanceof PackedConfAStarFactory) {
+				throw new IllegalArgumentException("bounded memory is incompatible with packed memory");
+			}
 
 			maxNumNodes = val;
 			return this;
@@ -224,6 +252,24 @@ public class ConfAStarTree implements ConfSearch {
 		public Builder setMaxNumNodes(int val) {
 			return setMaxNumNodes(Long.valueOf(val));
 		}
+
+		/**
+		 * The maximum number of nodes to pop off the queue and expand together.
+		 *
+		 * Children of all the nodes in a batch are scored in parallel, so larger batches
+		 * keep more threads busy when nodes have few children. Nodes beyond the first in
+		 * a batch may not have been expanded by sequential A*, so larger batches can
+		 * do some extra work, but the conformations are still enumerated in order.
+		 *
+		 * Only applies to unbounded-memory A* searches.
+		 */
+		public Builder setExpansionBatchSize(int val) {
+			if (val <= 0) {
+				throw new IllegalArgumentException("expansion batch size must be at least 1");
+			}
+			expansionBatchSize = val;
+			return this;
+		}
 		
 		public ConfAStarTree build() {
 			ConfAStarTree tree = new ConfAStarTree(
@@ -234,7 +280,8 @@ public class ConfAStarTree implements ConfSearch {
 				rcs,
 				factory,
 				pruner,
-				maxNumNodes
+				maxNumNodes,
+				expansionBatchSize
 			);
 			if (showProgress) {
 				tree.initProgress();
@@ -320,6 +367,7 @@ public class ConfAStarTree implements ConfSearch {
 	public final RCs rcs;
 	public final ConfAStarFactory factory;
 	public final AStarPruner pruner;
+	public final int expansionBatchSize;
 
 	private final AStarImpl impl;
 	private final ConfIndex confIndex;
@@ -328,7 +376,7 @@ public class ConfAStarTree implements ConfSearch {
 	private TaskExecutor tasks;
 	private ObjectPool<ScoreContext> contexts;
 	
-	private ConfAStarTree(AStarOrder order, AStarScorer gscorer, AStarScorer hscorer, MathTools.Optimizer optimizer, RCs rcs, ConfAStarFactory factory, AStarPruner pruner, Long maxNumNodes) {
+	private ConfAStarTree(AStarOrder order, AStarScorer gscorer, AStarScorer hscorer, MathTools.Optimizer optimizer, RCs rcs, ConfAStarFactory factory, AStarPruner pruner, Long maxNumNodes, int expansionBatchSize) {
 		this.order = order;
 		this.gscorer = gscorer;
 		this.hscorer = hscorer;
@@ -336,6 +384,7 @@ public class ConfAStarTree implements ConfSearch {
 		this.rcs = rcs;
 		this.factory = factory;
 		this.pruner = pruner;
+		this.expansionBatchSize = expansionBatchSize;
 
 		if (maxNumNodes != null) {
 			this.impl = new SimplifiedBoundedImpl(maxNumNodes);
@@ -390,6 +439,15 @@ public class ConfAStarTree implements ConfSearch {
 	public ScoredConf nextConf() {
 		return impl.nextConf();
 	}
+
+	/**
+	 * Releases the node queue (which might be in external or off-heap memory) and the scoring threads.
+	 */
+	@Override
+	public void clean() {
+		impl.clean();
+		tasks.clean();
+	}
 	
 	@Override
 	public List<ScoredConf> nextConfs(double thresholdEnergy) {
@@ -464,6 +522,10 @@ public class ConfAStarTree implements ConfSearch {
 	private interface AStarImpl {
 
 		ScoredConf nextConf();
+
+		default void clean() {
+			// nothing to release by default
+		}
 	}
 
 	/**
@@ -479,6 +541,12 @@ public class ConfAStarTree implements ConfSearch {
 			this.queue = factory.makeQueue(rcs);
 		}
 
+		@Override
+		public void clean() {
+			queue.clean();
+			rootNode = null;
+		}
+
 		@Override
 		public ScoredConf nextConf() {
 
@@ -517,36 +585,75 @@ public class ConfAStarTree implements ConfSearch {
 					return null;
 				}
 
-				// get the next node to expand
-				ConfAStarNode node = queue.poll();
+				// pop the next batch of nodes to expand
+				batch.clear();
+				while (batch.size() < expansionBatchSize && !queue.isEmpty()) {
 
-				// if this node was pruned dynamically, then ignore it
-				if (pruner != null && pruner.isPruned(node)) {
-					continue;
-				}
+					ConfAStarNode node = queue.peek();
+
+					// if this node was pruned dynamically, then ignore it
+					if (pruner != null && pruner.isPruned(node)) {
+						queue.pop();
+						continue;
+					}
+
+					// leaf node?
+					if (node.getLevel() == rcs.getNumPos()) {
+
+						// if we already have nodes to expand, leave the leaf node in the queue,
+						// since the expanded children could have lower scores
+						if (!batch.isEmpty()) {
+							break;
+						}
+
+						// otherwise, it's the best node left, report it
+						queue.pop();
 
-				// leaf node? report it
-				if (node.getLevel() == rcs.getNumPos()) {
+						if (progress != null) {
+							progress.reportLeafNode(node.getGScore(optimizer), queue.size());
+						}
 
-					if (progress != null) {
-						progress.reportLeafNode(node.getGScore(optimizer), queue.size());
+						return new ScoredConf(
+							node.makeConf(rcs.getNumPos()),
+							node.getGScore(optimizer)
+						);
 					}
 
-					return new ScoredConf(
-						node.makeConf(rcs.getNumPos()),
-						node.getGScore(optimizer)
-					);
+					queue.pop();
+					batch.add(node);
+				}
+
+				if (!batch.isEmpty()) {
+					expand();
 				}
+			}
+		}
+
+		private final List<ConfAStarNode> batch = new ArrayList<>();
+		private final List<ConfAStarNode> children = new ArrayList<>();
+		private int[] numChildren = new int[0];
+
+		// the children to score, flattened over all nodes in the batch
+		private int numToScore = 0;
+		private int[] scoreNodeIndices = new int[0];
+		private int[] scorePos = new int[0];
+		private int[] scoreRCs = new int[0];
+
+		private void expand() {
+
+			long startNs = Metrics.startNs();
+
+			// collect all the children of all the nodes in the batch
+			numToScore = 0;
+			for (int i=0; i<batch.size(); i++) {
+				ConfAStarNode node = batch.get(i);
 
 				// which pos to expand next?
-				int numChildren = 0;
 				node.index(confIndex);
 				int nextPos = order.getNextPos(confIndex, rcs);
 				assert (!confIndex.isDefined(nextPos));
 				assert (confIndex.isUndefined(nextPos));
 
-				// score child nodes with tasks (possibly in parallel)
-				List<ConfAStarNode> children = new ArrayList<>();
 				for (int nextRc : rcs.get(nextPos)) {
 
 					// if this child was pruned by the pruning matrix, then skip it
@@ -559,35 +666,127 @@ public class ConfAStarTree implements ConfSearch {
 						continue;
 					}
 
-					tasks.submit(() -> {
-
-						try (Checkout<ScoreContext> checkout = contexts.autoCheckout()) {
-							ScoreContext context = checkout.get();
+					addToScore(i, nextPos, nextRc);
+				}
+			}
 
-							// score the child node differentially against the parent node
-							node.index(context.index);
-							ConfAStarNode child = node.assign(nextPos, nextRc);
-							child.setGScore(context.gscorer.calcDifferential(context.index, rcs, nextPos, nextRc), optimizer);
-							child.setHScore(context.hscorer.calcDifferential(context.index, rcs, nextPos, nextRc), optimizer);
-							return child;
+			// score the children in contiguous chunks (possibly in parallel),
+			// so we pay for task scheduling and scoring contexts once per chunk rather than once per child
+			// and most children in a chunk share the same parent, so the parent index can be re-used
+			children.clear();
+			if (numChildren.length < batch.size()) {
+				numChildren = new int[batch.size()];
+			}
+			Arrays.fill(numChildren, 0, batch.size(), 0);
+			int numChunks = Math.max(1, Math.min(tasks.getParallelism()*ChunksPerThread, numToScore/MinChunkSize));
+			for (int c=0; c<numChunks; c++) {
+				int start = (int)((long)numToScore*c/numChunks);
+				int stop = (int)((long)numToScore*(c + 1)/numChunks);
+				if (start == stop) {
+					continue;
+				}
+				tasks.submit(
+					() -> scoreChunk(start, stop),
+					(chunk) -> {
+						// merge the chunk into the batch
+						children.addAll(chunk.children);
+						for (int i=0; i<chunk.nodeIndices.length; i++) {
+							numChildren[chunk.nodeIndices[i]]++;
 						}
+					}
+				);
+			}
+			tasks.waitForFinish();
+			queue.pushAll(children);
 
-					}, (ConfAStarNode child) -> {
+			nodesExpanded.add(batch.size());
+			nodesScored.add(numToScore);
+			expandNs.recordSince(startNs);
 
-						// collect the possible children
-						if (Double.isFinite(child.getScore())) {
-							children.add(child);
-						}
-					});
+			if (progress != null) {
+				for (int i=0; i<batch.size(); i++) {
+					ConfAStarNode node = batch.get(i);
+					progress.reportInternalNode(node.getLevel(), node.getGScore(optimizer), node.getHScore(optimizer), queue.size(), numChildren[i]);
 				}
-				tasks.waitForFinish();
-				numChildren += children.size();
-				queue.pushAll(children);
+			}
+		}
+
+		private void addToScore(int nodeIndex, int pos, int rc) {
+			if (numToScore == scorePos.length) {
+				int size = Math.max(16, numToScore*2);
+				scoreNodeIndices = Arrays.copyOf(scoreNodeIndices, size);
+				scorePos = Arrays.copyOf(scorePos, size);
+				scoreRCs = Arrays.copyOf(scoreRCs, size);
+			}
+			scoreNodeIndices[numToScore] = nodeIndex;
+			scorePos[numToScore] = pos;
+			scoreRCs[numToScore] = rc;
+			numToScore++;
+		}
 
-				if (progress != null) {
-					progress.reportInternalNode(node.getLevel(), node.getGScore(optimizer), node.getHScore(optimizer), queue.size(), numChildren);
+		private ScoredChunk scoreChunk(int start, int stop) {
+
+			ScoredChunk chunk = new ScoredChunk(stop - start);
+
+			try (Checkout<ScoreContext> checkout = contexts.autoCheckout()) {
+				ScoreContext context = checkout.get();
+
+				for (int i=start; i<stop; i++) {
+					int nodeIndex = scoreNodeIndices[i];
+					int nextPos = scorePos[i];
+					int nextRc = scoreRCs[i];
+
+					// score the child node differentially against the parent node
+					ConfAStarNode node = batch.get(nodeIndex);
+					node.index(context.index);
+					ConfAStarNode child = node.assign(nextPos, nextRc);
+					long startNs = Metrics.startNs();
+					child.setGScore(context.gscorer.calcDifferential(context.index, rcs, nextPos, nextRc), optimizer);
+					gscoreNs.recordSince(startNs);
+					startNs = Metrics.startNs();
+					child.setHScore(context.hscorer.calcDifferential(context.index, rcs, nextPos, nextRc), optimizer);
+					hscoreNs.recordSince(startNs);
+
+					// collect the possible children
+					if (Double.isFinite(child.getScore())) {
+						chunk.add(child, nodeIndex);
+					}
 				}
 			}
+
+			return chunk.trim();
+		}
+	}
+
+	private static final int ChunksPerThread = 4;
+	private static final int MinChunkSize = 8;
+
+	private static final Metrics.Counter nodesExpanded = Metrics.counter("astar_nodes_expanded_total", "A* nodes expanded");
+	private static final Metrics.Counter nodesScored = Metrics.counter("astar_nodes_scored_total", "A* child nodes scored");
+	private static final Metrics.Histogram expandNs = Metrics.histogram("astar_expand_batch_ns", "time to expand a batch of A* nodes, including scoring (ns)");
+	private static final Metrics.Histogram gscoreNs = Metrics.histogram("astar_gscore_ns", "time to compute an A* g-score (ns)");
+	private static final Metrics.Histogram hscoreNs = Metrics.histogram("astar_hscore_ns", "time to compute an A* h-score (ns)");
+
+	private static class ScoredChunk {
+
+		final List<ConfAStarNode> children;
+		int[] nodeIndices;
+
+		ScoredChunk(int capacity) {
+			children = new ArrayList<>(capacity);
+			nodeIndices = new int[capacity];
+		}
+
+		void add(ConfAStarNode child, int nodeIndex) {
+			nodeIndices[children.size()] = nodeIndex;
+			children.add(child);
+		}
+
+		ScoredChunk trim() {
+			if (nodeIndices.length > children.size()) {
+				nodeIndices = Arrays.copyOf(nodeIndices, children.size());
+			}
+			return this;
 		}
 	}
 
@@ -691,8 +890,13 @@ public class ConfAStarTree implements ConfSearch {
 
 				// score the child
 				ConfSMAStarNode child = node.spawnChild(pos, rc, index);
+				long startNs = Metrics.startNs();
 				child.setGScore(gscorer.calcDifferential(confIndex, rcs, pos, rc), optimizer);
+				gscoreNs.recordSince(startNs);
+				startNs = Metrics.startNs();
 				child.setHScore(hscorer.calcDifferential(confIndex, rcs, pos, rc), optimizer);
+				hscoreNs.recordSince(startNs);
+				nodesScored.increment();
 
 				// don't let the fscore go past the parent though
 				child.setScore(optimizer.reverse().opt(node.getScore(optimizer), child.getGScore(optimizer) + child.getHScore(optimizer)), optimizer);
@@ -703,8 +907,10 @@ public class ConfAStarTree implements ConfSearch {
 				node.backup(q);
 
 				// if the node has nothing left to spawn, remove it from the queue
+				// SMA* spawns children one at a time, so count the node as expanded once it's spawned them all
 				if (!node.canSpawnChildren()) {
 					q.removeOrAssert(node);
+					nodesExpanded.increment();
 				}
 
 				// if we're over the limit, forget some nodes
@@ -66,6 +66,36 @@ public class ConfIndex {
 		this.node = null;
 	}
 
+	/**
+	 * Copies the assignments from the other index, without allocating any memory
+	 */
+	public void set(ConfIndex other) {
+		if (other.numPos != numPos) {
+			throw new IllegalArgumentException("indices have different numbers of positions: " + numPos + " != " + other.numPos);
+		}
+		numDefined = other.numDefined;
+		System.arraycopy(other.definedPos, 0, definedPos, 0, numDefined);
+		System.arraycopy(other.definedRCs, 0, definedRCs, 0, numDefined);
+		numUndefined = other.numUndefined;
+		System.arraycopy(other.undefinedPos, 0, undefinedPos, 0, numUndefined);
+		node = null;
+	}
+
+	/**
+	 * Returns true if both indices have the same assignments
+	 */
+	public boolean isSameAssignments(ConfIndex other) {
+		if (other.numPos != numPos || other.numDefined != numDefined) {
+			return false;
+		}
+		for (int i=0; i<numDefined; i++) {
+			if (definedPos[i] != other.definedPos[i] || definedRCs[i] != other.definedRCs[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	public boolean isFullyDefined() {
 		return numDefined == numPos;
 	}
@@ -125,6 +125,19 @@ public class ConfSearchCache {
 			return strongRef != null;
 		}
 
+		/** close the tree, if we still have it, rather than waiting for the garbage collector to find it */
+		@Override
+		public void clean() {
+			if (softRef != null) {
+				ConfSearch tree = softRef.get();
+				if (tree != null) {
+					tree.clean();
+				}
+			}
+			recentEntries.remove(this);
+			clearRefs();
+		}
+
 		@Override
 		public BigInteger getNumConformations() {
 			return getOrMakeTree().getNumConformations();
@@ -0,0 +1,34 @@
+package edu.duke.cs.osprey.astar.conf.packed;
+
+import edu.duke.cs.osprey.astar.conf.ConfAStarFactory;
+import edu.duke.cs.osprey.astar.conf.ConfAStarNode;
+import edu.duke.cs.osprey.astar.conf.RCs;
+import edu.duke.cs.osprey.externalMemory.Queue;
+
+
+/**
+ * Keeps A* nodes in a {@link PackedConfAStarQueue}, which stores each node
+ * as a fixed-width record in off-heap memory, rather than as objects on the Java heap.
+ */
+public class PackedConfAStarFactory implements ConfAStarFactory {
+
+	public final int chunkBytes;
+
+	public PackedConfAStarFactory() {
+		this(PackedConfAStarQueue.DefaultChunkBytes);
+	}
+
+	public PackedConfAStarFactory(int chunkBytes) {
+		this.chunkBytes = chunkBytes;
+	}
+
+	@Override
+	public Queue<ConfAStarNode> makeQueue(RCs rcs) {
+		return new PackedConfAStarQueue(rcs, chunkBytes);
+	}
+
+	@Override
+	public PackedConfAStarNode makeRootNode(int numPos) {
+		return new PackedConfAStarNode(numPos);
+	}
+}
@@ -0,0 +1,302 @@
+package edu.duke.cs.osprey.astar.conf.packed;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.duke.cs.osprey.astar.conf.ConfAStarNode;
+import edu.duke.cs.osprey.astar.conf.RCs;
+import edu.duke.cs.osprey.externalMemory.Queue;
+
+
+/**
+ * A binary min-heap of A* nodes, where each node is packed into a fixed-width record
+ * of longs stored in off-heap (direct) memory.
+ *
+ * Each record holds the g and h scores followed by the bit-packed assignments,
+ * so nodes in the queue cost no Java objects at all. The records are stored in
+ * fixed-size chunks so the heap can grow (and shrink) without copying everything.
+ *
+ * NOTE: direct memory is limited by the JVM's -XX:MaxDirectMemorySize option,
+ * which defaults to the maximum heap size.
+ *
+ * This queue is not thread-safe.
+ */
+public class PackedConfAStarQueue implements Queue<ConfAStarNode> {
+
+	public static final int DefaultChunkBytes = 64*1024*1024; // 64 MiB
+
+	/**
+	 * Packs conformation assignments into as few bits as possible.
+	 * Assignments are stored as rc+1, so unassigned positions are always zero.
+	 * Positions never straddle words, which keeps unpacking simple.
+	 */
+	public static class Encoding {
+
+		public final int numPos;
+		public final int bitsPerPos;
+		public final int posPerWord;
+		public final int numWords;
+
+		private final long mask;
+
+		public Encoding(RCs rcs) {
+			this(rcs.getNumPos(), getMaxRC(rcs));
+		}
+
+		public Encoding(int numPos, int maxRC) {
+			this.numPos = numPos;
+			this.bitsPerPos = Math.max(1, Integer.SIZE - Integer.numberOfLeadingZeros(maxRC + 1));
+			this.posPerWord = Long.SIZE/bitsPerPos;
+			this.numWords = (numPos + posPerWord - 1)/posPerWord;
+			this.mask = (1L << bitsPerPos) - 1;
+		}
+
+		private static int getMaxRC(RCs rcs) {
+			int maxRC = 0;
+			for (int pos=0; pos<rcs.getNumPos(); pos++) {
+				for (int rc : rcs.get(pos)) {
+					maxRC = Math.max(maxRC, rc);
+				}
+			}
+			return maxRC;
+		}
+
+		public void pack(int[] conf, long[] words, int offset) {
+			for (int i=0; i<numWords; i++) {
+				long word = 0;
+				int start = i*posPerWord;
+				int stop = Math.min(start + posPerWord, numPos);
+				for (int pos=start; pos<stop; pos++) {
+					long val = conf[pos] + 1;
+					assert (val >= 0 && val <= mask);
+					word |= val << ((pos - start)*bitsPerPos);
+				}
+				words[offset + i] = word;
+			}
+		}
+
+		/**
+		 * Unpacks the assignments into conf
+		 * @return the number of assigned positions
+		 */
+		public int unpack(long[] words, int offset, int[] conf) {
+			int numAssigned = 0;
+			for (int i=0; i<numWords; i++) {
+				long word = words[offset + i];
+				int start = i*posPerWord;
+				int stop = Math.min(start + posPerWord, numPos);
+				for (int pos=start; pos<stop; pos++) {
+					int val = (int)(word & mask);
+					conf[pos] = val - 1;
+					if (val != 0) {
+						numAssigned++;
+					}
+					word >>>= bitsPerPos;
+				}
+			}
+			return numAssigned;
+		}
+	}
+
+	private static final int GScoreIndex = 0;
+	private static final int HScoreIndex = 1;
+	private static final int AssignmentsIndex = 2;
+
+	public final Encoding encoding;
+
+	/** size of each record, in longs */
+	public final int recordLongs;
+	public final int recordsPerChunk;
+
+	private final List<LongBuffer> chunks = new ArrayList<>();
+	private long size = 0;
+
+	// scratch space for the record being moved around the heap
+	private final long[] record;
+	private final long[] swap;
+	private final int[] conf;
+
+	public PackedConfAStarQueue(RCs rcs) {
+		this(rcs, DefaultChunkBytes);
+	}
+
+	public PackedConfAStarQueue(RCs rcs, int chunkBytes) {
+
+		encoding = new Encoding(rcs);
+		recordLongs = AssignmentsIndex + encoding.numWords;
+		recordsPerChunk = chunkBytes/Long.BYTES/recordLongs;
+		if (recordsPerChunk <= 0) {
+			throw new IllegalArgumentException(String.format("chunk size of %d bytes is too small for even one record of %d bytes",
+				chunkBytes, recordLongs*Long.BYTES
+			));
+		}
+
+		record = new long[recordLongs];
+		swap = new long[recordLongs];
+		conf = new int[encoding.numPos];
+	}
+
+	/** the number of off-heap bytes currently allocated by the queue */
+	public long getNumBytes() {
+		return (long)chunks.size()*recordsPerChunk*recordLongs*Long.BYTES;
+	}
+
+	public int getRecordBytes() {
+		return recordLongs*Long.BYTES;
+	}
+
+	@Override
+	public void push(ConfAStarNode node) {
+
+		// pack the node into the scratch record
+		record[GScoreIndex] = Double.doubleToRawLongBits(node.getGScore());
+		record[HScoreIndex] = Double.doubleToRawLongBits(node.getHScore());
+		node.getConf(conf);
+		encoding.pack(conf, record, AssignmentsIndex);
+
+		// make room at the end of the heap
+		long i = size;
+		if (i == (long)chunks.size()*recordsPerChunk) {
+			chunks.add(ByteBuffer.allocateDirect(recordsPerChunk*recordLongs*Long.BYTES)
+				.order(ByteOrder.nativeOrder())
+				.asLongBuffer()
+			);
+		}
+		size++;
+
+		// sift up: move parents down until we find the hole for the new record
+		double score = node.getScore();
+		while (i > 0) {
+			long parent = (i - 1) >>> 1;
+			if (getScore(parent) <= score) {
+				break;
+			}
+			copy(parent, i);
+			i = parent;
+		}
+		write(i, record);
+	}
+
+	@Override
+	public PackedConfAStarNode peek() {
+
+		if (size == 0) {
+			return null;
+		}
+
+		read(0, record);
+		PackedConfAStarNode node = new PackedConfAStarNode(encoding.numPos);
+		node.setGScore(Double.longBitsToDouble(record[GScoreIndex]));
+		node.setHScore(Double.longBitsToDouble(record[HScoreIndex]));
+		node.setLevel(encoding.unpack(record, AssignmentsIndex, node.getConf()));
+		return node;
+	}
+
+	@Override
+	public void pop() {
+
+		if (size == 0) {
+			throw new IllegalStateException("queue is empty");
+		}
+
+		size--;
+		if (size > 0) {
+
+			// pull the last record out of the heap
+			read(size, record);
+			double score = getScore(record);
+
+			// sift down: move children up until we find the hole for the last record
+			long i = 0;
+			long half = size >>> 1;
+			while (i < half) {
+				long child = 2*i + 1;
+				double childScore = getScore(child);
+				long right = child + 1;
+				if (right < size) {
+					double rightScore = getScore(right);
+					if (rightScore < childScore) {
+						child = right;
+						childScore = rightScore;
+					}
+				}
+				if (score <= childScore) {
+					break;
+				}
+				copy(child, i);
+				i = child;
+			}
+			write(i, record);
+		}
+
+		// release chunks we're not using anymore, but keep one spare to avoid thrashing at the boundary
+		while (chunks.size() >= 2 && size <= (long)(chunks.size() - 2)*recordsPerChunk) {
+			chunks.remove(chunks.size() - 1);
+		}
+	}
+
+	@Override
+	public long size() {
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Drops all the nodes and the chunks that hold them.
+	 * Direct memory can't be freed explicitly, but once the chunks are unreachable,
+	 * the next GC can free them without waiting for the whole queue to become garbage.
+	 */
+	@Override
+	public void clean() {
+		chunks.clear();
+		size = 0;
+	}
+
+	private LongBuffer chunk(long i) {
+		return chunks.get((int)(i/recordsPerChunk));
+	}
+
+	private int offset(long i) {
+		return (int)(i % recordsPerChunk)*recordLongs;
+	}
+
+	private double getScore(long i) {
+		LongBuffer chunk = chunk(i);
+		int offset = offset(i);
+		return Double.longBitsToDouble(chunk.get(offset + GScoreIndex))
+			+ Double.longBitsToDouble(chunk.get(offset + HScoreIndex));
+	}
+
+	private static double getScore(long[] record) {
+		return Double.longBitsToDouble(record[GScoreIndex])
+			+ Double.longBitsToDouble(record[HScoreIndex]);
+	}
+
+	private void read(long i, long[] out) {
+		LongBuffer chunk = chunk(i);
+		int offset = offset(i);
+		for (int j=0; j<recordLongs; j++) {
+			out[j] = chunk.get(offset + j);
+		}
+	}
+
+	private void write(long i, long[] in) {
+		LongBuffer chunk = chunk(i);
+		int offset = offset(i);
+		for (int j=0; j<recordLongs; j++) {
+			chunk.put(offset + j, in[j]);
+		}
+	}
+
+	private void copy(long src, long dst) {
+		read(src, swap);
+		write(dst, swap);
+	}
+}
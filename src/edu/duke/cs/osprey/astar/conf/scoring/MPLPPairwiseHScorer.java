@@ -38,6 +38,14 @@ import edu.duke.cs.osprey.astar.conf.scoring.mplp.MPLPUpdater;
 import edu.duke.cs.osprey.astar.conf.scoring.mplp.MessageVars;
 import edu.duke.cs.osprey.ematrix.EnergyMatrix;
 
+/**
+ * Bounds the energy of the undefined positions using Max Product Linear Programming (MPLP).
+ *
+ * When scoring children differentially, the converged messages of the parent node are cached,
+ * and each child's messages start from the parent's, instead of from the traditional A* heuristic.
+ * Children differ from their parent by only one assignment, so MPLP needs far fewer iterations to converge.
+ * Message buffers are reused between nodes, so instances are not thread-safe. Use {@link #make()} for each thread.
+ */
 public class MPLPPairwiseHScorer implements AStarScorer {
 	
 	private MPLPUpdater updater;
@@ -45,6 +53,15 @@ public class MPLPPairwiseHScorer implements AStarScorer {
 	private int maxNumIterations;
 	private double epsilon;
 
+	// reusable message buffers
+	private final MessageVars lambdas = new MessageVars();
+	private final MessageVars parentLambdas = new MessageVars();
+
+	// the parent node whose messages are cached in parentLambdas, if any
+	private ConfIndex parentIndex = null;
+	private RCs parentRCs = null;
+	private ConfIndex childIndex = null;
+
 	public MPLPPairwiseHScorer(MPLPUpdater updater, EnergyMatrix emat, int maxNumIterations, double epsilon) {
 		this.updater = updater;
 		this.emat = emat;
@@ -62,10 +79,38 @@ public class MPLPPairwiseHScorer implements AStarScorer {
 
 		// init lambdas using the traditional A* heuristic
 		// NOTE: we must use these initial values for early stopping to be sound
-		MessageVars lambdas = new MessageVars(rcs, confIndex);
+		lambdas.init(rcs, confIndex);
 		lambdas.initTraditionalAStar(emat);
 		
-		// run MPLP
+		return run(lambdas);
+	}
+
+	@Override
+	public double calcDifferential(ConfIndex confIndex, RCs rcs, int nextPos, int nextRc) {
+
+		// converge the parent's messages, if we haven't already
+		if (parentIndex == null || parentRCs != rcs || !parentIndex.isSameAssignments(confIndex)) {
+			if (parentIndex == null || parentIndex.numPos != confIndex.numPos) {
+				parentIndex = new ConfIndex(confIndex.numPos);
+				childIndex = new ConfIndex(confIndex.numPos);
+			}
+			parentIndex.set(confIndex);
+			parentRCs = rcs;
+			parentLambdas.init(rcs, parentIndex);
+			parentLambdas.initTraditionalAStar(emat);
+			run(parentLambdas);
+		}
+
+		// then start the child from the parent's messages
+		// NOTE: the MPLP updates keep the messages sound, so early stopping is still sound here too
+		childIndex.set(confIndex);
+		childIndex.assignInPlace(nextPos, nextRc);
+		lambdas.initFromParent(parentLambdas, childIndex, nextPos, nextRc, emat);
+
+		return run(lambdas);
+	}
+
+	private double run(MessageVars lambdas) {
 		double energy = lambdas.getTotalEnergy();
 		for (int i=0; i<maxNumIterations; i++) {
 			updater.update(lambdas, emat);
@@ -62,13 +62,13 @@ public class NaiveTraditionalPairwiseHScorer implements AStarScorer {
 			double pos1Score = Double.POSITIVE_INFINITY;
 			for (int rc1 : rcs.get(pos1)) {
 				
-				double rcContrib = emat.getOneBody(pos1, rc1);
+				double rcContrib = emat.getOneBodyDouble(pos1, rc1);
 
 				// interactions with defined residues
 				for (int j=0; j<index.numDefined; j++) {
 					int pos2 = index.definedPos[j];
 					int rc2 = index.definedRCs[j];
-					rcContrib += emat.getPairwise(pos1, rc1, pos2, rc2);
+					rcContrib += emat.getPairwiseDouble(pos1, rc1, pos2, rc2);
 				}
 
 				// interactions with undefined residues
@@ -81,7 +81,7 @@ public class NaiveTraditionalPairwiseHScorer implements AStarScorer {
 					// min over possible assignments to pos2
 					double minEnergy = Double.POSITIVE_INFINITY;
 					for (int rc2 : rcs.get(pos2)) {
-						double pairwiseEnergy = emat.getPairwise(pos1, rc1, pos2, rc2);
+						double pairwiseEnergy = emat.getPairwiseDouble(pos1, rc1, pos2, rc2);
 						minEnergy = Math.min(minEnergy, pairwiseEnergy);
 					}
 
@@ -35,6 +35,7 @@ package edu.duke.cs.osprey.astar.conf.scoring;
 import edu.duke.cs.osprey.astar.conf.ConfAStarNode;
 import edu.duke.cs.osprey.astar.conf.ConfIndex;
 import edu.duke.cs.osprey.astar.conf.RCs;
+import edu.duke.cs.osprey.confspace.TupleMatrixDouble;
 import edu.duke.cs.osprey.ematrix.EnergyMatrix;
 import edu.duke.cs.osprey.tools.MathTools;
 
@@ -47,6 +48,7 @@ public class TraditionalPairwiseHScorer implements AStarScorer {
 	private double[][][] undefinedEnergies; // indexed by (pos1,pos2), rc at pos1
 	private ConfAStarNode cachedNode;
 	private double[][] cachedEnergies;
+	private final TupleMatrixDouble.PairwiseSlice slice = new TupleMatrixDouble.PairwiseSlice();
 	
 	public TraditionalPairwiseHScorer(EnergyMatrix emat, RCs rcs) {
 		this(emat, rcs, MathTools.Optimizer.Minimize);
@@ -76,7 +78,7 @@ public class TraditionalPairwiseHScorer implements AStarScorer {
 					// optimize over rc2
 					double optEnergy = optimizer.initDouble();
 					for (int rc2 : rcs.get(pos2)) {
-						optEnergy = optimizer.opt(optEnergy, emat.getPairwise(pos1, rc1, pos2, rc2));
+						optEnergy = optimizer.opt(optEnergy, emat.getPairwiseDouble(pos1, rc1, pos2, rc2));
 					}
 					
 					undefinedEnergies[pos1][i][pos2] = optEnergy;
@@ -148,6 +150,9 @@ public class TraditionalPairwiseHScorer implements AStarScorer {
     		double[] cachedEnergiesAtPos = cachedEnergies[pos];
     		double[][] undefinedEnergiesAtPos = undefinedEnergies[pos];
     		
+    		// get all the pair energies with the next assignment at once, without boxing
+    		TupleMatrixDouble.PairwiseSlice nextEnergies = emat.getPairwiseSlice(nextPos, nextRc, pos, slice);
+    		
 			// for each rc at this pos...
 			int[] rcsAtPos = rcs.get(pos);
 			int n = rcsAtPos.length;
@@ -162,7 +167,7 @@ public class TraditionalPairwiseHScorer implements AStarScorer {
 				}
 				
 				// add defined contribution
-				rcEnergy += emat.getPairwise(pos, rc, nextPos, nextRc);
+				rcEnergy += nextEnergies.get(rc);
 				
 				optRCEnergy = optimizer.opt(optRCEnergy, rcEnergy);
 			}
@@ -186,14 +191,14 @@ public class TraditionalPairwiseHScorer implements AStarScorer {
 				int rc1 = rcs1[j];
 				
 				// start with the one-body energy
-				double energy = emat.getOneBody(pos1, rc1);
+				double energy = emat.getOneBodyDouble(pos1, rc1);
 				
 				// add defined energies
 				for (int k=0; k<confIndex.numDefined; k++) {
 					int pos2 = confIndex.definedPos[k];
 					int rc2 = confIndex.definedRCs[k];
 					
-					energy += emat.getPairwise(pos1, rc1, pos2, rc2);
+					energy += emat.getPairwiseDouble(pos1, rc1, pos2, rc2);
 				}
 				
 				// add undefined energies
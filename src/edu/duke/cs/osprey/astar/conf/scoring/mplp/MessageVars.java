@@ -42,46 +42,84 @@ public class MessageVars {
 	
 	private RCs rcs;
 	private ConfIndex confIndex;
+	private int numUndefined;
 	
-	private double[][] sums;
+	// where each undefined pos starts in the rotamer dimension
+	private int[] rcOffsets = new int[1];
+	private int numRCs;
+	
+	// indexed by posi, rci
+	private double[] sums = new double[0];
 	
 	// decision variables, msg_ij(xj)
 	// for every (node,node,rotamer) tuple, where nodes are ordered
-	private double[][] vars;
+	// indexed by posi1, posi2, rci2
+	private double[] vars = new double[0];
+	
+	private MessageVars scratch = null;
+	
+	/**
+	 * Makes empty message vars, to be filled later by {@link #init}.
+	 * The buffers grow as needed and are reused, so one instance can be used for many A* nodes.
+	 */
+	public MessageVars() {
+		// nothing to do
+	}
 	
 	public MessageVars(RCs rcs, ConfIndex confIndex) {
 		this(rcs, confIndex, true);
 	}
 	
 	public MessageVars(RCs rcs, ConfIndex confIndex, boolean usePrecomputedSums) {
+		init(rcs, confIndex, usePrecomputedSums);
+	}
+	
+	public void init(RCs rcs, ConfIndex confIndex) {
+		init(rcs, confIndex, true);
+	}
+	
+	public void init(RCs rcs, ConfIndex confIndex, boolean usePrecomputedSums) {
 		
 		this.rcs = rcs;
 		this.confIndex = confIndex;
 		
-		int n = confIndex.numUndefined;
+		numUndefined = confIndex.numUndefined;
+		int n = numUndefined;
 		
-		// allocate space for the sums
-		sums = new double[n][];
+		// lay out the rotamers
+		if (rcOffsets.length < n + 1) {
+			rcOffsets = new int[n + 1];
+		}
+		numRCs = 0;
 		for (int posi1=0; posi1<n; posi1++) {
-			int pos1 = confIndex.undefinedPos[posi1];
-			sums[posi1] = new double[rcs.getNum(pos1)];
-			if (usePrecomputedSums) {
-				Arrays.fill(sums[posi1], 0);
-			} else {
-				Arrays.fill(sums[posi1], Double.POSITIVE_INFINITY);
-			}
+			rcOffsets[posi1] = numRCs;
+			numRCs += rcs.getNum(confIndex.undefinedPos[posi1]);
 		}
+		rcOffsets[n] = numRCs;
 		
-		// allocate space for the messages
-		vars = new double[n*n][];
-		for (int posi1=0; posi1<n; posi1++) {
-			for (int posi2=0; posi2<n; posi2++) {
-				int pos2 = confIndex.undefinedPos[posi2];
-				int index = getNodePairIndex(posi1, posi2);
-				vars[index] = new double[rcs.getNum(pos2)];
-				Arrays.fill(vars[index], 0);
-			}
+		// allocate space for the sums, if needed
+		if (sums.length < numRCs) {
+			sums = new double[numRCs];
+		}
+		Arrays.fill(sums, 0, numRCs, usePrecomputedSums ? 0 : Double.POSITIVE_INFINITY);
+		
+		// allocate space for the messages, if needed
+		if (vars.length < n*numRCs) {
+			vars = new double[n*numRCs];
 		}
+		Arrays.fill(vars, 0, n*numRCs, 0);
+	}
+	
+	/**
+	 * Gets a spare set of message vars with the same shape as these ones, with all messages set to zero.
+	 * Useful for updaters that need temporary storage. The spare vars are reused by later calls.
+	 */
+	public MessageVars scratch() {
+		if (scratch == null) {
+			scratch = new MessageVars();
+		}
+		scratch.init(rcs, confIndex);
+		return scratch;
 	}
 	
 	public void initTraditionalAStar(EnergyMatrix emat) {
@@ -93,11 +131,11 @@ public class MessageVars {
 				int rc1 = rcs.get(pos1, rci1);
 				
 				// init i,i messages with single and defined-undefined energies
-				double sum = emat.getOneBody(pos1, rc1);
+				double sum = emat.getOneBodyDouble(pos1, rc1);
 				for (int posi2=0; posi2<confIndex.numDefined; posi2++) {
 					int pos2 = confIndex.definedPos[posi2];
 					int rc2 = confIndex.definedRCs[posi2];
-					sum += emat.getPairwise(pos1, rc1, pos2, rc2);
+					sum += emat.getPairwiseDouble(pos1, rc1, pos2, rc2);
 				}
 				set(posi1, posi1, rci1, sum);
 				
@@ -110,7 +148,7 @@ public class MessageVars {
 						// min over the other RC
 						double minEnergy = Double.POSITIVE_INFINITY;
 						for (int rc2 : rcs.get(pos2)) {
-							minEnergy = Math.min(minEnergy, emat.getPairwise(pos1, rc1, pos2, rc2));
+							minEnergy = Math.min(minEnergy, emat.getPairwiseDouble(pos1, rc1, pos2, rc2));
 						}
 						set(posi2, posi1, rci1, minEnergy);
 					
@@ -126,8 +164,65 @@ public class MessageVars {
 					for (int posi2=0; posi2<confIndex.numUndefined; posi2++) {
 						sum += get(posi2, posi1, rci1);
 					}
-					sums[posi1][rci1] = sum;
+					sums[rcOffsets[posi1] + rci1] = sum;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Inits the messages for a child node from the (hopefully converged) messages of its parent,
+	 * where the child assigns nextRc to nextPos, and confIndex describes the child.
+	 * 
+	 * The parent's messages between the child's undefined positions carry over unchanged,
+	 * and the i,i messages pick up the energies with the newly-assigned position.
+	 * Any messages that give a sound lower bound for the parent give a sound lower bound for the child too,
+	 * since MPLP updates never change the i,i messages.
+	 */
+	public void initFromParent(MessageVars parent, ConfIndex confIndex, int nextPos, int nextRc, EnergyMatrix emat) {
+		
+		init(parent.rcs, confIndex);
+		
+		// the child's undefined positions are the parent's, minus nextPos
+		int skip = parent.confIndex.findUndefined(nextPos);
+		if (skip < 0 || numUndefined != parent.numUndefined - 1) {
+			throw new IllegalArgumentException("conf index isn't a child of the parent");
+		}
+		
+		for (int posi1=0; posi1<numUndefined; posi1++) {
+			int pos1 = confIndex.undefinedPos[posi1];
+			int parentPosi1 = posi1 < skip ? posi1 : posi1 + 1;
+			
+			for (int posi2=0; posi2<numUndefined; posi2++) {
+				int parentPosi2 = posi2 < skip ? posi2 : posi2 + 1;
+				System.arraycopy(
+					parent.vars, parent.getIndex(parentPosi1, parentPosi2, 0),
+					vars, getIndex(posi1, posi2, 0),
+					rcs.getNum(confIndex.undefinedPos[posi2])
+				);
+			}
+			
+			// add the energies with the newly-assigned position
+			for (int rci1=0; rci1<rcs.getNum(pos1); rci1++) {
+				int rc1 = rcs.get(pos1, rci1);
+				vars[getIndex(posi1, posi1, rci1)] += emat.getPairwiseDouble(pos1, rc1, nextPos, nextRc);
+			}
+		}
+		
+		// update the sums
+		for (int posi1=0; posi1<numUndefined; posi1++) {
+			int pos1 = confIndex.undefinedPos[posi1];
+			for (int rci1=0; rci1<rcs.getNum(pos1); rci1++) {
+				double sum = 0;
+				for (int posi2=0; posi2<numUndefined; posi2++) {
+					double val = get(posi2, posi1, rci1);
+					if (!Double.isFinite(val)) {
+						sum = Double.POSITIVE_INFINITY;
+						break;
+					}
+					sum += val;
 				}
+				sums[rcOffsets[posi1] + rci1] = sum;
 			}
 		}
 	}
@@ -141,7 +236,7 @@ public class MessageVars {
 	}
 	
 	private boolean canUsePrecomputedSums(int posi, int rci) {
-		return Double.isFinite(sums[posi][rci]);
+		return Double.isFinite(sums[rcOffsets[posi] + rci]);
 	}
 	
 	private boolean canUsePrecomputedSums(int posi, int rci, double val) {
@@ -149,7 +244,7 @@ public class MessageVars {
 	}
 	
 	public double get(int posi1, int posi2, int rci2) {
-		return vars[getNodePairIndex(posi1, posi2)][rci2];
+		return vars[getIndex(posi1, posi2, rci2)];
 	}
 	
 	public void set(int posi1, int posi2, int rci2, double val) {
@@ -161,14 +256,15 @@ public class MessageVars {
 			throw new IllegalArgumentException("val shouldn't be -inf");
 		}
 		
-		int index = getNodePairIndex(posi1, posi2);
+		int index = getIndex(posi1, posi2, rci2);
+		int sumIndex = rcOffsets[posi2] + rci2;
 		if (canUsePrecomputedSums(posi2, rci2, val)) {
-			sums[posi2][rci2] -= vars[index][rci2];
-			sums[posi2][rci2] += val;
+			sums[sumIndex] -= vars[index];
+			sums[sumIndex] += val;
 		} else {
-			sums[posi2][rci2] = Double.POSITIVE_INFINITY;
+			sums[sumIndex] = Double.POSITIVE_INFINITY;
 		}
-		vars[index][rci2] = val;
+		vars[index] = val;
 	}
 	
 	public double getEnergy(int posi1, int rci1) {
@@ -178,13 +274,13 @@ public class MessageVars {
 		
 		if (canUsePrecomputedSums(posi1, rci1)) {
 			
-			return sums[posi1][rci1];
+			return sums[rcOffsets[posi1] + rci1];
 			
 		} else {
 			
 			double sum = 0;
-			for (int posi2=0; posi2<confIndex.numUndefined; posi2++) {
-				sum += vars[getNodePairIndex(posi2, posi1)][rci1];
+			for (int posi2=0; posi2<numUndefined; posi2++) {
+				sum += vars[getIndex(posi2, posi1, rci1)];
 			}
 			return sum;
 		}
@@ -198,9 +294,9 @@ public class MessageVars {
 		} else {
 			
 			double sum = 0;
-			for (int posi2=0; posi2<confIndex.numUndefined; posi2++) {
+			for (int posi2=0; posi2<numUndefined; posi2++) {
 				if (posi2 != posi2Out) {
-					sum += vars[getNodePairIndex(posi2, posi1)][rci1];
+					sum += vars[getIndex(posi2, posi1, rci1)];
 				}
 			}
 			return sum;
@@ -223,7 +319,7 @@ public class MessageVars {
 		return energy;
 	}
 
-	private int getNodePairIndex(int posi1, int posi2) {
-		return posi1*confIndex.numUndefined + posi2;
+	private int getIndex(int posi1, int posi2, int rci2) {
+		return posi1*numRCs + rcOffsets[posi2] + rci2;
 	}
 }
@@ -173,6 +173,19 @@ public abstract class AbstractTupleMatrix<T> implements TupleMatrix<T>, Serializ
 	public int[] getNumConfAtPos() {//get em all
 		return numConfAtPos;
 	}
+
+	/** the number of one-body terms in the matrix, ie the total number of confs */
+	public int getNumOneBody() {
+		if (numPos <= 0) {
+			return 0;
+		}
+		return oneBodyOffsets[numPos - 1] + numConfAtPos[numPos - 1];
+	}
+
+	/** the number of pairwise terms in the matrix */
+	public int getNumPairwise() {
+		return numPairwiseTerms;
+	}
     
     protected int getOneBodyIndex(int res, int conf) {
     	return oneBodyOffsets[res] + conf;
@@ -213,6 +226,18 @@ public abstract class AbstractTupleMatrix<T> implements TupleMatrix<T>, Serializ
     	return pairwiseOffsets[getPairwiseIndexNoCheck(res1, res2)] + numConfAtPos[res2]*conf1 + conf2;
     }
     
+    /**
+     * The distance between the pairwise indices of consecutive conf2 values,
+     * ie, getPairwiseIndex(res1, conf1, res2, conf2 + 1) - getPairwiseIndex(res1, conf1, res2, conf2)
+     */
+    protected int getPairwiseStride(int res1, int res2) {
+    	if (res1 > res2) {
+    		return 1;
+    	} else {
+    		return numConfAtPos[res1];
+    	}
+    }
+    
     @Override
     public void fill(T val) {
 		for (int res1=0; res1<getNumPos(); res1++) {
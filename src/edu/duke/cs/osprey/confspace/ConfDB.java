@@ -48,6 +48,9 @@ import java.util.stream.IntStream;
 
 public class ConfDB implements AutoCleanable {
 
+	private static final Metrics.Histogram readNs = Metrics.histogram("confdb_read_ns", "time to read a conf from a ConfDB table (ns)");
+	private static final Metrics.Histogram writeNs = Metrics.histogram("confdb_write_ns", "time to write a conf to a ConfDB table (ns)");
+
 	public static ConfDB makeIfNeeded(ConfSpaceIteration confSpace, File file) {
 
 		// no file? confdb not needed
@@ -96,6 +99,26 @@ public class ConfDB implements AutoCleanable {
 		}
 	}
 
+	public static enum Engine {
+
+		/** all the tables in one MapDB file, indexed by B-trees */
+		MapDB,
+
+		/**
+		 * A directory with a memory-mapped hash table for each conf table.
+		 * Faster than MapDB for lots of confs, and lots of threads.
+		 */
+		Mmap;
+
+		/** use Mmap for existing directories, otherwise MapDB */
+		public static Engine detect(File file) {
+			if (file != null && file.isDirectory()) {
+				return Mmap;
+			}
+			return MapDB;
+		}
+	}
+
 	public static enum SortOrder {
 		Assignment,
 		Score,
@@ -125,7 +148,7 @@ public class ConfDB implements AutoCleanable {
 			this.upper = upper;
 		}
 
-		private Conf(int[] assignments, ConfInfo info) {
+		Conf(int[] assignments, ConfInfo info) {
 			this.assignments = assignments;
 			this.lower = info.makeLowerBound();
 			this.upper = info.makeUpperBound();
@@ -147,7 +170,7 @@ public class ConfDB implements AutoCleanable {
 		}
 	}
 
-	private static class ConfInfo {
+	static class ConfInfo {
 
 		public double lowerEnergy;
 		public long lowerTimestampNs;
@@ -168,6 +191,18 @@ public class ConfDB implements AutoCleanable {
 			this.upperTimestampNs = upperTimestampNs;
 		}
 
+		public ConfInfo copy() {
+			return new ConfInfo(lowerEnergy, lowerTimestampNs, upperEnergy, upperTimestampNs);
+		}
+
+		public boolean lowerChanged(ConfInfo other) {
+			return lowerTimestampNs != other.lowerTimestampNs || Double.compare(lowerEnergy, other.lowerEnergy) != 0;
+		}
+
+		public boolean upperChanged(ConfInfo other) {
+			return upperTimestampNs != other.upperTimestampNs || Double.compare(upperEnergy, other.upperEnergy) != 0;
+		}
+
 		public Conf.Bound makeLowerBound() {
 			return makeBound(lowerEnergy, lowerTimestampNs);
 		}
@@ -288,17 +323,48 @@ public class ConfDB implements AutoCleanable {
 		}
 	}
 
-	public class ConfTable implements Iterable<Conf>, AutoCloseable {
+	/**
+	 * Where a ConfTable keeps its confs.
+	 *
+	 * Stores keep indices on the lower and upper bounds, but only for bounds that have been set,
+	 * ie have a non-zero timestamp.
+	 */
+	interface Store {
 
-		public final String id;
+		/** returns null if the conf isn't in the store */
+		ConfInfo get(int[] assignments);
+
+		/**
+		 * @param oldInfo the info currently in the store for these assignments, or null
+		 */
+		void put(int[] assignments, ConfInfo oldInfo, ConfInfo info);
+
+		void remove(int[] assignments, ConfInfo oldInfo);
+
+		/** in lexicographic order of the assignments */
+		Iterator<Conf> iterator();
+
+		/** in order of increasing energy, then in the order the bounds were set */
+		Iterator<Map.Entry<Double,int[]>> boundEntries(boolean lower);
+
+		/** distinct energies, in increasing order */
+		Iterator<Double> boundEnergies(boolean lower);
+
+		/** returns null if no conf has this bound */
+		List<int[]> getByBound(boolean lower, double energy);
+
+		long size();
+		void flush();
+		void close();
+	}
+
+	private class MapDBStore implements Store {
 
 		private final BTreeMap<int[],ConfInfo> btree;
 		private final EnergyIndex lowerIndex;
 		private final EnergyIndex upperIndex;
 
-		public ConfTable(String id) {
-
-			this.id = id;
+		public MapDBStore(String id) {
 
 			// MapDB serializer for ConfInfo
 			final int ConfInfoBytes = Double.BYTES*2 + Long.BYTES*2;
@@ -334,72 +400,159 @@ public class ConfDB implements AutoCleanable {
 			this.upperIndex = new EnergyIndex(id + "-upperEnergy");
 		}
 
+		@Override
+		public ConfInfo get(int[] assignments) {
+			return btree.get(assignments);
+		}
+
+		@Override
+		public void put(int[] assignments, ConfInfo oldInfo, ConfInfo info) {
+
+			// update the energy indices if needed
+			if (oldInfo == null || info.lowerChanged(oldInfo)) {
+				if (oldInfo != null && oldInfo.lowerTimestampNs != 0L) {
+					lowerIndex.remove(oldInfo.lowerEnergy, assignments);
+				}
+				if (info.lowerTimestampNs != 0L) {
+					lowerIndex.add(info.lowerEnergy, assignments);
+				}
+			}
+			if (oldInfo == null || info.upperChanged(oldInfo)) {
+				if (oldInfo != null && oldInfo.upperTimestampNs != 0L) {
+					upperIndex.remove(oldInfo.upperEnergy, assignments);
+				}
+				if (info.upperTimestampNs != 0L) {
+					upperIndex.add(info.upperEnergy, assignments);
+				}
+			}
+
+			btree.put(assignments, info);
+		}
+
+		@Override
+		public void remove(int[] assignments, ConfInfo oldInfo) {
+			if (oldInfo.lowerTimestampNs != 0L) {
+				lowerIndex.remove(oldInfo.lowerEnergy, assignments);
+			}
+			if (oldInfo.upperTimestampNs != 0L) {
+				upperIndex.remove(oldInfo.upperEnergy, assignments);
+			}
+			btree.remove(assignments);
+		}
+
+		@Override
+		public Iterator<Conf> iterator() {
+			return Streams.of(btree.entryIterator())
+				.map((entry) -> new Conf(
+						entry.getKey(),
+						entry.getValue()
+					)
+				)
+				.iterator();
+		}
+
+		@Override
+		public Iterator<Map.Entry<Double,int[]>> boundEntries(boolean lower) {
+			return (lower ? lowerIndex : upperIndex).iterator();
+		}
+
+		@Override
+		public Iterator<Double> boundEnergies(boolean lower) {
+			return (lower ? lowerIndex : upperIndex).btree.keyIterator();
+		}
+
+		@Override
+		public List<int[]> getByBound(boolean lower, double energy) {
+			return (lower ? lowerIndex : upperIndex).get(energy);
+		}
+
+		@Override
+		public long size() {
+			return btree.sizeLong();
+		}
+
+		@Override
+		public void flush() {
+			// nothing to do, the DB commit handles everything
+		}
+
 		@Override
 		public void close() {
 			btree.close();
 		}
+	}
+
+	public class ConfTable implements Iterable<Conf>, AutoCloseable {
+
+		public final String id;
+
+		private final Store store;
+
+		public ConfTable(String id) {
+			this.id = id;
+			this.store = openStore(id);
+		}
+
+		private ConfInfo read(int[] assignments) {
+			long startNs = Metrics.startNs();
+			ConfInfo info = store.get(assignments);
+			readNs.recordSince(startNs);
+			return info;
+		}
+
+		private void write(int[] assignments, ConfInfo oldInfo, ConfInfo info) {
+			long startNs = Metrics.startNs();
+			store.put(assignments, oldInfo, info);
+			writeNs.recordSince(startNs);
+		}
+
+		private void delete(int[] assignments, ConfInfo oldInfo) {
+			long startNs = Metrics.startNs();
+			store.remove(assignments, oldInfo);
+			writeNs.recordSince(startNs);
+		}
+
+		@Override
+		public void close() {
+			// mmap stores are shared by all the tables with the same id, so the ConfDB closes those
+			if (engine == Engine.MapDB) {
+				store.close();
+			}
+		}
 
 		public void setBounds(ConfSearch.EnergiedConf econf, long timestampNs) {
 			setBounds(econf.getAssignments(), econf.getScore(), econf.getEnergy(), timestampNs);
 		}
 
 		public void setBounds(int[] assignments, double lowerEnergy, double upperEnergy, long timestampNs) {
-			ConfInfo info = btree.get(assignments);
-			if (info == null) {
-				info = new ConfInfo();
-			} else {
-				// remove old energy index entries if needed
-				if (info.lowerTimestampNs != 0L) {
-					lowerIndex.remove(info.lowerEnergy, assignments);
-				}
-				if (info.upperTimestampNs != 0L) {
-					upperIndex.remove(info.upperEnergy, assignments);
-				}
-			}
+			ConfInfo oldInfo = read(assignments);
+			ConfInfo info = oldInfo == null ? new ConfInfo() : oldInfo.copy();
 			info.lowerEnergy = lowerEnergy;
 			info.lowerTimestampNs = timestampNs;
 			info.upperEnergy = upperEnergy;
 			info.upperTimestampNs = timestampNs;
-			btree.put(assignments, info);
-			lowerIndex.add(lowerEnergy, assignments);
-			upperIndex.add(upperEnergy, assignments);
+			write(assignments, oldInfo, info);
 		}
 
 		public void setLowerBound(int[] assignments, double energy, long timestampNs) {
-			ConfInfo info = btree.get(assignments);
-			if (info == null) {
-				info = new ConfInfo();
-			} else {
-				// remove old energy index entries if needed
-				if (info.lowerTimestampNs != 0L) {
-					lowerIndex.remove(info.lowerEnergy, assignments);
-				}
-			}
+			ConfInfo oldInfo = read(assignments);
+			ConfInfo info = oldInfo == null ? new ConfInfo() : oldInfo.copy();
 			info.lowerEnergy = energy;
 			info.lowerTimestampNs = timestampNs;
-			btree.put(assignments, info);
-			lowerIndex.add(energy, assignments);
+			write(assignments, oldInfo, info);
 		}
 
 		public void setUpperBound(int[] assignments, double energy, long timestampNs) {
-			ConfInfo info = btree.get(assignments);
-			if (info == null) {
-				info = new ConfInfo();
-			} else {
-				// remove old energy index entries if needed
-				if (info.upperTimestampNs != 0L) {
-					upperIndex.remove(info.upperEnergy, assignments);
-				}
-			}
+			ConfInfo oldInfo = read(assignments);
+			ConfInfo info = oldInfo == null ? new ConfInfo() : oldInfo.copy();
 			info.upperEnergy = energy;
 			info.upperTimestampNs = timestampNs;
-			btree.put(assignments, info);
-			upperIndex.add(energy, assignments);
+			write(assignments, oldInfo, info);
 		}
 
 		public Conf get(int[] assignments) {
 
-			ConfInfo info = btree.get(assignments);
+			ConfInfo info = read(assignments);
 			if (info == null) {
 				return null;
 			}
@@ -409,7 +562,7 @@ public class ConfDB implements AutoCleanable {
 
 		public ConfSearch.ScoredConf getScored(int[] assignments) {
 
-			ConfInfo info = btree.get(assignments);
+			ConfInfo info = read(assignments);
 			if (info == null) {
 				return null;
 			}
@@ -422,7 +575,7 @@ public class ConfDB implements AutoCleanable {
 
 		public ConfSearch.EnergiedConf getEnergied(ConfSearch.ScoredConf conf) {
 
-			ConfInfo info = btree.get(conf.getAssignments());
+			ConfInfo info = read(conf.getAssignments());
 			if (info == null || info.upperTimestampNs == 0L) {
 				return null;
 			}
@@ -432,7 +585,7 @@ public class ConfDB implements AutoCleanable {
 
 		public ConfSearch.EnergiedConf getEnergied(int[] assignments) {
 
-			ConfInfo info = btree.get(assignments);
+			ConfInfo info = read(assignments);
 			if (info == null) {
 				return null;
 			}
@@ -445,27 +598,15 @@ public class ConfDB implements AutoCleanable {
 		}
 
 		public void remove(int[] assignments) {
-			ConfInfo info = btree.get(assignments);
+			ConfInfo info = read(assignments);
 			if (info != null) {
-				if (info.lowerTimestampNs != 0L) {
-					lowerIndex.remove(info.lowerEnergy, assignments);
-				}
-				if (info.upperTimestampNs != 0L) {
-					upperIndex.remove(info.upperEnergy, assignments);
-				}
-				btree.remove(assignments);
+				delete(assignments, info);
 			}
 		}
 
 		@Override
 		public Iterator<Conf> iterator() {
-			return Streams.of(btree.entryIterator())
-				.map((entry) -> new Conf(
-						entry.getKey(),
-						entry.getValue()
-					)
-				)
-				.iterator();
+			return store.iterator();
 		}
 
 		public Iterable<ConfSearch.ScoredConf> scoredConfs(SortOrder sort) {
@@ -477,12 +618,12 @@ public class ConfDB implements AutoCleanable {
 						.iterator();
 
 				case Score:
-					return () -> Streams.of(lowerIndex.iterator())
+					return () -> Streams.of(store.boundEntries(true))
 						.map((entry) -> new ConfSearch.ScoredConf(entry.getValue(), entry.getKey()))
 						.iterator();
 
 				case Energy:
-					return () -> Streams.of(upperIndex.iterator())
+					return () -> Streams.of(store.boundEntries(false))
 						.map((entry) -> getScored(entry.getValue()))
 						.filter((conf) -> conf != null)
 						.iterator();
@@ -501,13 +642,13 @@ public class ConfDB implements AutoCleanable {
 						.iterator();
 
 				case Score:
-					return () -> Streams.of(lowerIndex.iterator())
+					return () -> Streams.of(store.boundEntries(true))
 						.map((entry) -> getEnergied(entry.getValue()))
 						.filter((conf) -> conf != null)
 						.iterator();
 
 				case Energy:
-					return () -> Streams.of(upperIndex.iterator())
+					return () -> Streams.of(store.boundEntries(false))
 						.map((entry) -> getEnergied(entry.getValue()))
 						.filter((conf) -> conf != null)
 						.iterator();
@@ -518,15 +659,15 @@ public class ConfDB implements AutoCleanable {
 		}
 
 		public Iterable<Double> lowerBounds() {
-			return () -> lowerIndex.btree.keyIterator();
+			return () -> store.boundEnergies(true);
 		}
 
 		public Iterable<Double> upperBounds() {
-			return () -> upperIndex.btree.keyIterator();
+			return () -> store.boundEnergies(false);
 		}
 
 		public List<Conf> getConfsByLowerBound(double energy) {
-			List<int[]> multiAssignments = lowerIndex.get(energy);
+			List<int[]> multiAssignments = store.getByBound(true, energy);
 			if (multiAssignments == null) {
 				return null;
 			}
@@ -536,7 +677,7 @@ public class ConfDB implements AutoCleanable {
 		}
 
 		public List<Conf> getConfsByUpperBound(double energy) {
-			List<int[]> multiAssignments = upperIndex.get(energy);
+			List<int[]> multiAssignments = store.getByBound(false, energy);
 			if (multiAssignments == null) {
 				return null;
 			}
@@ -546,11 +687,12 @@ public class ConfDB implements AutoCleanable {
 		}
 
 		public long size() {
-			return btree.sizeLong();
+			return store.size();
 		}
 
 		public void flush() {
-			ConfDB.this.flush();
+			store.flush();
+			db.commit();
 		}
 	}
 
@@ -694,6 +836,7 @@ public class ConfDB implements AutoCleanable {
 
 	public final ConfSpaceIteration confSpace;
 	public final File file;
+	public final Engine engine;
 
 	private final DB db;
 	private final Map<String,ConfTable> tables;
@@ -701,14 +844,26 @@ public class ConfDB implements AutoCleanable {
 	private final Map<Sequence,SequenceDB> sequenceDBs;
 	private final IntEncoding assignmentEncoding;
 
+	// for the mmap engine only
+	private final HTreeMap<String,Integer> tableFiles;
+	private final Map<String,MmapConfStore> mmapStores;
+
 	public ConfDB(ConfSpaceIteration confSpace) {
 		this(confSpace, null);
 	}
 
 	public ConfDB(ConfSpaceIteration confSpace, File file) {
+		this(confSpace, file, Engine.detect(file));
+	}
+
+	/**
+	 * @param file the DB file for the MapDB engine, or the DB directory for the Mmap engine
+	 */
+	public ConfDB(ConfSpaceIteration confSpace, File file, Engine engine) {
 
 		this.confSpace = confSpace;
 		this.file = file;
+		this.engine = engine;
 
 		// determine conf encoding
 		int maxAssignment = IntStream.range(0, confSpace.numPos())
@@ -737,9 +892,21 @@ public class ConfDB implements AutoCleanable {
 			}
 		};
 
+		// the mmap engine still keeps the sequences (and the names of the table files) in a small MapDB file
+		File dbFile = file;
+		if (engine == Engine.Mmap) {
+			if (file == null) {
+				throw new IllegalArgumentException("the mmap engine needs a directory");
+			}
+			if (!file.isDirectory() && !file.mkdirs()) {
+				throw new IllegalArgumentException("can't make conf DB directory: " + file);
+			}
+			dbFile = new File(file, "meta.db");
+		}
+
 		// open the DB
-		if (file != null) {
-			db = DBMaker.fileDB(file)
+		if (dbFile != null) {
+			db = DBMaker.fileDB(dbFile)
 				.transactionEnable() // turn on wite-ahead log, so the db survives JVM crashes
 				.fileMmapEnableIfSupported() // use memory-mapped files if possible (can be much faster)
 				.closeOnJvmShutdown()
@@ -754,6 +921,49 @@ public class ConfDB implements AutoCleanable {
 			.valueSerializer(infoSerializer)
 			.createOrOpen();
 		sequenceDBs = new HashMap<>();
+
+		if (engine == Engine.Mmap) {
+			tableFiles = db.hashMap("tables")
+				.keySerializer(Serializer.STRING)
+				.valueSerializer(Serializer.INTEGER)
+				.createOrOpen();
+			mmapStores = new HashMap<>();
+		} else {
+			tableFiles = null;
+			mmapStores = null;
+		}
+	}
+
+	private Store openStore(String id) {
+		switch (engine) {
+
+			case MapDB:
+				return new MapDBStore(id);
+
+			case Mmap:
+				synchronized (mmapStores) {
+					MmapConfStore store = mmapStores.get(id);
+					if (store == null) {
+						Integer num = tableFiles.get(id);
+						if (num == null) {
+							num = tableFiles.size();
+							tableFiles.put(id, num);
+							db.commit();
+						}
+						store = new MmapConfStore(
+							new File(file, num + ".confs"),
+							new File(file, num + ".index"),
+							confSpace.numPos(),
+							assignmentEncoding
+						);
+						mmapStores.put(id, store);
+					}
+					return store;
+				}
+
+			default:
+				throw new UnpossibleError();
+		}
 	}
 
 	public ConfTable get(Key key) {
@@ -780,6 +990,29 @@ public class ConfDB implements AutoCleanable {
 		}
 	}
 
+	/** the ids of all the conf tables in the db, including the sequence tables */
+	public List<String> getTableIds() {
+		switch (engine) {
+
+			case MapDB:
+				List<String> ids = new ArrayList<>();
+				for (String name : db.getAllNames()) {
+					if (!name.equals("sequences") && !name.endsWith("-lowerEnergy") && !name.endsWith("-upperEnergy")) {
+						ids.add(name);
+					}
+				}
+				return ids;
+
+			case Mmap:
+				// HTreeMap.keySet() is raw, so get the keys through the typed Map interface
+				Map<String,Integer> files = tableFiles;
+				return new ArrayList<>(files.keySet());
+
+			default:
+				throw new UnpossibleError();
+		}
+	}
+
 	public long getNumSequences() {
 		// Java API means we're stuck with int-sized values here
 		//return sequences.getSize();
@@ -811,7 +1044,56 @@ public class ConfDB implements AutoCleanable {
 		}
 	}
 
+	/**
+	 * Copies all the confs and sequences in this db into another db,
+	 * eg to move an existing MapDB file to the Mmap engine.
+	 */
+	public void copyTo(ConfDB dst) {
+
+		for (Sequence sequence : getSequences()) {
+			dst.sequences.put(sequence, sequences.get(sequence));
+		}
+
+		for (String id : getTableIds()) {
+			ConfTable srcTable = new ConfTable(id);
+			ConfTable dstTable = dst.new ConfTable(id);
+			for (Conf conf : srcTable) {
+				ConfInfo info = new ConfInfo();
+				if (conf.lower != null) {
+					info.lowerEnergy = conf.lower.energy;
+					info.lowerTimestampNs = conf.lower.timestampNs;
+				}
+				if (conf.upper != null) {
+					info.upperEnergy = conf.upper.energy;
+					info.upperTimestampNs = conf.upper.timestampNs;
+				}
+				dstTable.store.put(conf.assignments, dstTable.store.get(conf.assignments), info);
+			}
+			// NOTE: don't close the tables here, closing a MapDB table closes the whole DB
+		}
+
+		dst.flush();
+	}
+
+	/**
+	 * Copies an existing MapDB conf DB file into a new Mmap conf DB directory.
+	 */
+	public static void migrate(ConfSpaceIteration confSpace, File mapdbFile, File mmapDir) {
+		try (ConfDB src = new ConfDB(confSpace, mapdbFile, Engine.MapDB)) {
+			try (ConfDB dst = new ConfDB(confSpace, mmapDir, Engine.Mmap)) {
+				src.copyTo(dst);
+			}
+		}
+	}
+
 	public void flush() {
+		if (mmapStores != null) {
+			synchronized (mmapStores) {
+				for (MmapConfStore store : mmapStores.values()) {
+					store.flush();
+				}
+			}
+		}
 		// In write-ahead mode, we don't actually have any transactions,
 		// so there's nothing to commit in the traditional sense.
 		// So in this case, "commit" flushes write caches to disk
@@ -828,6 +1110,14 @@ public class ConfDB implements AutoCleanable {
 			sdb.close();
 		}
 		sequenceDBs.clear();
+		if (mmapStores != null) {
+			synchronized (mmapStores) {
+				for (MmapConfStore store : mmapStores.values()) {
+					store.close();
+				}
+				mmapStores.clear();
+			}
+		}
 		db.close();
 	}
 
@@ -41,6 +41,7 @@ import java.util.List;
 import edu.duke.cs.osprey.astar.conf.RCs;
 import edu.duke.cs.osprey.externalMemory.Queue;
 import edu.duke.cs.osprey.externalMemory.ScoredConfFIFOSerializer;
+import edu.duke.cs.osprey.tools.AutoCleanable;
 import org.apache.commons.collections4.queue.CircularFifoQueue;
 
 import edu.duke.cs.osprey.gmec.ConsoleConfPrinter;
@@ -58,10 +59,14 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * 
  * Each search defines an order for all conformations in the conformation space,
  * and enumerates those conformations order of increasing score.
+ *
+ * Searches that hold lots of memory (e.g., A* queues, possibly in external memory)
+ * release it when closed, so callers that are done with a search can free it right away,
+ * rather than waiting for the garbage collector.
  * 
  * @author mhall44
  */
-public interface ConfSearch {
+public interface ConfSearch extends AutoCleanable {
     
     /**
      * Get the conformation in the conformation space with the next lowest score.
@@ -75,6 +80,14 @@ public interface ConfSearch {
     default BigInteger getNumConformations() {
     	throw new UnsupportedOperationException();
     }
+
+	/**
+	 * Release any resources held by the search. The search can't be used afterwards.
+	 */
+	@Override
+	default void clean() {
+		// nothing to release by default
+	}
     
     /**
      * Get the next conformations in the conformation space with scores up to maxEnergy.
@@ -399,8 +412,10 @@ public interface ConfSearch {
 	 * always reads before the other.
 	 *
 	 * Supports external memory for the conformation buffer
+	 *
+	 * Closing the splitter releases the buffer and closes the source conf search.
 	 */
-	public static class Splitter {
+	public static class Splitter implements AutoCleanable {
 
 		public static class OutOfOrderException extends RuntimeException {
 			public OutOfOrderException() {
@@ -478,5 +493,11 @@ public interface ConfSearch {
 				}
 			};
 		}
+
+		@Override
+		public void clean() {
+			buf.clean();
+			confs.clean();
+		}
 	}
 }
@@ -0,0 +1,891 @@
+package edu.duke.cs.osprey.confspace;
+
+import edu.duke.cs.osprey.tools.IntEncoding;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntBinaryOperator;
+
+
+/**
+ * Stores the confs of one ConfDB table in memory-mapped files, without MapDB.
+ *
+ * Confs are fixed-width records in an append-only file, and are found by an open-addressing hash index
+ * (in another file) keyed on the packed assignments. Updating a conf's bounds overwrites its record in place.
+ *
+ * The records file grows a whole chunk at a time, so appending a conf is usually just a few writes to mapped memory.
+ * Readers don't take any locks: they read optimistically and retry only if a writer got in the way.
+ * Writers are serialized by a single lock.
+ *
+ * Sorted scans don't need any extra indices either: we just read the records sequentially
+ * and sort them in memory when the scan starts.
+ *
+ * The data survive a crashed JVM, since the OS owns the mapped pages, but not necessarily a crashed OS.
+ * If the index wasn't flushed cleanly, it's rebuilt from the records on the next open.
+ *
+ * Records file layout (all values big-endian):
+ * <pre>
+ *    header (HeaderBytes):
+ *       long   magic number
+ *       int    version
+ *       int    number of positions
+ *       int    bytes per assignment
+ *       int    record bytes
+ *       long   number of records
+ *       long   number of live records
+ *       int    1 if the index is up-to-date, 0 otherwise
+ *    records:
+ *       int    state: 0 for never written, 1 for live, 2 for removed
+ *       ...    assignments+1, each in (bytes per assignment)
+ *       (padding to 8 bytes)
+ *       double lower energy
+ *       long   lower timestamp
+ *       double upper energy
+ *       long   upper timestamp
+ * </pre>
+ *
+ * Index file layout:
+ * <pre>
+ *    long   magic number
+ *    int    capacity (a power of two)
+ *    int    (unused)
+ *    int[]  slots: record index + 1, or 0 for an empty slot
+ * </pre>
+ */
+class MmapConfStore implements ConfDB.Store {
+
+	public static final long RecordsMagic = 0x5344524f43425043L; // "CPBCORDS"
+	public static final long IndexMagic = 0x5844444e49425043L; // "CPBINDDX"
+	public static final int Version = 1;
+
+	private static final int HeaderBytes = 64;
+	private static final int IndexHeaderBytes = 16;
+	private static final int MinIndexCapacity = 1024;
+	private static final int MaxIndexCapacity = 1 << 28;
+	private static final int TargetChunkBytes = 8*1024*1024;
+
+	private static final int StateEmpty = 0;
+	private static final int StateLive = 1;
+	private static final int StateRemoved = 2;
+
+	// header offsets
+	private static final int OffsetNumRecords = 28;
+	private static final int OffsetNumLive = 36;
+	private static final int OffsetClean = 44;
+
+	public final File recordsFile;
+	public final File indexFile;
+	public final int numPos;
+
+	private final int assignmentBytes;
+	private final int recordBytes;
+	private final int valuesOffset;
+	private final int chunkShift;
+	private final int chunkMask;
+	private final long chunkBytes;
+
+	private final FileChannel recordsChannel;
+	private final MappedByteBuffer header;
+	private final StampedLock lock = new StampedLock();
+
+	// readers don't lock, so they read these fields once and work with the snapshot
+	private volatile MappedByteBuffer[] chunks;
+	private volatile MappedByteBuffer index;
+	private int indexCapacity;
+	private volatile long numRecords;
+
+	private long numLive;
+	private boolean isClean;
+
+	// only flush what changed, since callers tend to flush after every write
+	private int firstDirtyChunk = Integer.MAX_VALUE;
+	private int lastDirtyChunk = -1;
+	private boolean isIndexDirty = false;
+
+	public MmapConfStore(File recordsFile, File indexFile, int numPos, IntEncoding assignmentEncoding) {
+
+		this.recordsFile = recordsFile;
+		this.indexFile = indexFile;
+		this.numPos = numPos;
+
+		assignmentBytes = assignmentEncoding.numBytes;
+		valuesOffset = align8(Integer.BYTES + numPos*assignmentBytes);
+		recordBytes = valuesOffset + Double.BYTES*2 + Long.BYTES*2;
+
+		// pick a chunk size that's a power of two in records, but around TargetChunkBytes in size
+		chunkShift = Math.max(10, 31 - Integer.numberOfLeadingZeros(Math.max(1, TargetChunkBytes/recordBytes)));
+		chunkMask = (1 << chunkShift) - 1;
+		chunkBytes = (long)recordBytes << chunkShift;
+
+		try {
+			boolean exists = recordsFile.exists() && recordsFile.length() >= HeaderBytes;
+			recordsChannel = FileChannel.open(recordsFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			header = recordsChannel.map(FileChannel.MapMode.READ_WRITE, 0, HeaderBytes);
+
+			if (exists) {
+				checkHeader();
+				numRecords = header.getLong(OffsetNumRecords);
+				numLive = header.getLong(OffsetNumLive);
+				isClean = header.getInt(OffsetClean) == 1;
+			} else {
+				header.putLong(0, RecordsMagic);
+				header.putInt(8, Version);
+				header.putInt(12, numPos);
+				header.putInt(16, assignmentBytes);
+				header.putInt(20, recordBytes);
+				numRecords = 0;
+				numLive = 0;
+				isClean = true;
+				writeHeader();
+			}
+
+			chunks = new MappedByteBuffer[0];
+			if (exists && !isClean) {
+				recover();
+			} else {
+				mapChunksFor(numRecords);
+			}
+
+			if (isClean && indexFile.exists()) {
+				openIndex();
+			} else {
+				rebuildIndex(capacityFor(numLive));
+			}
+
+		} catch (IOException ex) {
+			throw new UncheckedIOException("can't open conf table file: " + recordsFile, ex);
+		}
+	}
+
+	private static int align8(int bytes) {
+		return (bytes + 7) & ~7;
+	}
+
+	private static int capacityFor(long numEntries) {
+		// keep the load factor at or under 1/2
+		int capacity = MinIndexCapacity;
+		while (capacity < numEntries*2) {
+			if (capacity >= MaxIndexCapacity) {
+				throw new IllegalStateException("too many confs for one table: " + numEntries);
+			}
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	private void checkHeader() {
+		if (header.getLong(0) != RecordsMagic || header.getInt(8) != Version) {
+			throw new IllegalArgumentException("not a conf table file, or the wrong version: " + recordsFile);
+		}
+		if (header.getInt(12) != numPos || header.getInt(16) != assignmentBytes || header.getInt(20) != recordBytes) {
+			throw new IllegalArgumentException("conf table file " + recordsFile + " was made for a different conformation space");
+		}
+	}
+
+	private void writeHeader() {
+		header.putLong(OffsetNumRecords, numRecords);
+		header.putLong(OffsetNumLive, numLive);
+		header.putInt(OffsetClean, isClean ? 1 : 0);
+	}
+
+	private void markDirty(long record) {
+		if (isClean) {
+			isClean = false;
+			header.putInt(OffsetClean, 0);
+		}
+		int chunk = (int)(record >>> chunkShift);
+		firstDirtyChunk = Math.min(firstDirtyChunk, chunk);
+		lastDirtyChunk = Math.max(lastDirtyChunk, chunk);
+	}
+
+	/** after a crash, the header might not count all the records that made it to the file */
+	private void recover()
+	throws IOException {
+
+		long fileRecords = Math.max(0, (recordsFile.length() - HeaderBytes)/recordBytes);
+		mapChunksFor(fileRecords);
+
+		numRecords = 0;
+		numLive = 0;
+		for (long i=0; i<fileRecords; i++) {
+			int state = chunk(i).getInt(offset(i));
+			if (state == StateEmpty) {
+				break;
+			}
+			numRecords++;
+			if (state == StateLive) {
+				numLive++;
+			}
+		}
+	}
+
+	private void mapChunksFor(long numRecords)
+	throws IOException {
+		int numChunks = (int)((numRecords + chunkMask) >>> chunkShift);
+		if (numChunks <= chunks.length) {
+			return;
+		}
+		MappedByteBuffer[] newChunks = Arrays.copyOf(chunks, numChunks);
+		for (int i=chunks.length; i<numChunks; i++) {
+			// mapping past the end of the file grows the file
+			newChunks[i] = recordsChannel.map(FileChannel.MapMode.READ_WRITE, HeaderBytes + i*chunkBytes, chunkBytes);
+		}
+		chunks = newChunks;
+	}
+
+	private MappedByteBuffer chunk(long record) {
+		return chunks[(int)(record >>> chunkShift)];
+	}
+
+	private int offset(long record) {
+		return (int)(record & chunkMask)*recordBytes;
+	}
+
+	private static ByteBuffer chunk(MappedByteBuffer[] chunks, int chunkShift, long record) {
+		return chunks[(int)(record >>> chunkShift)];
+	}
+
+	private int readAssignment(ByteBuffer buf, int offset, int i) {
+		int pos = offset + Integer.BYTES + i*assignmentBytes;
+		switch (assignmentBytes) {
+			case 1: return (buf.get(pos) & 0xff) - 1;
+			case 2: return (buf.getShort(pos) & 0xffff) - 1;
+			default: return buf.getInt(pos) - 1;
+		}
+	}
+
+	private void writeAssignment(ByteBuffer buf, int offset, int i, int rc) {
+		int pos = offset + Integer.BYTES + i*assignmentBytes;
+		int val = rc + 1; // +1 to shift the unassigned value (-1) to non-negative
+		switch (assignmentBytes) {
+			case 1: buf.put(pos, (byte)val); break;
+			case 2: buf.putShort(pos, (short)val); break;
+			default: buf.putInt(pos, val);
+		}
+	}
+
+	private static int hash(int h) {
+		// murmur3 finalizer, since Arrays.hashCode() doesn't mix the low bits very well
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	private int hashRecord(ByteBuffer buf, int offset) {
+		// same as Arrays.hashCode(assignments)
+		int h = 1;
+		for (int i=0; i<numPos; i++) {
+			h = 31*h + readAssignment(buf, offset, i);
+		}
+		return hash(h);
+	}
+
+	private boolean recordMatches(ByteBuffer buf, int offset, int[] assignments) {
+		for (int i=0; i<numPos; i++) {
+			if (readAssignment(buf, offset, i) != assignments[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int[] readAssignments(ByteBuffer buf, int offset) {
+		int[] assignments = new int[numPos];
+		for (int i=0; i<numPos; i++) {
+			assignments[i] = readAssignment(buf, offset, i);
+		}
+		return assignments;
+	}
+
+	private ConfDB.ConfInfo readInfo(ByteBuffer buf, int offset) {
+		int pos = offset + valuesOffset;
+		return new ConfDB.ConfInfo(
+			buf.getDouble(pos),
+			buf.getLong(pos + 8),
+			buf.getDouble(pos + 16),
+			buf.getLong(pos + 24)
+		);
+	}
+
+	private void writeInfo(ByteBuffer buf, int offset, ConfDB.ConfInfo info) {
+		int pos = offset + valuesOffset;
+		buf.putDouble(pos, info.lowerEnergy);
+		buf.putLong(pos + 8, info.lowerTimestampNs);
+		buf.putDouble(pos + 16, info.upperEnergy);
+		buf.putLong(pos + 24, info.upperTimestampNs);
+	}
+
+	// index
+
+	private MappedByteBuffer mapIndex(File file, int capacity)
+	throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			// the mapping stays valid after the channel closes
+			return channel.map(FileChannel.MapMode.READ_WRITE, 0, IndexHeaderBytes + (long)capacity*Integer.BYTES);
+		}
+	}
+
+	private void openIndex()
+	throws IOException {
+
+		MappedByteBuffer buf;
+		try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			if (channel.size() < IndexHeaderBytes) {
+				rebuildIndex(capacityFor(numLive));
+				return;
+			}
+			buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+		}
+
+		int capacity = buf.getInt(8);
+		if (buf.getLong(0) != IndexMagic
+			|| Integer.bitCount(capacity) != 1
+			|| buf.capacity() != IndexHeaderBytes + (long)capacity*Integer.BYTES
+			|| capacity < numLive*2) {
+			rebuildIndex(capacityFor(numLive));
+			return;
+		}
+
+		index = buf;
+		indexCapacity = capacity;
+	}
+
+	private void rebuildIndex(int capacity)
+	throws IOException {
+
+		// write the new index to a temp file, then swap it in
+		File tempFile = new File(indexFile.getPath() + ".tmp");
+		Files.deleteIfExists(tempFile.toPath());
+		MappedByteBuffer buf = mapIndex(tempFile, capacity);
+		buf.putLong(0, IndexMagic);
+		buf.putInt(8, capacity);
+
+		int mask = capacity - 1;
+		for (long r=0; r<numRecords; r++) {
+			ByteBuffer chunk = chunk(r);
+			int offset = offset(r);
+			if (chunk.getInt(offset) != StateLive) {
+				continue;
+			}
+			int slot = hashRecord(chunk, offset) & mask;
+			while (buf.getInt(IndexHeaderBytes + slot*Integer.BYTES) != 0) {
+				slot = (slot + 1) & mask;
+			}
+			buf.putInt(IndexHeaderBytes + slot*Integer.BYTES, (int)(r + 1));
+		}
+
+		Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		index = buf;
+		indexCapacity = capacity;
+		isIndexDirty = true;
+	}
+
+	private static final int NotFound = Integer.MIN_VALUE;
+
+	/** returns the slot of the conf, or -(empty slot) - 1 if the conf isn't there */
+	private int findSlot(int[] assignments, MappedByteBuffer index, int capacity, MappedByteBuffer[] chunks, long numRecords) {
+
+		int h = 1;
+		for (int rc : assignments) {
+			h = 31*h + rc;
+		}
+		int mask = capacity - 1;
+		int slot = hash(h) & mask;
+
+		// readers might be looking at an index that's changing underneath them, so don't trust it to terminate
+		for (int i=0; i<capacity; i++) {
+			int val = index.getInt(IndexHeaderBytes + slot*Integer.BYTES);
+			if (val == 0) {
+				return -slot - 1;
+			}
+			long r = val - 1;
+			if (r < numRecords && (r >>> chunkShift) < chunks.length) {
+				ByteBuffer chunk = chunk(chunks, chunkShift, r);
+				if (recordMatches(chunk, offset(r), assignments)) {
+					return slot;
+				}
+			}
+			slot = (slot + 1) & mask;
+		}
+		return NotFound;
+	}
+
+	private long recordAt(int slot) {
+		return index.getInt(IndexHeaderBytes + slot*Integer.BYTES) - 1;
+	}
+
+	private ConfDB.ConfInfo readInfoUnlocked(int[] assignments) {
+
+		// snapshot the volatile state
+		// writers map new chunks before counting new records, so read in the opposite order
+		long numRecords = this.numRecords;
+		MappedByteBuffer[] chunks = this.chunks;
+		MappedByteBuffer index = this.index;
+		int capacity = index.getInt(8);
+
+		int slot = findSlot(assignments, index, capacity, chunks, numRecords);
+		if (slot < 0) {
+			return null;
+		}
+		long r = index.getInt(IndexHeaderBytes + slot*Integer.BYTES) - 1;
+		if (r < 0 || r >= numRecords || (r >>> chunkShift) >= chunks.length) {
+			return null;
+		}
+		return readInfo(chunk(chunks, chunkShift, r), offset(r));
+	}
+
+	@Override
+	public ConfDB.ConfInfo get(int[] assignments) {
+
+		if (assignments.length != numPos) {
+			throw new IllegalArgumentException("expected " + numPos + " assignments, not " + assignments.length);
+		}
+
+		// try an optimistic read first
+		long stamp = lock.tryOptimisticRead();
+		if (stamp != 0L) {
+			try {
+				ConfDB.ConfInfo info = readInfoUnlocked(assignments);
+				if (lock.validate(stamp)) {
+					return info;
+				}
+			} catch (IndexOutOfBoundsException ex) {
+				// a writer changed things out from under us, try again with the lock
+			}
+		}
+
+		// a writer got in the way, fall back to a read lock
+		stamp = lock.readLock();
+		try {
+			return readInfoUnlocked(assignments);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public void put(int[] assignments, ConfDB.ConfInfo oldInfo, ConfDB.ConfInfo info) {
+
+		if (assignments.length != numPos) {
+			throw new IllegalArgumentException("expected " + numPos + " assignments, not " + assignments.length);
+		}
+
+		long stamp = lock.writeLock();
+		try {
+
+			int slot = findSlot(assignments, index, indexCapacity, chunks, numRecords);
+			if (slot >= 0) {
+
+				// overwrite the existing record
+				long r = recordAt(slot);
+				markDirty(r);
+				writeInfo(chunk(r), offset(r), info);
+
+			} else if (slot == NotFound) {
+				throw new IllegalStateException("conf table index is full");
+
+			} else {
+
+				// append a new record
+				long r = numRecords;
+				mapChunksFor(r + 1);
+				markDirty(r);
+				isIndexDirty = true;
+				ByteBuffer chunk = chunk(r);
+				int offset = offset(r);
+				for (int i=0; i<numPos; i++) {
+					writeAssignment(chunk, offset, i, assignments[i]);
+				}
+				writeInfo(chunk, offset, info);
+				chunk.putInt(offset, StateLive); // write the state last
+				numRecords = r + 1;
+				numLive++;
+
+				if (numLive*2 > indexCapacity) {
+					rebuildIndex(capacityFor(numLive));
+				} else {
+					index.putInt(IndexHeaderBytes + (-slot - 1)*Integer.BYTES, (int)(r + 1));
+				}
+			}
+
+		} catch (IOException ex) {
+			throw new UncheckedIOException("can't write conf table file: " + recordsFile, ex);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public void remove(int[] assignments, ConfDB.ConfInfo oldInfo) {
+
+		long stamp = lock.writeLock();
+		try {
+
+			int slot = findSlot(assignments, index, indexCapacity, chunks, numRecords);
+			if (slot < 0) {
+				return;
+			}
+
+			// the record space isn't reclaimed, just marked
+			long r = recordAt(slot);
+			markDirty(r);
+			isIndexDirty = true;
+			chunk(r).putInt(offset(r), StateRemoved);
+			numLive--;
+
+			// backward-shift deletion, so we don't need tombstones in the index
+			int mask = indexCapacity - 1;
+			int hole = slot;
+			int next = (hole + 1) & mask;
+			while (true) {
+				int val = index.getInt(IndexHeaderBytes + next*Integer.BYTES);
+				if (val == 0) {
+					break;
+				}
+				long nextR = val - 1;
+				int home = hashRecord(chunk(nextR), offset(nextR)) & mask;
+
+				// can the entry at next move into the hole? only if its home isn't cyclically in (hole, next]
+				boolean canMove = hole <= next
+					? (home <= hole || home > next)
+					: (home <= hole && home > next);
+				if (canMove) {
+					index.putInt(IndexHeaderBytes + hole*Integer.BYTES, val);
+					hole = next;
+				}
+				next = (next + 1) & mask;
+			}
+			index.putInt(IndexHeaderBytes + hole*Integer.BYTES, 0);
+
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public long size() {
+		long stamp = lock.readLock();
+		try {
+			return numLive;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	// scans
+
+	/** reads the record consistently, even if writers are busy */
+	private ConfDB.Conf readConf(long r) {
+		long stamp = lock.readLock();
+		try {
+			ByteBuffer chunk = chunk(r);
+			int offset = offset(r);
+			if (chunk.getInt(offset) != StateLive) {
+				return null;
+			}
+			return new ConfDB.Conf(readAssignments(chunk, offset), readInfo(chunk, offset));
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	private int[] readAssignmentsLocked(long r) {
+		long stamp = lock.readLock();
+		try {
+			return readAssignments(chunk(r), offset(r));
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	private int compareKeys(long r1, long r2) {
+		ByteBuffer chunk1 = chunk(r1);
+		ByteBuffer chunk2 = chunk(r2);
+		int offset1 = offset(r1);
+		int offset2 = offset(r2);
+		for (int i=0; i<numPos; i++) {
+			int val = Integer.compare(readAssignment(chunk1, offset1, i), readAssignment(chunk2, offset2, i));
+			if (val != 0) {
+				return val;
+			}
+		}
+		return 0;
+	}
+
+	/** stable merge sort, so we don't have to box all the indices to use a comparator */
+	static void sort(int[] indices, IntBinaryOperator comparator) {
+		int[] temp = new int[indices.length];
+		for (int width=1; width<indices.length; width*=2) {
+			for (int start=0; start<indices.length; start+=2*width) {
+				int mid = Math.min(start + width, indices.length);
+				int stop = Math.min(start + 2*width, indices.length);
+				int i = start;
+				int j = mid;
+				int k = start;
+				while (i < mid && j < stop) {
+					if (comparator.applyAsInt(indices[j], indices[i]) < 0) {
+						temp[k++] = indices[j++];
+					} else {
+						temp[k++] = indices[i++];
+					}
+				}
+				while (i < mid) {
+					temp[k++] = indices[i++];
+				}
+				while (j < stop) {
+					temp[k++] = indices[j++];
+				}
+			}
+			System.arraycopy(temp, 0, indices, 0, indices.length);
+		}
+	}
+
+	@Override
+	public Iterator<ConfDB.Conf> iterator() {
+
+		// collect the live records and sort by assignments
+		int[] records;
+		long stamp = lock.readLock();
+		try {
+			records = new int[(int)numLive];
+			int n = 0;
+			for (long r=0; r<numRecords; r++) {
+				if (chunk(r).getInt(offset(r)) == StateLive) {
+					records[n++] = (int)r;
+				}
+			}
+			sort(records, (a, b) -> compareKeys(a, b));
+		} finally {
+			lock.unlockRead(stamp);
+		}
+
+		return new Iterator<ConfDB.Conf>() {
+
+			int i = 0;
+			ConfDB.Conf next = advance();
+
+			private ConfDB.Conf advance() {
+				while (i < records.length) {
+					ConfDB.Conf conf = readConf(records[i++]);
+					if (conf != null) {
+						return conf;
+					}
+				}
+				return null;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public ConfDB.Conf next() {
+				if (next == null) {
+					throw new NoSuchElementException();
+				}
+				ConfDB.Conf conf = next;
+				next = advance();
+				return conf;
+			}
+		};
+	}
+
+	/** the records with a bound, sorted by the energy of the bound */
+	private class SortedBounds {
+
+		final int[] records;
+		final double[] energies;
+
+		SortedBounds(boolean lower) {
+
+			int boundOffset = valuesOffset + (lower ? 0 : 16);
+
+			int[] records;
+			double[] energies;
+			long stamp = lock.readLock();
+			try {
+				records = new int[(int)numLive];
+				energies = new double[(int)numLive];
+				int n = 0;
+				for (long r=0; r<numRecords; r++) {
+					ByteBuffer chunk = chunk(r);
+					int offset = offset(r);
+					if (chunk.getInt(offset) == StateLive && chunk.getLong(offset + boundOffset + 8) != 0L) {
+						records[n] = (int)r;
+						energies[n] = chunk.getDouble(offset + boundOffset);
+						n++;
+					}
+				}
+				records = Arrays.copyOf(records, n);
+				energies = Arrays.copyOf(energies, n);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+
+			// sort by energy, ties stay in record order
+			int[] order = new int[records.length];
+			for (int i=0; i<order.length; i++) {
+				order[i] = i;
+			}
+			final double[] fenergies = energies;
+			sort(order, (a, b) -> Double.compare(fenergies[a], fenergies[b]));
+
+			this.records = new int[order.length];
+			this.energies = new double[order.length];
+			for (int i=0; i<order.length; i++) {
+				this.records[i] = records[order[i]];
+				this.energies[i] = energies[order[i]];
+			}
+		}
+	}
+
+	private static class EnergiedAssignments implements Map.Entry<Double,int[]> {
+
+		final double energy;
+		final int[] assignments;
+
+		EnergiedAssignments(double energy, int[] assignments) {
+			this.energy = energy;
+			this.assignments = assignments;
+		}
+
+		@Override
+		public Double getKey() {
+			return energy;
+		}
+
+		@Override
+		public int[] getValue() {
+			return assignments;
+		}
+
+		@Override
+		public int[] setValue(int[] value) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	@Override
+	public Iterator<Map.Entry<Double,int[]>> boundEntries(boolean lower) {
+		SortedBounds bounds = new SortedBounds(lower);
+		return new Iterator<Map.Entry<Double,int[]>>() {
+
+			int i = 0;
+
+			@Override
+			public boolean hasNext() {
+				return i < bounds.records.length;
+			}
+
+			@Override
+			public Map.Entry<Double,int[]> next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Map.Entry<Double,int[]> entry = new EnergiedAssignments(bounds.energies[i], readAssignmentsLocked(bounds.records[i]));
+				i++;
+				return entry;
+			}
+		};
+	}
+
+	@Override
+	public Iterator<Double> boundEnergies(boolean lower) {
+		SortedBounds bounds = new SortedBounds(lower);
+		return new Iterator<Double>() {
+
+			int i = 0;
+
+			@Override
+			public boolean hasNext() {
+				return i < bounds.energies.length;
+			}
+
+			@Override
+			public Double next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				double energy = bounds.energies[i];
+
+				// skip duplicates
+				while (i < bounds.energies.length && Double.compare(bounds.energies[i], energy) == 0) {
+					i++;
+				}
+				return energy;
+			}
+		};
+	}
+
+	@Override
+	public List<int[]> getByBound(boolean lower, double energy) {
+
+		int boundOffset = valuesOffset + (lower ? 0 : 16);
+
+		List<int[]> multiAssignments = new ArrayList<>();
+		long stamp = lock.readLock();
+		try {
+			for (long r=0; r<numRecords; r++) {
+				ByteBuffer chunk = chunk(r);
+				int offset = offset(r);
+				if (chunk.getInt(offset) == StateLive
+					&& chunk.getLong(offset + boundOffset + 8) != 0L
+					&& Double.compare(chunk.getDouble(offset + boundOffset), energy) == 0) {
+					multiAssignments.add(readAssignments(chunk, offset));
+				}
+			}
+		} finally {
+			lock.unlockRead(stamp);
+		}
+
+		if (multiAssignments.isEmpty()) {
+			return null;
+		}
+		return multiAssignments;
+	}
+
+	@Override
+	public void flush() {
+		long stamp = lock.writeLock();
+		try {
+			for (int i=firstDirtyChunk; i<=lastDirtyChunk; i++) {
+				chunks[i].force();
+			}
+			firstDirtyChunk = Integer.MAX_VALUE;
+			lastDirtyChunk = -1;
+			if (isIndexDirty) {
+				index.force();
+				isIndexDirty = false;
+			}
+			isClean = true;
+			writeHeader();
+			header.force();
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public void close() {
+		flush();
+		try {
+			recordsChannel.close();
+		} catch (IOException ex) {
+			throw new UncheckedIOException("can't close conf table file: " + recordsFile, ex);
+		}
+	}
+}
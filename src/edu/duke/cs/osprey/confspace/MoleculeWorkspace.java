@@ -0,0 +1,192 @@
+package edu.duke.cs.osprey.confspace;
+
+import edu.duke.cs.osprey.dof.DegreeOfFreedom;
+import edu.duke.cs.osprey.dof.FreeDihedral;
+import edu.duke.cs.osprey.restypes.InterResBondingTemplate;
+import edu.duke.cs.osprey.structure.Molecule;
+import edu.duke.cs.osprey.structure.Residue;
+
+import java.util.Arrays;
+
+
+/**
+ * A molecule that gets re-used for many conformations, instead of copying
+ * the whole template molecule for each one like {@link SimpleConfSpace#makeMolecule(RCTuple)}.
+ *
+ * Only the residues whose residue conformation changed since the last conf get rebuilt
+ * (ie, mutated from the template and re-aligned). All the other residues just get their
+ * coords restored to how they were right after the last rebuild, so any motion
+ * from minimizing the last conf doesn't leak into the next one.
+ *
+ * The resulting molecules match the ones from {@link SimpleConfSpace#makeMolecule(RCTuple)} exactly.
+ *
+ * Not thread-safe: use one workspace per thread, e.g. with an {@link edu.duke.cs.osprey.tools.ObjectPool}.
+ */
+public class MoleculeWorkspace {
+
+	public final SimpleConfSpace confSpace;
+	public final Molecule mol;
+
+	private final int numResidues;
+
+	/** the residue index in the molecule for each design position */
+	private final int[] resIndicesByPos;
+
+	/** the design position for each residue, or null if the residue isn't at a design position */
+	private final SimpleConfSpace.Position[] positionsByRes;
+
+	/** the residue conf currently applied to each residue, or null if the residue still matches the template */
+	private final SimpleConfSpace.ResidueConf[] resConfs;
+
+	/** the coords of each residue right after it was last built */
+	private final double[][] builtCoords;
+
+	/** incremented every time the residue gets rebuilt */
+	private final int[] versions;
+
+	/** scratch space for makeMolecule() */
+	private final SimpleConfSpace.ResidueConf[] nextResConfs;
+	private final boolean[] rebuilt;
+
+	/** true if the last conf had DOFs that could have moved residues outside of the conf, eg backbone flexibility */
+	private boolean othersMoved = false;
+
+	public MoleculeWorkspace(SimpleConfSpace confSpace) {
+
+		this.confSpace = confSpace;
+
+		Molecule molTemplate = confSpace.molTemplate;
+		mol = new Molecule();
+		for (Residue res : molTemplate.residues) {
+			res.copyToMol(mol, true);
+		}
+		mol.markInterResBonds();
+
+		numResidues = mol.residues.size();
+		resIndicesByPos = new int[confSpace.positions.size()];
+		positionsByRes = new SimpleConfSpace.Position[numResidues];
+		for (SimpleConfSpace.Position pos : confSpace.positions) {
+			int resIndex = molTemplate.getResByPDBResNumber(pos.resNum).indexInMolecule;
+			resIndicesByPos[pos.index] = resIndex;
+			positionsByRes[resIndex] = pos;
+		}
+		resConfs = new SimpleConfSpace.ResidueConf[numResidues];
+		builtCoords = new double[numResidues][];
+		for (int i=0; i<numResidues; i++) {
+			builtCoords[i] = molTemplate.residues.get(i).coords;
+		}
+		versions = new int[numResidues];
+		nextResConfs = new SimpleConfSpace.ResidueConf[numResidues];
+		rebuilt = new boolean[numResidues];
+	}
+
+	/**
+	 * Returns a number that changes whenever the residue at the index gets rebuilt.
+	 * As long as the version doesn't change, the residue keeps the same template, atoms, and coords array.
+	 */
+	public int getVersion(int resIndex) {
+		return versions[resIndex];
+	}
+
+	/**
+	 * Updates the molecule to match the conf, and returns its DOFs in the middle of the conf's voxel.
+	 * The returned molecule is only valid until the next call.
+	 */
+	public ParametricMolecule makeMolecule(RCTuple conf) {
+
+		// figure out what residue conf each residue needs
+		Arrays.fill(nextResConfs, null);
+		for (int i=0; i<conf.size(); i++) {
+			SimpleConfSpace.Position pos = confSpace.positions.get(conf.pos.get(i));
+			nextResConfs[resIndicesByPos[pos.index]] = pos.resConfs.get(conf.RCs.get(i));
+		}
+
+		boolean anyRebuilt = false;
+		for (int i=0; i<numResidues; i++) {
+
+			Residue res = mol.residues.get(i);
+			SimpleConfSpace.ResidueConf resConf = nextResConfs[i];
+
+			if (resConf == resConfs[i]) {
+
+				// same residue as last time, just undo any motion
+				rebuilt[i] = false;
+				if (resConf != null || othersMoved) {
+					System.arraycopy(builtCoords[i], 0, res.coords, 0, res.coords.length);
+				}
+				continue;
+			}
+
+			// rebuild the residue from the template
+			res.removeInterResBonds();
+			Residue templateRes = confSpace.molTemplate.residues.get(i);
+			res.copyFrom(templateRes);
+			if (resConf != null) {
+				resConf.updateResidue(positionsByRes[i].strand.templateLib, res, confSpace.mutAlignmentCache);
+				builtCoords[i] = res.coords.clone();
+			} else {
+				builtCoords[i] = templateRes.coords;
+			}
+			resConfs[i] = resConf;
+			versions[i]++;
+			rebuilt[i] = true;
+			anyRebuilt = true;
+		}
+
+		if (anyRebuilt) {
+			reconnectBonds();
+		}
+
+		ParametricMolecule pmol = confSpace.makeParametricMolecule(mol, conf);
+
+		// residue dihedrals only move their own residue, but anything else could move any residue
+		othersMoved = false;
+		for (DegreeOfFreedom dof : pmol.dofs) {
+			if (!(dof instanceof FreeDihedral)) {
+				othersMoved = true;
+				break;
+			}
+		}
+
+		return pmol;
+	}
+
+	private void reconnectBonds() {
+
+		// peptide-style bonds only connect neighboring residues,
+		// so we only need to reconnect the bonds around the rebuilt residues
+		boolean onlyNeighbors = true;
+		for (Residue res : mol.residues) {
+			Class<?> c = res.template.interResBonding.getClass();
+			if (c != InterResBondingTemplate.PeptideBondingTemplate.class
+				&& c != InterResBondingTemplate.NucleotideBondingTemplate.class
+				&& c != InterResBondingTemplate.NoBondingTemplate.class) {
+				onlyNeighbors = false;
+				break;
+			}
+		}
+
+		if (onlyNeighbors) {
+			for (int i=0; i<numResidues; i++) {
+				if (rebuilt[i]) {
+					connect(mol.residues.get(i));
+					if (i + 1 < numResidues && !rebuilt[i + 1]) {
+						connect(mol.residues.get(i + 1));
+					}
+				}
+			}
+		} else {
+
+			// otherwise, bonds could be anywhere, so just rebond everything
+			for (Residue res : mol.residues) {
+				res.removeInterResBonds();
+			}
+			mol.markInterResBonds();
+		}
+	}
+
+	private static void connect(Residue res) {
+		res.template.interResBonding.connectInterResBonds(res, true);
+		res.interResBondsMarked = true;
+	}
+}
@@ -0,0 +1,137 @@
+package edu.duke.cs.osprey.confspace;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+
+/**
+ * An immutable tuple of RCs, packed into primitive arrays sorted by position,
+ * so it can be used for hashing and lookups without boxing or building strings.
+ */
+public class PackedRCTuple {
+
+	public final int[] pos;
+	public final int[] rcs;
+
+	private final int hashCode;
+
+	/**
+	 * Makes a tuple from parallel arrays of positions and RCs.
+	 * The arrays are sorted by position in place, and belong to the tuple afterwards.
+	 */
+	public PackedRCTuple(int[] pos, int[] rcs) {
+
+		if (pos.length != rcs.length) {
+			throw new IllegalArgumentException("positions and RCs have different sizes: " + pos.length + " != " + rcs.length);
+		}
+
+		this.pos = pos;
+		this.rcs = rcs;
+
+		sort(pos, rcs, pos.length);
+
+		hashCode = 31*Arrays.hashCode(pos) + Arrays.hashCode(rcs);
+	}
+
+	public static PackedRCTuple of(RCTuple tuple) {
+		int n = tuple.size();
+		int[] pos = new int[n];
+		int[] rcs = new int[n];
+		for (int i=0; i<n; i++) {
+			pos[i] = tuple.pos.get(i);
+			rcs[i] = tuple.RCs.get(i);
+		}
+		return new PackedRCTuple(pos, rcs);
+	}
+
+	/**
+	 * Makes a tuple from the defined (ie, non-negative) positions of the conformation
+	 */
+	public static PackedRCTuple of(int[] conf) {
+		int n = 0;
+		for (int rc : conf) {
+			if (rc >= 0) {
+				n++;
+			}
+		}
+		int[] pos = new int[n];
+		int[] rcs = new int[n];
+		int i = 0;
+		for (int p=0; p<conf.length; p++) {
+			if (conf[p] >= 0) {
+				pos[i] = p;
+				rcs[i] = conf[p];
+				i++;
+			}
+		}
+		return new PackedRCTuple(pos, rcs);
+	}
+
+	/**
+	 * Sorts the first n entries of parallel position and RC arrays by position.
+	 */
+	public static void sort(int[] pos, int[] rcs, int n) {
+
+		// tuples are always small, so insertion sort is plenty fast
+		// NOTE: we need to sort two arrays simultaneously, so we can't use any library sorts
+		for (int i=1; i<n; i++) {
+
+			int tempPos = pos[i];
+			int tempRC = rcs[i];
+
+			int j;
+			for (j=i; j>=1 && tempPos < pos[j-1]; j--) {
+				pos[j] = pos[j-1];
+				rcs[j] = rcs[j-1];
+			}
+			pos[j] = tempPos;
+			rcs[j] = tempRC;
+		}
+	}
+
+	public int size() {
+		return pos.length;
+	}
+
+	public RCTuple toRCTuple() {
+		ArrayList<Integer> pos = new ArrayList<>(this.pos.length);
+		ArrayList<Integer> rcs = new ArrayList<>(this.rcs.length);
+		for (int i=0; i<this.pos.length; i++) {
+			pos.add(this.pos[i]);
+			rcs.add(this.rcs[i]);
+		}
+		return new RCTuple(pos, rcs);
+	}
+
+	@Override
+	public int hashCode() {
+		return hashCode;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof PackedRCTuple && equals((PackedRCTuple)other);
+	}
+
+	public boolean equals(PackedRCTuple other) {
+		return this.hashCode == other.hashCode
+			&& Arrays.equals(this.pos, other.pos)
+			&& Arrays.equals(this.rcs, other.rcs);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder buf = new StringBuilder();
+		buf.append("[");
+		for (int i=0; i<pos.length; i++) {
+			if (i > 0) {
+				buf.append(",");
+			}
+			buf.append(pos[i]);
+			buf.append("=");
+			buf.append(rcs[i]);
+		}
+		buf.append("]");
+		return buf.toString();
+	}
+}
@@ -487,6 +487,193 @@ public class SeqSpace implements Serializable {
 		return sequences;
 	}
 
+	/**
+	 * Lazy version of {@link #getMutants(int,boolean)}.
+	 * Enumerates exactly the same sequences in exactly the same order,
+	 * but only makes each sequence when it's needed, so huge sequence spaces don't have to fit in memory.
+	 */
+	public Iterable<Sequence> mutants(int maxSimultaneousMutations, boolean reversePositionOrder) {
+		return () -> new MutantsIterator(maxSimultaneousMutations, reversePositionOrder);
+	}
+
+	/**
+	 * Counts the sequences returned by {@link #getMutants(int)}, without enumerating them.
+	 */
+	public long countMutants(int maxSimultaneousMutations) {
+
+		// counts[i] = num ways to pick residue types at the positions so far with exactly i mutations
+		long[] counts = new long[maxSimultaneousMutations + 1];
+		counts[0] = 1;
+		for (Position pos : positions) {
+			for (int i=maxSimultaneousMutations; i>=0; i--) {
+				long count = pos.wildType != null ? counts[i] : 0;
+				if (i > 0) {
+					count += counts[i - 1]*pos.mutations.size();
+				}
+				counts[i] = count;
+			}
+		}
+
+		// the wild-type isn't a mutant
+		long count = 0;
+		for (int i=1; i<=maxSimultaneousMutations; i++) {
+			count += counts[i];
+		}
+		return count;
+	}
+
+	/**
+	 * Walks the subsets of positions in the same order as {@link MathTools#powersetUpTo(List,int)}
+	 * (ie, counting up in binary, where bit i is position i), but without making the whole powerset first.
+	 */
+	private class MutantsIterator implements Iterator<Sequence> {
+
+		final int maxSimultaneousMutations;
+		final boolean reversePositionOrder;
+
+		/** the current subset of positions, bit i is position i */
+		final boolean[] subset = new boolean[positions.size()];
+		int subsetSize = 0;
+		boolean hasSubset = true;
+
+		Iterator<List<ResType>> mutations = Collections.emptyIterator();
+		Sequence next = null;
+
+		MutantsIterator(int maxSimultaneousMutations, boolean reversePositionOrder) {
+
+			this.maxSimultaneousMutations = maxSimultaneousMutations;
+			this.reversePositionOrder = reversePositionOrder;
+
+			// the reversed powerset starts with the biggest subset, ie the highest positions
+			if (reversePositionOrder) {
+				for (int i=subset.length - 1; i>=0 && subsetSize < maxSimultaneousMutations; i--) {
+					subset[i] = true;
+					subsetSize++;
+				}
+				startSubset();
+			}
+
+			// otherwise, start with the empty set, which has no mutants anyway
+			advance();
+		}
+
+		boolean nextSubset() {
+			if (reversePositionOrder) {
+
+				// count down
+				int i = 0;
+				while (i < subset.length && !subset[i]) {
+					subset[i++] = true;
+					subsetSize++;
+				}
+				if (i == subset.length) {
+					// we were at the empty set, so we're done
+					return false;
+				}
+				subset[i] = false;
+				subsetSize--;
+
+				// drop the lowest positions until the subset is small enough
+				for (i=0; subsetSize > maxSimultaneousMutations; i++) {
+					if (subset[i]) {
+						subset[i] = false;
+						subsetSize--;
+					}
+				}
+
+			} else {
+
+				// count up
+				int i = carry(0);
+				if (i < 0) {
+					return false;
+				}
+
+				// skip ahead past subsets that are too big
+				while (subsetSize > maxSimultaneousMutations) {
+					int lowest = 0;
+					while (!subset[lowest]) {
+						lowest++;
+					}
+					if (carry(lowest) < 0) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+
+		/** adds 1 at bit i, returns the bit that got set, or -1 on overflow */
+		int carry(int i) {
+			while (i < subset.length && subset[i]) {
+				subset[i++] = false;
+				subsetSize--;
+			}
+			if (i == subset.length) {
+				return -1;
+			}
+			subset[i] = true;
+			subsetSize++;
+			return i;
+		}
+
+		void startSubset() {
+
+			// collect the mutations (res types except for wild type) for these positions into a simple list list
+			List<List<ResType>> mutationsByPos = new ArrayList<>();
+			for (int i=0; i<subset.length; i++) {
+				if (subset[i]) {
+					mutationsByPos.add(positions.get(i).mutations);
+				}
+			}
+
+			// enumerate all the combinations of res types
+			mutations = MathTools.cartesianProduct(mutationsByPos).iterator();
+		}
+
+		void advance() {
+			next = null;
+			while (next == null) {
+
+				if (!mutations.hasNext()) {
+					hasSubset = hasSubset && nextSubset();
+					if (!hasSubset) {
+						return;
+					}
+					startSubset();
+					continue;
+				}
+
+				// build the sequence and add the mutations
+				Sequence sequence = makeUnassignedSequence();
+				sequence.fillWildType();
+				for (ResType rt : mutations.next()) {
+					sequence.set(rt.pos, rt);
+				}
+
+				// if we're missing wild types at some positions, we hit our mutation limits, so skip this sequence
+				if (sequence.isFullyAssigned()) {
+					next = sequence;
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Sequence next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			Sequence sequence = next;
+			advance();
+			return sequence;
+		}
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder buf = new StringBuilder();
@@ -357,9 +357,9 @@ public class SimpleConfSpace implements Serializable, ConfSpaceIteration {
 	public final Set<String> shellResNumbers;
 
 	private final int[] numResConfsByPos;
-	private final Molecule molTemplate;
+	final Molecule molTemplate;
 
-	private final MutAlignmentCache mutAlignmentCache = new MutAlignmentCache();
+	final MutAlignmentCache mutAlignmentCache = new MutAlignmentCache();
 
 	public SimpleConfSpace(List<Strand> strands, Map<Strand,List<StrandFlex>> strandFlex, double shellDist) {
 
@@ -710,7 +710,14 @@ public class SimpleConfSpace implements Serializable, ConfSpaceIteration {
 	public ParametricMolecule makeMolecule(RCTuple conf) {
 
 		// copy the molecule from the template and make mutations as needed
-		Molecule mol = makeDiscreteMolecule(conf);
+		return makeParametricMolecule(makeDiscreteMolecule(conf), conf);
+	}
+
+	/**
+	 * make the DOFs for a molecule already mutated to match the conf,
+	 * and pose the molecule in the middle of the conf's voxel
+	 */
+	ParametricMolecule makeParametricMolecule(Molecule mol, RCTuple conf) {
 
 		// figure out what conformational DOFs are specified by the conf
 		HashSet<String> confDOFNames = new HashSet<>();
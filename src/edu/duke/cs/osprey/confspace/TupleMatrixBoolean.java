@@ -53,8 +53,24 @@ public class TupleMatrixBoolean extends AbstractTupleMatrix<Boolean> {
 	
 	public TupleMatrixBoolean(TupleMatrixBoolean other) {
 		super(other);
-		this.oneBody = (BitSet)other.oneBody.clone();
-		this.pairwise = (BitSet)other.pairwise.clone();
+		if (other.oneBody != null) {
+			this.oneBody = (BitSet)other.oneBody.clone();
+			this.pairwise = (BitSet)other.pairwise.clone();
+		} else {
+			// other keeps its values somewhere else (eg, a mapped file), so copy through the getters
+			this.oneBody = new BitSet(getNumOneBody());
+			this.pairwise = new BitSet(getNumPairwise());
+			for (int res1=0; res1<getNumPos(); res1++) {
+				for (int conf1=0; conf1<getNumConfAtPos(res1); conf1++) {
+					oneBody.set(getOneBodyIndex(res1, conf1), other.getOneBody(res1, conf1));
+					for (int res2=0; res2<res1; res2++) {
+						for (int conf2=0; conf2<getNumConfAtPos(res2); conf2++) {
+							pairwise.set(getPairwiseIndex(res1, conf1, res2, conf2), other.getPairwise(res1, conf1, res2, conf2));
+						}
+					}
+				}
+			}
+		}
 	}
     
     public TupleMatrixBoolean(ConfSpace cSpace, double pruningInterval, boolean defaultHigherInteraction) {
@@ -63,8 +63,24 @@ public class TupleMatrixDouble extends AbstractTupleMatrix<Double> {
     
     public TupleMatrixDouble(TupleMatrixDouble other) {
     	super(other);
-    	this.oneBody = other.oneBody.clone();
-    	this.pairwise = other.pairwise.clone();
+    	if (other.oneBody != null) {
+    		this.oneBody = other.oneBody.clone();
+    		this.pairwise = other.pairwise.clone();
+    	} else {
+    		// other keeps its values somewhere else (eg, a mapped file), so copy through the getters
+    		this.oneBody = new double[getNumOneBody()];
+    		this.pairwise = new double[getNumPairwise()];
+    		for (int res1=0; res1<getNumPos(); res1++) {
+    			for (int conf1=0; conf1<getNumConfAtPos(res1); conf1++) {
+    				oneBody[getOneBodyIndex(res1, conf1)] = other.getOneBodyDouble(res1, conf1);
+    				for (int res2=0; res2<res1; res2++) {
+    					for (int conf2=0; conf2<getNumConfAtPos(res2); conf2++) {
+    						pairwise[getPairwiseIndex(res1, conf1, res2, conf2)] = other.getPairwiseDouble(res1, conf1, res2, conf2);
+    					}
+    				}
+    			}
+    		}
+    	}
     }
     
     @Override
@@ -73,9 +89,19 @@ public class TupleMatrixDouble extends AbstractTupleMatrix<Double> {
         pairwise = new double[numPairwise];
     }
     
+    /**
+     * Like {@link #getOneBody(int, int)}, but without boxing.
+     *
+     * Subclasses that change how values are looked up should override this method
+     * rather than the boxed one, since the boxed one calls this one.
+     */
+    public double getOneBodyDouble(int res, int conf) {
+    	return oneBody[getOneBodyIndex(res, conf)];
+    }
+
     @Override
     public Double getOneBody(int res, int conf) {
-    	return oneBody[getOneBodyIndex(res, conf)];
+    	return getOneBodyDouble(res, conf);
     }
     
     @Override
@@ -91,9 +117,89 @@ public class TupleMatrixDouble extends AbstractTupleMatrix<Double> {
     	}
     }
     
+    /**
+     * Like {@link #getPairwise(int, int, int, int)}, but without boxing.
+     *
+     * Subclasses that change how values are looked up should override this method
+     * rather than the boxed one, since the boxed one calls this one.
+     * They should override {@link #getPairwiseSlice} too.
+     */
+    public double getPairwiseDouble(int res1, int conf1, int res2, int conf2) {
+    	return pairwise[getPairwiseIndex(res1, conf1, res2, conf2)];
+    }
+
     @Override
     public Double getPairwise(int res1, int conf1, int res2, int conf2) {
-    	return pairwise[getPairwiseIndex(res1, conf1, res2, conf2)];
+    	return getPairwiseDouble(res1, conf1, res2, conf2);
+    }
+
+    /**
+     * A view of the pairwise values between one RC at one position, and all the RCs at another position.
+     *
+     * Re-use slices to avoid allocations in inner loops.
+     */
+    public static class PairwiseSlice {
+
+    	private double[] values = null;
+    	private int offset = 0;
+    	private int stride = 1;
+
+    	// storage owned by the slice, never shared with a matrix
+    	private double[] buffer = null;
+
+    	/** the pairwise value with the given RC at the second position */
+    	public double get(int conf2) {
+    		return values[offset + conf2*stride];
+    	}
+
+    	/** points the slice at another array, without copying */
+    	public void set(double[] values, int offset, int stride) {
+    		this.values = values;
+    		this.offset = offset;
+    		this.stride = stride;
+    	}
+
+    	/** gets a buffer the slice can own, for matrices that can't share their storage */
+    	public double[] ownBuffer(int size) {
+    		if (buffer == null || buffer.length < size) {
+    			buffer = new double[size];
+    		}
+    		set(buffer, 0, 1);
+    		return buffer;
+    	}
+    }
+
+    /**
+     * Gets the pairwise values between (res1,conf1) and every conf at res2.
+     *
+     * For matrices that store their own values, the slice points directly into the storage,
+     * so no values are copied.
+     *
+     * @param slice the slice to update, or null to make a new one
+     * @return the slice
+     */
+    public PairwiseSlice getPairwiseSlice(int res1, int conf1, int res2, PairwiseSlice slice) {
+    	if (slice == null) {
+    		slice = new PairwiseSlice();
+    	}
+    	slice.set(pairwise, getPairwiseIndex(res1, conf1, res2, 0), getPairwiseStride(res1, res2));
+    	return slice;
+    }
+
+    /**
+     * Fills the slice with a copy of the pairwise values, using {@link #getPairwiseDouble}.
+     * Handy for subclasses that don't store their own values.
+     */
+    protected PairwiseSlice copyPairwiseSlice(int res1, int conf1, int res2, PairwiseSlice slice) {
+    	if (slice == null) {
+    		slice = new PairwiseSlice();
+    	}
+    	int n = getNumConfAtPos(res2);
+    	double[] buf = slice.ownBuffer(n);
+    	for (int conf2=0; conf2<n; conf2++) {
+    		buf[conf2] = getPairwiseDouble(res1, conf1, res2, conf2);
+    	}
+    	return slice;
     }
     
     @Override
@@ -0,0 +1,433 @@
+package edu.duke.cs.osprey.confspace;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import edu.duke.cs.osprey.tools.Factory;
+import edu.duke.cs.osprey.tools.ObjectIO;
+import edu.duke.cs.osprey.tools.ObjectIO.BadFileException;
+import edu.duke.cs.osprey.tools.ObjectIO.CantWriteException;
+
+
+/**
+ * A versioned flat binary file format for one- and two-body tuple matrices,
+ * designed to be memory-mapped rather than deserialized.
+ *
+ * All values are little-endian. The layout is:
+ * <pre>
+ *    long    magic number
+ *    int     version
+ *    int     kind (energies or pruning)
+ *    int     numPos
+ *    int[]   numConfAtPos
+ *    (padding to 8 bytes)
+ *    double  pruning interval
+ *    double  constant term
+ *    long    number of one-body values
+ *    long    number of pairwise values
+ *    (data, in the same order as the arrays in the matrix)
+ * </pre>
+ *
+ * Energies are stored as doubles, pruning flags are stored as bits packed into longs.
+ * Higher-order tuples aren't supported, so matrices that have them should stick with {@link ObjectIO}.
+ */
+public class TupleMatrixFile {
+
+	public static final long Magic = 0x5854414d59525053L; // "SPRYMATX", little-endian
+	public static final int Version = 1;
+
+	public enum Kind {
+
+		Energies(Double.BYTES),
+		Pruning(Long.BYTES);
+
+		public final int wordBytes;
+
+		Kind(int wordBytes) {
+			this.wordBytes = wordBytes;
+		}
+
+		/** how many words it takes to store this many values */
+		public long numWords(long numValues) {
+			switch (this) {
+				case Energies: return numValues;
+				case Pruning: return (numValues + Long.SIZE - 1)/Long.SIZE;
+				default: throw new Error("unknown kind: " + this);
+			}
+		}
+	}
+
+	/** the largest number of bytes we'll map at once, must be a multiple of 8 */
+	public static final long MaxMapBytes = 1L << 30; // 1 GiB
+
+	public static class Header {
+
+		public final Kind kind;
+		public final int numPos;
+		public final int[] numConfAtPos;
+		public final double pruningInterval;
+		public final double constTerm;
+		public final long numOneBody;
+		public final long numPairwise;
+
+		public Header(Kind kind, AbstractTupleMatrix<?> matrix, double constTerm) {
+			this.kind = kind;
+			this.numPos = matrix.getNumPos();
+			this.numConfAtPos = matrix.getNumConfAtPos().clone();
+			this.pruningInterval = matrix.getPruningInterval();
+			this.constTerm = constTerm;
+			this.numOneBody = matrix.getNumOneBody();
+			this.numPairwise = matrix.getNumPairwise();
+		}
+
+		private Header(Kind kind, int[] numConfAtPos, double pruningInterval, double constTerm, long numOneBody, long numPairwise) {
+			this.kind = kind;
+			this.numPos = numConfAtPos.length;
+			this.numConfAtPos = numConfAtPos;
+			this.pruningInterval = pruningInterval;
+			this.constTerm = constTerm;
+			this.numOneBody = numOneBody;
+			this.numPairwise = numPairwise;
+		}
+
+		public long headerBytes() {
+			long bytes = Long.BYTES + Integer.BYTES*3 + Integer.BYTES*numPos;
+			bytes = align8(bytes);
+			return bytes + Double.BYTES*2 + Long.BYTES*2;
+		}
+
+		public long oneBodyOffset() {
+			return headerBytes();
+		}
+
+		public long pairwiseOffset() {
+			return oneBodyOffset() + kind.numWords(numOneBody)*kind.wordBytes;
+		}
+
+		public long fileBytes() {
+			return pairwiseOffset() + kind.numWords(numPairwise)*kind.wordBytes;
+		}
+	}
+
+	/** writes the data section of the file, one word at a time */
+	public interface DataWriter {
+		void write(Header header, WordSink out) throws IOException;
+	}
+
+	public interface WordSink {
+		void putDouble(double val) throws IOException;
+		void putLong(long val) throws IOException;
+	}
+
+	public interface Opener<T> {
+		T open(File file) throws BadFileException;
+	}
+
+	public interface Writer<T> {
+		void write(T thing, File file) throws CantWriteException;
+	}
+
+	/** a read-only mapping of a matrix file */
+	public static class Mapping {
+
+		public final File file;
+		public final Header header;
+
+		private final FileChannel channel;
+
+		private Mapping(File file, Header header, FileChannel channel) {
+			this.file = file;
+			this.header = header;
+			this.channel = channel;
+		}
+
+		public DoubleBuffer mapOneBodyDoubles()
+		throws IOException {
+			return map(header.oneBodyOffset(), header.numOneBody*Double.BYTES).asDoubleBuffer();
+		}
+
+		/**
+		 * Maps the pairwise values in segments, since one mapping can't be larger than 2 GiB.
+		 * Each segment (except maybe the last) holds {@link #segmentDoubles()} values.
+		 */
+		public DoubleBuffer[] mapPairwiseDoubles()
+		throws IOException {
+			long numBytes = header.numPairwise*Double.BYTES;
+			DoubleBuffer[] segments = new DoubleBuffer[(int)((numBytes + MaxMapBytes - 1)/MaxMapBytes)];
+			for (int i=0; i<segments.length; i++) {
+				long offset = i*MaxMapBytes;
+				segments[i] = map(header.pairwiseOffset() + offset, Math.min(MaxMapBytes, numBytes - offset)).asDoubleBuffer();
+			}
+			return segments;
+		}
+
+		public static int segmentDoublesShift() {
+			return Long.numberOfTrailingZeros(MaxMapBytes/Double.BYTES);
+		}
+
+		public LongBuffer mapOneBodyBits()
+		throws IOException {
+			return map(header.oneBodyOffset(), header.kind.numWords(header.numOneBody)*Long.BYTES).asLongBuffer();
+		}
+
+		public LongBuffer mapPairwiseBits()
+		throws IOException {
+			// 2^31 bits fit in 256 MiB, so one segment is always enough
+			return map(header.pairwiseOffset(), header.kind.numWords(header.numPairwise)*Long.BYTES).asLongBuffer();
+		}
+
+		private ByteBuffer map(long offset, long size)
+		throws IOException {
+			return channel.map(FileChannel.MapMode.READ_ONLY, offset, size)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+
+	private static long align8(long bytes) {
+		return (bytes + 7) & ~7L;
+	}
+
+	/** true if the file exists and looks like a matrix file */
+	public static boolean isMatrixFile(File file) {
+
+		if (!file.isFile() || file.length() < Long.BYTES) {
+			return false;
+		}
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer buf = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(channel, buf, 0);
+			return buf.getLong(0) == Magic;
+		} catch (IOException ex) {
+			return false;
+		}
+	}
+
+	public static void write(File file, Header header, DataWriter dataWriter)
+	throws CantWriteException {
+
+		// write to a temp file first, then move it into place,
+		// so other processes never map a partially-written file
+		File tempFile = new File(file.getAbsolutePath() + ".tmp");
+
+		try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+
+			ByteBuffer buf = ByteBuffer.allocateDirect(1024*1024).order(ByteOrder.LITTLE_ENDIAN);
+
+			// write the header
+			buf.putLong(Magic);
+			buf.putInt(Version);
+			buf.putInt(header.kind.ordinal());
+			buf.putInt(header.numPos);
+			for (int n : header.numConfAtPos) {
+				if (buf.remaining() < Integer.BYTES) {
+					flush(channel, buf);
+				}
+				buf.putInt(n);
+			}
+			long written = Long.BYTES + Integer.BYTES*3 + (long)Integer.BYTES*header.numPos;
+			for (long i=written; i<align8(written); i++) {
+				if (!buf.hasRemaining()) {
+					flush(channel, buf);
+				}
+				buf.put((byte)0);
+			}
+			if (buf.remaining() < 32) {
+				flush(channel, buf);
+			}
+			buf.putDouble(header.pruningInterval);
+			buf.putDouble(header.constTerm);
+			buf.putLong(header.numOneBody);
+			buf.putLong(header.numPairwise);
+
+			// write the data
+			dataWriter.write(header, new WordSink() {
+
+				@Override
+				public void putDouble(double val)
+				throws IOException {
+					if (buf.remaining() < Double.BYTES) {
+						flush(channel, buf);
+					}
+					buf.putDouble(val);
+				}
+
+				@Override
+				public void putLong(long val)
+				throws IOException {
+					if (buf.remaining() < Long.BYTES) {
+						flush(channel, buf);
+					}
+					buf.putLong(val);
+				}
+			});
+			flush(channel, buf);
+
+			if (channel.size() != header.fileBytes()) {
+				throw new IOException(String.format("wrote %d bytes, but expected %d", channel.size(), header.fileBytes()));
+			}
+
+		} catch (IOException ex) {
+			tempFile.delete();
+			throw new CantWriteException(file, ex);
+		}
+
+		try {
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException ex) {
+			tempFile.delete();
+			throw new CantWriteException(file, ex);
+		}
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer buf)
+	throws IOException {
+		buf.flip();
+		while (buf.hasRemaining()) {
+			channel.write(buf);
+		}
+		buf.clear();
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buf, long pos)
+	throws IOException {
+		while (buf.hasRemaining()) {
+			int n = channel.read(buf, pos);
+			if (n < 0) {
+				throw new IOException("unexpected end of file");
+			}
+			pos += n;
+		}
+		buf.flip();
+	}
+
+	/**
+	 * Opens a matrix file for mapping.
+	 *
+	 * The mappings stay valid after the file channel is closed,
+	 * so the returned mapping should be used right away and then closed.
+	 */
+	public static <T> T map(File file, Kind kind, MappingReader<T> reader)
+	throws BadFileException {
+
+		if (!file.exists()) {
+			return null;
+		}
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+			// read the fixed part of the header
+			ByteBuffer buf = ByteBuffer.allocate(Long.BYTES + Integer.BYTES*3).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(channel, buf, 0);
+			if (buf.getLong() != Magic) {
+				throw new BadFileException(file, "not a matrix file");
+			}
+			int version = buf.getInt();
+			if (version != Version) {
+				throw new BadFileException(file, String.format("unsupported matrix file version %d, expected %d", version, Version));
+			}
+			int kindOrdinal = buf.getInt();
+			if (kindOrdinal != kind.ordinal()) {
+				throw new BadFileException(file, String.format("matrix file has kind %d, expected %s", kindOrdinal, kind));
+			}
+			int numPos = buf.getInt();
+			if (numPos < 0) {
+				throw new BadFileException(file, "invalid number of positions: " + numPos);
+			}
+
+			// read the rest of the header
+			long pos = buf.limit();
+			buf = ByteBuffer.allocate(Integer.BYTES*numPos).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(channel, buf, pos);
+			int[] numConfAtPos = new int[numPos];
+			buf.asIntBuffer().get(numConfAtPos);
+			pos = align8(pos + buf.limit());
+			buf = ByteBuffer.allocate(Double.BYTES*2 + Long.BYTES*2).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(channel, buf, pos);
+			Header header = new Header(kind, numConfAtPos, buf.getDouble(), buf.getDouble(), buf.getLong(), buf.getLong());
+
+			// make sure the sizes are consistent
+			if (channel.size() != header.fileBytes()) {
+				throw new BadFileException(file, String.format("file has %d bytes, but the header describes %d bytes", channel.size(), header.fileBytes()));
+			}
+			if (Arrays.stream(numConfAtPos).anyMatch(n -> n < 0)) {
+				throw new BadFileException(file, "invalid number of confs: " + Arrays.toString(numConfAtPos));
+			}
+
+			return reader.read(new Mapping(file, header, channel));
+
+		} catch (IOException ex) {
+			throw new BadFileException(file, "can't map file", ex);
+		}
+	}
+
+	public interface MappingReader<T> {
+		T read(Mapping mapping) throws IOException, BadFileException;
+	}
+
+	/**
+	 * Like {@link ObjectIO#readOrMake}, but for flat matrix files.
+	 *
+	 * After making a new matrix, it's written to the file and then re-opened,
+	 * so every process ends up sharing the same page-cached copy.
+	 * If the matrix can't be written in the flat format, the newly-made matrix is returned instead.
+	 */
+	public static <T> T readOrMake(File file, String name, Opener<T> opener, Writer<T> writer, ObjectIO.Validator<T> validator, Factory<T,Void> factory) {
+
+		// try to map the cache
+		try {
+
+			T thing = opener.open(file);
+			if (thing != null) {
+				System.out.println("mapped " + name + " from file: " + file.getAbsolutePath());
+
+				// make sure it's valid
+				if (validator.isValid(thing)) {
+					return thing;
+				}
+
+				System.out.println("WARNING: " + name + " from file is invalid, will create new one");
+			}
+
+		} catch (BadFileException ex) {
+			ex.printStackTrace(System.out);
+			System.out.println("WARNING: can't map " + name + ", will create new one");
+		}
+
+		// make the thing
+		T thing = factory.make(null);
+
+		// try to write to the cache, then switch to the mapped version
+		try {
+
+			writer.write(thing, file);
+			System.out.println("wrote " + name + " to file: " + file.getAbsolutePath());
+
+			return opener.open(file);
+
+		} catch (IllegalArgumentException ex) {
+			System.out.println("WARNING: can't write " + name + " in the flat format: " + ex.getMessage());
+		} catch (CantWriteException | BadFileException ex) {
+			ex.printStackTrace(System.out);
+			System.out.println("WARNING: can't write " + name + ", will have to be created again next time");
+		}
+
+		return thing;
+	}
+
+	/** makes sure a matrix can be written to the flat format */
+	public static void checkWritable(AbstractTupleMatrix<?> matrix) {
+		if (matrix.hasHigherOrderTerms() || matrix.hasHigherOrderTuples()) {
+			throw new IllegalArgumentException("matrix has higher-order terms, which the flat format doesn't support");
+		}
+	}
+}
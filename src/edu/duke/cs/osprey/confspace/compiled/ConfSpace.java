@@ -169,26 +169,72 @@ public class ConfSpace implements ConfSpaceIteration {
 	public final Pos[] positions;
 	public final SeqSpace seqSpace;
 
+	/**
+	 * A list of atom pairs and their forcefield parameters,
+	 * stored as parallel arrays so energy calculators can loop over them without chasing pointers.
+	 */
+	public static class AtomPairs {
+
+		public static final AtomPairs Empty = new AtomPairs(0);
+
+		public final int size;
+		public final int[] atomi1s;
+		public final int[] atomi2s;
+		public final int[] paramis;
+
+		public AtomPairs(int size) {
+			this.size = size;
+			atomi1s = new int[size];
+			atomi2s = new int[size];
+			paramis = new int[size];
+		}
+
+		/** indexed by pair, [0=atomi1, 1=atomi2, 2=parami] */
+		public AtomPairs(int[][] indices) {
+			this(indices.length);
+			for (int i=0; i<size; i++) {
+				atomi1s[i] = indices[i][0];
+				atomi2s[i] = indices[i][1];
+				paramis[i] = indices[i][2];
+			}
+		}
+
+		static AtomPairs read(DataInput in)
+		throws IOException {
+			int size = in.readInt();
+			if (size == 0) {
+				return Empty;
+			}
+			AtomPairs pairs = new AtomPairs(size);
+			for (int i=0; i<size; i++) {
+				pairs.atomi1s[i] = in.readInt();
+				pairs.atomi2s[i] = in.readInt();
+				pairs.paramis[i] = in.readInt();
+			}
+			return pairs;
+		}
+	}
+
 	public class IndicesStatic {
 
-		/** indexed by param, [0=atomi1, 1=atomi2, 2=parami] */
-		private final int[][] indices;
+		/** atomi1 and atomi2 are both static atoms */
+		public final AtomPairs pairs;
 
-		public IndicesStatic(int[][] indices) {
-			this.indices = indices;
+		public IndicesStatic(AtomPairs pairs) {
+			this.pairs = pairs;
 		}
 
 		public int size() {
-			return indices.length;
+			return pairs.size;
 		}
 		public int getStaticAtom1Index(int i) {
-			return indices[i][0];
+			return pairs.atomi1s[i];
 		}
 		public int getStaticAtom2Index(int i) {
-			return indices[i][1];
+			return pairs.atomi2s[i];
 		}
 		public int getParamsIndex(int i) {
-			return indices[i][2];
+			return pairs.paramis[i];
 		}
 	}
 
@@ -197,41 +243,41 @@ public class ConfSpace implements ConfSpaceIteration {
 
 	public class IndicesSingle {
 
-		/** indexed by param, [0=confAtom1i, 1=confAtom2i, 2=parami] */
-		private final int[][] internals;
+		/** atomi1 and atomi2 are both conf atoms */
+		public final AtomPairs internals;
 
-		/** indexed by param, [0=confAtomi, 1=staticAtomi, 2=parami] */
-		private final int[][] statics;
+		/** atomi1 is a conf atom, atomi2 is a static atom */
+		public final AtomPairs statics;
 
-		IndicesSingle(int[][] internals, int[][] statics) {
+		IndicesSingle(AtomPairs internals, AtomPairs statics) {
 			this.internals = internals;
 			this.statics = statics;
 		}
 
 		public int sizeInternals() {
-			return internals.length;
+			return internals.size;
 		}
 		public int getInternalConfAtom1Index(int i) {
-			return internals[i][0];
+			return internals.atomi1s[i];
 		}
 		public int getInternalConfAtom2Index(int i) {
-			return internals[i][1];
+			return internals.atomi2s[i];
 		}
 		public int getInternalParamsIndex(int i) {
-			return internals[i][2];
+			return internals.paramis[i];
 		}
 
 		public int sizeStatics() {
-			return statics.length;
+			return statics.size;
 		}
 		public int getStaticConfAtomIndex(int i) {
-			return statics[i][0];
+			return statics.atomi1s[i];
 		}
 		public int getStaticStaticAtomIndex(int i) {
-			return statics[i][1];
+			return statics.atomi2s[i];
 		}
 		public int getStaticParamsIndex(int i) {
-			return statics[i][2];
+			return statics.paramis[i];
 		}
 	}
 
@@ -240,24 +286,24 @@ public class ConfSpace implements ConfSpaceIteration {
 
 	public class IndicesPair {
 
-		/** indexed by param, [0=conf1Atomi, 1=conf2Atomi, 2=parami] */
-		private final int[][] indices;
+		/** atomi1 is a conf atom at pos1, atomi2 is a conf atom at pos2 */
+		public final AtomPairs pairs;
 
-		public IndicesPair(int[][] indices) {
-			this.indices = indices;
+		public IndicesPair(AtomPairs pairs) {
+			this.pairs = pairs;
 		}
 
 		public int size() {
-			return indices.length;
+			return pairs.size;
 		}
 		public int getConfAtom1Index(int i) {
-			return indices[i][0];
+			return pairs.atomi1s[i];
 		}
 		public int getConfAtom2Index(int i) {
-			return indices[i][1];
+			return pairs.atomi2s[i];
 		}
 		public int getParamsIndex(int i) {
-			return indices[i][2];
+			return pairs.paramis[i];
 		}
 	}
 
@@ -265,6 +311,11 @@ public class ConfSpace implements ConfSpaceIteration {
 	private final IndicesPair[][][][] indicesPairs;
 
 
+	private final IndicesPair emptyIndicesPair = new IndicesPair(AtomPairs.Empty);
+
+	/** distance cutoffs and the atom pairs they allow, or null to use all the atom pairs */
+	private NeighborLists neighborLists = null;
+
 	/**
 	 * Stores the actual forcefield parameters.
 	 * Indexed by ff, parami (where parami comes from the indices arrays), varies (internal detail to forcefield)
@@ -556,15 +607,7 @@ public class ConfSpace implements ConfSpaceIteration {
 		indicesStatic = new IndicesStatic[forcefieldIds.length];
 		for (int ffi=0; ffi<forcefieldIds.length; ffi++) {
 
-			int num = in.readInt();
-			int[][] indices = new int[num][3];
-			for (int i=0; i<num; i++) {
-				indices[i][0] = in.readInt(); // atomi1
-				indices[i][1] = in.readInt(); // atomi2
-				indices[i][2] = in.readInt(); // parami
-			}
-
-			indicesStatic[ffi] = new IndicesStatic(indices);
+			indicesStatic[ffi] = new IndicesStatic(AtomPairs.read(in));
 		}
 
 		// read pos and pos-static forcefield params
@@ -575,23 +618,9 @@ public class ConfSpace implements ConfSpaceIteration {
 
 				for (int ffi=0; ffi<forcefieldIds.length; ffi++) {
 
-					// read the pos internal forcefield params
-					int numSingles = in.readInt();
-					int[][] singles = new int[numSingles][3];
-					for (int i=0; i<numSingles; i++) {
-						singles[i][0] = in.readInt(); // atomi1
-						singles[i][1] = in.readInt(); // atomi2
-						singles[i][2] = in.readInt(); // parami
-					}
-
-					// read the pos-static forcefield params
-					int numStatics = in.readInt();
-					int[][] statics = new int[numStatics][3];
-					for (int i=0; i<numStatics; i++) {
-						statics[i][0] = in.readInt(); // atomi
-						statics[i][1] = in.readInt(); // statici
-						statics[i][2] = in.readInt(); // parami
-					}
+					// read the pos internal forcefield params, then the pos-static forcefield params
+					AtomPairs singles = AtomPairs.read(in);
+					AtomPairs statics = AtomPairs.read(in);
 
 					indicesSingles[ffi][posi][fragi] = new IndicesSingle(singles, statics);
 				}
@@ -621,15 +650,7 @@ public class ConfSpace implements ConfSpaceIteration {
 						for (int ffi=0; ffi<forcefieldIds.length; ffi++) {
 
 							// read the atom pairs
-							int numPairs = in.readInt();
-							int[][] indicesPair = new int[numPairs][3];
-							for (int i=0; i<numPairs; i++) {
-								indicesPair[i][0] = in.readInt(); // atomi1
-								indicesPair[i][1] = in.readInt(); // atomi2
-								indicesPair[i][2] = in.readInt(); // parami
-							}
-
-							indicesPairs[ffi][posPairIndex][fragi1][fragi2] = new IndicesPair(indicesPair);
+							indicesPairs[ffi][posPairIndex][fragi1][fragi2] = new IndicesPair(AtomPairs.read(in));
 						}
 					}
 				}
@@ -726,11 +747,42 @@ public class ConfSpace implements ConfSpaceIteration {
 		return posi1*(posi1 - 1)/2 + posi2;
 	}
 
+	public NeighborLists getNeighborLists() {
+		return neighborLists;
+	}
+
+	/**
+	 * Use the distance cutoffs in the neighbor lists for all energies in this conf space,
+	 * or pass null to go back to using all the atom pairs.
+	 */
+	public void setNeighborLists(NeighborLists val) {
+		if (val != null && val.confSpace != this) {
+			throw new IllegalArgumentException("neighbor lists were built for a different conf space");
+		}
+		neighborLists = val;
+	}
+
 	public IndicesStatic indicesStatic(int ffi) {
+		if (neighborLists != null) {
+			return neighborLists.indicesStatic(ffi);
+		}
+		return indicesStatic[ffi];
+	}
+
+	/** the static atom pairs, ignoring any neighbor lists */
+	IndicesStatic allIndicesStatic(int ffi) {
 		return indicesStatic[ffi];
 	}
 
 	public IndicesSingle indicesSingles(int ffi, int posi, int confi) {
+		if (neighborLists != null) {
+			return neighborLists.indicesSingles(ffi, posi, confi);
+		}
+		return allIndicesSingles(ffi, posi, confi);
+	}
+
+	/** the conf atom pairs, ignoring any neighbor lists */
+	IndicesSingle allIndicesSingles(int ffi, int posi, int confi) {
 
 		// convert the conf index to a frag index
 		int fragi = positions[posi].confs[confi].fragIndex;
@@ -740,6 +792,11 @@ public class ConfSpace implements ConfSpaceIteration {
 
 	public IndicesPair indicesPairs(int ffi, int posi1, int confi1, int posi2, int confi2) {
 
+		// skip the whole pair if the confs can never get close enough
+		if (neighborLists != null && !neighborLists.isInRange(posi1, confi1, posi2, confi2)) {
+			return emptyIndicesPair;
+		}
+
 		// convert the conf indices to frag indices
 		int fragi1 = positions[posi1].confs[confi1].fragIndex;
 		int fragi2 = positions[posi2].confs[confi2].fragIndex;
@@ -751,6 +808,10 @@ public class ConfSpace implements ConfSpaceIteration {
 		return ffparams[ffi][paramsi];
 	}
 
+	public int numFFParams(int ffi) {
+		return ffparams[ffi].length;
+	}
+
 	@Override
 	public int countSingles() {
 		int count = 0;
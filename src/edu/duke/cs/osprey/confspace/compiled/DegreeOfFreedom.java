@@ -23,4 +23,21 @@ public interface DegreeOfFreedom {
 	Set<Integer> modifiedPosIndices();
 
 	double initialStepSize();
+
+	/**
+	 * Does this DoF implement {@link #calcDerivative}?
+	 */
+	default boolean hasDerivative() {
+		return false;
+	}
+
+	/**
+	 * Uses the chain rule to calculate the derivative of the energy with respect to this DoF,
+	 * given the gradient of the energy with respect to the atom coords at the current DoF values.
+	 *
+	 * The gradient array is indexed like the coords list, ie [x0, y0, z0, x1, ...].
+	 */
+	default double calcDerivative(double[] atomGradient) {
+		throw new UnsupportedOperationException(name() + " has no derivative");
+	}
 }
@@ -0,0 +1,133 @@
+package edu.duke.cs.osprey.confspace.compiled;
+
+import java.util.function.IntConsumer;
+
+
+/**
+ * A cell list over some atoms, for quickly finding the atoms inside a box.
+ *
+ * Atoms are bucketed into cubic cells by a counting sort, so each cell is just a range
+ * of one flat array, and a query only visits the cells that overlap the box.
+ */
+public class NeighborGrid {
+
+	public final double cellSize;
+
+	private final CoordsList coords;
+	private final double minx;
+	private final double miny;
+	private final double minz;
+	private final int nx;
+	private final int ny;
+	private final int nz;
+
+	/** indexed by cell, the start of the cell's atoms in atomis */
+	private final int[] cellStarts;
+	private final int[] atomis;
+
+	public NeighborGrid(CoordsList coords, double cellSize) {
+
+		if (cellSize <= 0.0) {
+			throw new IllegalArgumentException("cell size must be positive, not " + cellSize);
+		}
+
+		this.coords = coords;
+		this.cellSize = cellSize;
+
+		// get the bounding box of the atoms
+		double minx = Double.POSITIVE_INFINITY;
+		double miny = Double.POSITIVE_INFINITY;
+		double minz = Double.POSITIVE_INFINITY;
+		double maxx = Double.NEGATIVE_INFINITY;
+		double maxy = Double.NEGATIVE_INFINITY;
+		double maxz = Double.NEGATIVE_INFINITY;
+		for (int i=0; i<coords.size; i++) {
+			minx = Math.min(minx, coords.x(i));
+			miny = Math.min(miny, coords.y(i));
+			minz = Math.min(minz, coords.z(i));
+			maxx = Math.max(maxx, coords.x(i));
+			maxy = Math.max(maxy, coords.y(i));
+			maxz = Math.max(maxz, coords.z(i));
+		}
+		if (coords.size == 0) {
+			minx = miny = minz = 0.0;
+			maxx = maxy = maxz = 0.0;
+		}
+		this.minx = minx;
+		this.miny = miny;
+		this.minz = minz;
+		nx = (int)((maxx - minx)/cellSize) + 1;
+		ny = (int)((maxy - miny)/cellSize) + 1;
+		nz = (int)((maxz - minz)/cellSize) + 1;
+
+		// bucket the atoms into cells
+		int[] cellis = new int[coords.size];
+		cellStarts = new int[nx*ny*nz + 1];
+		for (int i=0; i<coords.size; i++) {
+			cellis[i] = cellIndex(
+				cell(coords.x(i), minx, nx),
+				cell(coords.y(i), miny, ny),
+				cell(coords.z(i), minz, nz)
+			);
+			cellStarts[cellis[i] + 1]++;
+		}
+		for (int c=1; c<cellStarts.length; c++) {
+			cellStarts[c] += cellStarts[c - 1];
+		}
+		atomis = new int[coords.size];
+		int[] cellSizes = new int[nx*ny*nz];
+		for (int i=0; i<coords.size; i++) {
+			int c = cellis[i];
+			atomis[cellStarts[c] + cellSizes[c]++] = i;
+		}
+	}
+
+	public int numCells() {
+		return nx*ny*nz;
+	}
+
+	private int cell(double v, double min, int n) {
+		int i = (int)Math.floor((v - min)/cellSize);
+		return Math.max(0, Math.min(n - 1, i));
+	}
+
+	private int cellIndex(int ix, int iy, int iz) {
+		return (ix*ny + iy)*nz + iz;
+	}
+
+	/**
+	 * Calls the consumer with the index of every atom inside the box (inclusive).
+	 */
+	public void forEachInBox(double minx, double miny, double minz, double maxx, double maxy, double maxz, IntConsumer consumer) {
+
+		// skip boxes that miss the grid entirely
+		if (coords.size == 0 || maxx < this.minx || maxy < this.miny || maxz < this.minz
+			|| minx > this.minx + nx*cellSize || miny > this.miny + ny*cellSize || minz > this.minz + nz*cellSize) {
+			return;
+		}
+
+		int ix1 = cell(minx, this.minx, nx);
+		int iy1 = cell(miny, this.miny, ny);
+		int iz1 = cell(minz, this.minz, nz);
+		int ix2 = cell(maxx, this.minx, nx);
+		int iy2 = cell(maxy, this.miny, ny);
+		int iz2 = cell(maxz, this.minz, nz);
+
+		for (int ix=ix1; ix<=ix2; ix++) {
+			for (int iy=iy1; iy<=iy2; iy++) {
+				for (int iz=iz1; iz<=iz2; iz++) {
+					int c = cellIndex(ix, iy, iz);
+					for (int i=cellStarts[c]; i<cellStarts[c + 1]; i++) {
+						int atomi = atomis[i];
+						double x = coords.x(atomi);
+						double y = coords.y(atomi);
+						double z = coords.z(atomi);
+						if (x >= minx && x <= maxx && y >= miny && y <= maxy && z >= minz && z <= maxz) {
+							consumer.accept(atomi);
+						}
+					}
+				}
+			}
+		}
+	}
+}
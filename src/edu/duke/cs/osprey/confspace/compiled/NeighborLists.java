@@ -0,0 +1,499 @@
+package edu.duke.cs.osprey.confspace.compiled;
+
+import edu.duke.cs.osprey.confspace.compiled.motions.DihedralAngle;
+import edu.duke.cs.osprey.confspace.compiled.motions.TranslationRotation;
+
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Distance cutoffs for the conf space forcefields, and the atom pair lists they allow.
+ *
+ * Every atom pair energy is scaled by a smooth switching function, S(r),
+ * that is 1 inside cutoff - switchWidth, 0 beyond the cutoff, and has a continuous first derivative in between.
+ * Since pairs beyond the cutoff don't contribute any energy at all, the pair lists can skip them entirely:
+ * <ul>
+ *     <li>static-static pairs are kept only if the static atoms can come within the cutoff</li>
+ *     <li>conf-static pairs are kept only if the static atom is within the cutoff of where the conf atom
+ *     can reach over the whole range of the conf's degrees of freedom</li>
+ *     <li>pos-pos pairs are skipped entirely when the two confs can never come within the cutoff</li>
+ * </ul>
+ *
+ * The reach of each conf atom is a bounding box, found by sampling the conf's dihedral angles on a grid
+ * and padding by the most the atom could stray from the grid between samples.
+ * Molecule motions (eg, translation and rotation of a ligand) are accounted for with a bound on how far
+ * they can move each molecule. The lists add a skin distance on top of the cutoff, for extra safety.
+ *
+ * Once built, install the lists with {@link ConfSpace#setNeighborLists} and
+ * all the energy calculators for the conf space will use them.
+ */
+public class NeighborLists {
+
+	public static class Builder {
+
+		public final ConfSpace confSpace;
+
+		/** pair energies are zero beyond this distance, in Angstroms */
+		private double cutoff = 10.0;
+
+		/** pair energies are smoothly switched off over this distance before the cutoff, in Angstroms */
+		private double switchWidth = 2.0;
+
+		/** extra distance added to the cutoff when deciding which atom pairs to keep, in Angstroms */
+		private double skin = 1.0;
+
+		public Builder(ConfSpace confSpace) {
+			this.confSpace = confSpace;
+		}
+
+		public Builder setCutoff(double val) {
+			cutoff = val;
+			return this;
+		}
+
+		public Builder setSwitchWidth(double val) {
+			switchWidth = val;
+			return this;
+		}
+
+		public Builder setSkin(double val) {
+			skin = val;
+			return this;
+		}
+
+		public NeighborLists build() {
+			return new NeighborLists(confSpace, cutoff, switchWidth, skin);
+		}
+	}
+
+	/** the largest gap between dihedral angle samples, in radians */
+	private static final double MaxSampleStep = Math.toRadians(30.0);
+
+	/** confs with more dihedral angle samples than this are assumed to reach everywhere */
+	private static final long MaxSamples = 1 << 14;
+
+	public final ConfSpace confSpace;
+	public final double cutoff;
+	public final double switchWidth;
+	public final double skin;
+
+	/** the squared distance where the switching function starts to fall off */
+	public final double switchOn2;
+
+	/** the squared cutoff distance */
+	public final double cutoff2;
+
+	private final double switchScale;
+
+	/** indexed by ff */
+	private final ConfSpace.IndicesStatic[] indicesStatic;
+
+	/** indexed by ff, pos, conf */
+	private final ConfSpace.IndicesSingle[][][] indicesSingles;
+
+	/** indexed by pos, conf, [minx, miny, minz, maxx, maxy, maxz, mobility] */
+	private final double[][][] confBounds;
+
+	private NeighborLists(ConfSpace confSpace, double cutoff, double switchWidth, double skin) {
+
+		if (cutoff <= 0.0) {
+			throw new IllegalArgumentException("cutoff must be positive, not " + cutoff);
+		}
+		if (switchWidth < 0.0 || switchWidth > cutoff) {
+			throw new IllegalArgumentException("switch width must be in [0," + cutoff + "], not " + switchWidth);
+		}
+		if (skin < 0.0) {
+			throw new IllegalArgumentException("skin must be non-negative, not " + skin);
+		}
+
+		this.confSpace = confSpace;
+		this.cutoff = cutoff;
+		this.switchWidth = switchWidth;
+		this.skin = skin;
+
+		double switchOn = cutoff - switchWidth;
+		switchOn2 = switchOn*switchOn;
+		cutoff2 = cutoff*cutoff;
+		double denom = cutoff2 - switchOn2;
+		switchScale = 1.0/(denom*denom*denom);
+
+		int numFF = confSpace.forcefieldIds.length;
+		int numMols = confSpace.molInfos.length;
+
+		// find where every conf atom can reach
+		double[][][] atomBounds = new double[confSpace.positions.length][][];
+		confBounds = new double[confSpace.positions.length][][];
+		for (ConfSpace.Pos pos : confSpace.positions) {
+			atomBounds[pos.index] = new double[pos.confs.length][];
+			confBounds[pos.index] = new double[pos.confs.length][];
+			for (ConfSpace.Conf conf : pos.confs) {
+				atomBounds[pos.index][conf.index] = sweepConf(pos, conf);
+			}
+		}
+
+		// find the static atoms moved by molecule dihedral angles, we'll keep all their pairs
+		boolean[] mobileStatics = new boolean[confSpace.numStaticAtoms];
+		for (ConfSpace.MolInfo molInfo : confSpace.molInfos) {
+			for (ContinuousMotion.MolDescription motion : molInfo.motions) {
+				if (motion instanceof DihedralAngle.Description) {
+					for (int atomi : ((DihedralAngle.Description)motion).rotated) {
+						mobileStatics[atomi] = true;
+					}
+				}
+			}
+		}
+
+		// bound how far translations and rotations can move each molecule
+		double[] molMobilities = new double[numMols];
+		for (int moli=0; moli<numMols; moli++) {
+			for (ContinuousMotion.MolDescription motion : confSpace.molInfos[moli].motions) {
+				if (motion instanceof TranslationRotation.Description) {
+					molMobilities[moli] += calcMobility((TranslationRotation.Description)motion, moli, atomBounds);
+				}
+			}
+		}
+
+		// bound each whole conf
+		for (ConfSpace.Pos pos : confSpace.positions) {
+			for (ConfSpace.Conf conf : pos.confs) {
+				double[] bounds = atomBounds[pos.index][conf.index];
+				double[] confBound = new double[] {
+					Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+					Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+					0.0
+				};
+				for (int atomi=0; atomi<conf.numAtoms; atomi++) {
+					for (int d=0; d<3; d++) {
+						confBound[d] = Math.min(confBound[d], bounds[atomi*6 + d]);
+						confBound[d + 3] = Math.max(confBound[d + 3], bounds[atomi*6 + d + 3]);
+					}
+					confBound[6] = Math.max(confBound[6], molMobilities[conf.atomMolInfoIndices[atomi]]);
+				}
+				confBounds[pos.index][conf.index] = confBound;
+			}
+		}
+
+		double reach = cutoff + skin;
+		double maxMolMobility = Arrays.stream(molMobilities).max().orElse(0.0);
+
+		// filter the static-static pairs
+		CoordsList staticCoords = confSpace.staticCoords;
+		indicesStatic = new ConfSpace.IndicesStatic[numFF];
+		for (int ffi=0; ffi<numFF; ffi++) {
+			ConfSpace.AtomPairs pairs = confSpace.allIndicesStatic(ffi).pairs;
+			boolean[] keep = new boolean[pairs.size];
+			for (int i=0; i<pairs.size; i++) {
+				int atomi1 = pairs.atomi1s[i];
+				int atomi2 = pairs.atomi2s[i];
+				if (mobileStatics[atomi1] || mobileStatics[atomi2]) {
+					keep[i] = true;
+					continue;
+				}
+				double dist = reach + relativeMobility(
+					confSpace.staticMolInfoIndices[atomi1],
+					confSpace.staticMolInfoIndices[atomi2],
+					molMobilities
+				);
+				double dx = staticCoords.x(atomi1) - staticCoords.x(atomi2);
+				double dy = staticCoords.y(atomi1) - staticCoords.y(atomi2);
+				double dz = staticCoords.z(atomi1) - staticCoords.z(atomi2);
+				keep[i] = dx*dx + dy*dy + dz*dz <= dist*dist;
+			}
+			ConfSpace.AtomPairs filtered = filter(pairs, keep);
+			indicesStatic[ffi] = filtered == pairs
+				? confSpace.allIndicesStatic(ffi)
+				: confSpace.new IndicesStatic(filtered);
+		}
+
+		// filter the conf-static pairs, using a grid to find the static atoms near each conf
+		NeighborGrid grid = new NeighborGrid(staticCoords, reach);
+		int[] nearStamps = new int[confSpace.numStaticAtoms];
+		int stamp = 0;
+		indicesSingles = new ConfSpace.IndicesSingle[numFF][confSpace.positions.length][];
+		for (int ffi=0; ffi<numFF; ffi++) {
+			for (ConfSpace.Pos pos : confSpace.positions) {
+				indicesSingles[ffi][pos.index] = new ConfSpace.IndicesSingle[pos.confs.length];
+			}
+		}
+		for (ConfSpace.Pos pos : confSpace.positions) {
+			for (ConfSpace.Conf conf : pos.confs) {
+
+				double[] bounds = atomBounds[pos.index][conf.index];
+				double[] confBound = confBounds[pos.index][conf.index];
+
+				// mark the static atoms that are anywhere near this conf
+				final int fstamp = ++stamp;
+				double pad = reach + confBound[6] + maxMolMobility;
+				grid.forEachInBox(
+					confBound[0] - pad, confBound[1] - pad, confBound[2] - pad,
+					confBound[3] + pad, confBound[4] + pad, confBound[5] + pad,
+					atomi -> nearStamps[atomi] = fstamp
+				);
+
+				for (int ffi=0; ffi<numFF; ffi++) {
+					ConfSpace.IndicesSingle indices = confSpace.allIndicesSingles(ffi, pos.index, conf.index);
+					ConfSpace.AtomPairs pairs = indices.statics;
+					boolean[] keep = new boolean[pairs.size];
+					for (int i=0; i<pairs.size; i++) {
+						int confAtomi = pairs.atomi1s[i];
+						int staticAtomi = pairs.atomi2s[i];
+						if (mobileStatics[staticAtomi]) {
+							keep[i] = true;
+						} else if (nearStamps[staticAtomi] == fstamp) {
+							double dist = reach + relativeMobility(
+								conf.atomMolInfoIndices[confAtomi],
+								confSpace.staticMolInfoIndices[staticAtomi],
+								molMobilities
+							);
+							keep[i] = distToBox2(
+								bounds, confAtomi,
+								staticCoords.x(staticAtomi), staticCoords.y(staticAtomi), staticCoords.z(staticAtomi)
+							) <= dist*dist;
+						}
+					}
+					ConfSpace.AtomPairs filtered = filter(pairs, keep);
+					indicesSingles[ffi][pos.index][conf.index] = filtered == pairs
+						? indices
+						: confSpace.new IndicesSingle(indices.internals, filtered);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Samples the conf's dihedral angles over their whole ranges, and tracks the bounding box of each atom.
+	 * @return the boxes, indexed by atom, [minx, miny, minz, maxx, maxy, maxz]
+	 */
+	private double[] sweepConf(ConfSpace.Pos pos, ConfSpace.Conf conf) {
+
+		double[] bounds = new double[conf.numAtoms*6];
+		for (int atomi=0; atomi<conf.numAtoms; atomi++) {
+			for (int d=0; d<3; d++) {
+				bounds[atomi*6 + d] = Double.POSITIVE_INFINITY;
+				bounds[atomi*6 + d + 3] = Double.NEGATIVE_INFINITY;
+			}
+		}
+
+		// if we don't know how to sample the motions, assume the atoms can go anywhere
+		for (ContinuousMotion.ConfDescription motion : conf.motions) {
+			if (!(motion instanceof DihedralAngle.Description)) {
+				return unbounded(bounds);
+			}
+		}
+
+		int[] assignments = confSpace.assign(pos.index, conf.index);
+		AssignedCoords coords = confSpace.makeCoords(assignments);
+
+		// each conf dihedral makes one dof, after all the molecule dofs
+		int numDofs = conf.motions.length;
+		List<DegreeOfFreedom> dofs = coords.dofs.subList(coords.dofs.size() - numDofs, coords.dofs.size());
+
+		// pick the sample grid
+		int[] numSteps = new int[numDofs];
+		double[] steps = new double[numDofs];
+		long numSamples = 1;
+		for (int i=0; i<numDofs; i++) {
+			DegreeOfFreedom dof = dofs.get(i);
+			double range = dof.max() - dof.min();
+			numSteps[i] = range > 0.0 ? (int)Math.ceil(range/MaxSampleStep) + 1 : 1;
+			steps[i] = numSteps[i] > 1 ? range/(numSteps[i] - 1) : 0.0;
+			numSamples *= numSteps[i];
+			if (numSamples > MaxSamples) {
+				return unbounded(bounds);
+			}
+		}
+
+		// get the coords indices of the dihedral axis atoms
+		int[] axisIndices = new int[numDofs];
+		for (int i=0; i<numDofs; i++) {
+			int b = ((DihedralAngle.Description)conf.motions[i]).b;
+			axisIndices[i] = b >= 0 ? coords.getConfIndex(pos.index, b) : coords.getStaticIndex(-b - 1);
+		}
+		double[] maxAxisDists = new double[numDofs];
+
+		// visit every sample, starting with the initial coords
+		int[] counters = new int[numDofs];
+		for (long s=-1; s<numSamples; s++) {
+
+			if (s >= 0) {
+				for (int i=0; i<numDofs; i++) {
+					DegreeOfFreedom dof = dofs.get(i);
+					dof.set(dof.min() + steps[i]*counters[i]);
+				}
+				for (int i=0; i<numDofs; i++) {
+					if (++counters[i] < numSteps[i]) {
+						break;
+					}
+					counters[i] = 0;
+				}
+			}
+
+			for (int atomi=0; atomi<conf.numAtoms; atomi++) {
+				int coordsi = coords.getConfIndex(pos.index, atomi);
+				double x = coords.coords.x(coordsi);
+				double y = coords.coords.y(coordsi);
+				double z = coords.coords.z(coordsi);
+				int o = atomi*6;
+				bounds[o] = Math.min(bounds[o], x);
+				bounds[o + 1] = Math.min(bounds[o + 1], y);
+				bounds[o + 2] = Math.min(bounds[o + 2], z);
+				bounds[o + 3] = Math.max(bounds[o + 3], x);
+				bounds[o + 4] = Math.max(bounds[o + 4], y);
+				bounds[o + 5] = Math.max(bounds[o + 5], z);
+				for (int i=0; i<numDofs; i++) {
+					double dx = x - coords.coords.x(axisIndices[i]);
+					double dy = y - coords.coords.y(axisIndices[i]);
+					double dz = z - coords.coords.z(axisIndices[i]);
+					maxAxisDists[i] = Math.max(maxAxisDists[i], Math.sqrt(dx*dx + dy*dy + dz*dz));
+				}
+			}
+		}
+
+		// between samples, an atom moves along an arc, which can bulge past the samples by at most r(1 - cos(step/2))
+		double pad = 0.0;
+		for (int i=0; i<numDofs; i++) {
+			pad += maxAxisDists[i]*(1.0 - Math.cos(steps[i]/2));
+		}
+		for (int atomi=0; atomi<conf.numAtoms; atomi++) {
+			for (int d=0; d<3; d++) {
+				bounds[atomi*6 + d] -= pad;
+				bounds[atomi*6 + d + 3] += pad;
+			}
+		}
+
+		return bounds;
+	}
+
+	private static double[] unbounded(double[] bounds) {
+		for (int o=0; o<bounds.length; o+=6) {
+			for (int d=0; d<3; d++) {
+				bounds[o + d] = Double.NEGATIVE_INFINITY;
+				bounds[o + d + 3] = Double.POSITIVE_INFINITY;
+			}
+		}
+		return bounds;
+	}
+
+	/**
+	 * Bounds how far a translation and rotation can move any atom in the molecule.
+	 * The three rotation angles compose to a rotation of at most three times the max angle.
+	 */
+	private double calcMobility(TranslationRotation.Description motion, int moli, double[][][] atomBounds) {
+
+		// find the farthest any atom in the molecule can be from the centroid
+		double maxDist2 = 0.0;
+		CoordsList staticCoords = confSpace.staticCoords;
+		for (int atomi=0; atomi<confSpace.numStaticAtoms; atomi++) {
+			if (confSpace.staticMolInfoIndices[atomi] == moli) {
+				double dx = staticCoords.x(atomi) - motion.centroid.x;
+				double dy = staticCoords.y(atomi) - motion.centroid.y;
+				double dz = staticCoords.z(atomi) - motion.centroid.z;
+				maxDist2 = Math.max(maxDist2, dx*dx + dy*dy + dz*dz);
+			}
+		}
+		for (ConfSpace.Pos pos : confSpace.positions) {
+			for (ConfSpace.Conf conf : pos.confs) {
+				double[] bounds = atomBounds[pos.index][conf.index];
+				for (int atomi=0; atomi<conf.numAtoms; atomi++) {
+					if (conf.atomMolInfoIndices[atomi] == moli) {
+						int o = atomi*6;
+						double dx = Math.max(Math.abs(bounds[o] - motion.centroid.x), Math.abs(bounds[o + 3] - motion.centroid.x));
+						double dy = Math.max(Math.abs(bounds[o + 1] - motion.centroid.y), Math.abs(bounds[o + 4] - motion.centroid.y));
+						double dz = Math.max(Math.abs(bounds[o + 2] - motion.centroid.z), Math.abs(bounds[o + 5] - motion.centroid.z));
+						maxDist2 = Math.max(maxDist2, dx*dx + dy*dy + dz*dz);
+					}
+				}
+			}
+		}
+
+		double mobility = Math.sqrt(3)*motion.maxDistance;
+		if (motion.maxRotationRadians > 0.0) {
+			mobility += 2*Math.sqrt(maxDist2)*Math.sin(Math.min(3*motion.maxRotationRadians, Math.PI)/2);
+		}
+		return mobility;
+	}
+
+	/** molecule motions don't change distances within a molecule, only between molecules */
+	private static double relativeMobility(int moli1, int moli2, double[] molMobilities) {
+		if (moli1 == moli2) {
+			return 0.0;
+		}
+		return molMobilities[moli1] + molMobilities[moli2];
+	}
+
+	/** squared distance from the point to the atom's box */
+	private static double distToBox2(double[] bounds, int atomi, double x, double y, double z) {
+		int o = atomi*6;
+		double dx = Math.max(0.0, Math.max(bounds[o] - x, x - bounds[o + 3]));
+		double dy = Math.max(0.0, Math.max(bounds[o + 1] - y, y - bounds[o + 4]));
+		double dz = Math.max(0.0, Math.max(bounds[o + 2] - z, z - bounds[o + 5]));
+		return dx*dx + dy*dy + dz*dz;
+	}
+
+	/** returns the same pairs if nothing was filtered out */
+	private static ConfSpace.AtomPairs filter(ConfSpace.AtomPairs pairs, boolean[] keep) {
+
+		int size = 0;
+		for (boolean k : keep) {
+			if (k) {
+				size++;
+			}
+		}
+		if (size == pairs.size) {
+			return pairs;
+		} else if (size == 0) {
+			return ConfSpace.AtomPairs.Empty;
+		}
+
+		ConfSpace.AtomPairs filtered = new ConfSpace.AtomPairs(size);
+		int j = 0;
+		for (int i=0; i<pairs.size; i++) {
+			if (keep[i]) {
+				filtered.atomi1s[j] = pairs.atomi1s[i];
+				filtered.atomi2s[j] = pairs.atomi2s[i];
+				filtered.paramis[j] = pairs.paramis[i];
+				j++;
+			}
+		}
+		return filtered;
+	}
+
+	/** the switching function, S(r), from the squared distance */
+	public double switching(double r2) {
+		if (r2 <= switchOn2) {
+			return 1.0;
+		} else if (r2 >= cutoff2) {
+			return 0.0;
+		}
+		double a = cutoff2 - r2;
+		return a*a*(cutoff2 + 2*r2 - 3*switchOn2)*switchScale;
+	}
+
+	/** the derivative of the switching function with respect to r */
+	public double switchingDerivative(double r, double r2) {
+		if (r2 <= switchOn2 || r2 >= cutoff2) {
+			return 0.0;
+		}
+		return 12*r*(cutoff2 - r2)*(switchOn2 - r2)*switchScale;
+	}
+
+	public ConfSpace.IndicesStatic indicesStatic(int ffi) {
+		return indicesStatic[ffi];
+	}
+
+	public ConfSpace.IndicesSingle indicesSingles(int ffi, int posi, int confi) {
+		return indicesSingles[ffi][posi][confi];
+	}
+
+	/** can any atoms of the two confs ever come within the cutoff? */
+	public boolean isInRange(int posi1, int confi1, int posi2, int confi2) {
+		double[] b1 = confBounds[posi1][confi1];
+		double[] b2 = confBounds[posi2][confi2];
+		double dx = Math.max(0.0, Math.max(b1[0] - b2[3], b2[0] - b1[3]));
+		double dy = Math.max(0.0, Math.max(b1[1] - b2[4], b2[1] - b1[4]));
+		double dz = Math.max(0.0, Math.max(b1[2] - b2[5], b2[2] - b1[5]));
+		double dist = cutoff + skin + b1[6] + b2[6];
+		return dx*dx + dy*dy + dz*dz <= dist*dist;
+	}
+}
@@ -263,6 +263,45 @@ public class DihedralAngle implements ContinuousMotion {
 		public double initialStepSize() {
 			return 0.004363323; // 0.25 degrees
 		}
+
+		@Override
+		public boolean hasDerivative() {
+			return true;
+		}
+
+		@Override
+		public double calcDerivative(double[] atomGradient) {
+
+			// increasing the angle rotates the atoms about the b->c axis,
+			// so each rotated atom p moves along u x (p - b), where u is the unit b->c vector
+			double bx = coords.coords.x(bi);
+			double by = coords.coords.y(bi);
+			double bz = coords.coords.z(bi);
+			double ux = coords.coords.x(ci) - bx;
+			double uy = coords.coords.y(ci) - by;
+			double uz = coords.coords.z(ci) - bz;
+			double len = Math.sqrt(ux*ux + uy*uy + uz*uz);
+			ux /= len;
+			uy /= len;
+			uz /= len;
+
+			// sum the torques from the rotated atoms, projected onto the axis
+			double tx = 0.0;
+			double ty = 0.0;
+			double tz = 0.0;
+			for (int i : ri) {
+				double px = coords.coords.x(i) - bx;
+				double py = coords.coords.y(i) - by;
+				double pz = coords.coords.z(i) - bz;
+				double gx = atomGradient[i*3];
+				double gy = atomGradient[i*3 + 1];
+				double gz = atomGradient[i*3 + 2];
+				tx += py*gz - pz*gy;
+				ty += pz*gx - px*gz;
+				tz += px*gy - py*gx;
+			}
+			return ux*tx + uy*ty + uz*tz;
+		}
 	}
 
 	@Override
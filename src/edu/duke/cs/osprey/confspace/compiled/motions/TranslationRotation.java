@@ -13,10 +13,6 @@ import java.util.Set;
 
 public class TranslationRotation implements ContinuousMotion {
 
-	// TODO: is this actually correct when these Dofs get applied with other Dofs like dihedrals???
-	//   it's not...
-	//   redo this so the dofs can be applied relatively
-
 	// TODO: can optimize by skipping translation,rotation DoFs during minimization
 	//  when they don't effect the energy at all
 	//  eg, when we're only minimizing a single molecule
@@ -49,7 +45,9 @@ public class TranslationRotation implements ContinuousMotion {
 	private final List<Integer> atomIndices = new ArrayList<>();
 	private final Set<Integer> modifiedPosIndices = new HashSet<>();
 
-	private final CoordsList originalCoords;
+	// the transformation currently applied to the coords
+	private final Quaterniond appliedRotation = new Quaterniond();
+	private final Vector3d appliedTranslation = new Vector3d();
 
 	private final Dof dofPsi;
 	private final Dof dofTheta;
@@ -92,44 +90,104 @@ public class TranslationRotation implements ContinuousMotion {
 			}
 		}
 
-		// copy all the coordinates for our absolute referencing
-		originalCoords = new CoordsList(coords.coords.size);
-		originalCoords.copyFrom(coords.coords, 0);
-
 		// make the dofs
 		// for the rotations, we'll use x-y-z Tait-Bryan angles
 		double rotationStep = 0.004363323; // 0.25 degrees
 		double translationStep = 0.01; // angstroms
 		String molName = coords.confSpace.molInfos[molInfoIndex].name;
-		dofPsi = new Dof("Rotation @ " + molName + ", Psi (X)", desc.maxRotationRadians, rotationStep);
-		dofTheta = new Dof("Rotation @ " + molName + ", Theta (Y)", desc.maxRotationRadians, rotationStep);
-		dofPhi = new Dof("Rotation @ " + molName + ", Phi (Z)", desc.maxRotationRadians, rotationStep);
-		dofX = new Dof("Translation @ " + molName + ", X", desc.maxDistance, translationStep);
-		dofY = new Dof("Translation @ " + molName + ", Y", desc.maxDistance, translationStep);
-		dofZ = new Dof("Translation @ " + molName + ", Z", desc.maxDistance, translationStep);
+		dofPsi = new Dof("Rotation @ " + molName + ", Psi (X)", desc.maxRotationRadians, rotationStep, Axis.Psi);
+		dofTheta = new Dof("Rotation @ " + molName + ", Theta (Y)", desc.maxRotationRadians, rotationStep, Axis.Theta);
+		dofPhi = new Dof("Rotation @ " + molName + ", Phi (Z)", desc.maxRotationRadians, rotationStep, Axis.Phi);
+		dofX = new Dof("Translation @ " + molName + ", X", desc.maxDistance, translationStep, Axis.X);
+		dofY = new Dof("Translation @ " + molName + ", Y", desc.maxDistance, translationStep, Axis.Y);
+		dofZ = new Dof("Translation @ " + molName + ", Z", desc.maxDistance, translationStep, Axis.Z);
 	}
 
 	private void apply() {
 
-		Vector3d pos = new Vector3d();
-		Quaterniond qPsi = new Quaterniond().rotationX(dofPsi.value);
-		Quaterniond qTheta = new Quaterniond().rotationY(dofTheta.value);
-		Quaterniond qPhi = new Quaterniond().rotationZ(dofPhi.value);
-		Vector3d t = new Vector3d(dofX.value, dofY.value, dofZ.value);
+		Quaterniond rotation = new Quaterniond()
+			.rotateZ(dofPhi.value)
+			.rotateY(dofTheta.value)
+			.rotateX(dofPsi.value);
+		Vector3d translation = new Vector3d(dofX.value, dofY.value, dofZ.value);
+
+		// apply the change relative to the current coords, rather than from the original coords,
+		// so we don't undo any changes made by other dofs, like dihedral angles
+		Quaterniond delta = new Quaterniond(appliedRotation).conjugate().premul(rotation);
+		Vector3d oldCenter = new Vector3d(desc.centroid).add(appliedTranslation);
+		Vector3d newCenter = new Vector3d(desc.centroid).add(translation);
 
 		// transform each atom
+		Vector3d pos = new Vector3d();
 		for (int atomi : atomIndices) {
-			originalCoords.get(atomi, pos);
-			pos.sub(desc.centroid);
-			pos.rotate(qPsi);
-			pos.rotate(qTheta);
-			pos.rotate(qPhi);
-			pos.add(desc.centroid);
-			pos.add(t);
+			coords.coords.get(atomi, pos);
+			pos.sub(oldCenter);
+			pos.rotate(delta);
+			pos.add(newCenter);
 			coords.coords.set(atomi, pos);
 		}
+
+		appliedRotation.set(rotation);
+		appliedTranslation.set(translation);
+	}
+
+
+	/**
+	 * Calculates the derivative of the energy with respect to one of the dofs,
+	 * using the current atom coords.
+	 */
+	private double calcDerivative(double[] atomGradient, Axis axis) {
+
+		// treat the current coords as a rigid body,
+		// so all the derivatives come from the net force and the net torque about the rotation center
+		double cx = desc.centroid.x + dofX.value;
+		double cy = desc.centroid.y + dofY.value;
+		double cz = desc.centroid.z + dofZ.value;
+		double fx = 0.0;
+		double fy = 0.0;
+		double fz = 0.0;
+		double tx = 0.0;
+		double ty = 0.0;
+		double tz = 0.0;
+		for (int atomi : atomIndices) {
+			double vx = coords.coords.x(atomi) - cx;
+			double vy = coords.coords.y(atomi) - cy;
+			double vz = coords.coords.z(atomi) - cz;
+			double gx = atomGradient[atomi*3];
+			double gy = atomGradient[atomi*3 + 1];
+			double gz = atomGradient[atomi*3 + 2];
+			fx += gx;
+			fy += gy;
+			fz += gz;
+			tx += vy*gz - vz*gy;
+			ty += vz*gx - vx*gz;
+			tz += vx*gy - vy*gx;
+		}
+
+		// the rotations are applied in x,y,z order, so each rotation axis is rotated by the later rotations
+		double sinTheta = Math.sin(dofTheta.value);
+		double cosTheta = Math.cos(dofTheta.value);
+		double sinPhi = Math.sin(dofPhi.value);
+		double cosPhi = Math.cos(dofPhi.value);
+		switch (axis) {
+			case Psi: return cosPhi*cosTheta*tx + sinPhi*cosTheta*ty - sinTheta*tz;
+			case Theta: return -sinPhi*tx + cosPhi*ty;
+			case Phi: return tz;
+			case X: return fx;
+			case Y: return fy;
+			case Z: return fz;
+			default: throw new Error("unknown axis: " + axis);
+		}
 	}
 
+	private enum Axis {
+		Psi,
+		Theta,
+		Phi,
+		X,
+		Y,
+		Z
+	}
 
 	public class Dof implements DegreeOfFreedom {
 
@@ -138,13 +196,15 @@ public class TranslationRotation implements ContinuousMotion {
 		public final double max;
 		public final double step;
 
+		private final Axis axis;
 		private double value = 0.0;
 
-		public Dof(String name, double dist, double step) {
+		private Dof(String name, double dist, double step, Axis axis) {
 			this.name = name;
 			this.min = -dist;
 			this.max = dist;
 			this.step = step;
+			this.axis = axis;
 		}
 
 		@Override
@@ -182,6 +242,16 @@ public class TranslationRotation implements ContinuousMotion {
 		public double initialStepSize() {
 			return step;
 		}
+
+		@Override
+		public boolean hasDerivative() {
+			return true;
+		}
+
+		@Override
+		public double calcDerivative(double[] atomGradient) {
+			return TranslationRotation.this.calcDerivative(atomGradient, axis);
+		}
 	}
 
 	@Override
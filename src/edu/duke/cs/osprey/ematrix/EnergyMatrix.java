@@ -133,7 +133,41 @@ public class EnergyMatrix extends TupleMatrixDouble implements FragmentEnergies
     public double confE(int conf[]){
         //value of energy represented in energy matrix, for specified conformation
         //expressed as residue-specific RC indices (as in the storage matrices)
-        return getInternalEnergy(new RCTuple(conf)) + constTerm;
+
+        // higher-order terms need the tuple machinery
+        if (hasHigherOrderTerms()) {
+            return getInternalEnergy(new RCTuple(conf)) + constTerm;
+        }
+
+        // otherwise, skip the boxed tuple entirely
+        return getPairwiseInternalEnergy(conf) + constTerm;
+    }
+
+
+    /**
+     * the one-body and pairwise parts of the internal energy of a conformation, without building a tuple
+     * (undefined positions have negative RCs, and aren't part of the tuple)
+     */
+    protected double getPairwiseInternalEnergy(int[] conf) {
+        double energy = 0;
+        for (int pos1=0; pos1<conf.length; pos1++) {
+            if (conf[pos1] >= 0) {
+                energy += getOneBodyDouble(pos1, conf[pos1]);
+            }
+        }
+        for (int pos1=0; pos1<conf.length; pos1++) {
+            int rc1 = conf[pos1];
+            if (rc1 < 0) {
+                continue;
+            }
+            for (int pos2=0; pos2<pos1; pos2++) {
+                int rc2 = conf[pos2];
+                if (rc2 >= 0) {
+                    energy += getPairwiseDouble(pos1, rc1, pos2, rc2);
+                }
+            }
+        }
+        return energy;
     }
     
     
@@ -157,7 +191,7 @@ public class EnergyMatrix extends TupleMatrixDouble implements FragmentEnergies
             int posNum = tuppos.get(indexInTuple);
             int RCNum = tupRCs.get(indexInTuple);
             
-            energy += getOneBody(posNum,RCNum);
+            energy += getOneBodyDouble(posNum,RCNum);
         }
         
         for(int indexInTuple=0; indexInTuple<numPosInTuple; indexInTuple++){
@@ -168,7 +202,7 @@ public class EnergyMatrix extends TupleMatrixDouble implements FragmentEnergies
                 int pos2 = tuppos.get(index2);
                 int rc2 = tupRCs.get(index2);
                 
-                energy += getPairwise(posNum,RCNum,pos2,rc2);
+                energy += getPairwiseDouble(posNum,RCNum,pos2,rc2);
                 
                 if (useHigherOrderTerms) {
 					HigherTupleFinder<Double> htf = getHigherOrderTerms(posNum,RCNum,pos2,rc2);
@@ -183,12 +217,12 @@ public class EnergyMatrix extends TupleMatrixDouble implements FragmentEnergies
 
     @Override
 	public double getEnergy(int pos, int rc) {
-    	return getOneBody(pos, rc);
+    	return getOneBodyDouble(pos, rc);
 	}
 
 	@Override
 	public double getEnergy(int pos1, int rc1, int pos2, int rc2) {
-    	return getPairwise(pos1, rc1, pos2, rc2);
+    	return getPairwiseDouble(pos1, rc1, pos2, rc2);
 	}
     
     public double getHigherOrderEnergy(RCTuple tup, int i1, int i2) {
@@ -73,8 +73,8 @@ public class LazyEnergyMatrix extends EnergyMatrix {
 	}
 	
     @Override
-    public Double getOneBody(int res, int conf) {
-    	double val = super.getOneBody(res, conf);
+    public double getOneBodyDouble(int res, int conf) {
+    	double val = super.getOneBodyDouble(res, conf);
     	if (hasVal(val)) {
     		return val;
     	}
@@ -84,8 +84,8 @@ public class LazyEnergyMatrix extends EnergyMatrix {
     }
 
 	@Override
-    public Double getPairwise(int res1, int conf1, int res2, int conf2) {
-    	double val = super.getPairwise(res1, conf1, res2, conf2);
+    public double getPairwiseDouble(int res1, int conf1, int res2, int conf2) {
+    	double val = super.getPairwiseDouble(res1, conf1, res2, conf2);
     	if (hasVal(val)) {
     		return val;
     	}
@@ -93,13 +93,18 @@ public class LazyEnergyMatrix extends EnergyMatrix {
     	super.setPairwise(res1, conf1, res2, conf2, val);
     	return val;
     }
+
+	@Override
+	public PairwiseSlice getPairwiseSlice(int res1, int conf1, int res2, PairwiseSlice slice) {
+		return copyPairwiseSlice(res1, conf1, res2, slice);
+	}
 	
 	public boolean hasOneBody(int res, int conf) {
-		return hasVal(super.getOneBody(res, conf));
+		return hasVal(super.getOneBodyDouble(res, conf));
 	}
 	
 	public boolean hasPairwise(int res1, int conf1, int res2, int conf2) {
-		return hasVal(super.getPairwise(res1, conf1, res2, conf2));
+		return hasVal(super.getPairwiseDouble(res1, conf1, res2, conf2));
 	}
 	
 	public void clear() {
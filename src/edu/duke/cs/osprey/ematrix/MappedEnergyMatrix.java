@@ -0,0 +1,170 @@
+package edu.duke.cs.osprey.ematrix;
+
+import java.io.File;
+import java.io.ObjectStreamException;
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+
+import edu.duke.cs.osprey.confspace.RCTuple;
+import edu.duke.cs.osprey.confspace.TupleMatrixFile;
+import edu.duke.cs.osprey.tools.ObjectIO.BadFileException;
+import edu.duke.cs.osprey.tools.ObjectIO.CantWriteException;
+
+
+/**
+ * A read-only energy matrix whose energies are read straight from a memory-mapped {@link TupleMatrixFile},
+ * rather than from arrays on the heap.
+ *
+ * Opening a mapped matrix is nearly instant regardless of its size, and all the processes on one machine
+ * that map the same file share the same pages in the OS page cache.
+ *
+ * When serialized (eg, to send to cluster members), mapped matrices are copied into regular energy matrices.
+ */
+public class MappedEnergyMatrix extends EnergyMatrix {
+
+	private static final long serialVersionUID = 2932735086297301425L;
+
+	/**
+	 * Writes the energy matrix to the flat binary format
+	 * @throws IllegalArgumentException if the matrix has higher-order terms or reference energies
+	 */
+	public static void write(EnergyMatrix emat, File file)
+	throws CantWriteException {
+
+		TupleMatrixFile.checkWritable(emat);
+		if (emat.geteRefMat() != null) {
+			throw new IllegalArgumentException("matrix has reference energies, which the flat format doesn't support");
+		}
+
+		TupleMatrixFile.Header header = new TupleMatrixFile.Header(TupleMatrixFile.Kind.Energies, emat, emat.getConstTerm());
+		TupleMatrixFile.write(file, header, (h, out) -> {
+			for (int pos1=0; pos1<emat.getNumPos(); pos1++) {
+				for (int rc1=0; rc1<emat.getNumConfAtPos(pos1); rc1++) {
+					out.putDouble(emat.getOneBodyDouble(pos1, rc1));
+				}
+			}
+			// same order as the pairwise array: pos1 > pos2, then rc1, then rc2
+			for (int pos1=0; pos1<emat.getNumPos(); pos1++) {
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc1=0; rc1<emat.getNumConfAtPos(pos1); rc1++) {
+						for (int rc2=0; rc2<emat.getNumConfAtPos(pos2); rc2++) {
+							out.putDouble(emat.getPairwiseDouble(pos1, rc1, pos2, rc2));
+						}
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Maps an energy matrix from a file written by {@link #write}
+	 * @return the mapped matrix, or null if the file doesn't exist
+	 */
+	public static MappedEnergyMatrix open(File file)
+	throws BadFileException {
+		return TupleMatrixFile.map(file, TupleMatrixFile.Kind.Energies, (mapping) ->
+			new MappedEnergyMatrix(mapping.header, mapping.mapOneBodyDoubles(), mapping.mapPairwiseDoubles())
+		);
+	}
+
+	private static final int SegmentShift = TupleMatrixFile.Mapping.segmentDoublesShift();
+	private static final int SegmentMask = (1 << SegmentShift) - 1;
+
+	private final transient DoubleBuffer oneBody;
+	private final transient DoubleBuffer[] pairwise;
+
+	private MappedEnergyMatrix(TupleMatrixFile.Header header, DoubleBuffer oneBody, DoubleBuffer[] pairwise) {
+		super(header.numPos, header.numConfAtPos, header.pruningInterval);
+		super.setConstTerm(header.constTerm);
+		this.oneBody = oneBody;
+		this.pairwise = pairwise;
+	}
+
+	@Override
+	protected void allocate(int numOneBody, int numPairwise) {
+		// don't allocate anything, the values are in the mapped file
+	}
+
+	@Override
+	public double getOneBodyDouble(int pos, int rc) {
+		return oneBody.get(getOneBodyIndex(pos, rc));
+	}
+
+	@Override
+	public double getPairwiseDouble(int pos1, int rc1, int pos2, int rc2) {
+		int i = getPairwiseIndex(pos1, rc1, pos2, rc2);
+		return pairwise[i >>> SegmentShift].get(i & SegmentMask);
+	}
+
+	@Override
+	public PairwiseSlice getPairwiseSlice(int pos1, int rc1, int pos2, PairwiseSlice slice) {
+		return copyPairwiseSlice(pos1, rc1, pos2, slice);
+	}
+
+	@Override
+	public void setOneBody(int pos, int rc, Double val) {
+		throw new UnsupportedOperationException("mapped energy matrices are read-only");
+	}
+
+	@Override
+	public void setOneBody(int pos, ArrayList<Double> val) {
+		throw new UnsupportedOperationException("mapped energy matrices are read-only");
+	}
+
+	@Override
+	public void setPairwise(int pos1, int rc1, int pos2, int rc2, Double val) {
+		throw new UnsupportedOperationException("mapped energy matrices are read-only");
+	}
+
+	@Override
+	public void setPairwise(int pos1, int pos2, ArrayList<ArrayList<Double>> val) {
+		throw new UnsupportedOperationException("mapped energy matrices are read-only");
+	}
+
+	@Override
+	public void setHigherOrder(RCTuple tup, Double val) {
+		throw new UnsupportedOperationException("mapped energy matrices are read-only");
+	}
+
+	@Override
+	public void negate() {
+		throw new UnsupportedOperationException("mapped energy matrices are read-only");
+	}
+
+	@Override
+	public double sum() {
+		double sum = 0.0;
+		for (int i=0; i<oneBody.limit(); i++) {
+			sum += oneBody.get(i);
+		}
+		for (DoubleBuffer segment : pairwise) {
+			for (int i=0; i<segment.limit(); i++) {
+				sum += segment.get(i);
+			}
+		}
+		return sum;
+	}
+
+	/** copies the energies into a regular energy matrix on the heap */
+	public EnergyMatrix copyToHeap() {
+		EnergyMatrix emat = new EnergyMatrix(getNumPos(), getNumConfAtPos().clone(), getPruningInterval());
+		emat.setConstTerm(getConstTerm());
+		for (int pos1=0; pos1<getNumPos(); pos1++) {
+			for (int rc1=0; rc1<getNumConfAtPos(pos1); rc1++) {
+				emat.setOneBody(pos1, rc1, getOneBodyDouble(pos1, rc1));
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<getNumConfAtPos(pos2); rc2++) {
+						emat.setPairwise(pos1, rc1, pos2, rc2, getPairwiseDouble(pos1, rc1, pos2, rc2));
+					}
+				}
+			}
+		}
+		return emat;
+	}
+
+	private Object writeReplace()
+	throws ObjectStreamException {
+		// mapped buffers can't be serialized, so send a copy instead
+		return copyToHeap();
+	}
+}
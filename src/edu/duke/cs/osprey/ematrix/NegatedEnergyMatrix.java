@@ -51,8 +51,8 @@ public class NegatedEnergyMatrix extends ProxyEnergyMatrix {
 	}
 
 	@Override
-	public Double getOneBody(int pos, int rc) {
-		return -super.getOneBody(pos, rc);
+	public double getOneBodyDouble(int pos, int rc) {
+		return -super.getOneBodyDouble(pos, rc);
 	}
 
 	@Override
@@ -61,8 +61,13 @@ public class NegatedEnergyMatrix extends ProxyEnergyMatrix {
 	}
 
 	@Override
-	public Double getPairwise(int pos1, int rc1, int pos2, int rc2) {
-		return -super.getPairwise(pos1, rc1, pos2, rc2);
+	public double getPairwiseDouble(int pos1, int rc1, int pos2, int rc2) {
+		return -super.getPairwiseDouble(pos1, rc1, pos2, rc2);
+	}
+
+	@Override
+	public PairwiseSlice getPairwiseSlice(int pos1, int rc1, int pos2, PairwiseSlice slice) {
+		return copyPairwiseSlice(pos1, rc1, pos2, slice);
 	}
 
 	@Override
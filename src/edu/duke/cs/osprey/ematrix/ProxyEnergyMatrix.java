@@ -51,8 +51,8 @@ public class ProxyEnergyMatrix extends EnergyMatrix {
 	}
 
 	@Override
-	public Double getOneBody(int pos, int rc) {
-		return target.getOneBody(pos, rc);
+	public double getOneBodyDouble(int pos, int rc) {
+		return target.getOneBodyDouble(pos, rc);
 	}
 
 	@Override
@@ -61,8 +61,13 @@ public class ProxyEnergyMatrix extends EnergyMatrix {
 	}
 
 	@Override
-	public Double getPairwise(int pos1, int rc1, int pos2, int rc2) {
-		return target.getPairwise(pos1, rc1, pos2, rc2);
+	public double getPairwiseDouble(int pos1, int rc1, int pos2, int rc2) {
+		return target.getPairwiseDouble(pos1, rc1, pos2, rc2);
+	}
+
+	@Override
+	public PairwiseSlice getPairwiseSlice(int pos1, int rc1, int pos2, PairwiseSlice slice) {
+		return target.getPairwiseSlice(pos1, rc1, pos2, slice);
 	}
 
 	@Override
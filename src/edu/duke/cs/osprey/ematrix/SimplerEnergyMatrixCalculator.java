@@ -39,6 +39,7 @@ import java.util.List;
 import edu.duke.cs.osprey.confspace.ConfSpaceIteration;
 import edu.duke.cs.osprey.confspace.RCTuple;
 import edu.duke.cs.osprey.confspace.SimpleConfSpace;
+import edu.duke.cs.osprey.confspace.TupleMatrixFile;
 import edu.duke.cs.osprey.energy.ConfEnergyCalculator;
 import edu.duke.cs.osprey.energy.EnergyCalculator;
 import edu.duke.cs.osprey.energy.ResidueInteractions;
@@ -80,6 +81,17 @@ public class SimplerEnergyMatrixCalculator {
 		 */
 		private File cacheFile = null;
 
+		/**
+		 * Store the cache file in the flat binary format ({@link TupleMatrixFile}) instead of
+		 * Java serialization, and read the cached energies straight from a memory-mapped file.
+		 *
+		 * Mapped energy matrices load almost instantly, and all the processes on one machine
+		 * can share one copy of the matrix, but they're read-only.
+		 * Matrices with energy corrections can't be stored in the flat format,
+		 * and won't be cached at all.
+		 */
+		private boolean mapCacheFile = false;
+
 		/**
 		 * Compute energy corrections for all triples whose constituent single and pair energies
 		 * are below the given threshold. ie. ignore triples with clashes.
@@ -105,6 +117,11 @@ public class SimplerEnergyMatrixCalculator {
 			return this;
 		}
 
+		public Builder setMapCacheFile(boolean val) {
+			mapCacheFile = val;
+			return this;
+		}
+
 		public Builder setTripleCorrectionThreshold(Double val) {
 			tripleCorrectionThreshold = val;
 			return this;
@@ -116,19 +133,21 @@ public class SimplerEnergyMatrixCalculator {
 		}
 		
 		public SimplerEnergyMatrixCalculator build() {
-			return new SimplerEnergyMatrixCalculator(confEcalc, cacheFile, tripleCorrectionThreshold, quadCorrectionThreshold);
+			return new SimplerEnergyMatrixCalculator(confEcalc, cacheFile, mapCacheFile, tripleCorrectionThreshold, quadCorrectionThreshold);
 		}
 	}
 
 	public final ConfEnergyCalculator confEcalc;
 	public final File cacheFile;
+	public final boolean mapCacheFile;
 	public final Double tripleCorrectionThreshold;
 	public final Double quadCorrectionThreshold;
 
-	private SimplerEnergyMatrixCalculator(ConfEnergyCalculator confEcalc, File cacheFile, Double tripleCorrectionThreshold, Double quadCorrectionThreshold) {
+	private SimplerEnergyMatrixCalculator(ConfEnergyCalculator confEcalc, File cacheFile, boolean mapCacheFile, Double tripleCorrectionThreshold, Double quadCorrectionThreshold) {
 
 		this.confEcalc = confEcalc;
 		this.cacheFile = cacheFile;
+		this.mapCacheFile = mapCacheFile;
 		this.tripleCorrectionThreshold = tripleCorrectionThreshold;
 		this.quadCorrectionThreshold = quadCorrectionThreshold;
 	}
@@ -148,7 +167,16 @@ public class SimplerEnergyMatrixCalculator {
 				return null;
 			}
 
-			if (cacheFile != null) {
+			if (cacheFile != null && mapCacheFile) {
+				return TupleMatrixFile.readOrMake(
+					cacheFile,
+					"energy matrix",
+					MappedEnergyMatrix::open,
+					MappedEnergyMatrix::write,
+					(emat) -> emat.matches(confEcalc.confSpace),
+					(context) -> reallyCalcEnergyMatrix()
+				);
+			} else if (cacheFile != null) {
 				return ObjectIO.readOrMake(
 					cacheFile,
 					EnergyMatrix.class,
@@ -324,13 +352,13 @@ public class SimplerEnergyMatrixCalculator {
 					// nope, calculate the usual fragment energy
 					switch (frag.size()) {
 						case 1: {
-							energy = ctx.confEcalc.calcSingleEnergy(frag).energy;
+							energy = ctx.confEcalc.calcSingleEnergyValue(frag);
 						} break;
 						case 2: {
-							energy = ctx.confEcalc.calcPairEnergy(frag).energy;
+							energy = ctx.confEcalc.calcPairEnergyValue(frag);
 						} break;
 						default: {
-							energy = ctx.confEcalc.calcEnergy(frag).energy;
+							energy = ctx.confEcalc.calcEnergyValue(frag);
 						}
 					}
 				}
@@ -386,7 +414,7 @@ public class SimplerEnergyMatrixCalculator {
 
 								// calc the energy
 								confEcalc.tasks.submit(
-									() -> confEcalc.calcEnergy(triple, inters).energy,
+									() -> confEcalc.calcEnergyValue(triple, inters),
 									(tripleEnergy) -> {
 
 										// convert the triple energy into a correction
@@ -465,7 +493,7 @@ public class SimplerEnergyMatrixCalculator {
 
 										// calc the energy
 										confEcalc.tasks.submit(
-											() -> confEcalc.calcEnergy(quad, inters).energy,
+											() -> confEcalc.calcEnergyValue(quad, inters),
 											(quadEnergy) -> {
 
 												// convert the quad energy into a correction
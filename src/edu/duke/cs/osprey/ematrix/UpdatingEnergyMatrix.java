@@ -32,6 +32,7 @@
 
 package edu.duke.cs.osprey.ematrix;
 
+import edu.duke.cs.osprey.confspace.PackedRCTuple;
 import edu.duke.cs.osprey.confspace.RCTuple;
 import edu.duke.cs.osprey.confspace.SimpleConfSpace;
 import edu.duke.cs.osprey.energy.ConfEnergyCalculator;
@@ -42,9 +43,11 @@ import java.util.*;
 
 public class UpdatingEnergyMatrix extends ProxyEnergyMatrix {
     // Store the seen confs in a trie with wildcards.
-    private static final boolean debug = false;
     private TupleTrie corrections;
     private int numPos;
+
+    // scratch space for looking up corrections, one per thread, so the scoring path doesn't allocate or lock
+    private final ThreadLocal<CorrectionsScratch> scratches;
     
     //debug variable
     public final ConfEnergyCalculator sourceECalc;
@@ -54,14 +57,11 @@ public class UpdatingEnergyMatrix extends ProxyEnergyMatrix {
         corrections = new TupleTrie(confSpace.positions);
         this.numPos = confSpace.getNumPos();
         this.sourceECalc = confECalc;
-
+        this.scratches = ThreadLocal.withInitial(() -> new CorrectionsScratch(numPos));
     }
 
     public UpdatingEnergyMatrix(SimpleConfSpace confSpace, EnergyMatrix target) {
-        super(confSpace, target);
-        this.numPos = confSpace.getNumPos();
-        this.sourceECalc = null;
-        corrections = new TupleTrie(confSpace.positions);
+        this(confSpace, target, null);
     }
 
     /*Hack 1: Don't share residues*/
@@ -103,7 +103,7 @@ public class UpdatingEnergyMatrix extends ProxyEnergyMatrix {
             int posNum = tuppos.get(indexInTuple);
             int RCNum = tupRCs.get(indexInTuple);
 
-            energy += getOneBody(posNum,RCNum);
+            energy += getOneBodyDouble(posNum,RCNum);
         }
 
         for(int indexInTuple=0; indexInTuple<numPosInTuple; indexInTuple++){
@@ -114,7 +114,7 @@ public class UpdatingEnergyMatrix extends ProxyEnergyMatrix {
                 int pos2 = tuppos.get(index2);
                 int rc2 = tupRCs.get(index2);
 
-                energy += getPairwise(posNum,RCNum,pos2,rc2);
+                energy += getPairwiseDouble(posNum,RCNum,pos2,rc2);
 
             }
         }
@@ -137,60 +137,114 @@ public class UpdatingEnergyMatrix extends ProxyEnergyMatrix {
      */
     //intra+shell similar...
 
+    @Override
+    public double confE(int[] conf) {
+
+        // don't build a tuple, just look up the corrections for the conf directly
+        double energy = getPairwiseInternalEnergy(conf);
+        if (hasHigherOrderTerms()) {
+            CorrectionsScratch scratch = scratches.get();
+            scratch.setQuery(conf);
+            energy += applyCorrections(scratch);
+        }
+        return energy + getConstTerm();
+    }
+
     double internalEHigherOrder(RCTuple tup){
         //Computes the portion of the internal energy for tuple tup
         //that consists of interactions in htf (corresponds to some sub-tuple of tup)
         //with RCs whose indices in tup are < curIndex
-        double E = 0;
-        //E += super.internalEHigherOrder(tup, curIndex, htf);
-        List<TupE> confCorrections = corrections.getCorrections(tup);
-        if(confCorrections.size() > 0) {
-            double corr = processCorrections(confCorrections);
-            E += corr;
-        }
-
-        return E;
+        CorrectionsScratch scratch = scratches.get();
+        scratch.setQuery(tup);
+        return applyCorrections(scratch);
     }
 
-    private double processCorrections(List<TupE> confCorrections) {
-        Collections.sort(confCorrections, (a,b)->-Double.compare(a.E,b.E));
-        double sum = 0;
+    private static final Comparator<TupleTrie.Correction> largestCorrectionsFirst =
+        (a, b) -> Double.compare(b.energy, a.energy);
+
+    private double applyCorrections(CorrectionsScratch scratch) {
+
+        scratch.numMatches = 0;
+        corrections.forEachCorrection(scratch.pos, scratch.rcs, scratch.size, scratch);
+        if (scratch.numMatches == 0) {
+            return 0;
+        }
+
         // Attempt 1: be greedy and start from the largest correction you
         // can get instead of trying to solve the NP-Complete problem.
-        Set<Integer> usedPositions = new HashSet<>();
-        List<TupE> usedCorrections = new ArrayList<>();
-        int numApplied = 0;
-        for(TupE correction: confCorrections) {
-            if (usedPositions.size() >= numPos) {
+        // NOTE: the sort is stable, so ties are broken by trie order
+        Arrays.sort(scratch.matches, 0, scratch.numMatches, largestCorrectionsFirst);
+        Arrays.fill(scratch.usedPositions, false);
+        int numUsedPositions = 0;
+        double sum = 0;
+        for (int i=0; i<scratch.numMatches; i++) {
+            if (numUsedPositions >= numPos) {
                 break;
             }
-            Collection<Integer> positions = correction.tup.pos;
+            TupleTrie.Correction correction = scratch.matches[i];
             boolean noIntersections = true;
-            for(int position : positions) {
-                if(usedPositions.contains(position)) {
+            for (int pos : correction.tuple.pos) {
+                if (scratch.usedPositions[pos]) {
                     noIntersections = false;
                     break;
                 }
             }
-            if(noIntersections) {
-                usedPositions.addAll(correction.tup.pos);
-                usedCorrections.add(correction);
-                //System.out.println("Applying correction "+correction.tup.stringListing()+":"+correction.E);
-                numApplied++;
-                sum += correction.E;
+            if (noIntersections) {
+                for (int pos : correction.tuple.pos) {
+                    scratch.usedPositions[pos] = true;
+                }
+                numUsedPositions += correction.tuple.size();
+                sum += correction.energy;
             }
         }
-        if(debug)
-        {
-            Set<Integer> positionCheck = new HashSet<>();
-            for(TupE correction: usedCorrections) {
-                for(int pos: correction.tup.pos) {
-                    if (positionCheck.contains(pos))
-                        System.err.println("REUSING POSITION "+pos);
+        return sum;
+    }
+
+    private static class CorrectionsScratch implements TupleTrie.Visitor {
+
+        // the query, sorted by position
+        final int[] pos;
+        final int[] rcs;
+        int size;
+
+        TupleTrie.Correction[] matches = new TupleTrie.Correction[16];
+        int numMatches = 0;
+
+        final boolean[] usedPositions;
+
+        CorrectionsScratch(int numPos) {
+            pos = new int[numPos];
+            rcs = new int[numPos];
+            usedPositions = new boolean[numPos];
+        }
+
+        void setQuery(int[] conf) {
+            size = 0;
+            for (int i=0; i<conf.length; i++) {
+                if (conf[i] >= 0) {
+                    pos[size] = i;
+                    rcs[size] = conf[i];
+                    size++;
                 }
             }
         }
-        return sum;
+
+        void setQuery(RCTuple tup) {
+            size = tup.size();
+            for (int i=0; i<size; i++) {
+                pos[i] = tup.pos.get(i);
+                rcs[i] = tup.RCs.get(i);
+            }
+            PackedRCTuple.sort(pos, rcs, size);
+        }
+
+        @Override
+        public void visit(TupleTrie.Correction correction) {
+            if (numMatches == matches.length) {
+                matches = Arrays.copyOf(matches, matches.length*2);
+            }
+            matches[numMatches++] = correction;
+        }
     }
 
     @Override
@@ -204,200 +258,183 @@ public class UpdatingEnergyMatrix extends ProxyEnergyMatrix {
         corrections.insert(new TupE(orderedTup, val));
     }
 
+    /**
+     * Corrections, stored in a trie with wildcards for the positions the corrections don't cover.
+     *
+     * Children are indexed by RC in arrays, rather than hashed, and queries visit the matching corrections
+     * rather than collecting them into new lists, so lookups don't allocate.
+     *
+     * Inserts are synchronized, but queries don't lock: nodes are only ever changed by swapping in new arrays,
+     * so a query racing an insert just sees the trie from before or after the insert.
+     */
     public static class TupleTrie {
-        public final static int WILDCARD_RC = -123;
-        TupleTrieNode root;
-        List<SimpleConfSpace.Position> positions;
-        private int numCorrections;
-        public TupleTrie(List<SimpleConfSpace.Position> positions)
-        {
-            this.positions = positions;
-            root = createTrie(positions);
-        }
 
-        private TupleTrieNode createTrie(List<SimpleConfSpace.Position> positions) {
-            root = new TupleTrieNode(positions, -1);
-            return root;
-        }
+        public static class Correction {
 
-        public void insert(TupE correction) {
-            if(debug)
-                checkRCTuple(correction.tup);
-            root.insert(correction, 0);
-            numCorrections++;
-        }
+            public final PackedRCTuple tuple;
+            public final double energy;
+            public final TupE tupE;
 
-        private void checkRCTuple(RCTuple tup) {
-            int lastIndex = 0;
-            for(int i = 0; i < tup.size(); i++)
-            {
-                int index = positions.indexOf(tup.pos.get(i));
-                if(index > -1 && lastIndex > index)
-                    System.err.println("Tuple and confspace are not ordered the same way.");
-                lastIndex = index;
+            private Correction(PackedRCTuple tuple, TupE tupE) {
+                this.tuple = tuple;
+                this.energy = tupE.E;
+                this.tupE = tupE;
             }
         }
 
-        public List<TupE> getCorrections(RCTuple query) {
-            List<TupE> corrections = new ArrayList<>();
-            root.populateCorrections(query.sorted(), corrections);
-            return corrections;
+        public interface Visitor {
+            void visit(Correction correction);
         }
 
-        public boolean contains(RCTuple query) {
-            return root.contains(query.sorted(), 0);
+        private static final Node[] NoChildren = new Node[0];
+        private static final Correction[] NoCorrections = new Correction[0];
 
-        }
+        private static class Node {
 
-        public int size() {
-            return numCorrections;
-        }
+            final int position; // -1 at the root
 
+            // index 0 is the wildcard, the rest are indexed by rc + 1
+            volatile Node[] children = NoChildren;
 
-        private class TupleTrieNode {
-            // Wildcard rc
-            int rc = WILDCARD_RC;
-            int positionIndex = -1;
-            int position = -1;
-            List<SimpleConfSpace.Position> positions;
-            List<TupE> corrections = new ArrayList<>();
-            Map<Integer, TupleTrieNode> children = new HashMap<>();
-
-            private TupleTrieNode(List<SimpleConfSpace.Position> positions, int positionIndex) {
-                this.positions = positions;
-                this.positionIndex = positionIndex;
-                if(positionIndex >= 0)
-                    this.position = positions.get(positionIndex).index;
-                if(positionIndex+1 < positions.size())
-                    children.put(WILDCARD_RC, new TupleTrieNode(positions, positionIndex+1));
+            volatile Correction[] corrections = NoCorrections;
+
+            Node(int position) {
+                this.position = position;
             }
 
-            public boolean contains(RCTuple query, int tupleIndex) {
-                /*
-                if(query.size() != positions.size())
-                    System.err.println("Querying corrections for a partial conf. This is likely unintentional.");
-                    */
-                debugPrint("Currently at "+this);
-                if(tupleIndex >= query.size())
-                    return true;
-                int currentRC = query.RCs.get(tupleIndex);
-                int currentPos = query.pos.get(tupleIndex);
-                int indexedPos = -1;
-                int indexedRC = WILDCARD_RC;
-                if(tupleIndex > 0) {
-                    indexedRC = query.RCs.get(tupleIndex-1);
-                    indexedPos = query.pos.get(tupleIndex-1);
+            Node getChild(int index) {
+                Node[] children = this.children;
+                if (index < children.length) {
+                    return children[index];
                 }
-                if(tupleIndex + 1 == positions.size())
-                    return true;
-                int nextIndex = tupleIndex + 1;
-                if(position + 1 < currentPos) {
-                    if(children.get(WILDCARD_RC) == null)
-                        return false;
-                    return children.get(WILDCARD_RC).contains(query, tupleIndex);
+                return null;
+            }
+
+            Node getOrMakeChild(int index, int numRCs) {
+                Node child = getChild(index);
+                if (child == null) {
+                    child = new Node(position + 1);
+                    Node[] children = Arrays.copyOf(this.children, Math.max(this.children.length, Math.max(index + 1, numRCs + 1)));
+                    children[index] = child;
+                    this.children = children;
                 }
-                if(!children.containsKey(currentRC))
-                    return false;
-                if(children.get(currentRC) == null)
-                    return false;
-                return children.get(currentRC).contains(query, nextIndex);
+                return child;
             }
 
-            public String toString()
-            {
-                String rcString = "*";
-                if(rc > -1)
-                    rcString = ""+rc;
-                return ""+position+":"+rcString;
+            void addCorrection(Correction correction) {
+                Correction[] corrections = Arrays.copyOf(this.corrections, this.corrections.length + 1);
+                corrections[corrections.length - 1] = correction;
+                this.corrections = corrections;
             }
+        }
 
-            private void debugPrint(String s)
-            {if(debug)System.out.println(s);}
+        private final List<SimpleConfSpace.Position> positions;
+        private final Node root = new Node(-1);
+        private volatile int numCorrections = 0;
 
-            public void insert(TupE correction, int tupIndex)
-            {
-                for(TupleTrieNode child: children.values()) {
-                    debugPrint(this+"->"+child);
-                }
-                for(TupE corr: corrections)
-                {
-                   debugPrint(corr.tup.stringListing()+":"+corr.E);
-                }
-                RCTuple tup = correction.tup;
-                if(tupIndex >= tup.size()) {
-                    debugPrint("Reached end of tuple, inserting correction at "+this+".");
-                    corrections.add(correction);
-                    for(TupE corr: corrections)
-                    {
-                        debugPrint(corr.tup.stringListing()+":"+corr.E);
-                    }
-                    return;
-                }
-                int currentIndex = -1;
-                int nodeIndex = position;
-                int currentRC = WILDCARD_RC;
-                if(tupIndex > 0) {
-                    currentIndex = tup.pos.get(tupIndex - 1);
-                    currentRC = tup.pos.get(tupIndex - 1);
-                }
-                int childIndex = tup.pos.get(tupIndex);
-                int childRC = tup.RCs.get(tupIndex);
-                if(nodeIndex+1 != childIndex) {
-                   debugPrint((nodeIndex+1)+"!="+childIndex+", continuing...");
-                    children.get(WILDCARD_RC).insert(correction, tupIndex);
+        public TupleTrie(List<SimpleConfSpace.Position> positions)
+        {
+            this.positions = positions;
+        }
+
+        public synchronized void insert(TupE correction) {
+
+            PackedRCTuple tuple = PackedRCTuple.of(correction.tup);
+
+            // walk down the trie, taking wildcards past the positions that aren't in the tuple
+            Node node = root;
+            int i = 0;
+            while (i < tuple.size()) {
+                int nextPos = node.position + 1;
+                if (tuple.pos[i] < nextPos || tuple.pos[i] >= positions.size()) {
+                    throw new IllegalArgumentException("can't insert correction for tuple with invalid positions: " + tuple);
                 }
-                else
-                {
-                    if(!children.containsKey(childRC)) {
-                        TupleTrieNode newChild = new TupleTrieNode(positions, positionIndex+1);
-                        newChild.rc = childRC;
-                        children.put(childRC, newChild);
-                        debugPrint("Added child "+newChild+" to "+this);
-                    }
-                    children.get(childRC).insert(correction, tupIndex+1);
+                if (tuple.pos[i] == nextPos) {
+                    node = node.getOrMakeChild(tuple.rcs[i] + 1, positions.get(nextPos).resConfs.size());
+                    i++;
+                } else {
+                    node = node.getOrMakeChild(0, positions.get(nextPos).resConfs.size());
                 }
+            }
+
+            node.addCorrection(new Correction(tuple, correction));
+            numCorrections++;
+        }
+
+        /**
+         * visits all the corrections whose tuples are subsets of the query tuple
+         *
+         * the query positions must be sorted, and only the first size entries of the arrays are used
+         */
+        public void forEachCorrection(int[] pos, int[] rcs, int size, Visitor visitor) {
+            visit(root, pos, rcs, size, 0, visitor);
+        }
+
+        private void visit(Node node, int[] pos, int[] rcs, int size, int i, Visitor visitor) {
+
+            for (Correction correction : node.corrections) {
+                visitor.visit(correction);
+            }
 
+            if (i >= size) {
+                return;
             }
 
+            int nextIndex = i + 1;
+            if (node.position + 1 < pos[i]) {
 
-            public void populateCorrections (RCTuple query, List<TupE> output) {
-                debugPrint("Matching corrections for "+query.stringListing());
-                populateCorrections(query, output, 0);
+                // the next position isn't in the query, so only wildcards can match it
+                nextIndex = i;
+
+            } else if (node.position + 1 == pos[i]) {
+
+                // the next position is in the query, so match the RC
+                Node child = node.getChild(rcs[i] + 1);
+                if (child != null) {
+                    visit(child, pos, rcs, size, nextIndex, visitor);
+                }
             }
 
-            private void populateCorrections(RCTuple query, List<TupE> output, int tupleIndex) {
-                debugPrint("Currently at "+this);
-                if(corrections.size() > 0)
-                {
-                    output.addAll(corrections);
-                    debugPrint("Adding corrections from "+this);
+            // also branch on wildcard
+            Node wildcard = node.getChild(0);
+            if (wildcard != null) {
+                visit(wildcard, pos, rcs, size, nextIndex, visitor);
+            }
+        }
+
+        public List<TupE> getCorrections(RCTuple query) {
+            PackedRCTuple packed = PackedRCTuple.of(query);
+            List<TupE> corrections = new ArrayList<>();
+            forEachCorrection(packed.pos, packed.rcs, packed.size(), (correction) -> corrections.add(correction.tupE));
+            return corrections;
+        }
+
+        /**
+         * returns true if some correction matches the query exactly, up to the last query position
+         */
+        public boolean contains(RCTuple query) {
+
+            PackedRCTuple packed = PackedRCTuple.of(query);
+
+            Node node = root;
+            int i = 0;
+            while (i < packed.size() && i + 1 < positions.size()) {
+                if (node.position + 1 < packed.pos[i]) {
+                    node = node.getChild(0);
+                } else {
+                    node = node.getChild(packed.rcs[i] + 1);
+                    i++;
                 }
-                if(tupleIndex >= query.size())
-                    return;
-                int currentRC = query.RCs.get(tupleIndex);
-                int currentPos = query.pos.get(tupleIndex);
-                int indexedPos = -1;
-                int indexedRC = WILDCARD_RC;
-                if(tupleIndex > 0) {
-                    indexedRC = query.RCs.get(tupleIndex-1);
-                    indexedPos = query.pos.get(tupleIndex-1);
+                if (node == null) {
+                    return false;
                 }
-                if(indexedPos > position || (indexedPos == position && indexedRC!= rc && rc != WILDCARD_RC))
-                    System.err.println("Error in trie traversal.");
-                if(tupleIndex + 1 > positions.size())
-                    return;
-                int nextIndex = tupleIndex + 1;
-                if(position + 1 < currentPos)
-                    nextIndex = tupleIndex;
-                if(position + 1 == currentPos && children.containsKey(currentRC))
-                    children.get(currentRC).populateCorrections(query, output, nextIndex);
-                // Also branch on wildcard.
-                if(!children.containsKey(WILDCARD_RC))
-                    children.put(WILDCARD_RC, new TupleTrieNode(positions, positionIndex+1));
-                children.get(WILDCARD_RC).populateCorrections(query, output, nextIndex);
             }
+            return true;
         }
 
+        public int size() {
+            return numCorrections;
+        }
     }
 
 }
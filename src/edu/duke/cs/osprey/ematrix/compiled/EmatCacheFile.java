@@ -0,0 +1,240 @@
+package edu.duke.cs.osprey.ematrix.compiled;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.zip.CRC32;
+
+import static edu.duke.cs.osprey.tools.Log.log;
+
+
+/**
+ * An append-only file of energy matrix entries, so energy matrix calculations can be resumed after they're interrupted.
+ *
+ * Entries are identified by their index in the order the calculator enumerates them.
+ * All values are little-endian. The layout is:
+ * <pre>
+ *    long    magic number
+ *    int     version
+ *    int     key size
+ *    byte[]  key
+ *    (blocks)
+ * </pre>
+ * and each block is:
+ * <pre>
+ *    long    index of the first entry
+ *    int     number of entries
+ *    double[] energies
+ *    long    CRC32 of the block so far
+ * </pre>
+ *
+ * Blocks are written with a single append, so if the process is killed while writing,
+ * the file ends with at most one torn block, which is detected by its checksum and discarded on the next read.
+ */
+class EmatCacheFile implements AutoCloseable {
+
+	public static final long Magic = 0x4b434d4559525053L; // "SPRYEMCK", little-endian
+	public static final int Version = 1;
+
+	public interface EntryListener {
+		void onEntry(long index, double energy);
+	}
+
+	public final File file;
+	public final byte[] key;
+
+	private final FileChannel channel;
+
+	/**
+	 * Opens the cache file, and sends all the previously-calculated entries to the listener.
+	 * If the file is missing, corrupted, or was made for a different key, it's started over.
+	 */
+	public EmatCacheFile(File file, byte[] key, long numEntries, BitSet done, EntryListener listener) {
+
+		this.file = file;
+		this.key = key;
+
+		try {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		} catch (IOException ex) {
+			throw new UncheckedIOException("can't open energy matrix cache file: " + file, ex);
+		}
+
+		try {
+			long validBytes = read(numEntries, done, listener);
+			if (validBytes < 0) {
+
+				// start over
+				done.clear();
+				channel.truncate(0);
+				writeHeader();
+
+			} else {
+
+				// throw away any torn block at the end
+				channel.truncate(validBytes);
+				channel.position(validBytes);
+			}
+		} catch (IOException ex) {
+			close();
+			throw new UncheckedIOException("can't read energy matrix cache file: " + file, ex);
+		}
+	}
+
+	private int headerBytes() {
+		return Long.BYTES + Integer.BYTES + Integer.BYTES + key.length;
+	}
+
+	private void writeHeader()
+	throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(headerBytes()).order(ByteOrder.LITTLE_ENDIAN);
+		buf.putLong(Magic);
+		buf.putInt(Version);
+		buf.putInt(key.length);
+		buf.put(key);
+		buf.flip();
+		writeFully(buf);
+	}
+
+	/** returns the number of bytes of valid blocks, or -1 if the file can't be used */
+	private long read(long numEntries, BitSet done, EntryListener listener)
+	throws IOException {
+
+		long size = channel.size();
+		if (size == 0) {
+			return -1;
+		}
+
+		// check the header
+		ByteBuffer header = ByteBuffer.allocate(headerBytes()).order(ByteOrder.LITTLE_ENDIAN);
+		if (!readFully(header, 0)) {
+			log("energy matrix cache file %s is too short, starting over", file);
+			return -1;
+		}
+		if (header.getLong() != Magic || header.getInt() != Version || header.getInt() != key.length) {
+			log("energy matrix cache file %s has the wrong format, starting over", file);
+			return -1;
+		}
+		byte[] fileKey = new byte[key.length];
+		header.get(fileKey);
+		if (!Arrays.equals(fileKey, key)) {
+			log("energy matrix cache file %s was made with different settings, starting over", file);
+			return -1;
+		}
+
+		// read the blocks
+		long pos = header.capacity();
+		ByteBuffer blockHeader = ByteBuffer.allocate(Long.BYTES + Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		long numEntriesRead = 0;
+		while (pos < size) {
+
+			blockHeader.clear();
+			if (!readFully(blockHeader, pos)) {
+				break;
+			}
+			long firstIndex = blockHeader.getLong();
+			int count = blockHeader.getInt();
+			if (firstIndex < 0 || count <= 0 || firstIndex + count > numEntries) {
+				break;
+			}
+
+			ByteBuffer block = ByteBuffer.allocate(blockBytes(count)).order(ByteOrder.LITTLE_ENDIAN);
+			if (!readFully(block, pos)) {
+				break;
+			}
+			long checksum = block.getLong(block.capacity() - Long.BYTES);
+			if (checksum != checksum(block, block.capacity() - Long.BYTES)) {
+				break;
+			}
+
+			block.position(blockHeader.capacity());
+			for (int i=0; i<count; i++) {
+				long index = firstIndex + i;
+				listener.onEntry(index, block.getDouble());
+				done.set((int)index);
+			}
+			numEntriesRead += count;
+			pos += block.capacity();
+		}
+
+		if (pos < size) {
+			log("energy matrix cache file %s ends with an incomplete block, discarding it", file);
+		}
+		if (numEntriesRead > 0) {
+			log("read %d energies from cache file %s", numEntriesRead, file);
+		}
+
+		return pos;
+	}
+
+	private static int blockBytes(int count) {
+		return Long.BYTES + Integer.BYTES + count*Double.BYTES + Long.BYTES;
+	}
+
+	private static long checksum(ByteBuffer buf, int size) {
+		CRC32 crc = new CRC32();
+		ByteBuffer view = buf.duplicate();
+		view.position(0);
+		view.limit(size);
+		crc.update(view);
+		return crc.getValue();
+	}
+
+	private boolean readFully(ByteBuffer buf, long pos)
+	throws IOException {
+		while (buf.hasRemaining()) {
+			int n = channel.read(buf, pos);
+			if (n < 0) {
+				return false;
+			}
+			pos += n;
+		}
+		buf.flip();
+		return true;
+	}
+
+	private void writeFully(ByteBuffer buf)
+	throws IOException {
+		while (buf.hasRemaining()) {
+			channel.write(buf);
+		}
+	}
+
+	/**
+	 * Appends a block of consecutive entries.
+	 * The OS has the data once this returns, so it survives the process getting killed, but not necessarily a power outage.
+	 */
+	public void write(long firstIndex, double[] energies) {
+
+		ByteBuffer block = ByteBuffer.allocate(blockBytes(energies.length)).order(ByteOrder.LITTLE_ENDIAN);
+		block.putLong(firstIndex);
+		block.putInt(energies.length);
+		for (double energy : energies) {
+			block.putDouble(energy);
+		}
+		block.putLong(checksum(block, block.position()));
+		block.flip();
+
+		try {
+			writeFully(block);
+		} catch (IOException ex) {
+			throw new UncheckedIOException("can't write energy matrix cache file: " + file, ex);
+		}
+	}
+
+	@Override
+	public void close() {
+		try {
+			channel.force(false);
+			channel.close();
+		} catch (IOException ex) {
+			throw new UncheckedIOException("can't close energy matrix cache file: " + file, ex);
+		}
+	}
+}
@@ -1,15 +1,31 @@
 package edu.duke.cs.osprey.ematrix.compiled;
 
 import edu.duke.cs.osprey.confspace.compiled.ConfSpace;
+import edu.duke.cs.osprey.confspace.compiled.ContinuousMotion;
+import edu.duke.cs.osprey.confspace.compiled.CoordsList;
+import edu.duke.cs.osprey.confspace.compiled.NeighborLists;
 import edu.duke.cs.osprey.confspace.compiled.PosInter;
 import edu.duke.cs.osprey.confspace.compiled.PosInterDist;
+import edu.duke.cs.osprey.confspace.compiled.motions.DihedralAngle;
+import edu.duke.cs.osprey.confspace.compiled.motions.TranslationRotation;
 import edu.duke.cs.osprey.ematrix.EnergyMatrix;
 import edu.duke.cs.osprey.ematrix.SimpleReferenceEnergies;
+import edu.duke.cs.osprey.energy.compiled.CPUConfEnergyCalculator;
 import edu.duke.cs.osprey.energy.compiled.ConfEnergyCalculator;
 import edu.duke.cs.osprey.energy.compiled.PosInterGen;
+import edu.duke.cs.osprey.parallelism.Cluster;
+import edu.duke.cs.osprey.parallelism.TaskExecutor;
 import edu.duke.cs.osprey.tools.Progress;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 import static edu.duke.cs.osprey.tools.Log.log;
@@ -44,7 +60,8 @@ public class EmatCalculator {
 		 * @note Energy matrix computation can take a long time, but often the results
 		 * can be reused between computations. Use a cache file to skip energy matrix
 		 * computation on the next Osprey run if the energy matrix has already been
-		 * computed once before.
+		 * computed once before. Energies are saved to the cache file as they're calculated,
+		 * so an interrupted computation will pick up where it left off on the next run.
 		 *
 		 * @warning If design settings are changed between runs, Osprey will make
 		 * some effort to detect that the energy matrix cache is out-of-date and compute a
@@ -54,6 +71,12 @@ public class EmatCalculator {
 		 */
 		private File cacheFile = null;
 
+		/**
+		 * Runs the energy calculations in parallel, or on a cluster.
+		 * If not set, all the energies are calculated on the calling thread.
+		 */
+		private TaskExecutor tasks = null;
+
 		public Builder(ConfEnergyCalculator confEcalc) {
 			this.confEcalc = confEcalc;
 		}
@@ -83,13 +106,19 @@ public class EmatCalculator {
 			return this;
 		}
 
+		public Builder setTasks(TaskExecutor val) {
+			tasks = val;
+			return this;
+		}
+
 		public EmatCalculator build() {
 			return new EmatCalculator(
 				confEcalc,
 				new PosInterGen(posInterDist, eref),
 				minimize,
 				includeStaticStatic,
-				cacheFile
+				cacheFile,
+				tasks
 			);
 		}
 	}
@@ -100,27 +129,76 @@ public class EmatCalculator {
 	public final boolean minimize;
 	public final boolean includeStaticStatic;
 	public final File cacheFile;
+	public final TaskExecutor tasks;
 
-	private EmatCalculator(ConfEnergyCalculator confEcalc, PosInterGen posInterGen, boolean minimize, boolean includeStaticStatic, File cacheFile) {
+	private EmatCalculator(ConfEnergyCalculator confEcalc, PosInterGen posInterGen, boolean minimize, boolean includeStaticStatic, File cacheFile, TaskExecutor tasks) {
 
 		this.confEcalc = confEcalc;
 		this.posInterGen = posInterGen;
 		this.minimize = minimize;
 		this.includeStaticStatic = includeStaticStatic;
 		this.cacheFile = cacheFile;
+		this.tasks = tasks != null ? tasks : new TaskExecutor();
 	}
 
 	public EnergyMatrix calc() {
 
-		// first, check the cache file for any previously-calculator energy matrices
-		if (cacheFile != null) {
-			// TODO: implement caching, key off all the arguments to this calculator
+		// make a context group for the task executor
+		try (TaskExecutor.ContextGroup ctxGroup = tasks.contextGroup()) {
+			ctxGroup.putContext(0, BatchTask.class, new BatchTask.Context(confEcalc, posInterGen, minimize));
+
+			// skip the calculation on member nodes
+			if (tasks instanceof Cluster.Member) {
+				return null;
+			}
+
+			return reallyCalc();
 		}
+	}
 
-		// not using cache, just calculate it
-		return reallyCalc();
+	/**
+	 * The entries are numbered in the order they're enumerated:
+	 * the static-static energy (even if it's not used), then each single followed by its pairs with earlier positions.
+	 */
+	private static class Entries {
+
+		final ConfSpace confSpace;
+		final int numEntries;
+
+		Entries(ConfSpace confSpace) {
+			this.confSpace = confSpace;
+			this.numEntries = 1 + confSpace.countSingles() + confSpace.countPairs();
+		}
 
-		// TODO: update the cache after calculating
+		interface Visitor {
+			void visit(int index, int posi1, int confi1, int posi2, int confi2);
+		}
+
+		/** visits every entry in order, using -1 for unused positions and conformations */
+		void forEach(Visitor visitor) {
+			int index = 0;
+			visitor.visit(index++, -1, -1, -1, -1);
+			for (int posi1=0; posi1<confSpace.numPos(); posi1++) {
+				for (int confi1=0; confi1<confSpace.numConf(posi1); confi1++) {
+					visitor.visit(index++, posi1, confi1, -1, -1);
+					for (int posi2=0; posi2<posi1; posi2++) {
+						for (int confi2=0; confi2<confSpace.numConf(posi2); confi2++) {
+							visitor.visit(index++, posi1, confi1, posi2, confi2);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private static void set(EnergyMatrix emat, int posi1, int confi1, int posi2, int confi2, double energy) {
+		if (posi1 < 0) {
+			emat.setConstTerm(energy);
+		} else if (posi2 < 0) {
+			emat.setOneBody(posi1, confi1, energy);
+		} else {
+			emat.setPairwise(posi1, confi1, posi2, confi2, energy);
+		}
 	}
 
 	private EnergyMatrix reallyCalc() {
@@ -129,6 +207,7 @@ public class EmatCalculator {
 		EnergyMatrix emat = new EnergyMatrix(confEcalc.confSpace());
 
 		ConfSpace confSpace = confEcalc.confSpace();
+		Entries entries = new Entries(confSpace);
 
 		// count how much work there is to do
 		// estimate work based on number of position interactions and the conf space size
@@ -141,50 +220,316 @@ public class EmatCalculator {
 			singleCost = 0;
 			pairCost = 0;
 		}
-		int numSingles = confSpace.countSingles();
-		int numPairs = confSpace.countPairs();
-		Progress progress = new Progress(1 + numSingles*singleCost + numPairs*pairCost);
-		log("Calculating energy matrix with %d entries", 1 + numSingles + numPairs);
-
-		// TODO: use any parallelism provided by the confEcalc
+		Progress progress = new Progress(1 + confSpace.countSingles()*singleCost + confSpace.countPairs()*pairCost);
+		log("Calculating energy matrix with %d entries", entries.numEntries);
 
-		// static-static energy
-		if (includeStaticStatic) {
-			List<PosInter> inters = posInterGen.staticStatic(confSpace);
-			int[] conf = confSpace.assign();
-			double energy = confEcalc.calcOrMinimizeEnergy(conf, inters, minimize);
-			emat.setConstTerm(energy);
+		// read any energies we calculated earlier
+		BitSet done = new BitSet(entries.numEntries);
+		EmatCacheFile cache = null;
+		if (cacheFile != null) {
+			double[] cachedEnergies = new double[entries.numEntries];
+			cache = new EmatCacheFile(cacheFile, makeCacheKey(), entries.numEntries, done, (index, energy) -> {
+				cachedEnergies[(int)index] = energy;
+			});
+			entries.forEach((index, posi1, confi1, posi2, confi2) -> {
+				if (done.get(index)) {
+					set(emat, posi1, confi1, posi2, confi2, cachedEnergies[index]);
+				}
+			});
 		}
-		progress.incrementProgress();
 
-		for (int posi1=0; posi1<confSpace.numPos(); posi1++) {
-			for (int confi1=0; confi1<confSpace.numConf(posi1); confi1++) {
+		try {
+
+			// some fragments can be big and some can be small
+			// try minimize thread sync overhead by not sending a bunch of small fragments in all separate tasks
+			// ie, try to batch fragments together, but keep the batches consecutive so they can be cached as blocks
+			final EmatCacheFile fcache = cache;
+			class Batch {
+
+				final int firstIndex;
+				final List<int[]> frags = new ArrayList<>();
+				int cost = 0;
 
-				// singles
-				{
-					int[] assignments = confSpace.assign(posi1, confi1);
-					List<PosInter> inters = posInterGen.single(confSpace, posi1, confi1);
-					double energy = confEcalc.calcOrMinimizeEnergy(assignments, inters, minimize);
-					emat.setOneBody(posi1, confi1, energy);
+				Batch(int firstIndex) {
+					this.firstIndex = firstIndex;
+				}
+
+				int nextIndex() {
+					return firstIndex + frags.size();
+				}
 
-					progress.incrementProgress(inters.size());
+				void add(int posi1, int confi1, int posi2, int confi2, int cost) {
+					frags.add(new int[] { posi1, confi1, posi2, confi2 });
+					this.cost += cost;
 				}
 
-				for (int posi2=0; posi2<posi1; posi2++) {
-					for (int confi2=0; confi2<confSpace.numConf(posi2); confi2++) {
+				void submitTask() {
+					int[] fragsArray = new int[frags.size()*4];
+					for (int i=0; i<frags.size(); i++) {
+						System.arraycopy(frags.get(i), 0, fragsArray, i*4, 4);
+					}
+					tasks.submit(
+						new BatchTask(fragsArray),
+						(double[] energies) -> {
+
+							// update the energy matrix
+							for (int i=0; i<energies.length; i++) {
+								set(emat, fragsArray[i*4], fragsArray[i*4 + 1], fragsArray[i*4 + 2], fragsArray[i*4 + 3], energies[i]);
+							}
+
+							// and save the energies
+							if (fcache != null) {
+								fcache.write(firstIndex, energies);
+							}
+
+							synchronized (progress) {
+								progress.incrementProgress(cost);
+							}
+						}
+					);
+				}
+			}
+
+			final int CostThreshold = 100;
+
+			class Batcher {
+
+				Batch batch = null;
 
-						// pairs
-						int[] assignments = confSpace.assign(posi1, confi1, posi2, confi2);
-						List<PosInter> inters = posInterGen.pair(confSpace, posi1, confi1, posi2, confi2);
-						double energy = confEcalc.calcOrMinimizeEnergy(assignments, inters, minimize);
-						emat.setPairwise(posi1, confi1, posi2, confi2, energy);
+				void add(int index, int posi1, int confi1, int posi2, int confi2, int cost) {
 
-						progress.incrementProgress(inters.size());
+					// start a new batch if this entry isn't next in line, so the batch stays consecutive
+					if (batch != null && batch.nextIndex() != index) {
+						submit();
+					}
+					if (batch == null) {
+						batch = new Batch(index);
+					}
+
+					batch.add(posi1, confi1, posi2, confi2, cost);
+					if (batch.cost >= CostThreshold) {
+						submit();
 					}
 				}
+
+				void submit() {
+					if (batch != null) {
+						batch.submitTask();
+						batch = null;
+					}
+				}
+			}
+			Batcher batcher = new Batcher();
+
+			// convert the workload into tasks for the task executor
+			entries.forEach((index, posi1, confi1, posi2, confi2) -> {
+
+				int cost;
+				if (posi1 < 0) {
+					cost = 1;
+				} else if (posi2 < 0) {
+					cost = singleCost;
+				} else {
+					cost = pairCost;
+				}
+
+				// skip entries we already have, and the static-static energy if we don't need it
+				if (done.get(index) || (posi1 < 0 && !includeStaticStatic)) {
+					synchronized (progress) {
+						progress.incrementProgress(cost);
+					}
+				} else {
+					batcher.add(index, posi1, confi1, posi2, confi2, cost);
+				}
+			});
+
+			batcher.submit();
+			tasks.waitForFinish();
+
+		} finally {
+			if (cache != null) {
+				cache.close();
 			}
 		}
 
 		return emat;
 	}
+
+	/**
+	 * Summarizes everything that affects the energies, so we can tell when a cache file is stale.
+	 */
+	private byte[] makeCacheKey() {
+
+		ConfSpace confSpace = confEcalc.confSpace();
+
+		try {
+			ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(buf);
+
+			out.writeUTF(confSpace.name);
+			for (String id : confSpace.forcefieldIds) {
+				out.writeUTF(id);
+			}
+			out.writeInt(confSpace.numStaticAtoms);
+			writeCoords(out, confSpace.staticCoords);
+			for (double energy : confSpace.staticEnergies) {
+				out.writeDouble(energy);
+			}
+
+			for (ConfSpace.MolInfo molInfo : confSpace.molInfos) {
+				out.writeUTF(molInfo.name);
+				for (ContinuousMotion.MolDescription motion : molInfo.motions) {
+					writeMotion(out, motion);
+				}
+			}
+
+			for (ConfSpace.Pos pos : confSpace.positions) {
+				out.writeUTF(pos.name);
+				out.writeUTF(pos.wildType);
+				for (ConfSpace.Conf conf : pos.confs) {
+					out.writeUTF(conf.id);
+					out.writeUTF(conf.type);
+					out.writeInt(conf.numAtoms);
+					writeCoords(out, conf.coords);
+					for (double energy : conf.energies) {
+						out.writeDouble(energy);
+					}
+					for (ContinuousMotion.ConfDescription motion : conf.motions) {
+						writeMotion(out, motion);
+					}
+					out.writeDouble(posInterGen.eref != null ? posInterGen.eref.getOffset(pos.index, conf.type) : 0.0);
+				}
+			}
+
+			for (int ffi=0; ffi<confSpace.forcefieldIds.length; ffi++) {
+				int numParams = confSpace.numFFParams(ffi);
+				out.writeInt(numParams);
+				for (int parami=0; parami<numParams; parami++) {
+					for (double param : confSpace.ffparams(ffi, parami)) {
+						out.writeDouble(param);
+					}
+				}
+			}
+
+			// cutoffs and switching change every energy
+			NeighborLists neighborLists = confSpace.getNeighborLists();
+			out.writeBoolean(neighborLists != null);
+			if (neighborLists != null) {
+				out.writeDouble(neighborLists.cutoff);
+				out.writeDouble(neighborLists.switchWidth);
+				out.writeDouble(neighborLists.skin);
+			}
+
+			out.writeUTF(posInterGen.dist.name());
+			out.writeBoolean(minimize);
+			out.writeUTF(confEcalc.getClass().getName());
+			if (confEcalc instanceof CPUConfEnergyCalculator) {
+				out.writeUTF(((CPUConfEnergyCalculator)confEcalc).minimizerType.name());
+			}
+			out.writeBoolean(includeStaticStatic);
+			out.flush();
+
+			return MessageDigest.getInstance("SHA-256").digest(buf.toByteArray());
+
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		} catch (NoSuchAlgorithmException ex) {
+			throw new Error("SHA-256 is required by the JVM spec, this shouldn't happen", ex);
+		}
+	}
+
+	private static void writeMotion(DataOutputStream out, Object motion)
+	throws IOException {
+
+		out.writeUTF(motion.getClass().getName());
+
+		if (motion instanceof DihedralAngle.Description) {
+			DihedralAngle.Description dihedral = (DihedralAngle.Description)motion;
+			out.writeDouble(dihedral.minDegrees);
+			out.writeDouble(dihedral.maxDegrees);
+			out.writeInt(dihedral.a);
+			out.writeInt(dihedral.b);
+			out.writeInt(dihedral.c);
+			out.writeInt(dihedral.d);
+			for (int atomi : dihedral.rotated) {
+				out.writeInt(atomi);
+			}
+		} else if (motion instanceof TranslationRotation.Description) {
+			TranslationRotation.Description transRot = (TranslationRotation.Description)motion;
+			out.writeDouble(transRot.maxDistance);
+			out.writeDouble(transRot.maxRotationRadians);
+			out.writeDouble(transRot.centroid.x);
+			out.writeDouble(transRot.centroid.y);
+			out.writeDouble(transRot.centroid.z);
+		} else {
+			throw new UnsupportedOperationException("don't know how to describe motion " + motion.getClass().getName() + " in the cache key");
+		}
+	}
+
+	private static void writeCoords(DataOutputStream out, CoordsList coords)
+	throws IOException {
+		for (int i=0; i<coords.size; i++) {
+			out.writeDouble(coords.x(i));
+			out.writeDouble(coords.y(i));
+			out.writeDouble(coords.z(i));
+		}
+	}
+
+	private static class BatchTask extends Cluster.Task<double[],BatchTask.Context> {
+
+		private static final long serialVersionUID = -2183606557270437468L;
+
+		static class Context {
+
+			final ConfEnergyCalculator confEcalc;
+			final PosInterGen posInterGen;
+			final boolean minimize;
+
+			Context(ConfEnergyCalculator confEcalc, PosInterGen posInterGen, boolean minimize) {
+				this.confEcalc = confEcalc;
+				this.posInterGen = posInterGen;
+				this.minimize = minimize;
+			}
+		}
+
+		/** posi1, confi1, posi2, confi2 for each fragment, -1 for unused positions */
+		final int[] frags;
+
+		BatchTask(int[] frags) {
+			super(0);
+			this.frags = frags;
+		}
+
+		@Override
+		public double[] run(Context ctx) {
+
+			ConfSpace confSpace = ctx.confEcalc.confSpace();
+
+			double[] energies = new double[frags.length/4];
+			for (int i=0; i<energies.length; i++) {
+
+				int posi1 = frags[i*4];
+				int confi1 = frags[i*4 + 1];
+				int posi2 = frags[i*4 + 2];
+				int confi2 = frags[i*4 + 3];
+
+				int[] assignments;
+				List<PosInter> inters;
+				if (posi1 < 0) {
+					assignments = confSpace.assign();
+					inters = ctx.posInterGen.staticStatic(confSpace);
+				} else if (posi2 < 0) {
+					assignments = confSpace.assign(posi1, confi1);
+					inters = ctx.posInterGen.single(confSpace, posi1, confi1);
+				} else {
+					assignments = confSpace.assign(posi1, confi1, posi2, confi2);
+					inters = ctx.posInterGen.pair(confSpace, posi1, confi1, posi2, confi2);
+				}
+
+				energies[i] = ctx.confEcalc.calcOrMinimizeEnergy(assignments, inters, ctx.minimize);
+			}
+
+			return energies;
+		}
+	}
 }
@@ -43,9 +43,12 @@ import edu.duke.cs.osprey.confspace.ConfSearch.ScoredConf;
 import edu.duke.cs.osprey.ematrix.SimpleReferenceEnergies;
 import edu.duke.cs.osprey.energy.approximation.ApproximatorMatrix;
 import edu.duke.cs.osprey.energy.approximation.ResidueInteractionsApproximator;
+import edu.duke.cs.osprey.energy.forcefield.ResidueForcefieldEnergy;
 import edu.duke.cs.osprey.minimization.MoleculeObjectiveFunction;
 import edu.duke.cs.osprey.parallelism.TaskExecutor;
 import edu.duke.cs.osprey.parallelism.TaskExecutor.TaskListener;
+import edu.duke.cs.osprey.structure.Molecule;
+import edu.duke.cs.osprey.tools.ObjectPool;
 import edu.duke.cs.osprey.tools.Progress;
 import edu.duke.cs.osprey.tools.TimeTools;
 
@@ -125,6 +128,19 @@ public class ConfEnergyCalculator {
 	protected final AtomicLong numCalculations = new AtomicLong(0L);
 	protected final AtomicLong numConfDBReads = new AtomicLong(0L);
 
+	private final ObjectPool<Workspace> workspaces = new ObjectPool<>((ignored) -> new Workspace());
+
+	/** subclasses that override {@link #calcEnergy(RCTuple,ResidueInteractions)} should see energy-only calculations too */
+	private final boolean overridesCalcEnergy = overridesCalcEnergy(getClass());
+
+	private static boolean overridesCalcEnergy(Class<?> c) {
+		try {
+			return c.getMethod("calcEnergy", RCTuple.class, ResidueInteractions.class).getDeclaringClass() != ConfEnergyCalculator.class;
+		} catch (NoSuchMethodException ex) {
+			throw new Error("can't find calcEnergy(), this is a bug", ex);
+		}
+	}
+
 	protected ConfEnergyCalculator(SimpleConfSpace confSpace, TaskExecutor tasks) {
 		this.confSpace = confSpace;
 		this.ecalc = null;
@@ -253,6 +269,16 @@ public class ConfEnergyCalculator {
 		return calcEnergy(frag, epart.makeTuple(confSpace, eref, addResEntropy, frag));
 	}
 
+	/** Version of {@link #calcSingleEnergy(RCTuple)} that only returns the energy, see {@link #calcEnergyValue(RCTuple,ResidueInteractions)} */
+	public double calcSingleEnergyValue(RCTuple frag) {
+		return calcEnergyValue(frag, epart.makeSingle(confSpace, eref, addResEntropy, frag.pos.get(0), frag.RCs.get(0)));
+	}
+
+	/** Version of {@link #calcPairEnergy(RCTuple)} that only returns the energy, see {@link #calcEnergyValue(RCTuple,ResidueInteractions)} */
+	public double calcPairEnergyValue(RCTuple frag) {
+		return calcEnergyValue(frag, epart.makePair(confSpace, eref, addResEntropy, frag.pos.get(0), frag.RCs.get(0), frag.pos.get(1), frag.RCs.get(1)));
+	}
+
 	/**
 	 * Calculate the energy of a molecule fragment generated from a conformation space using residue interactions generated by the energy partition.
 	 * 
@@ -283,6 +309,85 @@ public class ConfEnergyCalculator {
 		return ecalc.calcEnergy(pmol, inters, approximator);
 	}
 
+	/** Version of {@link #calcEnergy(RCTuple)} that only returns the energy, see {@link #calcEnergyValue(RCTuple,ResidueInteractions)} */
+	public double calcEnergyValue(RCTuple frag) {
+		return calcEnergyValue(frag, makeFragInters(frag));
+	}
+
+	/**
+	 * Calculate just the energy of a molecule fragment generated from a conformation space.
+	 *
+	 * Since the caller never sees the molecule, the molecule gets re-used by the next calculation
+	 * (on this or any other thread) and only the residues that differ from the last calculation
+	 * get rebuilt. Parts of the last energy function get re-used too, when possible.
+	 * The energies are exactly the same as {@link #calcEnergy(RCTuple,ResidueInteractions)}.
+	 * If a subclass overrides {@link #calcEnergy(RCTuple,ResidueInteractions)}, this just calls the override instead.
+	 *
+	 * @param frag The assignments of the conformation space
+	 * @param inters The residue interactions
+	 * @return The energy of the resulting molecule fragment
+	 */
+	public double calcEnergyValue(RCTuple frag, ResidueInteractions inters) {
+
+		if (overridesCalcEnergy) {
+			return calcEnergy(frag, inters).energy;
+		}
+
+		numCalculations.incrementAndGet();
+
+		ResidueInteractionsApproximator approximator = null;
+		if (amat != null) {
+			approximator = amat.get(frag, inters, approximationErrorBudget);
+		}
+
+		try (ObjectPool.Checkout<Workspace> checkout = workspaces.autoCheckout()) {
+			Workspace workspace = checkout.get();
+			try {
+				ParametricMolecule pmol = workspace.mol.makeMolecule(frag);
+				return ecalc.calcEnergy(pmol, inters, approximator, workspace::makeEfunc).energy;
+			} catch (Throwable t) {
+				// we don't know what state the molecule is in now, so start over next time
+				workspace.reset();
+				throw t;
+			}
+		}
+	}
+
+	/** a molecule that gets re-used between energy calculations, and the last energy function made for it */
+	private class Workspace {
+
+		MoleculeWorkspace mol = new MoleculeWorkspace(confSpace);
+		ResidueForcefieldEnergy efunc = null;
+		int[] efuncVersions = null;
+
+		void reset() {
+			mol = new MoleculeWorkspace(confSpace);
+			efunc = null;
+			efuncVersions = null;
+		}
+
+		EnergyFunction makeEfunc(ResidueInteractions inters, Molecule m) {
+
+			// only the CPU forcefield can be re-used,
+			// other energy functions hold on to resources that get cleaned up after each calculation
+			if (ecalc.type != EnergyCalculator.Type.Cpu) {
+				return ecalc.context.efuncs.make(inters, m);
+			}
+
+			if (efunc == null) {
+				efunc = new ResidueForcefieldEnergy(ecalc.resPairCache, inters, m);
+				efuncVersions = new int[m.residues.size()];
+			} else {
+				int[] versions = efuncVersions;
+				efunc = new ResidueForcefieldEnergy(efunc, inters, (resIndex) -> mol.getVersion(resIndex) != versions[resIndex]);
+			}
+			for (int i=0; i<efuncVersions.length; i++) {
+				efuncVersions[i] = mol.getVersion(i);
+			}
+			return efunc;
+		}
+	}
+
 	/**
 	 * Asynchronous version of {@link #calcEnergy(RCTuple,ResidueInteractions)}.
 	 * 
@@ -331,7 +436,7 @@ public class ConfEnergyCalculator {
 
 		// no confDB? just compute the energy
 		if (table == null) {
-			return calcEnergy(frag, inters).energy;
+			return calcEnergyValue(frag, inters);
 		}
 
 		// check the confDB for the energy
@@ -343,7 +448,7 @@ public class ConfEnergyCalculator {
 		}
 
 		// cache miss, compute the energy
-		double energy = calcEnergy(frag, inters).energy;
+		double energy = calcEnergyValue(frag, inters);
 
 		// update the ConfDB
 		table.setUpperBound(conf, energy, TimeTools.getTimestampNs());
@@ -384,7 +489,7 @@ public class ConfEnergyCalculator {
 	 * @return The conformation with attached energy
 	 */
 	public EnergiedConf calcEnergy(ScoredConf conf) {
-		return new EnergiedConf(conf, calcEnergy(new RCTuple(conf.getAssignments())).energy);
+		return new EnergiedConf(conf, calcEnergyValue(new RCTuple(conf.getAssignments())));
 	}
 
 	/**
@@ -429,7 +534,7 @@ public class ConfEnergyCalculator {
 	 * @return The conformation with attached energy
 	 */
 	public EnergiedConf calcEnergy(ScoredConf conf, ResidueInteractions inters) {
-		return new EnergiedConf(conf, calcEnergy(new RCTuple(conf.getAssignments()), inters).energy);
+		return new EnergiedConf(conf, calcEnergyValue(new RCTuple(conf.getAssignments()), inters));
 	}
 
 	/**
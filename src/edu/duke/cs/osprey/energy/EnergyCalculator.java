@@ -66,6 +66,7 @@ import edu.duke.cs.osprey.structure.Molecule;
 import edu.duke.cs.osprey.structure.Residues;
 import edu.duke.cs.osprey.tools.AutoCleanable;
 import edu.duke.cs.osprey.tools.Factory;
+import edu.duke.cs.osprey.tools.Metrics;
 import edu.duke.cs.osprey.tools.UseableBuilder;
 
 /**
@@ -80,6 +81,9 @@ import edu.duke.cs.osprey.tools.UseableBuilder;
  */
 public class EnergyCalculator implements AutoCleanable {
 	
+	private static final Metrics.Histogram rigidNs = Metrics.histogram("energy_rigid_ns", "time to make an energy function and calculate a rigid energy (ns)");
+	private static final Metrics.Histogram minimizeNs = Metrics.histogram("energy_minimize_ns", "time to minimize a conformation (ns)");
+
 	public static class Builder implements UseableBuilder<EnergyCalculator> {
 		
 		private ForcefieldParams ffparams;
@@ -112,6 +116,12 @@ public class EnergyCalculator implements AutoCleanable {
 		private AtomConnectivity.Builder atomConnectivityBuilder = new AtomConnectivity.Builder();
 		private ResPairCache resPairCache;
 
+		/**
+		 * The most heap space the res pair cache can use for forcefield parameters, in bytes.
+		 * Ignored if a res pair cache is set explicitly.
+		 */
+		private long resPairCacheBytes = ResPairCache.DefaultMaxBytes;
+
 		/** True to minimize continuous degrees of freedom in conformations. False to use only rigid structures. */
 		private boolean isMinimizing = true;
 
@@ -206,6 +216,11 @@ public class EnergyCalculator implements AutoCleanable {
 			return this;
 		}
 
+		public Builder setResPairCacheBytes(long val) {
+			resPairCacheBytes = val;
+			return this;
+		}
+
 		public Builder setIsMinimizing(boolean val) {
 			this.isMinimizing = val;
 			return this;
@@ -234,7 +249,7 @@ public class EnergyCalculator implements AutoCleanable {
 			
 			// make a res pair cache if needed
 			if (resPairCache == null) {
-				resPairCache = new ResPairCache(ffparams, atomConnectivityBuilder.build());
+				resPairCache = new ResPairCache(ffparams, atomConnectivityBuilder.build(), resPairCacheBytes);
 			}
 			
 			return new EnergyCalculator(parallelism, cluster, type, resPairCache, isMinimizing, infiniteWellEnergy, alwaysResolveClashesEnergy);
@@ -640,7 +655,16 @@ public class EnergyCalculator implements AutoCleanable {
 	 * @return The calculated energy and the associated molecule pose
 	 */
 	public EnergiedParametricMolecule calcEnergy(ParametricMolecule pmol, ResidueInteractions inters, ResidueInteractionsApproximator approximator) {
-		
+		return calcEnergy(pmol, inters, approximator, context.efuncs);
+	}
+
+	/**
+	 * Same as {@link #calcEnergy(ParametricMolecule, ResidueInteractions, ResidueInteractionsApproximator)},
+	 * but makes the forcefield energy functions with the given factory instead of this calculator's context,
+	 * eg to re-use parts of earlier energy functions.
+	 */
+	public EnergiedParametricMolecule calcEnergy(ParametricMolecule pmol, ResidueInteractions inters, ResidueInteractionsApproximator approximator, Type.EfuncFactory efuncs) {
+
 		// short circuit: no inters, no energy!
 		if (inters.size() <= 0) {
 			return new EnergiedParametricMolecule(pmol, null, 0);
@@ -665,9 +689,11 @@ public class EnergyCalculator implements AutoCleanable {
 				}
 			}
 
-			try (EnergyFunction efunc = context.efuncs.make(ffInters, pmol.mol)) {
+			long startNs = Metrics.startNs();
+			try (EnergyFunction efunc = efuncs.make(ffInters, pmol.mol)) {
 
 				double energy = efunc.getEnergy();
+				rigidNs.recordSince(startNs);
 
 				// add the approximated energy if needed
 				if (approximator != null) {
@@ -694,7 +720,7 @@ public class EnergyCalculator implements AutoCleanable {
 		}
 
 		// minimize using the full forcefield
-		try (EnergyFunction efunc = context.efuncs.make(ffInters, pmol.mol)) {
+		try (EnergyFunction efunc = efuncs.make(ffInters, pmol.mol)) {
 
 			// build the minimization objective function, add the approximator if needed
 			ObjectiveFunction f = new MoleculeObjectiveFunction(pmol, efunc);
@@ -704,7 +730,9 @@ public class EnergyCalculator implements AutoCleanable {
 
 			try (Minimizer minimizer = context.minimizers.make(f)) {
 
+				long startNs = Metrics.startNs();
 				Minimizer.Result result = minimizer.minimizeFrom(x);
+				minimizeNs.recordSince(startNs);
 
 				// did we fall into an infinite energy well?
 				if (isInfiniteWell(result.energy)) {
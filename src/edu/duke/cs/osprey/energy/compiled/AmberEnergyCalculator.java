@@ -39,6 +39,11 @@ public class AmberEnergyCalculator implements EnergyCalculator {
 		hasSettings = true;
 	}
 
+	public boolean isDistanceDependentDielectric() {
+		checkSettings();
+		return distanceDependentDielectric;
+	}
+
 	private void checkSettings() {
 		// make sure we've read settings, or throw
 		if (!hasSettings) {
@@ -71,4 +76,31 @@ public class AmberEnergyCalculator implements EnergyCalculator {
 
 		return es + vdw;
 	}
+
+	@Override
+	public double calcDerivative(double r, double r2, double[] params) {
+
+		// just in case ...
+		checkSettings();
+
+		double esQ = params[0];
+		double vdwA = params[1];
+		double vdwB = params[2];
+
+		// differentiate the electrostatics energy
+		double des;
+		if (distanceDependentDielectric) {
+			des = -2*esQ/(r2*r);
+		} else {
+			des = -esQ/r2;
+		}
+
+		// differentiate the van der Waals energy
+		double r6 = r2*r2*r2;
+		double r7 = r6*r;
+		double r13 = r7*r6;
+		double dvdw = -12*vdwA/r13 + 6*vdwB/r7;
+
+		return des + dvdw;
+	}
 }
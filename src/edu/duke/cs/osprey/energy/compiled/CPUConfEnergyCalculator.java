@@ -5,19 +5,46 @@ import cern.colt.matrix.DoubleMatrix1D;
 import edu.duke.cs.osprey.confspace.compiled.AssignedCoords;
 import edu.duke.cs.osprey.confspace.compiled.ConfSpace;
 import edu.duke.cs.osprey.confspace.compiled.PosInter;
+import edu.duke.cs.osprey.confspace.compiled.DegreeOfFreedom;
+import edu.duke.cs.osprey.minimization.DifferentiableObjectiveFunction;
+import edu.duke.cs.osprey.minimization.LBFGSMinimizer;
 import edu.duke.cs.osprey.minimization.Minimizer;
-import edu.duke.cs.osprey.minimization.ObjectiveFunction;
 import edu.duke.cs.osprey.minimization.SimpleCCDMinimizer;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 
 
 public class CPUConfEnergyCalculator implements ConfEnergyCalculator {
 
+	public enum MinimizerType {
+
+		/** cyclic coordinate descent, only needs energies */
+		CCD,
+
+		/**
+		 * projected L-BFGS, needs energy gradients, but usually takes far fewer energy evaluations than CCD.
+		 * Falls back to CCD for conformations that have DoFs without derivatives.
+		 */
+		LBFGS
+	}
+
 	public final ConfSpace confSpace;
+	public final MinimizerType minimizerType;
+
+	/** fast path for the forcefields, or null if the conf space uses forcefields the kernel doesn't support */
+	private final FusedEnergyKernel kernel;
 
 	public CPUConfEnergyCalculator(ConfSpace confSpace) {
+		this(confSpace, MinimizerType.CCD);
+	}
+
+	public CPUConfEnergyCalculator(ConfSpace confSpace, MinimizerType minimizerType) {
 		this.confSpace = confSpace;
+		this.minimizerType = minimizerType;
+
+		kernel = FusedEnergyKernel.of(confSpace);
 	}
 
 	@Override
@@ -36,15 +63,44 @@ public class CPUConfEnergyCalculator implements ConfEnergyCalculator {
 		// build the conformation coords
 		AssignedCoords coords = confSpace.makeCoords(conf);
 
-		double energy = 0.0;
+		return new EnergiedCoords(coords, calcEnergy(coords, inters));
+	}
+
+	@Override
+	public double calcEnergy(int[] conf, List<PosInter> inters) {
+
+		// the kernel can read rigid energies straight from the conf space, without making any coords
+		if (kernel != null) {
+			return kernel.calcEnergy(conf, inters);
+		}
 
+		return calc(conf, inters).energy;
+	}
+
+	private double calcEnergy(AssignedCoords coords, List<PosInter> inters) {
+
+		if (kernel != null) {
+			return kernel.calcEnergy(coords, inters);
+		}
+
+		double energy = 0.0;
 		for (EnergyCalculator ecalc : confSpace.ecalcs) {
-			for (PosInter inter : inters) {
-				energy += ecalc.calcEnergy(coords, inter);
-			}
+			energy += ecalc.calcEnergy(coords, inters);
 		}
+		return energy;
+	}
+
+	private double calcSubEnergy(AssignedCoords coords, List<PosInter> inters, Set<Integer> posIndices) {
 
-		return new EnergiedCoords(coords, energy);
+		if (kernel != null) {
+			return kernel.calcSubEnergy(coords, inters, posIndices);
+		}
+
+		double energy = 0.0;
+		for (EnergyCalculator ecalc : confSpace.ecalcs) {
+			energy += ecalc.calcSubEnergy(coords, inters, posIndices);
+		}
+		return energy;
 	}
 
 	@Override
@@ -57,7 +113,36 @@ public class CPUConfEnergyCalculator implements ConfEnergyCalculator {
 		//  unless interactions span across molecules
 
 		// create an objective function for minimization
-		ObjectiveFunction f = new ObjectiveFunction() {
+		DifferentiableObjectiveFunction f = makeObjectiveFunction(coords, inters);
+
+		// minimize it!
+		Minimizer.Result result = makeMinimizer(coords, f).minimizeFromCenter();
+
+		return new EnergiedCoords(coords, result.energy, result.dofValues);
+	}
+
+	private Minimizer makeMinimizer(AssignedCoords coords, DifferentiableObjectiveFunction f) {
+		switch (minimizerType) {
+
+			case LBFGS:
+				if (coords.dofs.stream().allMatch(DegreeOfFreedom::hasDerivative)) {
+					return new LBFGSMinimizer(f);
+				} else {
+					return new SimpleCCDMinimizer(f);
+				}
+
+			case CCD:
+			default:
+				return new SimpleCCDMinimizer(f);
+		}
+	}
+
+	/**
+	 * Makes an objective function over the DoFs of the conformation,
+	 * whose value is the energy of the given interactions.
+	 */
+	public DifferentiableObjectiveFunction makeObjectiveFunction(AssignedCoords coords, List<PosInter> inters) {
+		return new DifferentiableObjectiveFunction() {
 
 			@Override
 			public int getNumDOFs() {
@@ -93,35 +178,48 @@ public class CPUConfEnergyCalculator implements ConfEnergyCalculator {
 			public double getValue(DoubleMatrix1D x) {
 
 				setDOFs(x);
-
-				double energy = 0.0;
-				for (EnergyCalculator ecalc : confSpace.ecalcs) {
-					energy += ecalc.calcEnergy(coords, inters);
-				}
-				return energy;
+				return calcEnergy(coords, inters);
 			}
 
 			@Override
 			public double getValForDOF(int dof, double val) {
 
 				setDOF(dof, val);
-
-				double energy = 0.0;
-				for (EnergyCalculator ecalc : confSpace.ecalcs) {
-					energy += ecalc.calcSubEnergy(coords, inters, coords.dofs.get(dof).modifiedPosIndices());
-				}
-				return energy;
+				return calcSubEnergy(coords, inters, coords.dofs.get(dof).modifiedPosIndices());
 			}
 
 			@Override
 			public double getInitStepSize(int dof) {
 				return coords.dofs.get(dof).initialStepSize();
 			}
-		};
 
-		// minimize it!
-		Minimizer.Result result = new SimpleCCDMinimizer(f).minimizeFromCenter();
+			// allocated lazily, so CCD doesn't pay for it
+			private double[] atomGradient = null;
 
-		return new EnergiedCoords(coords, result.energy, result.dofValues);
+			@Override
+			public double getValueAndGradient(DoubleMatrix1D x, DoubleMatrix1D gradient) {
+
+				setDOFs(x);
+
+				// get the gradient with respect to the atom coords
+				if (atomGradient == null) {
+					atomGradient = new double[coords.coords.size*3];
+				} else {
+					Arrays.fill(atomGradient, 0.0);
+				}
+				double energy = 0.0;
+				for (EnergyCalculator ecalc : confSpace.ecalcs) {
+					energy += ecalc.calcEnergyAndGradient(coords, inters, atomGradient);
+				}
+
+				// then use the chain rule to get the gradient with respect to the DoFs
+				int n = coords.dofs.size();
+				for (int d=0; d<n; d++) {
+					gradient.set(d, coords.dofs.get(d).calcDerivative(atomGradient));
+				}
+
+				return energy;
+			}
+		};
 	}
 }
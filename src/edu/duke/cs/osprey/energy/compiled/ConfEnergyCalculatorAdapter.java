@@ -242,4 +242,24 @@ public class ConfEnergyCalculatorAdapter extends edu.duke.cs.osprey.energy.ConfE
 	public EnergyCalculator.EnergiedParametricMolecule calcEnergy(RCTuple frag, ResidueInteractions inters) {
 		throw new UnsupportedOperationException();
 	}
+
+	@Override
+	public double calcSingleEnergyValue(RCTuple frag) {
+		return calcSingleEnergy(frag).energy;
+	}
+
+	@Override
+	public double calcPairEnergyValue(RCTuple frag) {
+		return calcPairEnergy(frag).energy;
+	}
+
+	@Override
+	public double calcEnergyValue(RCTuple frag) {
+		return calcEnergy(frag).energy;
+	}
+
+	@Override
+	public double calcEnergyValue(RCTuple frag, ResidueInteractions inters) {
+		throw new UnsupportedOperationException();
+	}
 }
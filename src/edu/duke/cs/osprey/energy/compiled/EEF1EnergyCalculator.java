@@ -10,7 +10,7 @@ public class EEF1EnergyCalculator implements EnergyCalculator {
 
 	// Only need to count interactions with 9 A.
 	// Farther interactions are already counted in the pre-calculated internal energy.
-	private static final double cutoff = 9.0;
+	static final double cutoff = 9.0;
 
 	public final String id;
 	public final int ffi;
@@ -48,4 +48,28 @@ public class EEF1EnergyCalculator implements EnergyCalculator {
 			return 0.0;
 		}
 	}
+
+	@Override
+	public double calcDerivative(double r, double r2, double[] params) {
+
+		double vdwRadius1 = params[0];
+		double lambda1 = params[1];
+		double vdwRadius2 = params[2];
+		double lambda2 = params[3];
+		double alpha1 = params[4];
+		double alpha2 = params[5];
+
+		if (r <= cutoff) {
+			double Xij = (r - vdwRadius1)/lambda1;
+			double Xji = (r - vdwRadius2)/lambda2;
+			double gij = alpha1*Math.exp(-Xij*Xij);
+			double gji = alpha2*Math.exp(-Xji*Xji);
+
+			// E = -(gij + gji)/r^2, so use the product rule
+			double dg = -2*gij*Xij/lambda1 - 2*gji*Xji/lambda2;
+			return -dg/r2 + 2*(gij + gji)/(r2*r);
+		} else {
+			return 0.0;
+		}
+	}
 }
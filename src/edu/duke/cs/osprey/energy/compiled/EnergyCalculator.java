@@ -3,6 +3,8 @@ package edu.duke.cs.osprey.energy.compiled;
 
 import edu.duke.cs.osprey.confspace.compiled.AssignedCoords;
 import edu.duke.cs.osprey.confspace.compiled.ConfSpace;
+import edu.duke.cs.osprey.confspace.compiled.CoordsList;
+import edu.duke.cs.osprey.confspace.compiled.NeighborLists;
 import edu.duke.cs.osprey.confspace.compiled.PosInter;
 import org.joml.Vector3d;
 
@@ -29,10 +31,40 @@ public interface EnergyCalculator {
 	/** calculate position-pair energy */
 	double calcEnergy(double r, double r2, double[] params);
 
+	/**
+	 * Calculate the derivative of the position-pair energy with respect to r.
+	 *
+	 * Forcefields should override this with an analytic derivative.
+	 * The default implementation uses a central finite difference.
+	 */
+	default double calcDerivative(double r, double r2, double[] params) {
+		double h = 1e-6*Math.max(1.0, r);
+		double rp = r + h;
+		double rm = r - h;
+		return (calcEnergy(rp, rp*rp, params) - calcEnergy(rm, rm*rm, params))/(2*h);
+	}
+
+	/**
+	 * Calculate the energy of one atom pair, scaled by the switching function of the distance cutoff, if any.
+	 */
+	private double calcEnergyCutoff(NeighborLists neighbors, double r2, double[] params) {
+
+		if (neighbors != null && r2 >= neighbors.cutoff2) {
+			return 0.0;
+		}
+
+		double energy = calcEnergy(Math.sqrt(r2), r2, params);
+		if (neighbors != null && r2 > neighbors.switchOn2) {
+			energy *= neighbors.switching(r2);
+		}
+		return energy;
+	}
+
 	/** get the internal energy of the static atoms */
 	default double calcEnergyStatic(AssignedCoords coords) {
 
 		int ffi = ffi();
+		NeighborLists neighbors = coords.confSpace.getNeighborLists();
 
 		// start with the static energy
 		double energy = coords.getStaticEnergy(ffi);
@@ -50,8 +82,7 @@ public interface EnergyCalculator {
 			coords.coords.get(coords.getStaticIndex(atomi1), pos1);
 			coords.coords.get(coords.getStaticIndex(atomi2), pos2);
 			double r2 = pos1.distanceSquared(pos2);
-			double r = Math.sqrt(r2);
-			energy += calcEnergy(r, r2, coords.getParams(ffi, paramsi));
+			energy += calcEnergyCutoff(neighbors, r2, coords.getParams(ffi, paramsi));
 		}
 
 		return energy;
@@ -61,6 +92,7 @@ public interface EnergyCalculator {
 	default double calcEnergySingle(AssignedCoords coords, int posi) {
 
 		int ffi = ffi();
+		NeighborLists neighbors = coords.confSpace.getNeighborLists();
 
 		// start with the internal energy
 		double energy = coords.getInternalEnergy(ffi, posi);
@@ -78,8 +110,7 @@ public interface EnergyCalculator {
 			coords.coords.get(coords.getConfIndex(posi, confAtom1i), pos1);
 			coords.coords.get(coords.getConfIndex(posi, confAtom2i), pos2);
 			double r2 = pos1.distanceSquared(pos2);
-			double r = Math.sqrt(r2);
-			energy += calcEnergy(r, r2, coords.getParams(ffi, paramsi));
+			energy += calcEnergyCutoff(neighbors, r2, coords.getParams(ffi, paramsi));
 		}
 
 		return energy;
@@ -95,6 +126,7 @@ public interface EnergyCalculator {
 		Vector3d pos2 = new Vector3d();
 
 		int ffi = ffi();
+		NeighborLists neighbors = coords.confSpace.getNeighborLists();
 		ConfSpace.IndicesSingle indices = coords.getIndices(ffi, posi);
 		for (int i=0; i<indices.sizeStatics(); i++) {
 			int confAtomi = indices.getStaticConfAtomIndex(i);
@@ -103,8 +135,7 @@ public interface EnergyCalculator {
 			coords.coords.get(coords.getConfIndex(posi, confAtomi), pos1);
 			coords.coords.get(coords.getStaticIndex(staticAtomi), pos2);
 			double r2 = pos1.distanceSquared(pos2);
-			double r = Math.sqrt(r2);
-			energy += calcEnergy(r, r2, coords.getParams(ffi, paramsi));
+			energy += calcEnergyCutoff(neighbors, r2, coords.getParams(ffi, paramsi));
 		}
 
 		return energy;
@@ -120,6 +151,7 @@ public interface EnergyCalculator {
 		Vector3d pos2 = new Vector3d();
 
 		int ffi = ffi();
+		NeighborLists neighbors = coords.confSpace.getNeighborLists();
 		ConfSpace.IndicesPair indices = coords.getIndices(ffi, posi1, posi2);
 		for (int i=0; i<indices.size(); i++) {
 			int confAtomi1 = indices.getConfAtom1Index(i);
@@ -128,8 +160,7 @@ public interface EnergyCalculator {
 			coords.coords.get(coords.getConfIndex(posi1, confAtomi1), pos1);
 			coords.coords.get(coords.getConfIndex(posi2, confAtomi2), pos2);
 			double r2 = pos1.distanceSquared(pos2);
-			double r = Math.sqrt(r2);
-			energy += calcEnergy(r, r2, coords.getParams(ffi, paramsi));
+			energy += calcEnergyCutoff(neighbors, r2, coords.getParams(ffi, paramsi));
 		}
 
 		return energy;
@@ -220,4 +251,144 @@ public interface EnergyCalculator {
 
 		return energy;
 	}
+
+	/**
+	 * Calculate the pair energy between two atoms, and add its weighted gradient
+	 * with respect to the atom coords to the gradient array
+	 */
+	private double calcEnergyAndGradient(NeighborLists neighbors, CoordsList coords, int atomi1, int atomi2, double[] params, double weight, double[] gradient) {
+
+		double dx = coords.x(atomi1) - coords.x(atomi2);
+		double dy = coords.y(atomi1) - coords.y(atomi2);
+		double dz = coords.z(atomi1) - coords.z(atomi2);
+		double r2 = dx*dx + dy*dy + dz*dz;
+
+		if (neighbors != null && r2 >= neighbors.cutoff2) {
+			return 0.0;
+		}
+
+		double r = Math.sqrt(r2);
+		double energy = calcEnergy(r, r2, params);
+		double derivative = calcDerivative(r, r2, params);
+
+		// apply the switching function, using the product rule for the derivative
+		if (neighbors != null && r2 > neighbors.switchOn2) {
+			double s = neighbors.switching(r2);
+			derivative = derivative*s + energy*neighbors.switchingDerivative(r, r2);
+			energy *= s;
+		}
+
+		// dE/dx1 = dE/dr*(x1 - x2)/r, and dE/dx2 = -dE/dx1
+		double scale = weight*derivative/r;
+		gradient[atomi1*3    ] += scale*dx;
+		gradient[atomi1*3 + 1] += scale*dy;
+		gradient[atomi1*3 + 2] += scale*dz;
+		gradient[atomi2*3    ] -= scale*dx;
+		gradient[atomi2*3 + 1] -= scale*dy;
+		gradient[atomi2*3 + 2] -= scale*dz;
+
+		return energy;
+	}
+
+	/**
+	 * Calculate the energy of just the given position interaction,
+	 * and add its gradient with respect to the atom coords to the gradient array.
+	 *
+	 * The gradient array is indexed like the coords list, ie [x0, y0, z0, x1, ...].
+	 */
+	default double calcEnergyAndGradient(AssignedCoords coords, PosInter inter, double[] gradient) {
+
+		int ffi = ffi();
+		NeighborLists neighbors = coords.confSpace.getNeighborLists();
+		double energy = 0.0;
+
+		if (inter.posi1 == inter.posi2) {
+			if (inter.posi1 == PosInter.StaticPos) {
+
+				// static energy
+				energy += coords.getStaticEnergy(ffi);
+				ConfSpace.IndicesStatic indices = coords.getIndices(ffi);
+				for (int i=0; i<indices.size(); i++) {
+					energy += calcEnergyAndGradient(
+						neighbors,
+						coords.coords,
+						coords.getStaticIndex(indices.getStaticAtom1Index(i)),
+						coords.getStaticIndex(indices.getStaticAtom2Index(i)),
+						coords.getParams(ffi, indices.getParamsIndex(i)),
+						inter.weight,
+						gradient
+					);
+				}
+
+			} else {
+
+				// pos single energy
+				int posi = inter.posi1;
+				energy += coords.getInternalEnergy(ffi, posi);
+				ConfSpace.IndicesSingle indices = coords.getIndices(ffi, posi);
+				for (int i=0; i<indices.sizeInternals(); i++) {
+					energy += calcEnergyAndGradient(
+						neighbors,
+						coords.coords,
+						coords.getConfIndex(posi, indices.getInternalConfAtom1Index(i)),
+						coords.getConfIndex(posi, indices.getInternalConfAtom2Index(i)),
+						coords.getParams(ffi, indices.getInternalParamsIndex(i)),
+						inter.weight,
+						gradient
+					);
+				}
+			}
+
+		} else if (inter.posi1 == PosInter.StaticPos || inter.posi2 == PosInter.StaticPos) {
+
+			// pos-static energy
+			int posi = inter.posi1 == PosInter.StaticPos ? inter.posi2 : inter.posi1;
+			ConfSpace.IndicesSingle indices = coords.getIndices(ffi, posi);
+			for (int i=0; i<indices.sizeStatics(); i++) {
+				energy += calcEnergyAndGradient(
+					neighbors,
+					coords.coords,
+					coords.getConfIndex(posi, indices.getStaticConfAtomIndex(i)),
+					coords.getStaticIndex(indices.getStaticStaticAtomIndex(i)),
+					coords.getParams(ffi, indices.getStaticParamsIndex(i)),
+					inter.weight,
+					gradient
+				);
+			}
+
+		} else {
+
+			// pos-pos pair energy
+			ConfSpace.IndicesPair indices = coords.getIndices(ffi, inter.posi1, inter.posi2);
+			for (int i=0; i<indices.size(); i++) {
+				energy += calcEnergyAndGradient(
+					neighbors,
+					coords.coords,
+					coords.getConfIndex(inter.posi1, indices.getConfAtom1Index(i)),
+					coords.getConfIndex(inter.posi2, indices.getConfAtom2Index(i)),
+					coords.getParams(ffi, indices.getParamsIndex(i)),
+					inter.weight,
+					gradient
+				);
+			}
+		}
+
+		// apply weight and offset
+		return inter.weight*(energy + inter.offset);
+	}
+
+	/**
+	 * Calculate the conformation energy using just the given position interactions,
+	 * and add its gradient with respect to the atom coords to the gradient array.
+	 */
+	default double calcEnergyAndGradient(AssignedCoords coords, List<PosInter> inters, double[] gradient) {
+
+		double energy = 0.0;
+
+		for (PosInter inter : inters) {
+			energy += calcEnergyAndGradient(coords, inter, gradient);
+		}
+
+		return energy;
+	}
 }
@@ -0,0 +1,388 @@
+package edu.duke.cs.osprey.energy.compiled;
+
+import edu.duke.cs.osprey.confspace.compiled.AssignedCoords;
+import edu.duke.cs.osprey.confspace.compiled.ConfSpace;
+import edu.duke.cs.osprey.confspace.compiled.CoordsList;
+import edu.duke.cs.osprey.confspace.compiled.NeighborLists;
+import edu.duke.cs.osprey.confspace.compiled.PosInter;
+
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * Calculates the same energies as the conf space's {@link EnergyCalculator}s,
+ * but with the forcefield terms inlined into tight loops over the atom pairs.
+ *
+ * The generic energy calculators look up a params array for each atom pair
+ * and call the forcefield through an interface. Here, the forcefield params are
+ * copied into one array per parameter (indexed by params index), so the inner loops
+ * only touch primitive arrays and don't allocate anything.
+ *
+ * Rigid energies are read straight from the conf space coords,
+ * so they don't need to build {@link AssignedCoords} at all.
+ *
+ * Distance cutoffs from the conf space's {@link NeighborLists}, if any, are applied just like the energy calculators do.
+ *
+ * Only supports the Amber and EEF1 forcefields. Use {@link #of} to get a kernel, if the conf space is supported.
+ */
+public class FusedEnergyKernel {
+
+	/**
+	 * Makes a kernel for the conf space.
+	 * @return the kernel, or null if the conf space uses a forcefield the kernel doesn't support
+	 */
+	public static FusedEnergyKernel of(ConfSpace confSpace) {
+
+		Forcefield[] ffs = new Forcefield[confSpace.ecalcs.length];
+		for (int ffi=0; ffi<ffs.length; ffi++) {
+			EnergyCalculator ecalc = confSpace.ecalcs[ffi];
+			if (ecalc instanceof AmberEnergyCalculator) {
+				ffs[ffi] = new Amber(confSpace, (AmberEnergyCalculator)ecalc);
+			} else if (ecalc instanceof EEF1EnergyCalculator) {
+				ffs[ffi] = new EEF1(confSpace, (EEF1EnergyCalculator)ecalc);
+			} else {
+				return null;
+			}
+		}
+
+		return new FusedEnergyKernel(confSpace, ffs);
+	}
+
+	private static abstract class Forcefield {
+
+		final int ffi;
+
+		Forcefield(int ffi) {
+			this.ffi = ffi;
+		}
+
+		/**
+		 * sum the energies of the atom pairs, where atomi1 is offset into coords1, and atomi2 into coords2,
+		 * applying the distance cutoff from the neighbor lists, if any
+		 */
+		abstract double calc(ConfSpace.AtomPairs pairs, CoordsList coords1, int offset1, CoordsList coords2, int offset2, NeighborLists neighbors);
+	}
+
+	private static class Amber extends Forcefield {
+
+		final boolean distanceDependentDielectric;
+		final double[] esQ;
+		final double[] vdwA;
+		final double[] vdwB;
+
+		Amber(ConfSpace confSpace, AmberEnergyCalculator ecalc) {
+			super(ecalc.ffi);
+
+			distanceDependentDielectric = ecalc.isDistanceDependentDielectric();
+
+			int n = confSpace.numFFParams(ffi);
+			esQ = new double[n];
+			vdwA = new double[n];
+			vdwB = new double[n];
+			for (int i=0; i<n; i++) {
+				double[] params = confSpace.ffparams(ffi, i);
+				esQ[i] = params[0];
+				vdwA[i] = params[1];
+				vdwB[i] = params[2];
+			}
+		}
+
+		@Override
+		double calc(ConfSpace.AtomPairs pairs, CoordsList coords1, int offset1, CoordsList coords2, int offset2, NeighborLists neighbors) {
+
+			int[] atomi1s = pairs.atomi1s;
+			int[] atomi2s = pairs.atomi2s;
+			int[] paramis = pairs.paramis;
+
+			// without a cutoff, the r^2 comparisons below never succeed
+			double cutoff2 = neighbors != null ? neighbors.cutoff2 : Double.POSITIVE_INFINITY;
+			double switchOn2 = neighbors != null ? neighbors.switchOn2 : Double.POSITIVE_INFINITY;
+
+			double energy = 0.0;
+			for (int i=0; i<pairs.size; i++) {
+
+				int atomi1 = offset1 + atomi1s[i];
+				int atomi2 = offset2 + atomi2s[i];
+				double dx = coords1.x(atomi1) - coords2.x(atomi2);
+				double dy = coords1.y(atomi1) - coords2.y(atomi2);
+				double dz = coords1.z(atomi1) - coords2.z(atomi2);
+				double r2 = dx*dx + dy*dy + dz*dz;
+				if (r2 >= cutoff2) {
+					continue;
+				}
+
+				int parami = paramis[i];
+
+				// see AmberEnergyCalculator.calcEnergy(), but with only one division
+				double invr2 = 1.0/r2;
+				double es;
+				if (distanceDependentDielectric) {
+					es = esQ[parami]*invr2;
+				} else {
+					es = esQ[parami]*Math.sqrt(invr2);
+				}
+				double invr6 = invr2*invr2*invr2;
+				double vdw = (vdwA[parami]*invr6 - vdwB[parami])*invr6;
+
+				double pairEnergy = es + vdw;
+				if (r2 > switchOn2) {
+					pairEnergy *= neighbors.switching(r2);
+				}
+				energy += pairEnergy;
+			}
+			return energy;
+		}
+	}
+
+	private static class EEF1 extends Forcefield {
+
+		static final double eef1Cutoff2 = EEF1EnergyCalculator.cutoff*EEF1EnergyCalculator.cutoff;
+
+		final double[] vdwRadius1;
+		final double[] invLambda1;
+		final double[] vdwRadius2;
+		final double[] invLambda2;
+		final double[] alpha1;
+		final double[] alpha2;
+
+		EEF1(ConfSpace confSpace, EEF1EnergyCalculator ecalc) {
+			super(ecalc.ffi);
+
+			int n = confSpace.numFFParams(ffi);
+			vdwRadius1 = new double[n];
+			invLambda1 = new double[n];
+			vdwRadius2 = new double[n];
+			invLambda2 = new double[n];
+			alpha1 = new double[n];
+			alpha2 = new double[n];
+			for (int i=0; i<n; i++) {
+				double[] params = confSpace.ffparams(ffi, i);
+				vdwRadius1[i] = params[0];
+				invLambda1[i] = 1.0/params[1];
+				vdwRadius2[i] = params[2];
+				invLambda2[i] = 1.0/params[3];
+				alpha1[i] = params[4];
+				alpha2[i] = params[5];
+			}
+		}
+
+		@Override
+		double calc(ConfSpace.AtomPairs pairs, CoordsList coords1, int offset1, CoordsList coords2, int offset2, NeighborLists neighbors) {
+
+			int[] atomi1s = pairs.atomi1s;
+			int[] atomi2s = pairs.atomi2s;
+			int[] paramis = pairs.paramis;
+
+			// without a cutoff, the r^2 comparisons below never succeed
+			double cutoff2 = neighbors != null ? neighbors.cutoff2 : Double.POSITIVE_INFINITY;
+			double switchOn2 = neighbors != null ? neighbors.switchOn2 : Double.POSITIVE_INFINITY;
+
+			double energy = 0.0;
+			for (int i=0; i<pairs.size; i++) {
+
+				int atomi1 = offset1 + atomi1s[i];
+				int atomi2 = offset2 + atomi2s[i];
+				double dx = coords1.x(atomi1) - coords2.x(atomi2);
+				double dy = coords1.y(atomi1) - coords2.y(atomi2);
+				double dz = coords1.z(atomi1) - coords2.z(atomi2);
+				double r2 = dx*dx + dy*dy + dz*dz;
+
+				// see EEF1EnergyCalculator.calcEnergy(), but skip the square root for pairs past the cutoff
+				if (r2 <= eef1Cutoff2 && r2 < cutoff2) {
+					int parami = paramis[i];
+					double r = Math.sqrt(r2);
+					double Xij = (r - vdwRadius1[parami])*invLambda1[parami];
+					double Xji = (r - vdwRadius2[parami])*invLambda2[parami];
+					double pairEnergy = (alpha1[parami]*Math.exp(-Xij*Xij) + alpha2[parami]*Math.exp(-Xji*Xji))/r2;
+					if (r2 > switchOn2) {
+						pairEnergy *= neighbors.switching(r2);
+					}
+					energy -= pairEnergy;
+				}
+			}
+			return energy;
+		}
+	}
+
+	public final ConfSpace confSpace;
+
+	private final Forcefield[] ffs;
+
+	private FusedEnergyKernel(ConfSpace confSpace, Forcefield[] ffs) {
+		this.confSpace = confSpace;
+		this.ffs = ffs;
+	}
+
+	private double calc(Forcefield ff, AssignedCoords coords, PosInter inter) {
+
+		CoordsList c = coords.coords;
+		NeighborLists neighbors = confSpace.getNeighborLists();
+
+		double energy;
+		if (inter.posi1 == inter.posi2) {
+			if (inter.posi1 == PosInter.StaticPos) {
+
+				// static energy
+				energy = coords.getStaticEnergy(ff.ffi)
+					+ ff.calc(coords.getIndices(ff.ffi).pairs, c, 0, c, 0, neighbors);
+
+			} else {
+
+				// pos single energy
+				int posi = inter.posi1;
+				energy = coords.getInternalEnergy(ff.ffi, posi);
+				ConfSpace.IndicesSingle indices = coords.getIndices(ff.ffi, posi);
+				if (indices != null) {
+					int offset = coords.getConfIndex(posi, 0);
+					energy += ff.calc(indices.internals, c, offset, c, offset, neighbors);
+				}
+			}
+
+		} else if (inter.posi1 == PosInter.StaticPos || inter.posi2 == PosInter.StaticPos) {
+
+			// pos-static energy
+			int posi = inter.posi1 == PosInter.StaticPos ? inter.posi2 : inter.posi1;
+			energy = 0.0;
+			ConfSpace.IndicesSingle indices = coords.getIndices(ff.ffi, posi);
+			if (indices != null) {
+				energy += ff.calc(indices.statics, c, coords.getConfIndex(posi, 0), c, 0, neighbors);
+			}
+
+		} else {
+
+			// pos-pos pair energy
+			energy = 0.0;
+			ConfSpace.IndicesPair indices = coords.getIndices(ff.ffi, inter.posi1, inter.posi2);
+			if (indices != null) {
+				energy += ff.calc(indices.pairs, c, coords.getConfIndex(inter.posi1, 0), c, coords.getConfIndex(inter.posi2, 0), neighbors);
+			}
+		}
+
+		// apply weight and offset
+		return inter.weight*(energy + inter.offset);
+	}
+
+	/**
+	 * Calculates the energy of the coords using just the given position interactions.
+	 * Matches the sum of {@link EnergyCalculator#calcEnergy(AssignedCoords, List)} over the conf space forcefields.
+	 */
+	public double calcEnergy(AssignedCoords coords, List<PosInter> inters) {
+		double energy = 0.0;
+		for (Forcefield ff : ffs) {
+			for (PosInter inter : inters) {
+				energy += calc(ff, coords, inter);
+			}
+		}
+		return energy;
+	}
+
+	/**
+	 * Calculates just the energy from the given positions using the given position interactions.
+	 * Matches the sum of {@link EnergyCalculator#calcSubEnergy} over the conf space forcefields.
+	 */
+	public double calcSubEnergy(AssignedCoords coords, List<PosInter> inters, Set<Integer> posIndices) {
+		double energy = 0.0;
+		for (Forcefield ff : ffs) {
+			for (PosInter inter : inters) {
+				if (inter.isIncludedIn(posIndices)) {
+					energy += calc(ff, coords, inter);
+				}
+			}
+		}
+		return energy;
+	}
+
+	private double calc(Forcefield ff, int[] conf, PosInter inter) {
+
+		CoordsList staticCoords = confSpace.staticCoords;
+		NeighborLists neighbors = confSpace.getNeighborLists();
+
+		double energy;
+		if (inter.posi1 == inter.posi2) {
+			if (inter.posi1 == PosInter.StaticPos) {
+
+				// static energy
+				energy = confSpace.staticEnergies[ff.ffi]
+					+ ff.calc(confSpace.indicesStatic(ff.ffi).pairs, staticCoords, 0, staticCoords, 0, neighbors);
+
+			} else {
+
+				// pos single energy
+				int posi = inter.posi1;
+				int confi = conf[posi];
+				energy = 0.0;
+				if (confi != ConfSpace.NotAssigned) {
+					ConfSpace.Conf c = confSpace.positions[posi].confs[confi];
+					energy += c.energies[ff.ffi]
+						+ ff.calc(confSpace.indicesSingles(ff.ffi, posi, confi).internals, c.coords, 0, c.coords, 0, neighbors);
+				}
+			}
+
+		} else if (inter.posi1 == PosInter.StaticPos || inter.posi2 == PosInter.StaticPos) {
+
+			// pos-static energy
+			int posi = inter.posi1 == PosInter.StaticPos ? inter.posi2 : inter.posi1;
+			int confi = conf[posi];
+			energy = 0.0;
+			if (confi != ConfSpace.NotAssigned) {
+				ConfSpace.Conf c = confSpace.positions[posi].confs[confi];
+				energy += ff.calc(confSpace.indicesSingles(ff.ffi, posi, confi).statics, c.coords, 0, staticCoords, 0, neighbors);
+			}
+
+		} else {
+
+			// pos-pos pair energy
+			int confi1 = conf[inter.posi1];
+			int confi2 = conf[inter.posi2];
+			energy = 0.0;
+			if (confi1 != ConfSpace.NotAssigned && confi2 != ConfSpace.NotAssigned) {
+				ConfSpace.Conf c1 = confSpace.positions[inter.posi1].confs[confi1];
+				ConfSpace.Conf c2 = confSpace.positions[inter.posi2].confs[confi2];
+				energy += ff.calc(confSpace.indicesPairs(ff.ffi, inter.posi1, confi1, inter.posi2, confi2).pairs, c1.coords, 0, c2.coords, 0, neighbors);
+			}
+		}
+
+		// apply weight and offset
+		return inter.weight*(energy + inter.offset);
+	}
+
+	/**
+	 * Calculates the rigid energy of the conformation using just the given position interactions,
+	 * without making any coords.
+	 * Matches {@link #calcEnergy(AssignedCoords, List)} for freshly-made coords.
+	 */
+	public double calcEnergy(int[] conf, List<PosInter> inters) {
+		double energy = 0.0;
+		for (Forcefield ff : ffs) {
+			for (PosInter inter : inters) {
+				energy += calc(ff, conf, inter);
+			}
+		}
+		return energy;
+	}
+
+	/** counts the atom pairs in the given position interactions, summed over all the forcefields */
+	public long countAtomPairs(int[] conf, List<PosInter> inters) {
+		long count = 0;
+		for (Forcefield ff : ffs) {
+			for (PosInter inter : inters) {
+				if (inter.posi1 == inter.posi2) {
+					if (inter.posi1 == PosInter.StaticPos) {
+						count += confSpace.indicesStatic(ff.ffi).size();
+					} else if (conf[inter.posi1] != ConfSpace.NotAssigned) {
+						count += confSpace.indicesSingles(ff.ffi, inter.posi1, conf[inter.posi1]).sizeInternals();
+					}
+				} else if (inter.posi1 == PosInter.StaticPos || inter.posi2 == PosInter.StaticPos) {
+					int posi = inter.posi1 == PosInter.StaticPos ? inter.posi2 : inter.posi1;
+					if (conf[posi] != ConfSpace.NotAssigned) {
+						count += confSpace.indicesSingles(ff.ffi, posi, conf[posi]).sizeStatics();
+					}
+				} else if (conf[inter.posi1] != ConfSpace.NotAssigned && conf[inter.posi2] != ConfSpace.NotAssigned) {
+					count += confSpace.indicesPairs(ff.ffi, inter.posi1, conf[inter.posi1], inter.posi2, conf[inter.posi2]).size();
+				}
+			}
+		}
+		return count;
+	}
+}
@@ -33,7 +33,8 @@
 package edu.duke.cs.osprey.energy.forcefield;
 
 import java.util.Arrays;
-import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import edu.duke.cs.osprey.energy.ResidueInteractions;
@@ -46,7 +47,16 @@ import edu.duke.cs.osprey.structure.AtomNeighbors;
 import edu.duke.cs.osprey.structure.Residue;
 import edu.duke.cs.osprey.structure.Residues;
 
+/**
+ * Caches the precomputed forcefield parameters for pairs of residue templates.
+ *
+ * The cache is safe to share between threads, and holds at most {@link #maxBytes} of parameters.
+ * When it gets full, the least recently used parameters are evicted, and get computed again if needed.
+ */
 public class ResPairCache {
+
+	/** enough for a few thousand residue pairs, even for big residues */
+	public static final long DefaultMaxBytes = 256L*1024*1024;
 	
 	public static class ResPair {
 		
@@ -148,17 +158,34 @@ public class ResPairCache {
 				}
 			}
 		}
+
+		/** approximately how much heap space this takes */
+		public long getNumBytes() {
+			// arrays have 16 bytes of overhead, give or take
+			return 16 + 16 + flags.length*Long.BYTES + 16 + precomputed.length*Double.BYTES;
+		}
 	}
 	
 	public final ForcefieldParams ffparams;
 	public final AtomConnectivity connectivity;
+	public final long maxBytes;
 	
-	private Map<AtomPairs,AtomPairInfo> infos;
+	// AtomPairs doesn't override equals() or hashCode(), so this is keyed by identity
+	// access order, so the iterator starts at the least recently used entry
+	private final LinkedHashMap<AtomPairs,AtomPairInfo> infos = new LinkedHashMap<>(16, 0.75f, true);
+	private long numBytes = 0;
+	private long numHits = 0;
+	private long numMisses = 0;
+	private long numEvictions = 0;
 	
 	public ResPairCache(ForcefieldParams ffparams, AtomConnectivity connectivity) {
+		this(ffparams, connectivity, DefaultMaxBytes);
+	}
+
+	public ResPairCache(ForcefieldParams ffparams, AtomConnectivity connectivity, long maxBytes) {
 		this.ffparams = ffparams;
 		this.connectivity = connectivity;
-		this.infos = new IdentityHashMap<>();
+		this.maxBytes = maxBytes;
 	}
 	
 	public ResPair get(Residues residues, ResidueInteractions.Pair pair, SolvationForcefield.ResiduesInfo solvInfo) {
@@ -175,20 +202,7 @@ public class ResPairCache {
 					+ " Can't find atom pairs for residues: " + res1.fullName + ", " + res2.fullName);
 		}
 		
-		// look in the cache
-		AtomPairInfo info = infos.get(atomPairs);
-		if (info == null) {
-			
-			// cache miss!
-			info = new AtomPairInfo(
-				res1, res2,
-				ffparams,
-				atomPairs,
-				solvInfo
-			);
-			
-			infos.put(atomPairs, info);
-		}
+		AtomPairInfo info = getInfo(res1, res2, atomPairs, solvInfo);
 	
 		return new ResPair(
 			indxe1, index2,
@@ -199,4 +213,99 @@ public class ResPairCache {
 			ffparams.solvScale
 		);
 	}
+
+	private AtomPairInfo getInfo(Residue res1, Residue res2, AtomPairs atomPairs, SolvationForcefield.ResiduesInfo solvInfo) {
+
+		// look in the cache
+		synchronized (infos) {
+			AtomPairInfo info = infos.get(atomPairs);
+			if (info != null) {
+				numHits++;
+				return info;
+			}
+			numMisses++;
+		}
+
+		// cache miss! compute the info outside of the lock, so other threads don't have to wait
+		AtomPairInfo info = new AtomPairInfo(
+			res1, res2,
+			ffparams,
+			atomPairs,
+			solvInfo
+		);
+
+		synchronized (infos) {
+
+			// did another thread beat us to it?
+			AtomPairInfo otherInfo = infos.putIfAbsent(atomPairs, info);
+			if (otherInfo != null) {
+				return otherInfo;
+			}
+			numBytes += info.getNumBytes();
+
+			// evict the least recently used infos if we're over capacity, but always keep the newest one
+			Iterator<Map.Entry<AtomPairs,AtomPairInfo>> iter = infos.entrySet().iterator();
+			while (numBytes > maxBytes && infos.size() > 1) {
+				numBytes -= iter.next().getValue().getNumBytes();
+				iter.remove();
+				numEvictions++;
+			}
+		}
+
+		return info;
+	}
+
+	public int size() {
+		synchronized (infos) {
+			return infos.size();
+		}
+	}
+
+	/** approximately how much heap space the cached parameters take */
+	public long getNumBytes() {
+		synchronized (infos) {
+			return numBytes;
+		}
+	}
+
+	public long getNumHits() {
+		synchronized (infos) {
+			return numHits;
+		}
+	}
+
+	public long getNumMisses() {
+		synchronized (infos) {
+			return numMisses;
+		}
+	}
+
+	public long getNumEvictions() {
+		synchronized (infos) {
+			return numEvictions;
+		}
+	}
+
+	public double getHitRate() {
+		synchronized (infos) {
+			long numLookups = numHits + numMisses;
+			return numLookups > 0 ? (double)numHits/numLookups : 0.0;
+		}
+	}
+
+	public void clear() {
+		synchronized (infos) {
+			infos.clear();
+			numBytes = 0;
+		}
+	}
+
+	@Override
+	public String toString() {
+		synchronized (infos) {
+			return String.format("ResPairCache[size=%d, bytes=%d/%d, hits=%d, misses=%d, evictions=%d]",
+				infos.size(), numBytes, maxBytes, numHits, numMisses, numEvictions
+			);
+		}
+	}
 }
@@ -36,6 +36,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.IntPredicate;
 
 import edu.duke.cs.osprey.dof.DegreeOfFreedom;
 import edu.duke.cs.osprey.energy.EnergyFunction;
@@ -59,6 +60,9 @@ public class ResidueForcefieldEnergy implements EnergyFunction.DecomposableByDof
 	
 	private double coulombFactor;
 	private double scaledCoulombFactor;
+
+	// not serialized, subsets of deserialized efuncs just compute it again
+	private transient SolvationForcefield.ResiduesInfo solvInfo;
 	
 	public ResidueForcefieldEnergy(ResPairCache resPairCache, ResidueInteractions inters, Molecule mol) {
 		this(resPairCache, inters, mol.residues);
@@ -73,10 +77,7 @@ public class ResidueForcefieldEnergy implements EnergyFunction.DecomposableByDof
 		this.residues = residues;
 		
 		// compute solvation info if needed
-		SolvationForcefield.ResiduesInfo solvInfo = null;
-		if (resPairCache.ffparams.solvationForcefield != null) {
-			solvInfo = resPairCache.ffparams.solvationForcefield.makeInfo(resPairCache.ffparams, this.residues);
-		}
+		solvInfo = makeSolvInfo();
 		
 		// map the residue numbers to residues
 		resPairs = new ResPair[inters.size()];
@@ -85,20 +86,79 @@ public class ResidueForcefieldEnergy implements EnergyFunction.DecomposableByDof
 			resPairs[index++] = resPairCache.get(this.residues, pair, solvInfo);
 		}
 		
+		isBroken = init();
+	}
+
+	private ResidueForcefieldEnergy(ResidueForcefieldEnergy parent, ResidueInteractions inters) {
+		this(parent, inters, resIndex -> false);
+	}
+
+	/**
+	 * Makes an energy function for the same residues as the parent energy function,
+	 * after some of the residues were rebuilt in place (eg, mutated).
+	 * Res pairs between residues that weren't rebuilt are re-used from the parent.
+	 */
+	public ResidueForcefieldEnergy(ResidueForcefieldEnergy parent, ResidueInteractions inters, IntPredicate isResRebuilt) {
+
+		this.resPairCache = parent.resPairCache;
+		this.inters = inters;
+		this.residues = parent.residues;
+
+		// solvation info depends on the residue templates, so recompute it after any rebuilds
+		boolean anyRebuilt = false;
+		for (int i=0; i<residues.size(); i++) {
+			if (isResRebuilt.test(i)) {
+				anyRebuilt = true;
+				break;
+			}
+		}
+		solvInfo = parent.solvInfo != null && !anyRebuilt ? parent.solvInfo : makeSolvInfo();
+
+		// the parent's res pairs are for the same residues, so reuse them when the weights match
+		Map<ResidueInteractions.Pair,ResPair> parentPairs = new HashMap<>();
+		int index = 0;
+		for (ResidueInteractions.Pair pair : parent.inters) {
+			parentPairs.put(pair, parent.resPairs[index++]);
+		}
+
+		resPairs = new ResPair[inters.size()];
+		index = 0;
+		for (ResidueInteractions.Pair pair : inters) {
+			ResPair resPair = parentPairs.get(pair);
+			if (resPair == null || resPair.weight != pair.weight || resPair.offset != pair.offset
+				|| isResRebuilt.test(resPair.resIndex1) || isResRebuilt.test(resPair.resIndex2)) {
+				resPair = resPairCache.get(this.residues, pair, solvInfo);
+			}
+			resPairs[index++] = resPair;
+		}
+
+		isBroken = init();
+	}
+
+	private SolvationForcefield.ResiduesInfo makeSolvInfo() {
+		if (resPairCache.ffparams.solvationForcefield != null) {
+			return resPairCache.ffparams.solvationForcefield.makeInfo(resPairCache.ffparams, this.residues);
+		}
+		return null;
+	}
+
+	/** returns true if the conformation is broken */
+	private boolean init() {
+
 		// is this a broken conformation?
 		for (ResPair pair : resPairs) {
 			if (pair.res1.confProblems.size() + pair.res2.confProblems.size() > 0) {
-				isBroken = true;
-				
+
 				// we're done here, no need to analyze broken conformations
-				return;
+				return true;
 			}
 		}
-		isBroken = false;
 
 		// pre-compute some constants needed by getEnergy()
 		coulombFactor = ForcefieldParams.coulombConstant/resPairCache.ffparams.dielectric;
 		scaledCoulombFactor = coulombFactor*resPairCache.ffparams.forcefld.coulombScaling;
+
+		return false;
 	}
 
 	public ResidueForcefieldEnergy makeSubset(ResidueInteractions.Pair pair) {
@@ -106,7 +166,7 @@ public class ResidueForcefieldEnergy implements EnergyFunction.DecomposableByDof
 	}
 
 	public ResidueForcefieldEnergy makeSubset(ResidueInteractions inters) {
-		return new ResidueForcefieldEnergy(resPairCache, inters, residues);
+		return new ResidueForcefieldEnergy(this, inters);
 	}
 	
 	@Override
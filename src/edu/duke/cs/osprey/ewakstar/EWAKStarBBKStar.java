@@ -44,6 +44,7 @@ import edu.duke.cs.osprey.kstar.KStar;
 import edu.duke.cs.osprey.kstar.pfunc.BoltzmannCalculator;
 import edu.duke.cs.osprey.kstar.pfunc.PartitionFunction;
 import edu.duke.cs.osprey.kstar.pfunc.UpperBoundCalculator;
+import edu.duke.cs.osprey.tools.AutoCloseableNoEx;
 import edu.duke.cs.osprey.tools.BigMath;
 import edu.duke.cs.osprey.tools.MathTools;
 
@@ -421,7 +422,7 @@ public class EWAKStarBBKStar {
 
             // refine the pfuncs if needed
             if (protein.getStatus().canContinue()) {
-                protein.compute(bbkstarSettings.numConfsPerBatch);
+                refine(protein);
 
                 // tank the sequence if the unbound protein is unstable
                 if (protein.getStatus() == EWAKStarPartitionFunction.Status.Unstable) {
@@ -432,7 +433,7 @@ public class EWAKStarBBKStar {
             }
 
             if (ligand.getStatus().canContinue()) {
-                ligand.compute(bbkstarSettings.numConfsPerBatch);
+                refine(ligand);
 
                 // tank the sequence if the unbound ligand is unstable
                 if (ligand.getStatus() == EWAKStarPartitionFunction.Status.Unstable) {
@@ -443,7 +444,7 @@ public class EWAKStarBBKStar {
             }
 
             if (complex.getStatus().canContinue()) {
-                complex.compute(bbkstarSettings.numConfsPerBatch);
+                refine(complex);
             }
 
             // update the score
@@ -456,6 +457,15 @@ public class EWAKStarBBKStar {
             }
         }
 
+        private void refine(EWAKStarPartitionFunction pfunc) {
+            pfunc.compute(bbkstarSettings.numConfsPerBatch);
+
+            // once a pfunc is finished, we only need its values, so release the conf trees right away
+            if (!pfunc.getStatus().canContinue()) {
+                pfunc.close();
+            }
+        }
+
         public EWAKStarScore makeKStarScore() {
             return new EWAKStarScore(protein.makeResult(), ligand.makeResult(), complex.makeResult());
         }
@@ -566,7 +576,8 @@ public class EWAKStarBBKStar {
         try (ConfDB.DBs confDBs = new ConfDB.DBs()
                 .add(protein.confSpace, protein.confDBFile)
                 .add(ligand.confSpace, ligand.confDBFile)
-                .add(complex.confSpace, complex.confDBFile)
+                .add(complex.confSpace, complex.confDBFile);
+             AutoCloseableNoEx pfuncsCloser = this::closePfuncs
         ) {
 
             // start the BBK* tree with the root node
@@ -699,6 +710,15 @@ public class EWAKStarBBKStar {
         return scoredSequences;
     }
 
+    private void closePfuncs() {
+        for (Map<Sequence,EWAKStarPartitionFunction> pfuncs : Arrays.asList(proteinPfuncs, ligandPfuncs, complexPfuncs)) {
+            for (EWAKStarPartitionFunction pfunc : pfuncs.values()) {
+                pfunc.close();
+            }
+            pfuncs.clear();
+        }
+    }
+
     private void reportSequence(SingleSequenceNode ssnode, List<Sequence> scoredSequences) {
 
         EWAKStarScore kstarScore = ssnode.makeKStarScore();
@@ -304,6 +304,18 @@ public class EWAKStarGradientDescentPfunc implements EWAKStarPartitionFunction.W
 		this.stabilityThreshold = val;
 	}
 
+	@Override
+	public void clean() {
+		if (scoreConfs != null) {
+			scoreConfs.clean();
+			scoreConfs = null;
+		}
+		if (energyConfs != null) {
+			energyConfs.clean();
+			energyConfs = null;
+		}
+	}
+
 	@Override
 	public void compute(int maxNumConfs) {
 
@@ -313,6 +325,9 @@ public class EWAKStarGradientDescentPfunc implements EWAKStarPartitionFunction.W
 		if (!status.canContinue()) {
 			return;
 		}
+		if (scoreConfs == null || energyConfs == null) {
+			throw new IllegalStateException("pfunc was closed, can't compute any further");
+		}
 
 		// start a trace if needed
 		if (surf != null) {
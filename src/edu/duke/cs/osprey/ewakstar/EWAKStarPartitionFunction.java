@@ -45,6 +45,7 @@ import edu.duke.cs.osprey.kstar.pfunc.GradientDescentPfunc;
 import edu.duke.cs.osprey.kstar.pfunc.PartitionFunction;
 import edu.duke.cs.osprey.lute.LUTEConfEnergyCalculator;
 import edu.duke.cs.osprey.lute.LUTEPfunc;
+import edu.duke.cs.osprey.tools.AutoCleanable;
 import edu.duke.cs.osprey.tools.BigMath;
 import edu.duke.cs.osprey.tools.MathTools;
 
@@ -59,7 +60,7 @@ import java.util.function.Function;
 
 /** based on PartitionFunction.java, author: lowegard **/
 
-public interface EWAKStarPartitionFunction {
+public interface EWAKStarPartitionFunction extends AutoCleanable {
 	
 	public static enum Status {
 		
@@ -247,6 +248,15 @@ public interface EWAKStarPartitionFunction {
 		return new Result(getStatus(), getEpMols(), getSConfs(), getValues(), getNumConfsEvaluated());
 	}
 
+	/**
+	 * Releases the conf searches, but keeps the status, values, and conformations.
+	 * The partition function can't be computed any further.
+	 */
+	@Override
+	default void clean() {
+		// nothing to release by default
+	}
+
 
 	public static interface WithConfTable extends EWAKStarPartitionFunction {
 
@@ -36,7 +36,6 @@ import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import edu.duke.cs.osprey.astar.conf.RCs;
-import edu.duke.cs.tpie.EntrySize;
 
 public abstract class AssignmentsSerializer {
 
@@ -155,7 +154,7 @@ public abstract class AssignmentsSerializer {
 	
 	public final RCs rcs;
 	public final Encoding encoding;
-	public final EntrySize entrySize;
+	public final int numBytes;
 
 	protected AssignmentsSerializer(RCs rcs, int numBytes) {
 		this.rcs = rcs;
@@ -168,11 +167,11 @@ public abstract class AssignmentsSerializer {
 			}
 		}
 		encoding = Encoding.pickBest(maxVal);
-		entrySize = EntrySize.findBigEnoughSizeFor(rcs.getNumPos()*encoding.numBytes + numBytes);
+		this.numBytes = rcs.getNumPos()*encoding.numBytes + numBytes;
 	}
 	
-	public EntrySize getEntrySize() {
-		return entrySize;
+	public int getNumBytes() {
+		return numBytes;
 	}
 	
 	protected void writeAssignments(int[] assignments, ByteBuffer buf) {
@@ -0,0 +1,237 @@
+package edu.duke.cs.osprey.externalMemory;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+
+
+/**
+ * A FIFO queue that spills to external memory when it runs out of internal memory.
+ *
+ * Values are serialized into fixed-size records. The front of the queue is kept in memory,
+ * and once that fills up, new values collect in a write buffer that gets appended to a temporary file.
+ * When the front of the queue runs dry, it's refilled from the file, and then from the write buffer.
+ */
+public class ExternalFIFOQueue<T> implements Queue.FIFO<T> {
+
+	public static interface Serializer<T> {
+
+		/** the size of a serialized value, in bytes */
+		int getNumBytes();
+
+		void serialize(T val, ByteBuffer buf);
+		T deserialize(ByteBuffer buf);
+	}
+
+	/** the buffers always get at least this many entries, even if the internal memory limit is tiny */
+	public static final int MinBufferSize = 1024;
+
+	private static final Cleaner cleaner = Cleaner.create();
+
+	private static class Resources implements Runnable {
+
+		long reservedBytes = 0;
+		SpillFile file = null;
+
+		@Override
+		public void run() {
+			if (file != null) {
+				file.close();
+				file = null;
+			}
+			ExternalMemory.releaseInternalBytes(reservedBytes);
+			reservedBytes = 0;
+		}
+	}
+
+	public final Serializer<T> serializer;
+
+	private final int numBytes;
+	private final int bufferSize;
+	private final Resources resources = new Resources();
+	private final Cleaner.Cleanable cleanable;
+
+	// the front of the queue, read from position to limit
+	private final ByteBuffer head;
+
+	// the back of the queue, waiting to be written to the file
+	private final ByteBuffer tail;
+
+	// the middle of the queue
+	private SpillFile.Reader reader = null;
+
+	private long size = 0;
+	private T front = null;
+
+	public ExternalFIFOQueue(Serializer<T> serializer) {
+
+		ExternalMemory.checkInternalLimitSet();
+
+		this.serializer = serializer;
+		this.numBytes = serializer.getNumBytes();
+
+		// split our share of the internal memory between the head and tail buffers,
+		// but leave most of the internal memory for other queues
+		long maxSize = Math.max(MinBufferSize, Math.min(
+			Integer.MAX_VALUE/numBytes,
+			ExternalMemory.getInternalLimitBytes()/4/(2*numBytes)
+		));
+		int size = MinBufferSize;
+		while (size*2 <= maxSize && ExternalMemory.reserveInternalBytes((long)size*2*numBytes)) {
+			resources.reservedBytes += (long)size*2*numBytes;
+			size *= 2;
+		}
+		bufferSize = size;
+
+		head = ByteBuffer.allocate(bufferSize*numBytes);
+		head.flip();
+		tail = ByteBuffer.allocate(bufferSize*numBytes);
+
+		cleanable = cleaner.register(this, resources);
+	}
+
+	private boolean isFileEmpty() {
+		return reader == null || !reader.hasNext();
+	}
+
+	@Override
+	public void push(T val) {
+
+		// if nothing is waiting in external memory or the tail, we can write straight to the head
+		ByteBuffer buf;
+		if (isFileEmpty() && tail.position() == 0 && head.limit() < head.capacity()) {
+			buf = head;
+			int pos = head.position();
+			head.position(head.limit());
+			head.limit(head.limit() + numBytes);
+			write(val, buf);
+			head.position(pos);
+		} else {
+			if (!tail.hasRemaining()) {
+				flushTail();
+			}
+			buf = tail;
+			tail.limit(tail.position() + numBytes);
+			write(val, buf);
+			tail.limit(tail.capacity());
+		}
+
+		size++;
+	}
+
+	private void write(T val, ByteBuffer buf) {
+		int end = buf.limit();
+		serializer.serialize(val, buf);
+		buf.position(end);
+	}
+
+	private void flushTail() {
+
+		if (resources.file == null) {
+			resources.file = new SpillFile("osprey-fifo-", numBytes);
+		}
+		if (reader == null) {
+			reader = resources.file.new Reader(0);
+		}
+
+		tail.flip();
+		resources.file.append(tail);
+		tail.clear();
+	}
+
+	@Override
+	public T peek() {
+
+		if (front != null) {
+			return front;
+		}
+
+		if (size == 0) {
+			return null;
+		}
+
+		if (!head.hasRemaining()) {
+			refill();
+		}
+
+		int pos = head.position();
+		int limit = head.limit();
+		head.limit(pos + numBytes);
+		front = serializer.deserialize(head);
+		head.limit(limit);
+		head.position(pos);
+		return front;
+	}
+
+	private void refill() {
+
+		head.clear();
+
+		if (!isFileEmpty()) {
+
+			// read the next chunk from the file
+			while (head.hasRemaining() && reader.hasNext()) {
+				head.put(reader.next());
+			}
+
+			// if we read the whole file, we can start it over
+			if (!reader.hasNext()) {
+				reader = null;
+				resources.file.clear();
+			}
+
+		} else {
+
+			// otherwise, just move the tail to the head
+			tail.flip();
+			head.put(tail);
+			tail.clear();
+		}
+
+		head.flip();
+	}
+
+	@Override
+	public void pop() {
+
+		if (size == 0) {
+			return;
+		}
+
+		if (!head.hasRemaining()) {
+			refill();
+		}
+
+		head.position(head.position() + numBytes);
+		size--;
+		front = null;
+
+		if (size == 0) {
+			head.clear();
+			head.flip();
+		}
+	}
+
+	@Override
+	public long size() {
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Throws away all the values in the queue, and releases its internal and external memory right away.
+	 */
+	@Override
+	public void clean() {
+		cleanable.clean();
+		reader = null;
+		size = 0;
+		front = null;
+		head.clear();
+		head.flip();
+		tail.clear();
+	}
+}
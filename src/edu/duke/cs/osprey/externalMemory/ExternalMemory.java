@@ -33,20 +33,40 @@
 package edu.duke.cs.osprey.externalMemory;
 
 import edu.duke.cs.osprey.tools.MathTools;
-import edu.duke.cs.tpie.TPIE;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ExternalMemory {
-	
+
+	public static interface Block {
+		void run();
+	}
+
 	private static boolean limitSet = false;
+	private static long internalLimitBytes = 0;
 	private static File tempDir = null;
 
+	private static final AtomicLong internalBytes = new AtomicLong(0);
+	private static final AtomicLong externalBytes = new AtomicLong(0);
+	private static final Set<File> tempFiles = ConcurrentHashMap.newKeySet();
+
+	static {
+		// delete any temp files still left over when the JVM exits
+		// (one hook for all the files, rather than File.deleteOnExit(), which remembers every file ever made)
+		Runtime.getRuntime().addShutdownHook(new Thread(ExternalMemory::cleanup));
+	}
+
 	/**
 	 * Set the maximum amount of internal memory (eg, RAM) to use for
 	 * large data structures. External memory-aware data structures will
 	 * use external memory (eg, disk, SSD, NAS) for extra storage space
 	 * when internal memory limits have been reached.
+	 *
+	 * The limit is shared by all the external memory-aware data structures.
 	 *  
 	 * @param mib maximum amount of internal memory to use, in MiB
 	 */
@@ -55,7 +75,7 @@ public class ExternalMemory {
 			System.err.println("WARNING: Internal memory limit already set, ignoring additional request.");
 			return;
 		}
-		TPIE.start(mib);
+		internalLimitBytes = (long)mib*1024*1024;
 		limitSet = true;
 		setDefaultTempDir();
 	}
@@ -95,15 +115,7 @@ public class ExternalMemory {
 	 * @param dir Path to directory. The directory will be created if it does not exist
 	 */
 	public static void setTempDir(String dir) {
-
-		// create the directory if needed
-		File dirFile = new File(dir);
-		if (!dirFile.exists()) {
-			dirFile.mkdirs();
-		}
-
-		tempDir = new File(dir);
-		TPIE.setTempDir(dir);
+		setTempDir(new File(dir));
 	}
 	
 	/**
@@ -113,15 +125,17 @@ public class ExternalMemory {
 	 * @param subdir Name of subdirectory within dir. This directory will be created if it does not exist.
 	 */
 	public static void setTempDir(String dir, String subdir) {
+		setTempDir(new File(dir, subdir));
+	}
+
+	private static void setTempDir(File dir) {
 
 		// create the directory if needed
-		File dirFile = new File(dir);
-		if (!dirFile.exists()) {
-			dirFile.mkdirs();
+		if (!dir.exists()) {
+			dir.mkdirs();
 		}
 
-		tempDir = new File(dir);
-		TPIE.setTempDir(dir, subdir);
+		tempDir = dir;
 	}
 	
 	/**
@@ -131,15 +145,81 @@ public class ExternalMemory {
 	public static boolean isInternalLimitSet() {
 		return limitSet;
 	}
-	
+
+	/**
+	 * Return the maximum number of bytes of internal memory external memory-aware data structures should use.
+	 */
+	public static long getInternalLimitBytes() {
+		return internalLimitBytes;
+	}
+
+	/**
+	 * Return the number of bytes of internal memory currently reserved by external memory-aware data structures.
+	 */
+	public static long getInternalBytes() {
+		return internalBytes.get();
+	}
+
+	/**
+	 * Try to reserve internal memory for a data structure.
+	 *
+	 * @return true if the reservation fits within the internal memory limit, false otherwise
+	 */
+	public static boolean reserveInternalBytes(long numBytes) {
+		while (true) {
+			long oldBytes = internalBytes.get();
+			long newBytes = oldBytes + numBytes;
+			if (newBytes > internalLimitBytes) {
+				return false;
+			}
+			if (internalBytes.compareAndSet(oldBytes, newBytes)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Return internal memory reserved by {@link #reserveInternalBytes(long)}.
+	 */
+	public static void releaseInternalBytes(long numBytes) {
+		// data structures collected after a cleanup() can release bytes that were already reset, so don't go negative
+		internalBytes.accumulateAndGet(numBytes, (bytes, n) -> Math.max(0, bytes - n));
+	}
+
+	/**
+	 * Make a new temporary file in the external memory temporary directory.
+	 * The file will be deleted by {@link #deleteTempFile(File)}, or by {@link #cleanup()}, whichever comes first.
+	 */
+	public static File makeTempFile(String prefix) {
+		checkInternalLimitSet();
+		try {
+			File file = File.createTempFile(prefix, ".bin", tempDir);
+			tempFiles.add(file);
+			return file;
+		} catch (IOException ex) {
+			throw new RuntimeException("can't create external memory file in " + tempDir, ex);
+		}
+	}
+
+	public static void deleteTempFile(File file) {
+		if (tempFiles.remove(file)) {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Keep track of how many bytes have been written to (or deleted from, if negative) external memory.
+	 */
+	static void addExternalBytes(long numBytes) {
+		// spill files closed after a cleanup() can delete bytes that were already reset, so don't go negative
+		externalBytes.accumulateAndGet(numBytes, (bytes, n) -> Math.max(0, bytes + n));
+	}
+
 	/**
 	 * Return the number of bytes currently used in external memory. (ie, written to the temporary directory)
 	 */
 	public static long getExternalBytes() {
-		if (!limitSet) {
-			return 0;
-		}
-		return TPIE.getExternalBytes();
+		return externalBytes.get();
 	}
 
 	public static String getUsageReport() {
@@ -163,8 +243,13 @@ public class ExternalMemory {
 	 * and you won't have to call it manually.
 	 */
 	public static void cleanup() {
-		TPIE.stop();
+		for (File file : tempFiles) {
+			deleteTempFile(file);
+		}
+		internalBytes.set(0);
+		externalBytes.set(0);
 		limitSet = false;
+		internalLimitBytes = 0;
 		tempDir = null;
 	}
 	
@@ -175,16 +260,12 @@ public class ExternalMemory {
 	 * @param internalMiB maximum amount of internal memory to use, in MiB 
 	 * @param block A block of code to run using external memory.
 	 */
-	public static void use(int internalMiB, TPIE.Block block) {
-		limitSet = true;
+	public static void use(int internalMiB, Block block) {
+		setInternalLimit(internalMiB);
 		try {
-			TPIE.use(internalMiB, () -> {
-				setDefaultTempDir();
-				block.run();
-			});
+			block.run();
 		} finally {
-			limitSet = false;
-			tempDir = null;
+			cleanup();
 		}
 	}
 }
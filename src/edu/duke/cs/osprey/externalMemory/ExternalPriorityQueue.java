@@ -0,0 +1,463 @@
+package edu.duke.cs.osprey.externalMemory;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * A min-priority queue that spills to external memory when it runs out of internal memory.
+ *
+ * Values are serialized into fixed-size records and kept in an in-memory heap until the
+ * heap reaches its share of the internal memory limit (see {@link ExternalMemory#setInternalLimit(int)}).
+ * Then the heap is written out in sorted order as a run in a temporary file, and emptied.
+ * The smallest value is always either at the top of the heap, or at the head of one of the runs,
+ * so peeking is a k-way merge over the runs. To keep the number of runs small, the runs are merged in tiers:
+ * whenever {@link #MergeFanIn} runs pile up at one tier, they're merged into one run at the next tier up,
+ * so each record is only rewritten once per tier, ie logarithmically many times in the size of the queue.
+ *
+ * All the disk access is sequential, so large queues can stream at close to the disk bandwidth.
+ */
+public class ExternalPriorityQueue<T> implements Queue<T> {
+
+	public static interface Serializer<T> {
+
+		/** the size of a serialized value, in bytes */
+		int getNumBytes();
+
+		/** writes the value into the buffer, and returns its priority (smaller values come first) */
+		double serialize(T val, ByteBuffer buf);
+
+		T deserialize(double score, ByteBuffer buf);
+	}
+
+	/** the heap always gets at least this many entries, even if the internal memory limit is tiny */
+	public static final int MinHeapSize = 1024;
+
+	/** when this many runs pile up at one tier, merge them into one run at the next tier */
+	public static final int MergeFanIn = 16;
+
+	private static final Cleaner cleaner = Cleaner.create();
+
+	/**
+	 * Everything that needs to get cleaned up when the queue is garbage,
+	 * kept apart from the queue itself, so the cleaner doesn't keep the queue reachable.
+	 */
+	private static class Resources implements Runnable {
+
+		long reservedBytes = 0;
+		final List<SpillFile> files = new ArrayList<>();
+
+		@Override
+		public void run() {
+			for (SpillFile file : files) {
+				file.close();
+			}
+			files.clear();
+			ExternalMemory.releaseInternalBytes(reservedBytes);
+			reservedBytes = 0;
+		}
+	}
+
+	private class Run {
+
+		final SpillFile file;
+		final int tier;
+		final SpillFile.Reader reader;
+		double score;
+		ByteBuffer record;
+
+		Run(SpillFile file, int tier) {
+			this.file = file;
+			this.tier = tier;
+			this.reader = file.new Reader(0);
+			advance();
+		}
+
+		boolean advance() {
+			record = reader.next();
+			if (record == null) {
+				return false;
+			}
+			score = record.getDouble(0);
+			record.position(Double.BYTES);
+			return true;
+		}
+	}
+
+	public final Serializer<T> serializer;
+
+	private final int numBytes;
+	private final int recordBytes;
+	private final Resources resources = new Resources();
+	private final Cleaner.Cleanable cleanable;
+
+	// the in-memory heap, scores and record indices, with the serialized values in the arena
+	private int heapCapacity = 0;
+	private int heapSize = 0;
+	private double[] heapScores = new double[0];
+	private int[] heapSlots = new int[0];
+	private ByteBuffer arena = ByteBuffer.allocate(0);
+	private int[] freeSlots = new int[0];
+	private int numFreeSlots = 0;
+
+	// the sorted runs in external memory, as a heap of their current heads
+	private final List<Run> runs = new ArrayList<>();
+
+	private long size = 0;
+	private T top = null;
+
+	public ExternalPriorityQueue(Serializer<T> serializer) {
+
+		ExternalMemory.checkInternalLimitSet();
+
+		this.serializer = serializer;
+		this.numBytes = serializer.getNumBytes();
+		this.recordBytes = Double.BYTES + numBytes;
+
+		cleanable = cleaner.register(this, resources);
+	}
+
+	@Override
+	public void push(T val) {
+
+		if (heapSize == heapCapacity && !grow()) {
+			spill();
+		}
+
+		// serialize the value into a free slot
+		int slot = freeSlots[--numFreeSlots];
+		arena.limit((slot + 1)*numBytes);
+		arena.position(slot*numBytes);
+		double score = serializer.serialize(val, arena);
+
+		// sift up
+		int i = heapSize++;
+		while (i > 0) {
+			int parent = (i - 1)/2;
+			if (heapScores[parent] <= score) {
+				break;
+			}
+			heapScores[i] = heapScores[parent];
+			heapSlots[i] = heapSlots[parent];
+			i = parent;
+		}
+		heapScores[i] = score;
+		heapSlots[i] = slot;
+
+		size++;
+		top = null;
+	}
+
+	@Override
+	public T peek() {
+
+		if (top != null) {
+			return top;
+		}
+
+		if (size == 0) {
+			return null;
+		}
+
+		if (isHeapNext()) {
+			int slot = heapSlots[0];
+			arena.limit((slot + 1)*numBytes);
+			arena.position(slot*numBytes);
+			top = serializer.deserialize(heapScores[0], arena);
+		} else {
+			Run run = runs.get(0);
+			run.record.position(Double.BYTES);
+			top = serializer.deserialize(run.score, run.record);
+		}
+		return top;
+	}
+
+	@Override
+	public void pop() {
+
+		if (size == 0) {
+			return;
+		}
+
+		if (isHeapNext()) {
+			removeHeapTop();
+		} else {
+			Run run = runs.get(0);
+			if (run.advance()) {
+				siftDownRun(runs, 0);
+			} else {
+				removeRun(runs, 0);
+			}
+		}
+
+		size--;
+		top = null;
+
+		// if we're out of values, give back the resources
+		if (size == 0) {
+			clear();
+		}
+	}
+
+	@Override
+	public long size() {
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/** the number of sorted runs currently in external memory */
+	public int getNumRuns() {
+		return runs.size();
+	}
+
+	/**
+	 * Throws away all the values in the queue, and releases its internal and external memory.
+	 */
+	public void clear() {
+		runs.clear();
+		resources.run();
+		heapCapacity = 0;
+		heapSize = 0;
+		heapScores = new double[0];
+		heapSlots = new int[0];
+		arena = ByteBuffer.allocate(0);
+		freeSlots = new int[0];
+		numFreeSlots = 0;
+		size = 0;
+		top = null;
+	}
+
+	/**
+	 * Like {@link #clear()}, but the queue can't be used afterwards.
+	 */
+	@Override
+	public void clean() {
+		clear();
+		cleanable.clean();
+	}
+
+	private boolean isHeapNext() {
+		if (heapSize == 0) {
+			return false;
+		}
+		if (runs.isEmpty()) {
+			return true;
+		}
+		return heapScores[0] <= runs.get(0).score;
+	}
+
+	private long bytesPerEntry() {
+		return recordBytes + Integer.BYTES*2;
+	}
+
+	private boolean grow() {
+
+		int newCapacity = heapCapacity == 0 ? MinHeapSize : heapCapacity*2;
+		if (newCapacity < 0 || (long)newCapacity*numBytes > Integer.MAX_VALUE) {
+			return false;
+		}
+
+		// the first chunk is free, but the rest has to fit into the internal memory limit
+		if (heapCapacity > 0) {
+			long newBytes = (newCapacity - heapCapacity)*bytesPerEntry();
+			if (!ExternalMemory.reserveInternalBytes(newBytes)) {
+				return false;
+			}
+			resources.reservedBytes += newBytes;
+		}
+
+		double[] newScores = new double[newCapacity];
+		int[] newSlots = new int[newCapacity];
+		System.arraycopy(heapScores, 0, newScores, 0, heapSize);
+		System.arraycopy(heapSlots, 0, newSlots, 0, heapSize);
+		heapScores = newScores;
+		heapSlots = newSlots;
+
+		ByteBuffer newArena = ByteBuffer.allocate(newCapacity*numBytes);
+		arena.clear();
+		newArena.put(arena);
+		arena = newArena;
+
+		// new slots are free, push them in reverse order so we use the low slots first
+		int[] newFreeSlots = new int[newCapacity];
+		System.arraycopy(freeSlots, 0, newFreeSlots, 0, numFreeSlots);
+		for (int slot=newCapacity-1; slot>=heapCapacity; slot--) {
+			newFreeSlots[numFreeSlots++] = slot;
+		}
+		freeSlots = newFreeSlots;
+
+		heapCapacity = newCapacity;
+		return true;
+	}
+
+	private void removeHeapTop() {
+
+		freeSlots[numFreeSlots++] = heapSlots[0];
+
+		// move the last entry to the top, and sift down
+		heapSize--;
+		if (heapSize == 0) {
+			return;
+		}
+		double score = heapScores[heapSize];
+		int slot = heapSlots[heapSize];
+		int i = 0;
+		while (true) {
+			int child = i*2 + 1;
+			if (child >= heapSize) {
+				break;
+			}
+			if (child + 1 < heapSize && heapScores[child + 1] < heapScores[child]) {
+				child++;
+			}
+			if (score <= heapScores[child]) {
+				break;
+			}
+			heapScores[i] = heapScores[child];
+			heapSlots[i] = heapSlots[child];
+			i = child;
+		}
+		heapScores[i] = score;
+		heapSlots[i] = slot;
+	}
+
+	/**
+	 * Writes the whole heap to external memory as a sorted run, and empties the heap.
+	 */
+	private void spill() {
+
+		SpillFile file = new SpillFile("osprey-pq-", recordBytes);
+		resources.files.add(file);
+
+		// pop the heap in order, and stream out the records in big chunks
+		ByteBuffer out = ByteBuffer.allocate(Math.min(heapSize, 64*1024)*recordBytes);
+		while (heapSize > 0) {
+
+			int slot = heapSlots[0];
+			out.putDouble(heapScores[0]);
+			arena.limit((slot + 1)*numBytes);
+			arena.position(slot*numBytes);
+			out.put(arena);
+			removeHeapTop();
+
+			if (!out.hasRemaining()) {
+				out.flip();
+				file.append(out);
+				out.clear();
+			}
+		}
+		out.flip();
+		file.append(out);
+
+		addRun(runs, new Run(file, 0));
+
+		// cascade merges up the tiers, as long as tiers are full
+		for (int tier=0; mergeTier(tier); tier++);
+	}
+
+	/**
+	 * If the tier has a full set of runs, merges them into one run at the next tier,
+	 * so peeks don't have to look at too many runs. The runs at other tiers are left alone.
+	 */
+	private boolean mergeTier(int tier) {
+
+		int numRuns = 0;
+		for (Run run : runs) {
+			if (run.tier == tier) {
+				numRuns++;
+			}
+		}
+		if (numRuns < MergeFanIn) {
+			return false;
+		}
+
+		// pull the tier's runs out of the heap
+		List<Run> merging = new ArrayList<>();
+		List<Run> others = new ArrayList<>(runs);
+		runs.clear();
+		for (Run run : others) {
+			addRun(run.tier == tier ? merging : runs, run);
+		}
+
+		SpillFile file = new SpillFile("osprey-pq-", recordBytes);
+
+		ByteBuffer out = ByteBuffer.allocate(64*1024*recordBytes);
+		while (!merging.isEmpty()) {
+
+			Run run = merging.get(0);
+			out.putDouble(run.score);
+			run.record.position(Double.BYTES);
+			out.put(run.record);
+			if (run.advance()) {
+				siftDownRun(merging, 0);
+			} else {
+				removeRun(merging, 0);
+			}
+
+			if (!out.hasRemaining()) {
+				out.flip();
+				file.append(out);
+				out.clear();
+			}
+		}
+		out.flip();
+		file.append(out);
+
+		resources.files.add(file);
+		addRun(runs, new Run(file, tier + 1));
+		return true;
+	}
+
+	private void addRun(List<Run> heap, Run run) {
+		heap.add(run);
+		int i = heap.size() - 1;
+		while (i > 0) {
+			int parent = (i - 1)/2;
+			if (heap.get(parent).score <= run.score) {
+				break;
+			}
+			heap.set(i, heap.get(parent));
+			i = parent;
+		}
+		heap.set(i, run);
+	}
+
+	private void removeRun(List<Run> heap, int i) {
+
+		Run run = heap.get(i);
+		resources.files.remove(run.file);
+		run.file.close();
+
+		Run last = heap.remove(heap.size() - 1);
+		if (i < heap.size()) {
+			heap.set(i, last);
+			siftDownRun(heap, i);
+		}
+	}
+
+	private void siftDownRun(List<Run> heap, int i) {
+		Run run = heap.get(i);
+		int n = heap.size();
+		while (true) {
+			int child = i*2 + 1;
+			if (child >= n) {
+				break;
+			}
+			if (child + 1 < n && heap.get(child + 1).score < heap.get(child).score) {
+				child++;
+			}
+			if (run.score <= heap.get(child).score) {
+				break;
+			}
+			heap.set(i, heap.get(child));
+			i = child;
+		}
+		heap.set(i, run);
+	}
+}
@@ -32,22 +32,30 @@
 
 package edu.duke.cs.osprey.externalMemory;
 
+import edu.duke.cs.osprey.tools.AutoCleanable;
+
 import java.util.*;
 import java.util.function.Predicate;
 
-import edu.duke.cs.tpie.serialization.SerializingDoublePriorityQueue;
-import edu.duke.cs.tpie.serialization.SerializingFIFOQueue;
-
 /**
  * A queue that can only be iterated once.
+ *
+ * Queues that hold resources outside of the Java heap (e.g., external memory)
+ * release them when closed, rather than waiting for the garbage collector.
+ * The queue can't be used after it's closed.
  */
-public interface Queue<T> {
+public interface Queue<T> extends AutoCleanable {
 	
 	void push(T val);
 	T peek();
 	void pop();
 	long size();
 	boolean isEmpty();
+
+	@Override
+	default void clean() {
+		// most queues only use the heap, so there's nothing to do
+	}
 	
 	default void pushAll(Collection<T> vals) {
 		for (T val : vals) {
@@ -276,50 +284,17 @@ public interface Queue<T> {
 	public static class ExternalFIFOFactory<T> implements Factory.FIFO<T> {
 		
 		@SafeVarargs
-		public static <T> Queue.FIFO<T> of(SerializingFIFOQueue.Serializer<T> serializer, T ... vals) {
-			return new Queue.FIFO<T>() {
-				
-				private SerializingFIFOQueue<T> q;
-				{
-					q = new SerializingFIFOQueue<>(serializer);
-					for (T val : vals) {
-						q.push(val);
-					}
-				}
-
-				@Override
-				public void push(T val) {
-					q.push(val);
-				}
-
-				@Override
-				public T peek() {
-					if (q.empty()) {
-						return null;
-					}
-					return q.front();
-				}
-
-				@Override
-				public void pop() {
-					q.pop();
-				}
-
-				@Override
-				public long size() {
-					return q.size();
-				}
-
-				@Override
-				public boolean isEmpty() {
-					return q.empty();
-				}
-			};
+		public static <T> Queue.FIFO<T> of(ExternalFIFOQueue.Serializer<T> serializer, T ... vals) {
+			Queue.FIFO<T> q = new ExternalFIFOQueue<>(serializer);
+			for (T val : vals) {
+				q.push(val);
+			}
+			return q;
 		}
 		
-		private SerializingFIFOQueue.Serializer<T> serializer;
+		private ExternalFIFOQueue.Serializer<T> serializer;
 		
-		public ExternalFIFOFactory(SerializingFIFOQueue.Serializer<T> serializer) {
+		public ExternalFIFOFactory(ExternalFIFOQueue.Serializer<T> serializer) {
 			this.serializer = serializer;
 		}
 		
@@ -332,47 +307,17 @@ public interface Queue<T> {
 	public static class ExternalPriorityFactory<T> implements Factory<T> {
 		
 		@SafeVarargs
-		public static <T> Queue<T> of(SerializingDoublePriorityQueue.Serializer<T> serializer, T ... vals) {
-			return new Queue<T>() {
-				
-				private SerializingDoublePriorityQueue<T> q;
-				{
-					q = new SerializingDoublePriorityQueue<>(serializer);
-					for (T val : vals) {
-						q.push(val);
-					}
-				}
-
-				@Override
-				public void push(T val) {
-					q.push(val);
-				}
-
-				@Override
-				public T peek() {
-					return q.top();
-				}
-
-				@Override
-				public void pop() {
-					q.pop();
-				}
-
-				@Override
-				public long size() {
-					return q.size();
-				}
-
-				@Override
-				public boolean isEmpty() {
-					return q.empty();
-				}
-			};
+		public static <T> Queue<T> of(ExternalPriorityQueue.Serializer<T> serializer, T ... vals) {
+			Queue<T> q = new ExternalPriorityQueue<>(serializer);
+			for (T val : vals) {
+				q.push(val);
+			}
+			return q;
 		}
 		
-		private SerializingDoublePriorityQueue.Serializer<T> serializer;
+		private ExternalPriorityQueue.Serializer<T> serializer;
 		
-		public ExternalPriorityFactory(SerializingDoublePriorityQueue.Serializer<T> serializer) {
+		public ExternalPriorityFactory(ExternalPriorityQueue.Serializer<T> serializer) {
 			this.serializer = serializer;
 		}
 		
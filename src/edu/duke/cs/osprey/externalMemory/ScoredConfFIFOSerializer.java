@@ -36,9 +36,8 @@ import java.nio.ByteBuffer;
 
 import edu.duke.cs.osprey.astar.conf.RCs;
 import edu.duke.cs.osprey.confspace.ConfSearch.ScoredConf;
-import edu.duke.cs.tpie.serialization.SerializingFIFOQueue;
 
-public class ScoredConfFIFOSerializer extends AssignmentsSerializer implements SerializingFIFOQueue.Serializer<ScoredConf> {
+public class ScoredConfFIFOSerializer extends AssignmentsSerializer implements ExternalFIFOQueue.Serializer<ScoredConf> {
 	
 	public ScoredConfFIFOSerializer(RCs rcs) {
 		super(rcs, Double.BYTES);
@@ -0,0 +1,142 @@
+package edu.duke.cs.osprey.externalMemory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * A temporary file of fixed-size records in external memory.
+ *
+ * Records are appended with streaming writes, and read back sequentially
+ * through memory-mapped windows, so the OS page cache does the buffering for us.
+ */
+class SpillFile implements AutoCloseable {
+
+	/** how many bytes of the file to map at once, rounded down to a whole number of records */
+	private static final long WindowBytes = 16*1024*1024;
+
+	public final int recordBytes;
+	public final File file;
+
+	private final FileChannel channel;
+	private long numRecords = 0;
+
+	public SpillFile(String prefix, int recordBytes) {
+		this.recordBytes = recordBytes;
+		this.file = ExternalMemory.makeTempFile(prefix);
+		try {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+		} catch (IOException ex) {
+			ExternalMemory.deleteTempFile(file);
+			throw new RuntimeException("can't open external memory file: " + file, ex);
+		}
+	}
+
+	public long getNumRecords() {
+		return numRecords;
+	}
+
+	/**
+	 * Appends all the records between the buffer's position and limit to the end of the file.
+	 */
+	public void append(ByteBuffer buf) {
+		int numBytes = buf.remaining();
+		assert (numBytes % recordBytes == 0);
+		try {
+			long pos = numRecords*recordBytes;
+			while (buf.hasRemaining()) {
+				pos += channel.write(buf, pos);
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("can't write to external memory file: " + file, ex);
+		}
+		numRecords += numBytes/recordBytes;
+		ExternalMemory.addExternalBytes(numBytes);
+	}
+
+	/**
+	 * Throws away all the records in the file, so it can be re-used.
+	 */
+	public void clear() {
+		try {
+			channel.truncate(0);
+		} catch (IOException ex) {
+			throw new RuntimeException("can't truncate external memory file: " + file, ex);
+		}
+		ExternalMemory.addExternalBytes(-numRecords*recordBytes);
+		numRecords = 0;
+	}
+
+	/**
+	 * Maps a read-only window of records, starting at the given record.
+	 */
+	public MappedByteBuffer map(long firstRecord) {
+		long maxRecords = Math.max(1, WindowBytes/recordBytes);
+		long numRecordsInWindow = Math.min(maxRecords, numRecords - firstRecord);
+		try {
+			return channel.map(FileChannel.MapMode.READ_ONLY, firstRecord*recordBytes, numRecordsInWindow*recordBytes);
+		} catch (IOException ex) {
+			throw new RuntimeException("can't map external memory file: " + file, ex);
+		}
+	}
+
+	@Override
+	public void close() {
+		try {
+			channel.close();
+		} catch (IOException ex) {
+			// don't care, we're deleting the file anyway
+		}
+		ExternalMemory.addExternalBytes(-numRecords*recordBytes);
+		numRecords = 0;
+		ExternalMemory.deleteTempFile(file);
+	}
+
+	/**
+	 * Reads the records of a spill file in order, one window at a time.
+	 */
+	public class Reader {
+
+		private long nextRecord = 0;
+		private ByteBuffer window = null;
+
+		public Reader(long firstRecord) {
+			nextRecord = firstRecord;
+		}
+
+		public boolean hasNext() {
+			return nextRecord < numRecords;
+		}
+
+		public long getNextRecord() {
+			return nextRecord;
+		}
+
+		/**
+		 * Returns a buffer whose position and limit surround the next record,
+		 * or null if there are no more records.
+		 */
+		public ByteBuffer next() {
+
+			if (!hasNext()) {
+				return null;
+			}
+
+			if (window == null || !window.hasRemaining()) {
+				window = map(nextRecord);
+			}
+
+			int pos = window.position();
+			window.limit(pos + recordBytes);
+			ByteBuffer record = window.slice();
+			window.limit(window.capacity());
+			window.position(pos + recordBytes);
+			nextRecord++;
+			return record;
+		}
+	}
+}
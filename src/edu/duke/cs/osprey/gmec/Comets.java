@@ -44,7 +44,6 @@ import edu.duke.cs.osprey.astar.seq.scoring.SeqAStarScorer;
 import edu.duke.cs.osprey.confspace.*;
 import edu.duke.cs.osprey.energy.ConfEnergyCalculator;
 import edu.duke.cs.osprey.tools.HashCalculator;
-import edu.duke.cs.osprey.tools.MathTools;
 
 import java.io.File;
 import java.io.FileWriter;
@@ -212,125 +211,287 @@ public class Comets {
 	/**
 	 * implements A* heuristic for partially-defined sequences
 	 * as described in COMETS paper, SI section B.2
+	 *
+	 * The min over RCs at the second position of each pair doesn't depend on the sequence assignments,
+	 * so it's pre-computed for every (state, pos, res type), and the heuristic just has to optimize over res types.
+	 * Children of the same node only differ at one position too, so they're scored differentially
+	 * against the cached sums of the parent node.
+	 *
+	 * Not thread-safe, but the sequence A* tree only scores one node at a time anyway.
 	 */
-	private class SeqHScorer implements SeqAStarScorer {
+	class SeqHScorer implements SeqAStarScorer {
 
-		MathTools.Optimizer opt = MathTools.Optimizer.Minimize;
+		private class StateTable {
 
-		// collect conf space positions from all states
-		List<SimpleConfSpace.Position> allPositions = new ArrayList<>();
+			final WeightedState wstate;
+			final int numPos;
 
-		// the states associated with each position
-		List<WeightedState> statesByAllPosition = new ArrayList<>();
+			// the conf space position for each sequence space position, or -1 if it's not in this state
+			final int[] confPosBySeqPos;
 
-		SeqHScorer() {
-			for (WeightedState wstate : objective.states) {
-				for (SimpleConfSpace.Position pos : wstate.state.confSpace.positions) {
-					allPositions.add(pos);
-					statesByAllPosition.add(wstate);
-				}
-			}
-		}
+			// the sequence space position for each conf space position, or -1 if the conf pos is immutable
+			final int[] seqPosByConfPos;
 
-		@Override
-		public double calc(SeqAStarNode.Assignments assignments) {
+			// RCs at each conf pos, grouped by res type, indexed by [pos][rt][i]
+			// (immutable positions have only one group)
+			final int[][][] rcsByRT;
+			final int[][] allRCs;
 
-			// TODO: if inner loops are independent of assignments, pre-compute them somehow?
+			// weighted energies, indexed by [pos][rc]
+			final double[][] singles;
 
-			// sum over all positions
-			double score = objective.offset;
-			for (int i1=0; i1<allPositions.size(); i1++) {
-				SimpleConfSpace.Position pos1 = allPositions.get(i1);
+			// min weighted pair energies over the RCs of a res type at pos2, indexed by [pos1][rc1][pos2][rt2], for pos2 < pos1
+			final double[][][][] pairBounds;
+
+			// min weighted pair energies over all RCs at pos2, indexed by [pos1][rc1][pos2], for pos2 < pos1
+			final double[][][] pairBoundsAllRTs;
 
-				// optimize over res types at pos1
-				double bestPos1Energy = opt.initDouble();
-				for (SeqSpace.ResType rt1 : getRTs(pos1, assignments)) {
+			// cached values for the last scored node
+			final int[][] nodeRCs; // indexed by [pos]
+			final double[][] nodeRowSums; // indexed by [pos1][rc1], sums over pos2 < pos1
+			final double[] nodePosScores; // indexed by [pos]
+			final double[] nodePrefixScores; // sum of position scores before pos, indexed by [pos], has numPos + 1 entries
 
-					// sum over states (always just 1, due to how we build allPositions)
-					WeightedState wstate = statesByAllPosition.get(i1);
+			StateTable(WeightedState wstate) {
 
-					// min over RCs at (pos1,rt1,state)
-					double bestRC1Energy = opt.initDouble();
-					for (SimpleConfSpace.ResidueConf rc1 : getRCs(pos1, rt1, wstate.state)) {
+				this.wstate = wstate;
+				SimpleConfSpace confSpace = wstate.state.confSpace;
+				numPos = confSpace.positions.size();
 
-						double rc1Energy = 0.0;
+				confPosBySeqPos = new int[seqSpace.positions.size()];
+				Arrays.fill(confPosBySeqPos, -1);
+				seqPosByConfPos = new int[numPos];
+				rcsByRT = new int[numPos][][];
+				allRCs = new int[numPos][];
+				singles = new double[numPos][];
+				for (SimpleConfSpace.Position pos : confSpace.positions) {
 
-						// singles
-						rc1Energy += wstate.getSingleEnergy(pos1.index, rc1.index);
+					// map the conf pos to a sequence pos
+					SeqSpace.Position seqPos = seqSpace.getPosition(pos.resNum);
+					if (seqPos != null) {
 
-						// pairs
-						for (int i2=0; i2<pos1.index; i2++) {
-							SimpleConfSpace.Position pos2 = wstate.state.confSpace.positions.get(i2);
+						seqPosByConfPos[pos.index] = seqPos.index;
+						confPosBySeqPos[seqPos.index] = pos.index;
 
-							// min over RTs at pos2
-							double bestRT2Energy = opt.initDouble();
-							for (SeqSpace.ResType rt2 : getRTs(pos2, assignments)) {
+						// mutable pos, group the RCs by res type
+						rcsByRT[pos.index] = new int[seqPos.resTypes.size()][];
+						for (SeqSpace.ResType rt : seqPos.resTypes) {
+							rcsByRT[pos.index][rt.index] = pos.resConfs.stream()
+								.filter(rc -> rc.template.name.equals(rt.name))
+								.mapToInt(rc -> rc.index)
+								.toArray();
+						}
 
-								// min over RCs at (pos2,rt2,state)
-								double bestRC2Energy = opt.initDouble();
-								for (SimpleConfSpace.ResidueConf rc2 : getRCs(pos2, rt2, wstate.state)) {
+					} else {
+
+						// immutable position, use all the RCs (there should be just one res type)
+						assert (pos.resTypes.size() == 1);
+						seqPosByConfPos[pos.index] = -1;
+						rcsByRT[pos.index] = new int[][] {
+							pos.resConfs.stream()
+								.mapToInt(rc -> rc.index)
+								.toArray()
+						};
+					}
 
-									double rc2Energy = wstate.getPairEnergy(pos1.index, rc1.index, pos2.index, rc2.index);
+					allRCs[pos.index] = Arrays.stream(rcsByRT[pos.index])
+						.flatMapToInt(Arrays::stream)
+						.toArray();
 
-									bestRC2Energy = opt.opt(bestRC2Energy, rc2Energy);
+					singles[pos.index] = new double[pos.resConfs.size()];
+					for (int rc : allRCs[pos.index]) {
+						singles[pos.index][rc] = wstate.getSingleEnergy(pos.index, rc);
+					}
+				}
+
+				// min over the RCs at pos2 for every res type
+				pairBounds = new double[numPos][][][];
+				pairBoundsAllRTs = new double[numPos][][];
+				for (int pos1=0; pos1<numPos; pos1++) {
+					int numRCs1 = singles[pos1].length;
+					pairBounds[pos1] = new double[numRCs1][pos1][];
+					pairBoundsAllRTs[pos1] = new double[numRCs1][pos1];
+					for (int rc1 : allRCs[pos1]) {
+						for (int pos2=0; pos2<pos1; pos2++) {
+
+							int numRTs2 = rcsByRT[pos2].length;
+							double[] bounds = new double[numRTs2];
+							double boundAllRTs = Double.POSITIVE_INFINITY;
+							for (int rt2=0; rt2<numRTs2; rt2++) {
+
+								double bound = Double.POSITIVE_INFINITY;
+								for (int rc2 : rcsByRT[pos2][rt2]) {
+									bound = Math.min(bound, wstate.getPairEnergy(pos1, rc1, pos2, rc2));
 								}
 
-								bestRT2Energy = opt.opt(bestRT2Energy, bestRC2Energy);
+								bounds[rt2] = bound;
+								boundAllRTs = Math.min(boundAllRTs, bound);
 							}
 
-							rc1Energy += bestRT2Energy;
+							pairBounds[pos1][rc1][pos2] = bounds;
+							pairBoundsAllRTs[pos1][rc1][pos2] = boundAllRTs;
+						}
+					}
+				}
+
+				nodeRCs = new int[numPos][];
+				nodeRowSums = new double[numPos][];
+				for (int pos=0; pos<numPos; pos++) {
+					nodeRowSums[pos] = new double[singles[pos].length];
+				}
+				nodePosScores = new double[numPos];
+				nodePrefixScores = new double[numPos + 1];
+			}
+
+			/** returns the assigned res type at the conf pos, or -1 if there's no assignment */
+			int getRT(int pos, SeqAStarNode.Assignments assignments) {
+				int seqPos = seqPosByConfPos[pos];
+				if (seqPos >= 0) {
+					Integer rt = assignments.getAssignment(seqPos);
+					if (rt != null) {
+						return rt;
+					}
+				}
+				return -1;
+			}
+
+			/**
+			 * calculates the score for this state from scratch, and caches the sums so children can be scored differentially
+			 */
+			double calc(SeqAStarNode.Assignments assignments) {
+
+				nodePrefixScores[0] = 0.0;
+				for (int pos1=0; pos1<numPos; pos1++) {
+
+					int rt1 = getRT(pos1, assignments);
+					nodeRCs[pos1] = rt1 >= 0 ? rcsByRT[pos1][rt1] : allRCs[pos1];
+
+					// min over RCs at pos1
+					double posScore = Double.POSITIVE_INFINITY;
+					for (int rc1 : nodeRCs[pos1]) {
+
+						// sum over the earlier positions
+						double rowSum = 0.0;
+						for (int pos2=0; pos2<pos1; pos2++) {
+							int rt2 = getRT(pos2, assignments);
+							if (rt2 >= 0) {
+								rowSum += pairBounds[pos1][rc1][pos2][rt2];
+							} else {
+								rowSum += pairBoundsAllRTs[pos1][rc1][pos2];
+							}
 						}
+						nodeRowSums[pos1][rc1] = rowSum;
 
-						bestRC1Energy = opt.opt(bestRC1Energy, rc1Energy);
+						posScore = Math.min(posScore, singles[pos1][rc1] + rowSum);
 					}
 
-					bestPos1Energy = opt.opt(bestPos1Energy, bestRC1Energy);
+					nodePosScores[pos1] = posScore;
+					nodePrefixScores[pos1 + 1] = nodePrefixScores[pos1] + posScore;
 				}
 
-				score += bestPos1Energy;
+				return nodePrefixScores[numPos];
 			}
 
-			return score;
-		}
+			/**
+			 * calculates the score for this state for the child of the cached node,
+			 * by only updating the positions that can see the newly-assigned one
+			 */
+			double calcDifferential(int nextSeqPos, int nextRT) {
 
-		List<SeqSpace.ResType> getRTs(SimpleConfSpace.Position confPos, SeqAStarNode.Assignments assignments) {
+				int pos = confPosBySeqPos[nextSeqPos];
+				if (pos < 0) {
+					// this state doesn't have the position, so nothing changes
+					return nodePrefixScores[numPos];
+				}
 
-			// TODO: pre-compute this somehow?
+				// all the positions before this one are the same as the parent
+				double score = nodePrefixScores[pos];
 
-			// map the conf pos to a sequence pos
-			SeqSpace.Position seqPos = seqSpace.getPosition(confPos.resNum);
-			if (seqPos != null) {
+				// the assigned position only has fewer RCs, the earlier positions don't change
+				double posScore = Double.POSITIVE_INFINITY;
+				for (int rc : rcsByRT[pos][nextRT]) {
+					posScore = Math.min(posScore, singles[pos][rc] + nodeRowSums[pos][rc]);
+				}
+				score += posScore;
 
-				Integer assignedRT = assignments.getAssignment(seqPos.index);
-				if (assignedRT != null) {
-					// use just the assigned res type
-					return Collections.singletonList(seqPos.resTypes.get(assignedRT));
-				} else {
-					// use all the res types at the pos
-					return seqPos.resTypes;
+				// the later positions only need their pair with the assigned position updated
+				for (int pos1=pos+1; pos1<numPos; pos1++) {
+
+					double pos1Score = Double.POSITIVE_INFINITY;
+					for (int rc1 : nodeRCs[pos1]) {
+
+						double rowSum = nodeRowSums[pos1][rc1];
+						double oldBound = pairBoundsAllRTs[pos1][rc1][pos];
+						double newBound = pairBounds[pos1][rc1][pos][nextRT];
+						if (newBound != oldBound) {
+							// NOTE: the new bound can only be higher, so oldBound is finite here
+							rowSum = rowSum - oldBound + newBound;
+						}
+
+						pos1Score = Math.min(pos1Score, singles[pos1][rc1] + rowSum);
+					}
+					score += pos1Score;
 				}
 
-			} else {
+				return score;
+			}
+		}
+
+		private final List<StateTable> tables = new ArrayList<>();
 
-				// immutable position, use all the res types (should just be one)
-				assert (confPos.resTypes.size() == 1);
+		// the assignments for the cached node
+		private final SeqAStarNode.Assignments nodeAssignments = new SeqAStarNode.Assignments(seqSpace.positions.size());
+		private boolean hasNode = false;
 
-				// use the null value to signal there's no res type here
-				return Collections.singletonList(null);
+		SeqHScorer() {
+			for (WeightedState wstate : objective.states) {
+				tables.add(new StateTable(wstate));
 			}
 		}
 
-		List<SimpleConfSpace.ResidueConf> getRCs(SimpleConfSpace.Position pos, SeqSpace.ResType rt, State state) {
-			// TODO: pre-compute this somehow?
-			if (rt != null) {
-				// mutable pos, grab the RCs that match the RT
-				return pos.resConfs.stream()
-					.filter(rc -> rc.template.name.equals(rt.name))
-					.collect(Collectors.toList());
-			} else {
-				// immutable pos, use all the RCs
-				return pos.resConfs;
+		@Override
+		public double calc(SeqAStarNode.Assignments assignments) {
+
+			// sum over all states
+			double score = objective.offset;
+			for (StateTable table : tables) {
+				score += table.calc(assignments);
 			}
+
+			// remember the assignments, in case we need to score the children next
+			nodeAssignments.numAssigned = assignments.numAssigned;
+			System.arraycopy(assignments.assignedPos, 0, nodeAssignments.assignedPos, 0, assignments.numAssigned);
+			System.arraycopy(assignments.assignedRTs, 0, nodeAssignments.assignedRTs, 0, assignments.numAssigned);
+			hasNode = true;
+
+			return score;
+		}
+
+		@Override
+		public double calcDifferential(SeqAStarNode.Assignments assignments, int nextPos, int nextRt) {
+
+			// make sure the cached sums are for the parent node
+			if (!isCachedNode(assignments)) {
+				calc(assignments);
+			}
+
+			double score = objective.offset;
+			for (StateTable table : tables) {
+				score += table.calcDifferential(nextPos, nextRt);
+			}
+			return score;
+		}
+
+		private boolean isCachedNode(SeqAStarNode.Assignments assignments) {
+			if (!hasNode || assignments.numAssigned != nodeAssignments.numAssigned) {
+				return false;
+			}
+			for (int i=0; i<assignments.numAssigned; i++) {
+				if (assignments.assignedPos[i] != nodeAssignments.assignedPos[i] || assignments.assignedRTs[i] != nodeAssignments.assignedRTs[i]) {
+					return false;
+				}
+			}
+			return true;
 		}
 	}
 
@@ -294,6 +294,7 @@ public class PrecomputedMatrices {
                 expander = new NewConfETupleExpander(confSpace, pruningInterval, luteSettings,
                     confECalc, pruneMat);
             }
+            expander.setTaskExecutor(ecalc.tasks);
             
             TupleEnumerator tupEnum = new TupleEnumerator(pruneMat,emat,confSpace.getNumPos());
             TupExpChooser chooser = new TupExpChooser(expander, tupEnum);//make a chooser to choose what tuples will be in the expansion
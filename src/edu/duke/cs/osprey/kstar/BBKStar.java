@@ -433,7 +433,7 @@ public class BBKStar {
 
 			// refine the pfuncs if needed
 			if (protein.getStatus().canContinue()) {
-				protein.compute(bbkstarSettings.numConfsPerBatch);
+				refine(protein);
 
 				// tank the sequence if the unbound protein is unstable
 				if (protein.getStatus() == PartitionFunction.Status.Unstable) {
@@ -444,7 +444,7 @@ public class BBKStar {
 			}
 
 			if (ligand.getStatus().canContinue()) {
-				ligand.compute(bbkstarSettings.numConfsPerBatch);
+				refine(ligand);
 
 				// tank the sequence if the unbound ligand is unstable
 				if (ligand.getStatus() == PartitionFunction.Status.Unstable) {
@@ -455,7 +455,7 @@ public class BBKStar {
 			}
 
 			if (complex.getStatus().canContinue()) {
-				complex.compute(bbkstarSettings.numConfsPerBatch);
+				refine(complex);
 			}
 
 			// update the score
@@ -468,17 +468,27 @@ public class BBKStar {
 			}
 		}
 
+		private void refine(PartitionFunction pfunc) {
+			pfunc.compute(bbkstarSettings.numConfsPerBatch);
+
+			// once a pfunc is finished, we only need its values, so release everything else right away
+			// (the pfunc might be shared by other sequences, but they'll see it's finished too)
+			if (!pfunc.getStatus().canContinue()) {
+				pfunc.close();
+			}
+		}
+
 		public KStarScore computeScore() {
 
 			// refine the pfuncs until done
 			while (protein.getStatus().canContinue()) {
-				protein.compute(bbkstarSettings.numConfsPerBatch);
+				refine(protein);
 			}
 			while (ligand.getStatus().canContinue()) {
-				ligand.compute(bbkstarSettings.numConfsPerBatch);
+				refine(ligand);
 			}
 			while (complex.getStatus().canContinue()) {
-				complex.compute(bbkstarSettings.numConfsPerBatch);
+				refine(complex);
 			}
 
 			// update the score
@@ -533,6 +543,7 @@ public class BBKStar {
 	public final Settings bbkstarSettings;
 
 	// TODO: caching these will keep lots of A* trees in memory. is that a problem? (oh yes, it definitely is)
+	// (finished pfuncs get closed right away, which releases their trees, but unfinished ones still hold on to them)
 	private final Map<Sequence,PartitionFunction> proteinPfuncs;
 	private final Map<Sequence,PartitionFunction> ligandPfuncs;
 	private final Map<Sequence,PartitionFunction> complexPfuncs;
@@ -588,14 +599,16 @@ public class BBKStar {
 			try (AutoCloseableNoEx proteinCloser = protein.openConfDB()) {
 			try (AutoCloseableNoEx ligandCloser = ligand.openConfDB()) {
 			try (AutoCloseableNoEx complexCloser = complex.openConfDB()) {
+			try (AutoCloseableNoEx pfuncsCloser = this::closePfuncs) {
 
 				// put the three contexts for the conf spaces to the context group
 				for (BBKStar.ConfSpaceInfo info : Arrays.asList(protein, ligand, complex)) {
 					Sequence seq = info.confSpace.seqSpace()
 						.makeUnassignedSequence()
 						.filter(info.confSpace.seqSpace());
-					PartitionFunction pfunc = info.makePfunc(seq);
-					pfunc.putTaskContexts(ctxGroup);
+					try (PartitionFunction pfunc = info.makePfunc(seq)) {
+						pfunc.putTaskContexts(ctxGroup);
+					}
 				}
 
 				// skip the calculation on member nodes
@@ -700,7 +713,16 @@ public class BBKStar {
 				}
 
 				return scoredSequences;
-			}}}
+			}}}}
+		}
+	}
+
+	private void closePfuncs() {
+		for (Map<Sequence,PartitionFunction> pfuncs : Arrays.asList(proteinPfuncs, ligandPfuncs, complexPfuncs)) {
+			for (PartitionFunction pfunc : pfuncs.values()) {
+				pfunc.close();
+			}
+			pfuncs.clear();
 		}
 	}
 
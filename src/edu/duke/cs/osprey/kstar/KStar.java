@@ -34,7 +34,11 @@ package edu.duke.cs.osprey.kstar;
 
 import edu.duke.cs.osprey.astar.conf.RCs;
 import edu.duke.cs.osprey.confspace.*;
+import edu.duke.cs.osprey.ematrix.SimpleReferenceEnergies;
 import edu.duke.cs.osprey.energy.ConfEnergyCalculator;
+import edu.duke.cs.osprey.energy.compiled.CPUConfEnergyCalculator;
+import edu.duke.cs.osprey.energy.compiled.ConfEnergyCalculatorAdapter;
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
 import edu.duke.cs.osprey.kstar.pfunc.BoltzmannCalculator;
 import edu.duke.cs.osprey.kstar.pfunc.PartitionFunction;
 import edu.duke.cs.osprey.parallelism.Cluster;
@@ -44,6 +48,8 @@ import edu.duke.cs.osprey.tools.AutoCloseableNoEx;
 import java.io.File;
 import java.math.BigDecimal;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -111,6 +117,47 @@ public class KStar {
 			 */
 			private String confDBPattern = "%s.confdb";
 
+			/**
+			 * The maximum number of sequences whose partition functions can be computed at the same time.
+			 *
+			 * The sequences all share the same task executor, so with more than one sequence in flight,
+			 * the energy calculators can stay busy while any one sequence's partition function
+			 * is waiting on conformation enumeration or winding down.
+			 * The partition functions made by the {@link PfuncFactory}s must be safe to compute concurrently
+			 * (e.g., {@link edu.duke.cs.osprey.kstar.pfunc.GradientDescentPfunc}).
+			 *
+			 * The wild-type sequence is always computed first, since the stability thresholds
+			 * for the mutants depend on it.
+			 */
+			private int maxSimultaneousSequences = 1;
+
+			/**
+			 * File to save the partition function results, so a scan that stops early (e.g., crashes)
+			 * can pick up where it stopped, instead of computing the finished partition functions again.
+			 * The results are only re-used with the same epsilon and stability threshold,
+			 * and for states with the same conf space, sequence space, forcefield parameters,
+			 * reference energies, and minimization settings.
+			 * Other changes that affect the energies (e.g., custom residue templates)
+			 * aren't detected, so they need a new results file.
+			 *
+			 * The file is locked while K* runs, so shards running at the same time each need their own results file.
+			 *
+			 * Set to null to keep the results only in memory.
+			 */
+			private File resultsFile = null;
+
+			/**
+			 * Which shard of the sequences to score, and how many shards there are in total,
+			 * so independent processes (or cluster nodes) can split a big scan between them.
+			 *
+			 * Sequences are assigned to shards round-robin, in enumeration order, so the shards are disjoint
+			 * and every sequence is in exactly one shard. Shards don't share results, so every shard computes
+			 * the wild-type partition functions itself when they're needed for the stability thresholds,
+			 * but only shard 0 reports the wild-type score.
+			 */
+			private int shardIndex = 0;
+			private int numShards = 1;
+
 			public Builder setEpsilon(double val) {
 				epsilon = val;
 				return this;
@@ -165,8 +212,33 @@ public class KStar {
 				return this;
 			}
 
+			public Builder setMaxSimultaneousSequences(int val) {
+				if (val < 1) {
+					throw new IllegalArgumentException("need at least one sequence at a time, not " + val);
+				}
+				maxSimultaneousSequences = val;
+				return this;
+			}
+
+			public Builder setResultsFile(File val) {
+				resultsFile = val;
+				return this;
+			}
+
+			public Builder setShard(int index, int count) {
+				if (count < 1) {
+					throw new IllegalArgumentException("need at least one shard, not " + count);
+				}
+				if (index < 0 || index >= count) {
+					throw new IllegalArgumentException("shard index " + index + " is out of range [0," + count + ")");
+				}
+				shardIndex = index;
+				numShards = count;
+				return this;
+			}
+
 			public Settings build() {
-				return new Settings(epsilon, stabilityThreshold, maxSimultaneousMutations, scoreWriters, showPfuncProgress, useExternalMemory, confDBPattern);
+				return new Settings(epsilon, stabilityThreshold, maxSimultaneousMutations, scoreWriters, showPfuncProgress, useExternalMemory, confDBPattern, maxSimultaneousSequences, resultsFile, shardIndex, numShards);
 			}
 		}
 
@@ -177,8 +249,20 @@ public class KStar {
 		public final boolean showPfuncProgress;
 		public final boolean useExternalMemory;
 		public final String confDBPattern;
+		public final int maxSimultaneousSequences;
+		public final File resultsFile;
+		public final int shardIndex;
+		public final int numShards;
 
 		public Settings(double epsilon, Double stabilityThreshold, int maxSimultaneousMutations, KStarScoreWriter.Writers scoreWriters, boolean dumpPfuncConfs, boolean useExternalMemory, String confDBPattern) {
+			this(epsilon, stabilityThreshold, maxSimultaneousMutations, scoreWriters, dumpPfuncConfs, useExternalMemory, confDBPattern, 1);
+		}
+
+		public Settings(double epsilon, Double stabilityThreshold, int maxSimultaneousMutations, KStarScoreWriter.Writers scoreWriters, boolean dumpPfuncConfs, boolean useExternalMemory, String confDBPattern, int maxSimultaneousSequences) {
+			this(epsilon, stabilityThreshold, maxSimultaneousMutations, scoreWriters, dumpPfuncConfs, useExternalMemory, confDBPattern, maxSimultaneousSequences, null, 0, 1);
+		}
+
+		public Settings(double epsilon, Double stabilityThreshold, int maxSimultaneousMutations, KStarScoreWriter.Writers scoreWriters, boolean dumpPfuncConfs, boolean useExternalMemory, String confDBPattern, int maxSimultaneousSequences, File resultsFile, int shardIndex, int numShards) {
 			this.epsilon = epsilon;
 			this.stabilityThreshold = stabilityThreshold;
 			this.maxSimultaneousMutations = maxSimultaneousMutations;
@@ -186,6 +270,14 @@ public class KStar {
 			this.showPfuncProgress = dumpPfuncConfs;
 			this.useExternalMemory = useExternalMemory;
 			this.confDBPattern = confDBPattern;
+			this.maxSimultaneousSequences = maxSimultaneousSequences;
+			this.resultsFile = resultsFile;
+			this.shardIndex = shardIndex;
+			this.numShards = numShards;
+		}
+
+		public boolean isInShard(long sequenceNumber) {
+			return sequenceNumber % numShards == shardIndex;
 		}
 	}
 
@@ -232,13 +324,21 @@ public class KStar {
 		public final ConfSpaceType type;
 		public final String id;
 
-		public final Map<Sequence,PartitionFunction.Result> pfuncResults = new HashMap<>();
+		/**
+		 * Results for sub-sequences that get shared between many sequences.
+		 * Complex sequences are never repeated in a scan, so their results aren't kept here.
+		 */
+		public final Map<Sequence,PartitionFunction.Result> pfuncResults = new ConcurrentHashMap<>();
+
+		/** pfuncs currently being computed, so concurrent sequences that share this sub-sequence wait instead of racing */
+		private final Map<Sequence,CompletableFuture<PartitionFunction.Result>> pendingResults = new HashMap<>();
 
 		public File confDBFile = null;
 		public ConfEnergyCalculator confEcalc = null;
 		public PfuncFactory pfuncFactory = null;
 
 		private ConfDB confDB = null;
+		private PfuncResultsDB.Table savedResults = null;
 
 		public ConfSpaceInfo(ConfSpaceIteration confSpace, ConfSpaceType type) {
 			this.confSpace = confSpace;
@@ -257,6 +357,97 @@ public class KStar {
 			}
 		}
 
+		/** describes everything about this state that changes its partition functions, for the results file */
+		private String makeResultsIdentity() {
+
+			StringBuilder buf = new StringBuilder();
+
+			// the conf space
+			for (int posi=0; posi<confSpace.numPos(); posi++) {
+				buf.append(confSpace.name(posi)).append(' ').append(confSpace.wildType(posi)).append(':');
+				for (int confi=0; confi<confSpace.numConf(posi); confi++) {
+					buf.append(' ').append(confSpace.confId(posi, confi)).append('=').append(confSpace.confType(posi, confi));
+				}
+				buf.append('\n');
+			}
+
+			// the sequence space
+			for (SeqSpace.Position pos : confSpace.seqSpace().positions) {
+				buf.append(pos.resNum).append(':');
+				for (SeqSpace.ResType resType : pos.resTypes) {
+					buf.append(' ').append(resType.name);
+				}
+				buf.append('\n');
+			}
+
+			// the energies
+			buf.append(confEcalc.getClass().getName());
+			if (confEcalc.epart != null) {
+				buf.append(' ').append(confEcalc.epart.name());
+			}
+			buf.append(' ').append(confEcalc.addResEntropy);
+			buf.append('\n');
+			if (confEcalc.ecalc != null) {
+				ForcefieldParams ffparams = confEcalc.ecalc.resPairCache.ffparams;
+				buf.append(ffparams.forcefld.name())
+					.append(' ').append(ffparams.solvationForcefield.name())
+					.append(' ').append(ffparams.vdwMultiplier)
+					.append(' ').append(ffparams.solvScale)
+					.append(' ').append(ffparams.dielectric)
+					.append(' ').append(ffparams.distDepDielect)
+					.append(' ').append(ffparams.hElect)
+					.append(' ').append(ffparams.hVDW)
+					.append(' ').append(ffparams.shellDistCutoff)
+					.append('\n');
+				buf.append(confEcalc.ecalc.isMinimizing)
+					.append(' ').append(confEcalc.ecalc.infiniteWellEnergy)
+					.append(' ').append(confEcalc.ecalc.alwaysResolveClashesEnergy)
+					.append('\n');
+				appendReferenceEnergies(buf, confEcalc.eref);
+			} else if (confEcalc instanceof ConfEnergyCalculatorAdapter) {
+				ConfEnergyCalculatorAdapter adapter = (ConfEnergyCalculatorAdapter)confEcalc;
+				edu.duke.cs.osprey.confspace.compiled.ConfSpace compiledConfSpace = adapter.confEcalc.confSpace();
+				for (int ffi=0; ffi<compiledConfSpace.forcefieldIds.length; ffi++) {
+					buf.append(compiledConfSpace.forcefieldIds[ffi]).append(':');
+					for (int parami=0; parami<compiledConfSpace.numFFParams(ffi); parami++) {
+						for (double param : compiledConfSpace.ffparams(ffi, parami)) {
+							buf.append(' ').append(param);
+						}
+					}
+					buf.append('\n');
+				}
+				buf.append(adapter.confEcalc.getClass().getName());
+				if (adapter.confEcalc instanceof CPUConfEnergyCalculator) {
+					buf.append(' ').append(((CPUConfEnergyCalculator)adapter.confEcalc).minimizerType.name());
+				}
+				buf.append(' ').append(adapter.minimize)
+					.append(' ').append(adapter.includeStaticStatic)
+					.append(' ').append(adapter.posInterGen.dist.name())
+					.append('\n');
+				appendReferenceEnergies(buf, adapter.posInterGen.eref);
+			}
+
+			return buf.toString();
+		}
+
+		private void appendReferenceEnergies(StringBuilder buf, SimpleReferenceEnergies eref) {
+			if (eref == null) {
+				buf.append("no eref\n");
+				return;
+			}
+			for (int posi=0; posi<confSpace.numPos(); posi++) {
+				Set<String> resTypes = new LinkedHashSet<>();
+				for (int confi=0; confi<confSpace.numConf(posi); confi++) {
+					resTypes.add(confSpace.confType(posi, confi));
+				}
+				buf.append(confSpace.name(posi)).append(':');
+				for (String resType : resTypes) {
+					buf.append(' ').append(resType).append('=').append(eref.get(posi, resType));
+				}
+				buf.append('\n');
+			}
+		}
+
 		private AutoCloseableNoEx openConfDB() {
 			if (confDBFile != null) {
 				confDB = new ConfDB(confSpace, confDBFile);
@@ -304,33 +495,61 @@ public class KStar {
 				return result;
 			}
 
-			// cache miss, need to compute the partition function
+			// is another sequence already computing this pfunc?
+			CompletableFuture<PartitionFunction.Result> pending;
+			synchronized (pendingResults) {
+				result = pfuncResults.get(sequence);
+				if (result != null) {
+					return result;
+				}
+				pending = pendingResults.get(sequence);
+				if (pending == null) {
+					pendingResults.put(sequence, new CompletableFuture<>());
+				}
+			}
+			if (pending != null) {
+				try {
+					return pending.get();
+				} catch (InterruptedException ex) {
+					throw new RuntimeException(ex);
+				} catch (ExecutionException ex) {
+					throw new RuntimeException("can't compute " + type.name().toLowerCase() + " partition function for sequence " + sequence, ex.getCause());
+				}
+			}
+
+			// cache miss, need to compute the partition function, unless an earlier run already did
+			try {
 
-			// compute the partition function
-			PartitionFunction pfunc = makePfunc(sequence);
-			pfunc.setStabilityThreshold(stabilityThreshold);
-			pfunc.compute();
+				if (savedResults != null) {
+					result = savedResults.get(sequence);
+				}
+				if (result == null) {
 
-			// save the result
-			result = pfunc.makeResult();
-			pfuncResults.put(sequence, result);
+					// compute the partition function
+					// and release its resources (e.g., A* trees, external memory) as soon as we're done
+					try (PartitionFunction pfunc = makePfunc(sequence)) {
+						pfunc.setStabilityThreshold(stabilityThreshold);
+						pfunc.compute();
 
-			/* HACKHACK: we're done using the A* tree, pfunc, etc
-				and normally the garbage collector will clean them up,
-				along with their off-heap resources (e.g. TPIE data structures).
-				Except the garbage collector might not do it right away.
-				If we try to allocate more off-heap resources before these get cleaned up,
-				we might run out. So poke the garbage collector now and try to get
-				it to clean up the off-heap resources right away.
-			*/
-			Runtime.getRuntime().gc();
+						// save the result
+						result = pfunc.makeResult();
+					}
+					if (savedResults != null) {
+						savedResults.put(sequence, result);
+					}
+				}
+				if (type != ConfSpaceType.Complex) {
+					pfuncResults.put(sequence, result);
+				}
 
-			// newer JVMs have more concurrent garbage collectors
-			// give it a little time to finish cleaning up the pfunc
-			try {
-				Thread.sleep(10);
-			} catch (InterruptedException ex) {
-				throw new RuntimeException(ex);
+			} catch (Throwable t) {
+				synchronized (pendingResults) {
+					pendingResults.remove(sequence).completeExceptionally(t);
+				}
+				throw t;
+			}
+			synchronized (pendingResults) {
+				pendingResults.remove(sequence).complete(result);
 			}
 
 			return result;
@@ -338,7 +557,67 @@ public class KStar {
 	}
 
 	private interface Scorer {
-		KStarScore score(int sequenceNumber, PartitionFunction.Result proteinResult, PartitionFunction.Result ligandResult, PartitionFunction.Result complexResult);
+		KStarScore score(long sequenceNumber, Sequence sequence, PartitionFunction.Result proteinResult, PartitionFunction.Result ligandResult, PartitionFunction.Result complexResult);
+	}
+
+	/**
+	 * Drives the partition function calculations for up to a fixed number of sequences at once.
+	 * All the sequences submit their energy tasks to the same task executor.
+	 * With just one sequence at a time, everything runs on the caller's thread, in order.
+	 */
+	private static class SequenceScheduler implements AutoCloseable {
+
+		private final ExecutorService threads;
+
+		SequenceScheduler(int numSequences) {
+			if (numSequences > 1) {
+				AtomicInteger threadId = new AtomicInteger(0);
+				threads = Executors.newFixedThreadPool(numSequences, (runnable) -> {
+					Thread thread = new Thread(runnable, "KStar-sequence-" + threadId.getAndIncrement());
+					thread.setDaemon(true);
+					return thread;
+				});
+			} else {
+				threads = null;
+			}
+		}
+
+		<T> Future<T> submit(Callable<T> task) {
+			if (threads != null) {
+				return threads.submit(task);
+			}
+			CompletableFuture<T> future = new CompletableFuture<>();
+			try {
+				future.complete(task.call());
+			} catch (Throwable t) {
+				future.completeExceptionally(t);
+			}
+			return future;
+		}
+
+		<T> T get(Future<T> future) {
+			try {
+				return future.get();
+			} catch (InterruptedException ex) {
+				throw new RuntimeException(ex);
+			} catch (ExecutionException ex) {
+				Throwable cause = ex.getCause();
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException)cause;
+				} else if (cause instanceof Error) {
+					throw (Error)cause;
+				}
+				throw new RuntimeException(cause);
+			}
+		}
+
+		@Override
+		public void close() {
+			if (threads != null) {
+				// don't leave any sequences running if we're bailing out early
+				threads.shutdownNow();
+			}
+		}
 	}
 
 	/** A configuration space containing just the protein strand */
@@ -353,14 +632,11 @@ public class KStar {
 	/** Optional and overridable settings for K* */
 	public final Settings settings;
 
-	private List<Sequence> sequences;
-
 	public KStar(ConfSpaceIteration protein, ConfSpaceIteration ligand, ConfSpaceIteration complex, Settings settings) {
 		this.settings = settings;
 		this.protein = new ConfSpaceInfo(protein, ConfSpaceType.Protein);
 		this.ligand = new ConfSpaceInfo(ligand, ConfSpaceType.Ligand);
 		this.complex = new ConfSpaceInfo(complex, ConfSpaceType.Complex);
-		this.sequences = new ArrayList<>();
 	}
 
 	public Iterable<ConfSpaceInfo> confSpaceInfos() {
@@ -379,6 +655,41 @@ public class KStar {
 		}
 	}
 
+	/**
+	 * Opens the results file, if there is one, so partition function results
+	 * from earlier (e.g., interrupted) runs get re-used instead of re-computed.
+	 */
+	private AutoCloseableNoEx openResultsDB() {
+
+		if (settings.resultsFile == null) {
+			return () -> {};
+		}
+
+		// the state identities need the energy calculators
+		for (ConfSpaceInfo info : confSpaceInfos()) {
+			info.check();
+		}
+
+		PfuncResultsDB db = new PfuncResultsDB(settings.resultsFile, settings.epsilon, settings.stabilityThreshold);
+		try {
+			for (ConfSpaceInfo info : confSpaceInfos()) {
+				info.savedResults = db.table(info.id, info.confSpace.seqSpace(), info.makeResultsIdentity());
+			}
+		} catch (IllegalArgumentException ex) {
+			for (ConfSpaceInfo info : confSpaceInfos()) {
+				info.savedResults = null;
+			}
+			db.close();
+			throw ex;
+		}
+		return () -> {
+			for (ConfSpaceInfo info : confSpaceInfos()) {
+				info.savedResults = null;
+			}
+			db.close();
+		};
+	}
+
 	public ScoredSequence score(Sequence seq, TaskExecutor tasks) {
 
 		// make a context group for the task executor
@@ -388,6 +699,7 @@ public class KStar {
 			try (AutoCloseableNoEx proteinCloser = protein.openConfDB()) {
 			try (AutoCloseableNoEx ligandCloser = ligand.openConfDB()) {
 			try (AutoCloseableNoEx complexCloser = complex.openConfDB()) {
+			try (AutoCloseableNoEx resultsCloser = openResultsDB()) {
 
 				// check the conf space infos to make sure we have all the inputs
 				protein.check();
@@ -395,14 +707,15 @@ public class KStar {
 				complex.check();
 
 				// reset any previous state
-				sequences.clear();
 				protein.clear();
 				ligand.clear();
 				complex.clear();
 
 				// put the three contexts for the conf spaces to the context group
 				for (ConfSpaceInfo info : Arrays.asList(protein, ligand, complex)) {
-					info.makePfunc(seq).putTaskContexts(ctxGroup);
+					try (PartitionFunction pfunc = info.makePfunc(seq)) {
+						pfunc.putTaskContexts(ctxGroup);
+					}
 				}
 
 				// skip the calculation on member nodes
@@ -416,7 +729,7 @@ public class KStar {
 					ligand.calcPfunc(seq, BigDecimal.ZERO),
 					complex.calcPfunc(seq, BigDecimal.ZERO)
 				));
-			}}}
+			}}}}
 		}
 	}
 
@@ -435,6 +748,7 @@ public class KStar {
 			try (AutoCloseableNoEx proteinCloser = protein.openConfDB()) {
 			try (AutoCloseableNoEx ligandCloser = ligand.openConfDB()) {
 			try (AutoCloseableNoEx complexCloser = complex.openConfDB()) {
+			try (AutoCloseableNoEx resultsCloser = openResultsDB()) {
 
 				// check the conf space infos to make sure we have all the inputs
 				protein.check();
@@ -442,7 +756,6 @@ public class KStar {
 				complex.check();
 
 				// reset any previous state
-				sequences.clear();
 				protein.clear();
 				ligand.clear();
 				complex.clear();
@@ -452,7 +765,9 @@ public class KStar {
 
 					// get any arbitrary sequence in the seq space
 					Sequence seq = info.confSpace.seqSpace().makeUnassignedSequence();
-					info.makePfunc(seq).putTaskContexts(ctxGroup);
+					try (PartitionFunction pfunc = info.makePfunc(seq)) {
+						pfunc.putTaskContexts(ctxGroup);
+					}
 				}
 
 				// skip the calculation on member nodes
@@ -461,82 +776,143 @@ public class KStar {
 					return null;
 				}
 
-				List<ScoredSequence> scores = new ArrayList<>();
-
-				// collect all the sequences explicitly
-				if (complex.confSpace.seqSpace().containsWildTypeSequence()) {
-					sequences.add(complex.confSpace.seqSpace().makeWildTypeSequence());
+				// count the sequences, without actually making them
+				SeqSpace seqSpace = complex.confSpace.seqSpace();
+				boolean hasWildType = seqSpace.containsWildTypeSequence();
+				long n = seqSpace.countMutants(settings.maxSimultaneousMutations) + (hasWildType ? 1 : 0);
+				long numInShard = n > settings.shardIndex ? (n - settings.shardIndex - 1)/settings.numShards + 1 : 0;
+				if (numInShard > Integer.MAX_VALUE) {
+					throw new IllegalArgumentException(String.format(
+						"%d sequences are too many to return in one list, use Settings.Builder.setShard() to split the scan into at least %d shards",
+						n, (n - 1)/Integer.MAX_VALUE + 1
+					));
 				}
-				sequences.addAll(complex.confSpace.seqSpace().getMutants(settings.maxSimultaneousMutations, true));
 
 				// TODO: sequence filtering? do we need to reject some mutation combinations for some reason?
 
-				// now we know how many sequences there are in total
-				int n = sequences.size();
+				// keep this shard's scores in sequence order, even if they finish out of order
+				// grow the list as scores arrive, rather than holding a slot for every sequence up front
+				List<ScoredSequence> scores = new ArrayList<>();
+				if (n == 0) {
+					return scores;
+				}
 
 				// make the sequence scorer and reporter
-				Scorer scorer = (sequenceNumber, proteinResult, ligandResult, complexResult) -> {
+				Scorer scorer = (sequenceNumber, sequence, proteinResult, ligandResult, complexResult) -> {
 
 					// compute the K* score
 					KStarScore kstarScore = new KStarScore(proteinResult, ligandResult, complexResult);
-					Sequence sequence = sequences.get(sequenceNumber);
-					scores.add(new ScoredSequence(sequence, kstarScore));
-
-					// report scores
-					settings.scoreWriters.writeScore(new KStarScoreWriter.ScoreInfo(
-						sequenceNumber,
-						n,
-						sequence,
-						kstarScore
-					));
+
+					// report scores as soon as they finish
+					synchronized (scores) {
+						int index = (int)(sequenceNumber/settings.numShards);
+						while (scores.size() <= index) {
+							scores.add(null);
+						}
+						scores.set(index, new ScoredSequence(sequence, kstarScore));
+						settings.scoreWriters.writeScore(new KStarScoreWriter.ScoreInfo(
+							sequenceNumber,
+							n,
+							sequence,
+							kstarScore
+						));
+					}
 
 					return kstarScore;
 				};
 
-				System.out.println("computing K* scores for " + sequences.size() + " sequences to epsilon = " + settings.epsilon + " ...");
+				if (settings.numShards > 1) {
+					System.out.println("computing K* scores for " + numInShard + " of " + n + " sequences (shard " + settings.shardIndex + " of " + settings.numShards + ") to epsilon = " + settings.epsilon + " ...");
+				} else {
+					System.out.println("computing K* scores for " + n + " sequences to epsilon = " + settings.epsilon + " ...");
+				}
 				settings.scoreWriters.writeHeader();
 				// TODO: progress bar?
 
-				// compute wild type partition functions first (always at pos 0)
-				KStarScore wildTypeScore = scorer.score(
-					0,
-					protein.calcPfunc(sequences.get(0), BigDecimal.ZERO),
-					ligand.calcPfunc(sequences.get(0), BigDecimal.ZERO),
-					complex.calcPfunc(sequences.get(0), BigDecimal.ZERO)
-				);
-				BigDecimal proteinStabilityThreshold = null;
-				BigDecimal ligandStabilityThreshold = null;
-				if (settings.stabilityThreshold != null) {
-					BigDecimal stabilityThresholdFactor = new BoltzmannCalculator(PartitionFunction.decimalPrecision).calc(settings.stabilityThreshold);
-					proteinStabilityThreshold = wildTypeScore.protein.values.calcLowerBound().multiply(stabilityThresholdFactor);
-					ligandStabilityThreshold = wildTypeScore.ligand.values.calcLowerBound().multiply(stabilityThresholdFactor);
-				}
-
-				// compute all the partition functions and K* scores for the rest of the sequences
-				for (int i=1; i<n; i++) {
-					Sequence seq = sequences.get(i);
-
-					// get the pfuncs, with short circuits as needed
-					final PartitionFunction.Result proteinResult = protein.calcPfunc(seq, proteinStabilityThreshold);
-					final PartitionFunction.Result ligandResult;
-					final PartitionFunction.Result complexResult;
-					if (!KStarScore.isLigandComplexUseful(proteinResult)) {
-						ligandResult = PartitionFunction.Result.makeAborted();
-						complexResult = PartitionFunction.Result.makeAborted();
-					} else {
-						ligandResult = ligand.calcPfunc(seq, ligandStabilityThreshold);
-						if (!KStarScore.isComplexUseful(proteinResult, ligandResult)) {
-							complexResult = PartitionFunction.Result.makeAborted();
-						} else {
-							complexResult = complex.calcPfunc(seq, BigDecimal.ZERO);
+				// enumerate the mutants lazily, so we never have to hold them all in memory
+				Iterator<Sequence> mutants = seqSpace.mutants(settings.maxSimultaneousMutations, true).iterator();
+
+				try (SequenceScheduler scheduler = new SequenceScheduler(settings.maxSimultaneousSequences)) {
+
+					// compute wild type partition functions first (always at pos 0)
+					// the three conf spaces are independent, so they can share the sequence slots
+					// other shards only need the wild type for the stability thresholds, so they compute it themselves
+					// (shards can't share results files, so each shard that needs the wild type recomputes it)
+					Sequence wildType = hasWildType ? seqSpace.makeWildTypeSequence() : mutants.next();
+					BigDecimal proteinStabilityThreshold = null;
+					BigDecimal ligandStabilityThreshold = null;
+					if (settings.isInShard(0) || settings.stabilityThreshold != null) {
+						Future<PartitionFunction.Result> proteinWildType = scheduler.submit(() -> protein.calcPfunc(wildType, BigDecimal.ZERO));
+						Future<PartitionFunction.Result> ligandWildType = scheduler.submit(() -> ligand.calcPfunc(wildType, BigDecimal.ZERO));
+						Future<PartitionFunction.Result> complexWildType = scheduler.submit(() -> complex.calcPfunc(wildType, BigDecimal.ZERO));
+						KStarScore wildTypeScore = new KStarScore(
+							scheduler.get(proteinWildType),
+							scheduler.get(ligandWildType),
+							scheduler.get(complexWildType)
+						);
+						if (settings.isInShard(0)) {
+							scorer.score(0, wildType, wildTypeScore.protein, wildTypeScore.ligand, wildTypeScore.complex);
+						}
+						if (settings.stabilityThreshold != null) {
+							BigDecimal stabilityThresholdFactor = new BoltzmannCalculator(PartitionFunction.decimalPrecision).calc(settings.stabilityThreshold);
+							proteinStabilityThreshold = wildTypeScore.protein.values.calcLowerBound().multiply(stabilityThresholdFactor);
+							ligandStabilityThreshold = wildTypeScore.ligand.values.calcLowerBound().multiply(stabilityThresholdFactor);
 						}
 					}
+					final BigDecimal fProteinStabilityThreshold = proteinStabilityThreshold;
+					final BigDecimal fLigandStabilityThreshold = ligandStabilityThreshold;
+
+					// compute all the partition functions and K* scores for the rest of this shard's sequences
+					// only keep a few sequences in flight though, so the enumeration doesn't run ahead of the calculations
+					int maxInFlight = Math.max(1, settings.maxSimultaneousSequences*2);
+					Deque<Future<KStarScore>> mutantScores = new ArrayDeque<>();
+					for (long i=1; mutants.hasNext(); i++) {
+						Sequence seq = mutants.next();
+						if (!settings.isInShard(i)) {
+							continue;
+						}
 
-					scorer.score(i, proteinResult, ligandResult, complexResult);
+						// wait for a slot to open up, and check finished sequences for errors along the way
+						for (Iterator<Future<KStarScore>> iter = mutantScores.iterator(); iter.hasNext();) {
+							Future<KStarScore> mutantScore = iter.next();
+							if (mutantScore.isDone()) {
+								scheduler.get(mutantScore);
+								iter.remove();
+							}
+						}
+						while (mutantScores.size() >= maxInFlight) {
+							scheduler.get(mutantScores.removeFirst());
+						}
+
+						final long sequenceNumber = i;
+						mutantScores.add(scheduler.submit(() -> {
+
+							// get the pfuncs, with short circuits as needed
+							final PartitionFunction.Result proteinResult = protein.calcPfunc(seq, fProteinStabilityThreshold);
+							final PartitionFunction.Result ligandResult;
+							final PartitionFunction.Result complexResult;
+							if (!KStarScore.isLigandComplexUseful(proteinResult)) {
+								ligandResult = PartitionFunction.Result.makeAborted();
+								complexResult = PartitionFunction.Result.makeAborted();
+							} else {
+								ligandResult = ligand.calcPfunc(seq, fLigandStabilityThreshold);
+								if (!KStarScore.isComplexUseful(proteinResult, ligandResult)) {
+									complexResult = PartitionFunction.Result.makeAborted();
+								} else {
+									complexResult = complex.calcPfunc(seq, BigDecimal.ZERO);
+								}
+							}
+
+							return scorer.score(sequenceNumber, seq, proteinResult, ligandResult, complexResult);
+						}));
+					}
+					for (Future<KStarScore> mutantScore : mutantScores) {
+						scheduler.get(mutantScore);
+					}
 				}
 
 				return scores;
-			}}}
+			}}}}
 		}
 	}
 }
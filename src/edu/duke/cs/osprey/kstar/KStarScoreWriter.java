@@ -44,13 +44,13 @@ public interface KStarScoreWriter {
 
 	public static class ScoreInfo {
 
-		public final int sequenceNumber;
-		public final int numSequences;
+		public final long sequenceNumber;
+		public final long numSequences;
 		public final Sequence sequence;
 		public final KStarScore kstarScore;
 		public final long timeNs;
 
-		public ScoreInfo(int sequenceNumber, int numSequences, Sequence sequence, KStarScore kstarScore) {
+		public ScoreInfo(long sequenceNumber, long numSequences, Sequence sequence, KStarScore kstarScore) {
 			this.sequenceNumber = sequenceNumber;
 			this.numSequences = numSequences;
 			this.sequence = sequence;
@@ -220,7 +220,7 @@ public interface KStarScoreWriter {
 			@Override
 			public String format(ScoreInfo info) {
 				return String.join("\t",
-					Integer.toString(info.sequenceNumber),
+					Long.toString(info.sequenceNumber),
 					info.sequence.toString(Sequence.Renderer.AssignmentMutations, info.sequence.calcCellSize() + 1),
 					info.kstarScore.scoreLog10String(),
 					info.kstarScore.lowerBoundLog10String(),
@@ -368,6 +368,7 @@ public class MSKStar {
 				pfuncResult = pfunc.makeResult();
 
 				// release the resources used by the pfunc (e.g., the memory for the A* tree)
+				pfunc.close();
 				pfunc = null;
 			}
 		}
@@ -0,0 +1,189 @@
+package edu.duke.cs.osprey.kstar;
+
+import edu.duke.cs.osprey.confspace.SeqSpace;
+import edu.duke.cs.osprey.confspace.Sequence;
+import edu.duke.cs.osprey.kstar.pfunc.PartitionFunction;
+import edu.duke.cs.osprey.tools.MapDBTools;
+import org.jetbrains.annotations.NotNull;
+import org.mapdb.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Persistent storage for partition function results, keyed by state and sequence.
+ *
+ * Each result is committed to disk as soon as it's saved, so a long sequence scan
+ * that crashes (or gets killed) can pick up where it stopped, without recomputing
+ * any of the partition functions it already finished.
+ *
+ * The results depend on the settings used to compute them (e.g., epsilon, stability thresholds),
+ * and on the conformation space and energies of each state,
+ * so the file remembers those settings and a hash of each state's identity, and refuses to open with different ones.
+ *
+ * MapDB locks the file while it's open, so processes can't share a results file.
+ */
+public class PfuncResultsDB implements AutoCloseable {
+
+	private static class ResultSerializer extends MapDBTools.SimpleSerializer<PartitionFunction.Result> {
+
+		private final MapDBTools.BigDecimalSerializer s = new MapDBTools.BigDecimalSerializer();
+
+		@Override
+		public void serialize(@NotNull DataOutput2 out, @NotNull PartitionFunction.Result data)
+		throws IOException {
+			out.writeUTF(data.status.name());
+			s.serialize(out, data.values.qstar);
+			s.serialize(out, data.values.qprime);
+			s.serialize(out, data.values.pstar);
+			out.writeInt(data.numConfs);
+		}
+
+		@Override
+		public PartitionFunction.Result deserialize(@NotNull DataInput2 in, int available)
+		throws IOException {
+			PartitionFunction.Status status = PartitionFunction.Status.valueOf(in.readUTF());
+			PartitionFunction.Values values = new PartitionFunction.Values();
+			values.qstar = s.deserialize(in, available);
+			values.qprime = s.deserialize(in, available);
+			values.pstar = s.deserialize(in, available);
+			return new PartitionFunction.Result(status, values, in.readInt());
+		}
+
+		@Override
+		public int compare(PartitionFunction.Result a, PartitionFunction.Result b) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	public class Table {
+
+		public final String id;
+		public final SeqSpace seqSpace;
+
+		private final MapDBTools.SequenceSerializer sequenceSerializer;
+		private final HTreeMap<String,PartitionFunction.Result> results;
+
+		private Table(String id, SeqSpace seqSpace, String identity) {
+			this.id = id;
+			this.seqSpace = seqSpace;
+
+			String hash = hash(identity);
+			String savedHash = settings().putIfAbsent("identity-" + id, hash);
+			if (savedHash != null && !savedHash.equals(hash)) {
+				throw new IllegalArgumentException(String.format(
+					"results file %s was computed for a different %s state (conformation space, sequence space, or energy settings), so its results can't be re-used. Use a different results file.",
+					file, id
+				));
+			}
+
+			sequenceSerializer = new MapDBTools.SequenceSerializer(seqSpace);
+			results = db.hashMap(id)
+				.keySerializer(Serializer.STRING)
+				.valueSerializer(new ResultSerializer())
+				.createOrOpen();
+			db.commit();
+		}
+
+		/** returns the saved result for the sequence, or null if there isn't one */
+		public PartitionFunction.Result get(Sequence sequence) {
+			synchronized (db) {
+				return results.get(sequenceSerializer.getSequenceId(sequence));
+			}
+		}
+
+		/** saves the result for the sequence and commits it to disk */
+		public void put(Sequence sequence, PartitionFunction.Result result) {
+			synchronized (db) {
+				results.put(sequenceSerializer.getSequenceId(sequence), result);
+				db.commit();
+			}
+		}
+
+		public int size() {
+			synchronized (db) {
+				return results.size();
+			}
+		}
+	}
+
+	public final File file;
+
+	private final DB db;
+	private final Map<String,Table> tables = new HashMap<>();
+
+	public PfuncResultsDB(File file, double epsilon, Double stabilityThreshold) {
+
+		this.file = file;
+
+		db = DBMaker.fileDB(file)
+			.transactionEnable() // turn on write-ahead log, so the db survives JVM crashes
+			.closeOnJvmShutdown()
+			.make();
+
+		try {
+			checkSetting("epsilon", Double.toString(epsilon));
+			checkSetting("stabilityThreshold", stabilityThreshold == null ? "none" : Double.toString(stabilityThreshold));
+			db.commit();
+		} catch (IllegalArgumentException ex) {
+			db.close();
+			throw ex;
+		}
+	}
+
+	private HTreeMap<String,String> settings() {
+		return db.hashMap("pfuncs-settings")
+			.keySerializer(Serializer.STRING)
+			.valueSerializer(Serializer.STRING)
+			.createOrOpen();
+	}
+
+	private static String hash(String identity) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(identity.getBytes(StandardCharsets.UTF_8));
+			StringBuilder buf = new StringBuilder();
+			for (byte b : digest) {
+				buf.append(String.format("%02x", b));
+			}
+			return buf.toString();
+		} catch (NoSuchAlgorithmException ex) {
+			throw new Error("SHA-256 is required by the JVM spec, this shouldn't happen", ex);
+		}
+	}
+
+	/** saves the setting if the db is new, otherwise makes sure it matches the saved one */
+	private void checkSetting(String name, String value) {
+
+		String savedValue = settings().putIfAbsent(name, value);
+		if (savedValue != null && !savedValue.equals(value)) {
+			throw new IllegalArgumentException(String.format(
+				"results file %s was computed with %s = %s, not %s, so its results can't be re-used. Use a different results file.",
+				file, name, savedValue, value
+			));
+		}
+	}
+
+	/**
+	 * Opens the results table for a state.
+	 * The identity should describe everything about the state that affects its partition functions,
+	 * so results computed for a different state are never re-used.
+	 */
+	public Table table(String id, SeqSpace seqSpace, String identity) {
+		synchronized (db) {
+			return tables.computeIfAbsent(id, key -> new Table(id, seqSpace, identity));
+		}
+	}
+
+	@Override
+	public void close() {
+		synchronized (db) {
+			db.close();
+		}
+	}
+}
@@ -49,21 +49,27 @@ public class ReducedEnergyMatrix extends EnergyMatrix {
     
     
     @Override
-    public Double getOneBody(int res, int index) {
+    public double getOneBodyDouble(int res, int index) {
     	
     	Integer pos = sp.posNums.get(res);
     	
-        return super.getOneBody(pos, index);
+        return super.getOneBodyDouble(pos, index);
     }
     
     
     @Override
-    public Double getPairwise(int res1, int index1, int res2, int index2) {
+    public double getPairwiseDouble(int res1, int index1, int res2, int index2) {
     	
     	Integer pos1 = sp.posNums.get(res1);
 		Integer pos2 = sp.posNums.get(res2);
 		
-		return super.getPairwise(pos1, index1, pos2, index2);
+		return super.getPairwiseDouble(pos1, index1, pos2, index2);
+    }
+
+
+    @Override
+    public PairwiseSlice getPairwiseSlice(int res1, int index1, int res2, PairwiseSlice slice) {
+    	return copyPairwiseSlice(res1, index1, res2, slice);
     }
     
     
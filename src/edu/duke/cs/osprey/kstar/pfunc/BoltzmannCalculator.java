@@ -39,6 +39,7 @@ import ch.obermuhlner.math.big.BigDecimalMath;
 import edu.duke.cs.osprey.energy.PoissonBoltzmannEnergy;
 import edu.duke.cs.osprey.tools.BigExp;
 import edu.duke.cs.osprey.tools.ExpFunction;
+import edu.duke.cs.osprey.tools.LogSumExp;
 import edu.duke.cs.osprey.tools.MathTools;
 import edu.duke.cs.osprey.tools.MathTools.BigDecimalBounds;
 import edu.duke.cs.osprey.tools.MathTools.DoubleBounds;
@@ -66,6 +67,36 @@ public class BoltzmannCalculator {
 		return -constRT*e.log(z).doubleValue();
 	}
 
+	/**
+	 * Returns the natural log of the Boltzmann weight, ie -energy/RT.
+	 * Summing weights in log space (see {@link edu.duke.cs.osprey.tools.LogSumExp})
+	 * is much faster than summing BigDecimal weights.
+	 */
+	public double calcLog(double energy) {
+		return -energy/constRT;
+	}
+
+	/**
+	 * Like {@link #calc(double)}, but returns a BigExp with only double precision, without any BigDecimal arithmetic.
+	 */
+	public BigExp calcBigExp(double energy) {
+		return LogSumExp.toBigExp(1.0, calcLog(energy), 0);
+	}
+
+	/**
+	 * Like {@link #freeEnergy(BigDecimal)}, but with only double precision, without any BigDecimal arithmetic.
+	 */
+	public double freeEnergy(BigExp z) {
+		if (z.isNaN() || z.isNegative()) {
+			return Double.NaN;
+		} else if (!z.isFinite()) {
+			return Double.NEGATIVE_INFINITY;
+		} else if (z.fp == 0.0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return -constRT*(Math.log(z.fp) + z.exp*Math.log(10.0));
+	}
+
 	public BigDecimal calcPrecise(double e) {
 		return exp(-e/constRT);
 	}
@@ -76,23 +76,16 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfDB, Parti
 		return new BigMath(PartitionFunction.decimalPrecision);
 	}
 
-	private static class State {
+	private static final Metrics.Histogram energyUpdateNs = Metrics.histogram("pfunc_energy_update_ns", "time to add a conf energy to the pfunc bounds, including waiting for the lock (ns)");
+	private static final Metrics.Histogram scoresUpdateNs = Metrics.histogram("pfunc_scores_update_ns", "time to add a batch of conf scores to the pfunc bounds, including waiting for the lock (ns)");
 
-		BigDecimal numConfs;
+	private static abstract class State {
 
-		// upper bound (score axis) vars
-		long numScoredConfs = 0;
-		BigDecimal upperScoreWeightSum = BigDecimal.ZERO;
-		BigDecimal minUpperScoreWeight = MathTools.BigPositiveInfinity;
+		final BigInteger numConfs;
 
-		// lower bound (energy axis) vars
+		long numScoredConfs = 0;
 		long numEnergiedConfs = 0;
-		BigDecimal lowerScoreWeightSum = BigDecimal.ZERO;
-		BigDecimal energyWeightSum = BigDecimal.ZERO;
-		BigDecimal minLowerScoreWeight = MathTools.BigPositiveInfinity;
-		BigDecimal cumulativeZReduction = BigDecimal.ZERO;
 		ArrayList<Integer> minList = new ArrayList<>();
-		BigDecimal firstScoreWeight = BigDecimal.ZERO;
 
 		// estimate of inital rates
 		// (values here aren't super imporant since they get tuned during execution,
@@ -107,9 +100,106 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfDB, Parti
 		long lastReportNs = 0;
 
 		State(BigInteger numConfs) {
-			this.numConfs = new BigDecimal(numConfs);
+			this.numConfs = numConfs;
+		}
+
+		/** the weights are only computed by the tasks in decimal mode, otherwise they're null */
+		abstract void addEnergy(ConfSearch.EnergiedConf econf, BigDecimal scoreWeight, BigDecimal energyWeight);
+		abstract void addScores(List<Double> scores, List<BigDecimal> scoreWeights);
+
+		abstract double calcDelta();
+		abstract BigDecimal getLowerBound();
+		abstract BigDecimal getUpperBound();
+		abstract BigDecimal getUpperBoundNoE();
+		abstract BigDecimal getFirstScoreWeight();
+		abstract BigDecimal getCumulativeZReduction();
+		abstract void updateValues(Values values);
+		abstract boolean isStable(BigDecimal stabilityThreshold);
+		abstract boolean hasLowEnergies();
+
+		double getLowerBoundLog10p1() {
+			return MathTools.log10p1(getLowerBound());
+		}
+
+		double getUpperBoundLog10p1() {
+			return MathTools.log10p1(getUpperBound());
+		}
+
+		boolean epsilonReached(double targetEpsilon) {
+			return calcDelta() <= targetEpsilon;
+		}
+
+		void countMinimization(ConfSearch.EnergiedConf econf) {
+			int minimizationSize = econf.getAssignments().length;
+			if (minList.size() < minimizationSize) {
+				minList.addAll(new ArrayList<>(Collections.nCopies(minimizationSize - minList.size(), 0)));
+			}
+			if (minimizationSize > 0) {
+				minList.set(minimizationSize-1, minList.get(minimizationSize-1)+1);
+			}
+		}
+	}
+
+	private static class DecimalState extends State {
+
+		final BigDecimal numConfsDecimal;
+
+		// upper bound (score axis) vars
+		BigDecimal upperScoreWeightSum = BigDecimal.ZERO;
+		BigDecimal minUpperScoreWeight = MathTools.BigPositiveInfinity;
+
+		// lower bound (energy axis) vars
+		BigDecimal lowerScoreWeightSum = BigDecimal.ZERO;
+		BigDecimal energyWeightSum = BigDecimal.ZERO;
+		BigDecimal minLowerScoreWeight = MathTools.BigPositiveInfinity;
+		BigDecimal cumulativeZReduction = BigDecimal.ZERO;
+		BigDecimal firstScoreWeight = BigDecimal.ZERO;
+
+		DecimalState(BigInteger numConfs) {
+			super(numConfs);
+			this.numConfsDecimal = new BigDecimal(numConfs);
+		}
+
+		@Override
+		void addEnergy(ConfSearch.EnergiedConf econf, BigDecimal scoreWeight, BigDecimal energyWeight) {
+			energyWeightSum = bigMath()
+				.set(energyWeightSum)
+				.add(energyWeight)
+				.get();
+			lowerScoreWeightSum = bigMath()
+				.set(lowerScoreWeightSum)
+				.add(scoreWeight)
+				.get();
+			if (MathTools.isLessThan(scoreWeight, minLowerScoreWeight)) {
+				minLowerScoreWeight = scoreWeight;
+			}
+			cumulativeZReduction = bigMath()
+				.set(cumulativeZReduction)
+				.add(scoreWeight)
+				.sub(energyWeight)
+				.get();
 		}
 
+		@Override
+		void addScores(List<Double> scores, List<BigDecimal> scoreWeights) {
+
+			// If this is the first score, save it to get the first upper bound
+			if (numScoredConfs == 0) {
+				firstScoreWeight = scoreWeights.get(0);
+			}
+
+			for (BigDecimal weight : scoreWeights) {
+				upperScoreWeightSum = bigMath()
+					.set(upperScoreWeightSum)
+					.add(weight)
+					.get();
+				if (MathTools.isLessThan(weight, minUpperScoreWeight)) {
+					minUpperScoreWeight = weight;
+				}
+			}
+		}
+
+		@Override
 		double calcDelta() {
 			BigDecimal upperBound = getUpperBound();
 			if (MathTools.isZero(upperBound) || MathTools.isInf(upperBound)) {
@@ -123,13 +213,14 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfDB, Parti
 				.doubleValue();
 		}
 
+		@Override
 		public BigDecimal getLowerBound() {
 			return energyWeightSum;
 		}
 
 		@SuppressWarnings("unused")
 		public void printBoundStats() {
-            System.out.println("Num confs: " + String.format("%12e",numConfs));
+            System.out.println("Num confs: " + String.format("%12e",numConfsDecimal));
             System.out.println("Num Scored confs: " + String.format("%4d",numScoredConfs));
             String upperScoreString = minUpperScoreWeight.toString();
             String upperSumString = upperScoreWeightSum.toString();
@@ -141,12 +232,13 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfDB, Parti
             System.out.println("Scored weight bound:"+ upperSumString);
 		}
 
+		@Override
 		public BigDecimal getUpperBound() {
 
 			return bigMath()
 
 				// unscored bound
-				.set(numConfs)
+				.set(numConfsDecimal)
 				.sub(numScoredConfs)
 				.mult(minUpperScoreWeight)
 
@@ -160,12 +252,13 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfDB, Parti
 				.get();
 		}
 
+		@Override
 		public BigDecimal getUpperBoundNoE() {
 
 			return bigMath()
 
 				// unscored bound
-				.set(numConfs)
+				.set(numConfsDecimal)
 				.sub(numScoredConfs)
 				.mult(minUpperScoreWeight)
 
@@ -175,14 +268,31 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfDB, Parti
 				.get();
 		}
 
-		boolean epsilonReached(double targetEpsilon) {
-			return calcDelta() <= targetEpsilon;
+		@Override
+		BigDecimal getFirstScoreWeight() {
+			return firstScoreWeight;
+		}
+
+		@Override
+		BigDecimal getCumulativeZReduction() {
+			return cumulativeZReduction;
+		}
+
+		@Override
+		void updateValues(Values values) {
+			values.qstar = getLowerBound();
+			values.qprime = bigMath()
+				.set(getUpperBound())
+				.sub(getLowerBound())
+				.get();
 		}
 
+		@Override
 		boolean isStable(BigDecimal stabilityThreshold) {
 			return numEnergiedConfs <= 0 || stabilityThreshold == null || MathTools.isGreaterThanOrEqual(getUpperBound(), stabilityThreshold);
 		}
 
+		@Override
 		boolean hasLowEnergies() {
 			return MathTools.isGreaterThan(minLowerScoreWeight,  BigDecimal.ZERO);
 		}
@@ -196,6 +306,240 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfDB, Parti
 		}
 	}
 
+	/**
+	 * Keeps all the weights in log space, as natural logs of the Boltzmann weights.
+	 *
+	 * The bounds are computed in double precision relative to a common scale,
+	 * and every rounding error is pushed outwards, so the lower bound is never too high
+	 * and the upper bound is never too low. Epsilon convergence can only get (very slightly) slower, never wrong.
+	 */
+	private static class LogState extends State {
+
+		// upper bound (score axis) vars
+		final LogSumExp upperScoreWeightSum = new LogSumExp();
+		double minUpperScoreLogWeight = Double.POSITIVE_INFINITY;
+
+		// lower bound (energy axis) vars
+		final LogSumExp lowerScoreWeightSum = new LogSumExp();
+		final LogSumExp energyWeightSum = new LogSumExp();
+		double minLowerScoreLogWeight = Double.POSITIVE_INFINITY;
+		double firstScoreLogWeight = Double.NEGATIVE_INFINITY;
+
+		// the bounds, as scaled/shift pairs, cached until the next update
+		private boolean isCached = false;
+		private double shift;
+		private double scaledLower;
+		private double scaledUpper;
+		private double scaledUpperNoE;
+
+		private BigDecimal cachedThreshold = null;
+		private double cachedThresholdLog = Double.NaN;
+
+		private static final double MinLogWeight = Math.log(0.5) - bcalc.e.maxPrecision*Math.log(10.0);
+
+		LogState(BigInteger numConfs) {
+			super(numConfs);
+		}
+
+		@Override
+		void addEnergy(ConfSearch.EnergiedConf econf, BigDecimal scoreWeight, BigDecimal energyWeight) {
+			double scoreLogWeight = bcalc.calcLog(econf.getScore());
+			energyWeightSum.add(bcalc.calcLog(econf.getEnergy()));
+			lowerScoreWeightSum.add(scoreLogWeight);
+			minLowerScoreLogWeight = Math.min(minLowerScoreLogWeight, scoreLogWeight);
+			isCached = false;
+		}
+
+		@Override
+		void addScores(List<Double> scores, List<BigDecimal> scoreWeights) {
+
+			// If this is the first score, save it to get the first upper bound
+			if (numScoredConfs == 0) {
+				firstScoreLogWeight = bcalc.calcLog(scores.get(0));
+			}
+
+			for (double score : scores) {
+				double logWeight = bcalc.calcLog(score);
+				upperScoreWeightSum.add(logWeight);
+				minUpperScoreLogWeight = Math.min(minUpperScoreLogWeight, logWeight);
+			}
+			isCached = false;
+		}
+
+		private void updateBounds() {
+
+			if (isCached) {
+				return;
+			}
+
+			// unscored bound, in log space
+			BigInteger numUnscoredConfs = numConfs.subtract(BigInteger.valueOf(numScoredConfs));
+			double unscoredLog = Double.NEGATIVE_INFINITY;
+			double unscoredLogErr = 0.0;
+			if (numUnscoredConfs.signum() > 0 && minUpperScoreLogWeight != Double.POSITIVE_INFINITY) {
+				double logCount = MathTools.log(numUnscoredConfs);
+				unscoredLog = logCount + minUpperScoreLogWeight;
+				unscoredLogErr = Math.ulp(logCount)*4 + Math.ulp(unscoredLog)*2;
+			}
+
+			// put everything on the same scale
+			shift = Math.max(unscoredLog, Math.max(upperScoreWeightSum.getShift(), Math.max(lowerScoreWeightSum.getShift(), energyWeightSum.getShift())));
+			if (shift == Double.NEGATIVE_INFINITY) {
+				shift = 0.0;
+			}
+
+			double unscored = 0.0;
+			double unscoredErr = 0.0;
+			if (unscoredLog != Double.NEGATIVE_INFINITY) {
+				double d = unscoredLog - shift;
+				unscored = Math.exp(d);
+				unscoredErr = unscored*(2*LogSumExp.Eps + Math.ulp(d) + unscoredLogErr)*2;
+			}
+			double upper = upperScoreWeightSum.scaledValue(shift);
+			double lower = lowerScoreWeightSum.scaledValue(shift);
+			double energy = energyWeightSum.scaledValue(shift);
+			double err = unscoredErr
+				+ upperScoreWeightSum.scaledError(shift)
+				+ lowerScoreWeightSum.scaledError(shift)
+				+ energyWeightSum.scaledError(shift);
+
+			// the sums below add at most a few more roundoffs, each smaller than an ulp of the largest term
+			double roundoff = 8*Math.ulp(unscored + upper + lower + energy);
+
+			scaledLower = Math.max(0.0, energy - energyWeightSum.scaledError(shift) - roundoff);
+			scaledUpper = (unscored + upper - lower + energy + err + roundoff)*(1 + LogSumExp.Eps);
+			scaledUpperNoE = (unscored + upper + unscoredErr + upperScoreWeightSum.scaledError(shift) + roundoff)*(1 + LogSumExp.Eps);
+
+			// handle infinities and NaNs like the decimal math would
+			if (!upperScoreWeightSum.isFinite() || !energyWeightSum.isFinite()) {
+				scaledUpper = Double.POSITIVE_INFINITY;
+				scaledUpperNoE = Double.POSITIVE_INFINITY;
+			}
+
+			isCached = true;
+		}
+
+		@Override
+		double calcDelta() {
+			updateBounds();
+			if (scaledUpper == 0.0 || Double.isInfinite(scaledUpper)) {
+				return 1.0;
+			}
+			// round the delta up too, so we never claim convergence early
+			return (scaledUpper - scaledLower)/scaledUpper*(1 + LogSumExp.Eps);
+		}
+
+		@Override
+		BigDecimal getLowerBound() {
+			updateBounds();
+			return LogSumExp.toBigExp(scaledLower, shift, -1).toBigDecimal();
+		}
+
+		@Override
+		BigDecimal getUpperBound() {
+			updateBounds();
+			return LogSumExp.toBigExp(scaledUpper, shift, 1).toBigDecimal();
+		}
+
+		@Override
+		BigDecimal getUpperBoundNoE() {
+			updateBounds();
+			return LogSumExp.toBigExp(scaledUpperNoE, shift, 1).toBigDecimal();
+		}
+
+		@Override
+		double getLowerBoundLog10p1() {
+			updateBounds();
+			return log10p1(scaledLower, shift);
+		}
+
+		@Override
+		double getUpperBoundLog10p1() {
+			updateBounds();
+			return log10p1(scaledUpper, shift);
+		}
+
+		private static double log10p1(double scaled, double shift) {
+			if (scaled == 0.0) {
+				return 0.0;
+			}
+			double ln = Math.log(scaled) + shift;
+			if (ln > 40) {
+				// adding 1 doesn't change anything at this point
+				return ln/Math.log(10.0);
+			}
+			return Math.log1p(Math.exp(ln))/Math.log(10.0);
+		}
+
+		@Override
+		BigDecimal getFirstScoreWeight() {
+			return LogSumExp.toBigExp(1.0, firstScoreLogWeight, 0).toBigDecimal();
+		}
+
+		@Override
+		BigDecimal getCumulativeZReduction() {
+			return bigMath()
+				.set(lowerScoreWeightSum.toBigExp().toBigDecimal())
+				.sub(energyWeightSum.toBigExp().toBigDecimal())
+				.get();
+		}
+
+		@Override
+		void updateValues(Values values) {
+			updateBounds();
+			double scaledGap = Double.isInfinite(scaledUpper)
+				? scaledUpper
+				: (scaledUpper - scaledLower)*(1 + LogSumExp.Eps);
+			values.set(
+				LogSumExp.toBigExp(scaledLower, shift, -1),
+				LogSumExp.toBigExp(scaledGap, shift, 1)
+			);
+		}
+
+		@Override
+		boolean isStable(BigDecimal stabilityThreshold) {
+
+			if (numEnergiedConfs <= 0 || stabilityThreshold == null) {
+				return true;
+			}
+
+			// the threshold usually doesn't change, so cache its log
+			if (stabilityThreshold != cachedThreshold) {
+				cachedThreshold = stabilityThreshold;
+				cachedThresholdLog = MathTools.isZero(stabilityThreshold)
+					? Double.NEGATIVE_INFINITY
+					: MathTools.log10(stabilityThreshold)*Math.log(10.0);
+			}
+
+			updateBounds();
+			if (cachedThresholdLog == Double.NEGATIVE_INFINITY || Double.isInfinite(scaledUpper)) {
+				return true;
+			}
+			if (scaledUpper == 0.0) {
+				return false;
+			}
+
+			// the log of the threshold is only good to ~double precision, so break near-ties towards stable
+			double upperLog = Math.log(scaledUpper) + shift;
+			return upperLog >= cachedThresholdLog - 1e-12*Math.max(1.0, Math.abs(cachedThresholdLog));
+		}
+
+		@Override
+		boolean hasLowEnergies() {
+			// decimal mode rounds the weights to a fixed number of decimal places, so tiny weights become zero there,
+			// stop at the same place, rather than keep going on confs that can't matter
+			return minLowerScoreLogWeight > MinLogWeight;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("upper: count %d  sum %s  min %s     lower: count %d  score sum %s  energy sum %s",
+				numScoredConfs, upperScoreWeightSum, LogSumExp.toBigExp(1.0, minUpperScoreLogWeight, 0),
+				numEnergiedConfs, lowerScoreWeightSum, energyWeightSum
+			);
+		}
+	}
+
 	private static enum Step {
 		None,
 		Score,
@@ -213,6 +557,8 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfDB, Parti
 	private Stopwatch stopwatch = new Stopwatch().start();
 	private ConfSearch scoreConfs = null;
 	private ConfSearch energyConfs = null;
+	private ConfSearch.Splitter confsSplitter = null;
+	private boolean isClosed = false;
 
 	private static BoltzmannCalculator bcalc = new BoltzmannCalculator(PartitionFunction.decimalPrecision);
 
@@ -224,6 +570,7 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfDB, Parti
 	private boolean hasScoreConfs = true;
 	private long numEnergyConfsEnumerated = 0;
 	private long numScoreConfsEnumerated = 0;
+	private int numPendingTasks = 0; // guarded by this
 
 	private ConfDB confDB = null;
 	private ConfDB.Key confDBKey = null;
@@ -231,6 +578,8 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfDB, Parti
 	private boolean useExternalMemory = false;
 	private RCs rcs = null;
 
+	private NumericMode numericMode = NumericMode.Decimal;
+
 	private PfuncSurface surf = null;
 	private PfuncSurface.Trace trace = null;
 
@@ -265,8 +614,10 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfDB, Parti
 	@Override
 	public void putTaskContexts(TaskExecutor.ContextGroup contexts) {
 		// TODO: how to support conf tables correctly, when the energies are distributed across the cluster?
-		contexts.putContext(instanceIdOrThrow(), EnergyTask.class, new EnergyTask.Context(ecalc, bcalc, confDB));
-		contexts.putContext(instanceIdOrThrow(), ScoreTask.class, new ScoreTask.Context(bcalc));
+		// in log space, the state works on the energies directly, so the tasks don't need to compute weights
+		BoltzmannCalculator taskBcalc = numericMode == NumericMode.Decimal ? bcalc : null;
+		contexts.putContext(instanceIdOrThrow(), EnergyTask.class, new EnergyTask.Context(ecalc, taskBcalc, confDB));
+		contexts.putContext(instanceIdOrThrow(), ScoreTask.class, new ScoreTask.Context(taskBcalc));
 	}
 
 	@Override
@@ -312,6 +663,19 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfDB, Parti
 		this.rcs = rcs;
 	}
 
+	/**
+	 * Choose how to accumulate the Boltzmann weights, must be called before init().
+	 * {@link NumericMode#LogSpace} is much faster than the default {@link NumericMode#Decimal},
+	 * and still gives guaranteed bounds, but they're only as tight as double precision allows.
+	 */
+	public void setNumericMode(NumericMode val) {
+		numericMode = val;
+	}
+
+	public NumericMode getNumericMode() {
+		return numericMode;
+	}
+
 	public void traceTo(PfuncSurface val) {
 		surf = val;
 	}
@@ -326,7 +690,11 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfDB, Parti
 
 		// init state
 		status = Status.Estimating;
-		state = new State(numConfsBeforePruning);
+		switch (numericMode) {
+			case Decimal: state = new DecimalState(numConfsBeforePruning); break;
+			case LogSpace: state = new LogState(numConfsBeforePruning); break;
+			default: throw new UnsupportedOperationException("unsupported numeric mode: " + numericMode);
+		}
 		values = Values.makeFullRange();
 		// don't explicitly check the pruned confs, just lump them together with the un-enumerated confs
 		values.pstar = BigDecimal.ZERO;
@@ -338,7 +706,7 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfDB, Parti
 
 		// split the confs between the upper and lower bounds if needed
 		if (energyConfs == null) {
-			ConfSearch.Splitter confsSplitter = new ConfSearch.Splitter(scoreConfs, useExternalMemory, rcs);
+			confsSplitter = new ConfSearch.Splitter(scoreConfs, useExternalMemory, rcs);
 			scoreConfs = confsSplitter.first;
 			energyConfs = confsSplitter.second;
 		}
@@ -358,6 +726,9 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfDB, Parti
 		if (!status.canContinue()) {
 			return;
 		}
+		if (isClosed) {
+			throw new IllegalStateException("pfunc was closed, can't compute any further");
+		}
 
 		// start a trace if needed
 		if (surf != null) {
@@ -370,16 +741,34 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfDB, Parti
 			// which way should we step, and how far?
 			Step step = Step.None;
 			int numScores = 0;
+			boolean waitForBounds = false;
 			synchronized (this) { // don't race the listener thread
 
 				// should we even keep stepping?
-				keepStepping = keepStepping
-					&& !state.epsilonReached(targetEpsilon)
-					&& state.isStable(stabilityThreshold)
-					&& state.hasLowEnergies();
-				if (!keepStepping) {
-					break;
+				boolean boundsSayStop = state.epsilonReached(targetEpsilon)
+					|| !state.isStable(stabilityThreshold)
+					|| !state.hasLowEnergies();
+				if (keepStepping && boundsSayStop && numPendingTasks > 0) {
+
+					// the bounds can be briefly wrong while tasks are still out,
+					// e.g. an energy can come back before the score for the same conf (very likely with a ConfDB),
+					// so wait for everything to come in and check again before stopping
+					waitForBounds = true;
+
+				} else {
+
+					keepStepping = keepStepping && !boundsSayStop;
+					if (!keepStepping) {
+						break;
+					}
 				}
+			}
+			if (waitForBounds) {
+				waitForTasks();
+				continue;
+			}
+
+			synchronized (this) {
 
 				// just in case...
 				if (Double.isNaN(state.dEnergy) || Double.isNaN(state.dScore)) {
@@ -422,9 +811,13 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfDB, Parti
 
 					numConfsEnergied++;
 
+					startedTask();
 					ecalc.tasks.submit(
 						new EnergyTask(instanceIdOrThrow(), conf, new Stopwatch().start(), confDBKey),
-						(result) -> onEnergy(result.econf, result.scoreWeight, result.energyWeight, result.stopwatch.getTimeS())
+						(result) -> {
+							onEnergy(result.econf, result.scoreWeight, result.energyWeight, result.stopwatch.getTimeS());
+							finishedTask();
+						}
 					);
 
 					break;
@@ -449,9 +842,13 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfDB, Parti
 						confs.add(conf.getScore());
 					}
 
+					startedTask();
 					ecalc.tasks.submit(
 						new ScoreTask(instanceIdOrThrow(), confs, new Stopwatch().start()),
-						(result) -> onScores(result.scoreWeights, result.stopwatch.getTimeS())
+						(result) -> {
+							onScores(result.scores, result.scoreWeights, result.stopwatch.getTimeS());
+							finishedTask();
+						}
 					);
 
 					break;
@@ -465,14 +862,10 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfDB, Parti
 		}
 
 		// wait for all the scores and energies to come in
-		ecalc.tasks.waitForFinish();
+		waitForTasks();
 
 		// update the pfunc values from the state
-		values.qstar = state.getLowerBound();
-		values.qprime = bigMath()
-			.set(state.getUpperBound())
-			.sub(state.getLowerBound())
-			.get();
+		state.updateValues(values);
 
 		// we stopped stepping, all the score and energies are accounted for,
 		// so update the pfunc status now
@@ -492,8 +885,8 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfDB, Parti
 		if (state.epsilonReached(targetEpsilon)) {
 			status = Status.Estimated;
 			if (isReportingProgress) {
-				log("Total Z upper bound reduction through minimizations: %12.6e", state.cumulativeZReduction);
-				log("Average Z upper bound reduction per minimizations: %12.6e", bigMath().set(state.cumulativeZReduction).div(state.numEnergiedConfs).get());
+				log("Total Z upper bound reduction through minimizations: %12.6e", state.getCumulativeZReduction());
+				log("Average Z upper bound reduction per minimizations: %12.6e", bigMath().set(state.getCumulativeZReduction()).div(state.numEnergiedConfs).get());
 			}
 		}
 
@@ -549,8 +942,10 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfDB, Parti
 			Result result = new Result();
 			result.stopwatch = stopwatch;
 			result.econf = ctx.confEcalc.calcEnergy(conf, ctx.confTable(confDBKey));
-			result.scoreWeight = ctx.bcalc.calc(result.econf.getScore());
-			result.energyWeight = ctx.bcalc.calc(result.econf.getEnergy());
+			if (ctx.bcalc != null) {
+				result.scoreWeight = ctx.bcalc.calc(result.econf.getScore());
+				result.energyWeight = ctx.bcalc.calc(result.econf.getEnergy());
+			}
 			return result;
 		}
 	}
@@ -588,7 +983,9 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfDB, Parti
 			Result result = new Result();
 			result.stopwatch = stopwatch;
 			for (double score : scores) {
-				result.scoreWeights.add(ctx.bcalc.calc(score));
+				if (ctx.bcalc != null) {
+					result.scoreWeights.add(ctx.bcalc.calc(score));
+				}
 				result.scores.add(score);
 			}
 
@@ -596,42 +993,74 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfDB, Parti
 		}
 	}
 
+	/**
+	 * Closes the conf searches (including the buffer between them, if this pfunc split one search in two).
+	 */
+	@Override
+	public void clean() {
+
+		if (isClosed) {
+			return;
+		}
+		isClosed = true;
+
+		if (confsSplitter != null) {
+			confsSplitter.clean();
+		} else {
+			if (scoreConfs != null) {
+				scoreConfs.clean();
+			}
+			if (energyConfs != null) {
+				energyConfs.clean();
+			}
+		}
+		scoreConfs = null;
+		energyConfs = null;
+		confsSplitter = null;
+	}
+
+	private synchronized void startedTask() {
+		numPendingTasks++;
+	}
+
+	private synchronized void finishedTask() {
+		numPendingTasks--;
+	}
+
+	private void waitForTasks() {
+
+		// other pfuncs can share the task executor (e.g. K* computing several sequences at once),
+		// so the executor finishing its current tasks doesn't necessarily mean all of ours are done,
+		// since it counts other pfuncs' tasks too. Keep waiting until our own tasks are accounted for.
+		// (waitForFinish() also re-throws any exceptions from our tasks, so this can't wait forever)
+		while (true) {
+			ecalc.tasks.waitForFinish();
+			synchronized (this) {
+				if (numPendingTasks <= 0) {
+					break;
+				}
+			}
+		}
+	}
+
 	private void onEnergy(ConfSearch.EnergiedConf econf, BigDecimal scoreWeight, BigDecimal energyWeight, double seconds) {
 
+		long startNs = Metrics.startNs();
+
 		synchronized (this) { // don't race the main thread
 
 			// update the state
-			state.energyWeightSum = bigMath()
-				.set(state.energyWeightSum)
-				.add(energyWeight)
-				.get();
-			state.lowerScoreWeightSum = bigMath()
-				.set(state.lowerScoreWeightSum)
-				.add(scoreWeight)
-				.get();
+			state.addEnergy(econf, scoreWeight, energyWeight);
 			state.numEnergiedConfs++;
 			state.energyOps = 1.0/seconds;
-			if (MathTools.isLessThan(scoreWeight, state.minLowerScoreWeight)) {
-				state.minLowerScoreWeight = scoreWeight;
-			}
 
 			// set the slope for the energy axis
 			double delta = state.calcDelta();
 			state.dEnergy = calcSlope(delta, state.prevDelta, state.dScore);
 			state.prevDelta = delta;
+			energyUpdateNs.recordSince(startNs);
 
-			state.cumulativeZReduction = bigMath()
-				.set(state.cumulativeZReduction)
-				.add(scoreWeight)
-				.sub(energyWeight)
-				.get();
-			int minimizationSize = econf.getAssignments().length;
-			if (state.minList.size() < minimizationSize) {
-				state.minList.addAll(new ArrayList<>(Collections.nCopies(minimizationSize - state.minList.size(), 0)));
-			}
-			if (minimizationSize > 0) {
-            	state.minList.set(minimizationSize-1, state.minList.get(minimizationSize-1)+1);
-			}
+			state.countMinimization(econf);
 
 			// the other direction could be different now, let's be more likely to explore it
 			state.dScore *= 2.0;
@@ -643,7 +1072,7 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfDB, Parti
 					state.numScoredConfs,
 					state.numEnergiedConfs,
 					econf.getScore(), econf.getEnergy(),
-					MathTools.log10p1(state.getLowerBound()), MathTools.log10p1(state.getUpperBound()),
+					state.getLowerBoundLog10p1(), state.getUpperBoundLog10p1(),
 					state.calcDelta(),
 					stopwatch.getTime(2),
 					JvmMem.getOldPool(),
@@ -664,32 +1093,22 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfDB, Parti
 		}
 	}
 
-	private void onScores(List<BigDecimal> scoreWeights, double seconds) {
+	private void onScores(List<Double> scores, List<BigDecimal> scoreWeights, double seconds) {
 
-		synchronized (this) { // don't race the main thread
+		long startNs = Metrics.startNs();
 
-			// If this is the first score, save it to get the first upper bound
-			if (state.numScoredConfs == 0) {
-				state.firstScoreWeight = scoreWeights.get(0);
-			}
+		synchronized (this) { // don't race the main thread
 
 			// update the state
-			for (BigDecimal weight : scoreWeights) {
-				state.upperScoreWeightSum = bigMath()
-					.set(state.upperScoreWeightSum)
-					.add(weight)
-					.get();
-				if (MathTools.isLessThan(weight, state.minUpperScoreWeight)) {
-					state.minUpperScoreWeight = weight;
-				}
-			}
-			state.numScoredConfs += scoreWeights.size();
-			state.scoreOps = scoreWeights.size()/seconds;
+			state.addScores(scores, scoreWeights);
+			state.numScoredConfs += scores.size();
+			state.scoreOps = scores.size()/seconds;
 
 			// set the slope for the score axis
 			double delta = state.calcDelta();
 			state.dScore = calcSlope(delta, state.prevDelta, state.dEnergy);
 			state.prevDelta = delta;
+			scoresUpdateNs.recordSince(startNs);
 
 			// the other direction could be different now, let's be more likely to explore it
 			state.dEnergy *= 2.0;
@@ -703,7 +1122,7 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfDB, Parti
 						state.numScoredConfs,
 						state.numEnergiedConfs,
 						"", "",
-						MathTools.log10p1(state.getLowerBound()), MathTools.log10p1(state.getUpperBound()),
+						state.getLowerBoundLog10p1(), state.getUpperBoundLog10p1(),
 						state.calcDelta(),
 						stopwatch.getTime(2),
 						JvmMem.getOldPool(),
@@ -743,11 +1162,11 @@ public class GradientDescentPfunc implements PartitionFunction.WithConfDB, Parti
 		// TODO: all of this seems to have no effect on the result ... should we remove it?
 		//Record original bounds
 		BigDecimal startLowerBound = BigDecimal.ZERO;
-		BigDecimal startUpperBound = state.numConfs.multiply(state.firstScoreWeight);
+		BigDecimal startUpperBound = new BigDecimal(state.numConfs).multiply(state.getFirstScoreWeight());
 		//Record Z reductions
 		BigDecimal lowerFullMin = state.getLowerBound(); //Pfunc lower bound improvement from full minimization
 		BigDecimal lowerConfUpperBound = BigDecimal.ZERO; //Pfunc lower bound improvement from conf upper bounds, K* has none
-		BigDecimal upperFullMin = state.cumulativeZReduction; //Pfunc upper bound improvement from full minimization
+		BigDecimal upperFullMin = state.getCumulativeZReduction(); //Pfunc upper bound improvement from full minimization
 		BigDecimal upperPartialMin = BigDecimal.ZERO; //Pfunc upper bound improvement from partial minimization corrections, K* has none
 
 		// first need to calculate upper bound without energied confs
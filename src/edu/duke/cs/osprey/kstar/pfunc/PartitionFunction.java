@@ -42,11 +42,19 @@ import edu.duke.cs.osprey.confspace.*;
 import edu.duke.cs.osprey.confspace.ConfSearch.ScoredConf;
 import edu.duke.cs.osprey.kstar.KStarScore;
 import edu.duke.cs.osprey.parallelism.TaskExecutor;
+import edu.duke.cs.osprey.tools.AutoCleanable;
+import edu.duke.cs.osprey.tools.BigExp;
 import edu.duke.cs.osprey.tools.BigMath;
 import edu.duke.cs.osprey.tools.MathTools;
 
 
-public interface PartitionFunction {
+/**
+ * Partition functions can hold lots of memory while they're computing (e.g., A* trees, possibly
+ * in external or off-heap memory), so close them when they're done to release it right away.
+ * The status and values (and hence {@link #makeResult()}) stay available after closing,
+ * but the partition function can't be computed any further.
+ */
+public interface PartitionFunction extends AutoCleanable {
 	
 	public static enum Status {
 		
@@ -70,6 +78,21 @@ public interface PartitionFunction {
 
 	public final MathContext decimalPrecision = new MathContext(64, RoundingMode.HALF_UP);
 	
+	/**
+	 * How a partition function accumulates Boltzmann-weighted sums.
+	 */
+	public static enum NumericMode {
+
+		/** 64-digit BigDecimal arithmetic */
+		Decimal,
+
+		/**
+		 * Double arithmetic in log space (see {@link edu.duke.cs.osprey.tools.LogSumExp}).
+		 * Much faster than BigDecimal, and the reported bounds are rounded outwards, so they're still true bounds.
+		 */
+		LogSpace
+	}
+
 	public static class Values {
 		
 		public BigDecimal qstar; // pfunc value of all evaluated confs
@@ -93,6 +116,15 @@ public interface PartitionFunction {
 			values.qprime = MathTools.BigPositiveInfinity;
 			return values;
 		}
+
+		/**
+		 * Sets q* and q' from BigExp values.
+		 * The conversion to BigDecimal is exact, so bounds computed in BigExp stay bounds.
+		 */
+		public void set(BigExp qstar, BigExp qprime) {
+			this.qstar = qstar.toBigDecimal();
+			this.qprime = qprime.toBigDecimal();
+		}
 		
 		public double getEffectiveEpsilon() {
 
@@ -240,6 +272,11 @@ public interface PartitionFunction {
 		return new Result(getStatus(), getValues(), getNumConfsEvaluated());
 	}
 
+	@Override
+	default void clean() {
+		// nothing to release by default
+	}
+
 	interface WithConfDB extends PartitionFunction {
 
 		void setConfDB(ConfDB confDB, ConfDB.Key key);
@@ -88,11 +88,13 @@ public class SimplePartitionFunction implements PartitionFunction {
 	private ConfListener confListener = null;
 	private boolean isReportingProgress = false;
 	private Stopwatch stopwatch = new Stopwatch().start();
+	private final ConfSearch confSearch;
 
 
 	public SimplePartitionFunction(ConfEnergyCalculator ecalc, ConfSearch confSearch, BigInteger numConfsBeforePruning) {
 
 		this.ecalc = ecalc;
+		this.confSearch = confSearch;
 		// split the confs between the bound calculators
 		ConfSearch.MultiSplitter confsSplitter = new ConfSearch.MultiSplitter(confSearch);
 		lowerBound = new LowerBoundCalculator(confsSplitter.makeStream(), ecalc);
@@ -129,6 +131,11 @@ public class SimplePartitionFunction implements PartitionFunction {
 		return ecalc.tasks.getParallelism();
 	}
 
+	@Override
+	public void clean() {
+		confSearch.clean();
+	}
+
 	@Override
 	public void init(double targetEpsilon) {
 
@@ -40,9 +40,8 @@ import edu.duke.cs.osprey.parallelism.TaskExecutor;
 import edu.duke.cs.osprey.parallelism.ThreadPoolTaskExecutor;
 import edu.duke.cs.osprey.pruning.PruningMatrix;
 import edu.duke.cs.osprey.tools.Progress;
+import edu.duke.cs.osprey.tools.SparseLeastSquares;
 import edu.duke.cs.osprey.tools.Stopwatch;
-import org.apache.commons.math3.exception.DimensionMismatchException;
-import org.apache.commons.math3.linear.*;
 import smile.data.SparseDataset;
 import smile.math.matrix.Matrix;
 import smile.regression.LASSO;
@@ -78,34 +77,9 @@ public class LUTE {
 			public double[] fit(LinearSystem system, LinearSystem.BInfo binfo, double[] x0, TaskExecutor tasks) {
 
 				// build the linear model: Ax=b
-				// except conjugate gradient needs square A, so transform to A^tAx = A^tb
-				RealLinearOperator AtA = new RealLinearOperator() {
-
-					@Override
-					public int getRowDimension() {
-						return system.tuples.size();
-					}
-
-					@Override
-					public int getColumnDimension() {
-						return system.tuples.size();
-					}
-
-					@Override
-					public RealVector operate(RealVector vx)
-						throws DimensionMismatchException {
-						double[] x = ((ArrayRealVector)vx).getDataRef();
-						double[] AtAx = system.parallelMultAt(system.parallelMultA(x, tasks), tasks);
-						return new ArrayRealVector(AtAx, false);
-					}
-				};
-
-				RealVector Atb = new ArrayRealVector(system.parallelMultAt(binfo.b, tasks), false);
-
-				RealVector rx0 = new ArrayRealVector(x0, false);
-
-				ConjugateGradient cg = new ConjugateGradient(100000, 1e-6, false);
-				return ((ArrayRealVector)cg.solve(AtA, Atb, rx0)).getDataRef();
+				// and solve the normal equations A^tAx = A^tb with conjugate gradient
+				// start from x0, so re-fits after adding more samples or tuples converge quickly
+				return system.getDesignMatrix().solve(binfo.b, x0, tasks);
 			}
 		},
 
@@ -126,9 +100,10 @@ public class LUTE {
 				// explicitly instantiate A (at least it's a sparse and not a dense matrix though)
 				// the LASSO implementation is actually really fast!
 				SparseDataset data = new SparseDataset(system.tuples.size());
+				SparseLeastSquares designMatrix = system.getDesignMatrix();
 				for (int c=0; c<system.confs.size(); c++) {
 					final int fc = c;
-					system.forEachTupleIn(c, (t) -> {
+					designMatrix.forEachInRow(c, (t) -> {
 						data.set(fc, t, 1.0);
 					});
 				}
@@ -174,6 +149,8 @@ public class LUTE {
 
 		public Errors errors = null;
 
+		private SparseLeastSquares designMatrix = null;
+
 		public LinearSystem(TuplesIndex tuples, ConfSampler.Samples samples, Map<int[],Double> confEnergies) {
 
 			this.tuples = tuples;
@@ -242,103 +219,20 @@ public class LUTE {
 			calcTupleEnergies(x, binfo, tasks);
 		}
 
-		private double[] multA(double[] x) {
-			double[] out = new double[confs.size()];
-			for (int c=0; c<confs.size(); c++) {
-				final int fc = c;
-				forEachTupleIn(c, (t) -> {
-					out[fc] += x[t];
-				});
-			}
-			return out;
-		}
-
-		private double[] multAt(double[] x) {
-			double[] out = new double[tuples.size()];
-			for (int c=0; c<confs.size(); c++) {
-				double xc = x[c];
-				forEachTupleIn(c, (t) -> {
-					out[t] += xc;
-				});
-			}
-			return out;
-		}
-
-		private double[] parallelMultA(double[] x, TaskExecutor tasks) {
-
-			int numConfs = confs.size();
-			int numThreads = tasks.getParallelism();
-			int partitionSize = numConfs/numThreads;
-
-			double[] out = new double[numConfs];
-
-			// partition the confs equally among the threads
-			for (int i=0; i<numThreads; i++) {
-				int startC = i*partitionSize;
-				int stopC;
-				if (i == numThreads - 1) {
-					stopC = numConfs;
-				} else {
-					stopC = (i+1)*partitionSize;
-				}
-				tasks.submit(
-					() -> {
-						for (int c=startC; c<stopC; c++) {
-							final int fc = c;
-							forEachTupleIn(fc, (t) -> {
-								out[fc] += x[t];
-							});
-						}
-						return null;
-					},
-					(ignored) -> {}
-				);
-			}
-			tasks.waitForFinish();
-
-			return out;
-		}
-
-		private double[] parallelMultAt(double[] x, TaskExecutor tasks) {
-
-			int numConfs = confs.size();
-			int numThreads = tasks.getParallelism();
-			int partitionSize = numConfs/numThreads;
-
-			int numTuples = tuples.size();
-			double[] out = new double[numTuples];
-
-			// partition the confs equally among the threads
-			for (int i=0; i<numThreads; i++) {
-				int startC = i*partitionSize;
-				int stopC;
-				if (i == numThreads - 1) {
-					stopC = numConfs;
-				} else {
-					stopC = (i+1)*partitionSize;
+		/**
+		 * Gets the sparse matrix A, where A[c][t] = 1 if conf c has tuple t, and 0 otherwise.
+		 * The matrix is built the first time it's needed, and reused after that.
+		 */
+		public SparseLeastSquares getDesignMatrix() {
+			if (designMatrix == null) {
+				SparseLeastSquares.Builder builder = new SparseLeastSquares.Builder(tuples.size());
+				for (int c=0; c<confs.size(); c++) {
+					forEachTupleIn(c, (t) -> builder.add(t));
+					builder.endRow();
 				}
-				tasks.submit(
-					() -> {
-						double[] threadOut = new double[numTuples];
-						for (int c=startC; c<stopC; c++) {
-							double xc = x[c];
-							forEachTupleIn(c, (t) -> {
-								threadOut[t] += xc;
-							});
-						}
-						return threadOut;
-					},
-					(threadOut) -> {
-						// aggregate thread results to the real out array
-						for (int t=0; t<numTuples; t++) {
-							out[t] += threadOut[t];
-						}
-					}
-				);
+				designMatrix = builder.build();
 			}
-			tasks.waitForFinish();
-
-			return out;
+			return designMatrix;
 		}
 
 		private void calcTupleEnergies(double[] x, BInfo binfo, TaskExecutor tasks) {
@@ -358,7 +252,7 @@ public class LUTE {
 			this.tupleEnergyOffset = offset;
 
 			// calculate the residual
-			double[] residual = parallelMultA(tupleEnergies, tasks);
+			double[] residual = getDesignMatrix().multA(tupleEnergies, tasks);
 			for (int c=0; c<confs.size(); c++) {
 				residual[c] = (residual[c] + tupleEnergyOffset - confEnergies[c]);
 			}
@@ -44,12 +44,14 @@ public class LUTEConfEnergyCalculator extends ConfEnergyCalculator implements Fr
 
 	public final LUTEState state;
 	public final TuplesIndex tuples;
+	public final LUTEEnergyTable table;
 
 	public LUTEConfEnergyCalculator(SimpleConfSpace confSpace, LUTEState state) {
 		super(confSpace, new TaskExecutor()); // TODO: parallelism?
 
 		this.state = state;
 		this.tuples = new TuplesIndex(confSpace, state.tuples);
+		this.table = new LUTEEnergyTable(confSpace.getNumResConfsByPos(), state);
 	}
 
 	private static class NotSupportedByLUTEException extends RuntimeException {
@@ -83,6 +85,11 @@ public class LUTEConfEnergyCalculator extends ConfEnergyCalculator implements Fr
 		throw new NotSupportedByLUTEException();
 	}
 
+	@Override
+	public double calcEnergyValue(RCTuple frag, ResidueInteractions inters) {
+		throw new NotSupportedByLUTEException();
+	}
+
 	@Override
 	public MoleculeObjectiveFunction makeIntraShellObjFcn(int pos, int rc) {
 		throw new NotSupportedByLUTEException();
@@ -97,16 +104,16 @@ public class LUTEConfEnergyCalculator extends ConfEnergyCalculator implements Fr
 
 		numCalculations.incrementAndGet();
 
-		final boolean throwIfMissingSingle = false; // we're not fitting singles
-		final boolean throwIfMissingPair = true; // we always fit to dense pairs, confs shouldn't be using pruned pairs
-
-		// silly Java... If this were Kotlin, we wouldn't have to use an array to make the energy modifiable
-		// hopefully JVM escape analysis will stack-allocate this?
-		final double[] energy = new double[] { 0.0 };
-		tuples.forEachIn(conf, throwIfMissingSingle, throwIfMissingPair, (t) -> {
-			energy[0] += state.tupleEnergies[t];
-		});
-		return energy[0] + state.tupleEnergyOffset;
+		double energy = table.calcEnergy(conf);
+		if (Double.isNaN(energy)) {
+			// the conf probably has a missing pair, which is an error
+			// we're not fitting singles, but we always fit to dense pairs, confs shouldn't be using pruned pairs
+			// look the tuples up the slow way to find the culprit
+			final boolean throwIfMissingSingle = false;
+			final boolean throwIfMissingPair = true;
+			tuples.forEachIn(conf, throwIfMissingSingle, throwIfMissingPair, (t) -> {});
+		}
+		return energy + state.tupleEnergyOffset;
 	}
 
 	public boolean hasTuple(int pos, int rc) {
@@ -123,22 +130,15 @@ public class LUTEConfEnergyCalculator extends ConfEnergyCalculator implements Fr
 
 	@Override
 	public double getEnergy(int pos, int rc) {
-		return getEnergy(tuples.getIndex(pos, rc));
+		return table.getEnergy(pos, rc);
 	}
 
 	@Override
 	public double getEnergy(int pos1, int rc1, int pos2, int rc2) {
-		return getEnergy(tuples.getIndex(pos1, rc1, pos2, rc2));
+		return table.getEnergy(pos1, rc1, pos2, rc2);
 	}
 
 	public double getEnergy(int pos1, int rc1, int pos2, int rc2, int pos3, int rc3) {
-		return getEnergy(tuples.getIndex(pos1, rc1, pos2, rc2, pos3, rc3));
-	}
-
-	private double getEnergy(Integer index) {
-		if (index == null) {
-			return 0.0;
-		}
-		return state.tupleEnergies[index];
+		return table.getEnergy(pos1, rc1, pos2, rc2, pos3, rc3);
 	}
 }
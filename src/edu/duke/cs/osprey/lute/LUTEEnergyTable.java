@@ -0,0 +1,286 @@
+package edu.duke.cs.osprey.lute;
+
+import edu.duke.cs.osprey.confspace.Conf;
+import edu.duke.cs.osprey.confspace.RCTuple;
+
+import java.util.Arrays;
+
+
+/**
+ * A read-only copy of the LUTE tuple energies, flattened into arrays
+ * so conformations can be scored without boxing, hashing, or allocating.
+ *
+ * Singles and pairs are stored densely, indexed by position and RC, like an energy matrix.
+ * Missing singles have zero energy, since LUTE doesn't fit them.
+ * Missing pairs are stored as NaN though, since confs aren't supposed to use pruned pairs,
+ * so any sum that includes one comes out NaN.
+ *
+ * Triples are stored in compressed sparse rows (CSR), with one row for each pair.
+ * Each triple appears in the rows of all three of its pairs, and each row is sorted by the remaining position and RC.
+ * That way, full conformations can count each triple once (from the row of its two highest positions),
+ * and A* can find all the triples involving a new assignment by only looking at the rows of the new pairs.
+ */
+public class LUTEEnergyTable {
+
+	public final int numPos;
+
+	private final int[] numRCsByPos;
+	private final int[] singleOffsets;
+	private final double[] singles;
+	private final int[] pairOffsets;
+	private final double[] pairs;
+
+	// the triples, in CSR format: the entries for pair index i are at [rowStarts[i], rowStarts[i+1])
+	private final int[] tripleRowStarts;
+	private final int[] triplePos;
+	private final int[] tripleRCs;
+	private final double[] tripleEnergies;
+
+	public LUTEEnergyTable(int[] numRCsByPos, RCTuple[] tuples, double[] tupleEnergies) {
+
+		numPos = numRCsByPos.length;
+		this.numRCsByPos = numRCsByPos.clone();
+
+		// allocate the dense singles and pairs
+		singleOffsets = new int[numPos];
+		pairOffsets = new int[numPos*numPos];
+		int numSingles = 0;
+		int numPairs = 0;
+		for (int pos1=0; pos1<numPos; pos1++) {
+			singleOffsets[pos1] = numSingles;
+			numSingles += numRCsByPos[pos1];
+			for (int pos2=0; pos2<pos1; pos2++) {
+				pairOffsets[pos1*numPos + pos2] = numPairs;
+				numPairs += numRCsByPos[pos1]*numRCsByPos[pos2];
+			}
+		}
+		singles = new double[numSingles];
+		pairs = new double[numPairs];
+		Arrays.fill(pairs, Double.NaN);
+
+		// first pass: copy the singles and pairs, and count the triples in each row
+		tripleRowStarts = new int[numPairs + 1];
+		int numTriples = 0;
+		for (int t=0; t<tuples.length; t++) {
+			RCTuple tuple = tuples[t];
+			switch (tuple.size()) {
+
+				case 1:
+					singles[singleIndex(tuple.pos.get(0), tuple.RCs.get(0))] = tupleEnergies[t];
+				break;
+
+				case 2:
+					pairs[pairIndex(tuple.pos.get(0), tuple.RCs.get(0), tuple.pos.get(1), tuple.RCs.get(1))] = tupleEnergies[t];
+				break;
+
+				case 3:
+					for (int i=0; i<3; i++) {
+						int a = (i + 1) % 3;
+						int b = (i + 2) % 3;
+						tripleRowStarts[pairIndex(tuple.pos.get(a), tuple.RCs.get(a), tuple.pos.get(b), tuple.RCs.get(b)) + 1]++;
+					}
+					numTriples++;
+				break;
+
+				default:
+					throw new IllegalArgumentException("LUTE energy table only supports up to triples, not " + tuple);
+			}
+		}
+		for (int i=0; i<numPairs; i++) {
+			tripleRowStarts[i + 1] += tripleRowStarts[i];
+		}
+
+		// second pass: fill the rows
+		triplePos = new int[numTriples*3];
+		tripleRCs = new int[numTriples*3];
+		tripleEnergies = new double[numTriples*3];
+		int[] rowSizes = new int[numPairs];
+		for (int t=0; t<tuples.length; t++) {
+			RCTuple tuple = tuples[t];
+			if (tuple.size() != 3) {
+				continue;
+			}
+			for (int i=0; i<3; i++) {
+				int a = (i + 1) % 3;
+				int b = (i + 2) % 3;
+				int row = pairIndex(tuple.pos.get(a), tuple.RCs.get(a), tuple.pos.get(b), tuple.RCs.get(b));
+				int j = tripleRowStarts[row] + rowSizes[row]++;
+				triplePos[j] = tuple.pos.get(i);
+				tripleRCs[j] = tuple.RCs.get(i);
+				tripleEnergies[j] = tupleEnergies[t];
+			}
+		}
+
+		// sort each row by pos,rc, so lookups can binary search and conf scoring can stop early
+		// the rows are typically tiny, so insertion sort is plenty fast here
+		for (int row=0; row<numPairs; row++) {
+			int start = tripleRowStarts[row];
+			int stop = tripleRowStarts[row + 1];
+			for (int i=start + 1; i<stop; i++) {
+
+				int tempPos = triplePos[i];
+				int tempRC = tripleRCs[i];
+				double tempEnergy = tripleEnergies[i];
+
+				int j;
+				for (j=i; j>start && compare(tempPos, tempRC, triplePos[j-1], tripleRCs[j-1]) < 0; j--) {
+					triplePos[j] = triplePos[j-1];
+					tripleRCs[j] = tripleRCs[j-1];
+					tripleEnergies[j] = tripleEnergies[j-1];
+				}
+				triplePos[j] = tempPos;
+				tripleRCs[j] = tempRC;
+				tripleEnergies[j] = tempEnergy;
+			}
+		}
+	}
+
+	public LUTEEnergyTable(int[] numRCsByPos, LUTEState state) {
+		this(numRCsByPos, state.tuples, state.tupleEnergies);
+	}
+
+	private static int compare(int pos1, int rc1, int pos2, int rc2) {
+		if (pos1 != pos2) {
+			return Integer.compare(pos1, pos2);
+		}
+		return Integer.compare(rc1, rc2);
+	}
+
+	private int singleIndex(int pos, int rc) {
+		return singleOffsets[pos] + rc;
+	}
+
+	private int pairIndex(int pos1, int rc1, int pos2, int rc2) {
+		if (pos1 < pos2) {
+			return pairOffsets[pos2*numPos + pos1] + rc2*numRCsByPos[pos1] + rc1;
+		} else {
+			return pairOffsets[pos1*numPos + pos2] + rc1*numRCsByPos[pos2] + rc2;
+		}
+	}
+
+	public int getNumTriples() {
+		return triplePos.length/3;
+	}
+
+	public double getEnergy(int pos, int rc) {
+		return singles[singleIndex(pos, rc)];
+	}
+
+	public boolean hasPair(int pos1, int rc1, int pos2, int rc2) {
+		return !Double.isNaN(pairs[pairIndex(pos1, rc1, pos2, rc2)]);
+	}
+
+	/** returns zero for pairs that aren't in the table */
+	public double getEnergy(int pos1, int rc1, int pos2, int rc2) {
+		double energy = pairs[pairIndex(pos1, rc1, pos2, rc2)];
+		if (Double.isNaN(energy)) {
+			return 0.0;
+		}
+		return energy;
+	}
+
+	/** returns zero for triples that aren't in the table */
+	public double getEnergy(int pos1, int rc1, int pos2, int rc2, int pos3, int rc3) {
+
+		// binary search the row for pos3,rc3
+		int row = pairIndex(pos1, rc1, pos2, rc2);
+		int lo = tripleRowStarts[row];
+		int hi = tripleRowStarts[row + 1] - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int cmp = compare(triplePos[mid], tripleRCs[mid], pos3, rc3);
+			if (cmp < 0) {
+				lo = mid + 1;
+			} else if (cmp > 0) {
+				hi = mid - 1;
+			} else {
+				return tripleEnergies[mid];
+			}
+		}
+		return 0.0;
+	}
+
+	/**
+	 * Sums the energies of all the tuples in the conformation. Unassigned positions are skipped.
+	 * Doesn't include the LUTE energy offset.
+	 *
+	 * Returns NaN if the conformation has a pair that isn't in the table.
+	 */
+	public double calcEnergy(int[] conf) {
+
+		double energy = 0.0;
+
+		for (int pos1=0; pos1<numPos; pos1++) {
+
+			int rc1 = conf[pos1];
+			if (rc1 == Conf.Unassigned) {
+				continue;
+			}
+
+			energy += singles[singleIndex(pos1, rc1)];
+
+			for (int pos2=0; pos2<pos1; pos2++) {
+
+				int rc2 = conf[pos2];
+				if (rc2 == Conf.Unassigned) {
+					continue;
+				}
+
+				int row = pairOffsets[pos1*numPos + pos2] + rc1*numRCsByPos[pos2] + rc2;
+				energy += pairs[row];
+
+				// count each triple only from the row of its two highest positions
+				int stop = tripleRowStarts[row + 1];
+				for (int i=tripleRowStarts[row]; i<stop; i++) {
+					int pos3 = triplePos[i];
+					if (pos3 >= pos2) {
+						break;
+					}
+					if (conf[pos3] == tripleRCs[i]) {
+						energy += tripleEnergies[i];
+					}
+				}
+			}
+		}
+
+		return energy;
+	}
+
+	/**
+	 * Returns how much the energy of the conformation changes after assigning nextPos to nextRC,
+	 * i.e. the energies of all the new tuples that include the new assignment.
+	 * The conformation itself isn't modified.
+	 *
+	 * Returns NaN if any of the new pairs aren't in the table.
+	 */
+	public double calcDifferential(int[] conf, int nextPos, int nextRC) {
+
+		double energy = singles[singleIndex(nextPos, nextRC)];
+
+		for (int pos1=0; pos1<numPos; pos1++) {
+
+			int rc1 = conf[pos1];
+			if (rc1 == Conf.Unassigned || pos1 == nextPos) {
+				continue;
+			}
+
+			int row = pairIndex(nextPos, nextRC, pos1, rc1);
+			energy += pairs[row];
+
+			// the other two positions of each triple both have rows here too,
+			// so only count each triple from the row of its higher position
+			int stop = tripleRowStarts[row + 1];
+			for (int i=tripleRowStarts[row]; i<stop; i++) {
+				int pos2 = triplePos[i];
+				if (pos2 >= pos1) {
+					break;
+				}
+				if (conf[pos2] == tripleRCs[i]) {
+					energy += tripleEnergies[i];
+				}
+			}
+		}
+
+		return energy;
+	}
+}
@@ -36,15 +36,22 @@ import edu.duke.cs.osprey.astar.conf.ConfIndex;
 import edu.duke.cs.osprey.astar.conf.RCs;
 import edu.duke.cs.osprey.astar.conf.scoring.AStarScorer;
 import edu.duke.cs.osprey.confspace.Conf;
-import edu.duke.cs.osprey.confspace.TuplesIndex;
+import edu.duke.cs.osprey.tools.MathTools;
 
 
 public class LUTEGScorer implements AStarScorer {
 
 	public final LUTEConfEnergyCalculator ecalc;
 
+	/* the higher-order tuple indices are optimized around fast pos->rc lookups,
+		but ConfIndex optimizes fast singles/pairs enumeration instead,
+		so keep a conf around to convert into, rather than allocating one for every node
+	*/
+	private final int[] conf;
+
 	public LUTEGScorer(LUTEConfEnergyCalculator ecalc) {
 		this.ecalc = ecalc;
+		this.conf = Conf.make(ecalc.confSpace);
 	}
 
 	@Override
@@ -52,21 +59,45 @@ public class LUTEGScorer implements AStarScorer {
 		return new LUTEGScorer(ecalc);
 	}
 
-	@Override
-	public double calc(ConfIndex confIndex, RCs rcs) {
+	private void setConf(ConfIndex confIndex) {
+		for (int i=0; i<confIndex.numDefined; i++) {
+			conf[confIndex.definedPos[i]] = confIndex.definedRCs[i];
+		}
+	}
 
-		/* convert the conf index into a conf
-			yeah, we'll take a slight performance hit doing this,
-			but the higher-order tuple indices are optimized around fast pos->rc lookups,
-			but ConfIndex optimizes fast singles/pairs enumeration instead
-		*/
-		int[] conf = Conf.make(confIndex);
+	private void clearConf(ConfIndex confIndex) {
+		for (int i=0; i<confIndex.numDefined; i++) {
+			conf[confIndex.definedPos[i]] = Conf.Unassigned;
+		}
+	}
 
-		try {
-			return ecalc.calcEnergy(conf);
-		} catch (TuplesIndex.NoSuchTupleException ex) {
+	private static double checkPruned(double energy) {
+		if (Double.isNaN(energy)) {
 			// conf has a pruned tuple, can't score it
 			return Double.POSITIVE_INFINITY;
 		}
+		return energy;
+	}
+
+	@Override
+	public double calc(ConfIndex confIndex, RCs rcs) {
+		setConf(confIndex);
+		double energy = ecalc.table.calcEnergy(conf);
+		clearConf(confIndex);
+		return checkPruned(energy + ecalc.state.tupleEnergyOffset);
+	}
+
+	@Override
+	public double calcDifferential(ConfIndex confIndex, RCs rcs, int nextPos, int nextRc) {
+
+		// modify the parent node's g-score
+		double gscore = confIndex.node.getGScore(MathTools.Optimizer.Minimize);
+
+		// add the energies of the new tuples
+		setConf(confIndex);
+		gscore += ecalc.table.calcDifferential(conf, nextPos, nextRc);
+		clearConf(confIndex);
+
+		return checkPruned(gscore);
 	}
 }
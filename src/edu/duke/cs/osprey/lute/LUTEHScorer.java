@@ -41,8 +41,11 @@ public class LUTEHScorer implements AStarScorer {
 
 	public final LUTEConfEnergyCalculator ecalc;
 
+	private final LUTEEnergyTable table;
+
 	public LUTEHScorer(LUTEConfEnergyCalculator ecalc) {
 		this.ecalc = ecalc;
+		this.table = ecalc.table;
 	}
 
 	@Override
@@ -58,6 +61,7 @@ public class LUTEHScorer implements AStarScorer {
 
 		// TODO: this implementation is very naive... optimize it?
 		// although, design algos without minimization are stupidly fast... we probably don't need to optimize this yet?
+		// at least the energy table lookups don't allocate
 
 		double hscore = 0;
 
@@ -69,20 +73,20 @@ public class LUTEHScorer implements AStarScorer {
 			double pos1Energy = Double.POSITIVE_INFINITY;
 			for (int rc1 : rcs.get(pos1)) {
 
-				double rc1Energy = ecalc.getEnergy(pos1, rc1);
+				double rc1Energy = table.getEnergy(pos1, rc1);
 
 				// interactions with defined residues
 				for (int j=0; j<index.numDefined; j++) {
 					int pos2 = index.definedPos[j];
 					int rc2 = index.definedRCs[j];
 
-					rc1Energy += ecalc.getEnergy(pos1, rc1, pos2, rc2);
+					rc1Energy += table.getEnergy(pos1, rc1, pos2, rc2);
 
 					for (int k=0; k<j; k++) {
 						int pos3 = index.definedPos[k];
 						int rc3 = index.definedRCs[k];
 
-						rc1Energy += ecalc.getEnergy(pos1, rc1, pos2, rc2, pos3, rc3);
+						rc1Energy += table.getEnergy(pos1, rc1, pos2, rc2, pos3, rc3);
 					}
 				}
 
@@ -95,13 +99,13 @@ public class LUTEHScorer implements AStarScorer {
 					for (int rc2 : rcs.get(pos2)) {
 
 						// pair with pos2
-						double rc2Energy = ecalc.getEnergy(pos1, rc1, pos2, rc2);
+						double rc2Energy = table.getEnergy(pos1, rc1, pos2, rc2);
 
 						// triples with defined positions
 						for (int k=0; k<index.numDefined; k++) {
 							int pos3 = index.definedPos[k];
 							int rc3 = index.definedRCs[k];
-							rc2Energy += ecalc.getEnergy(pos1, rc1, pos2, rc2, pos3, rc3);
+							rc2Energy += table.getEnergy(pos1, rc1, pos2, rc2, pos3, rc3);
 						}
 
 						// triples with undefined positions
@@ -111,7 +115,7 @@ public class LUTEHScorer implements AStarScorer {
 							// min over rcs
 							double minrc3Energy = Double.POSITIVE_INFINITY;
 							for (int rc3 : rcs.get(pos3)) {
-								double rc3Energy = ecalc.getEnergy(pos1, rc1, pos2, rc2, pos3, rc3);
+								double rc3Energy = table.getEnergy(pos1, rc1, pos2, rc2, pos3, rc3);
 								minrc3Energy = Math.min(minrc3Energy, rc3Energy);
 							}
 
@@ -132,4 +136,14 @@ public class LUTEHScorer implements AStarScorer {
 
 		return hscore;
 	}
+
+	@Override
+	public double calcDifferential(ConfIndex confIndex, RCs rcs, int nextPos, int nextRc) {
+
+		// score the child in-place, rather than copying the conf index
+		confIndex.assignInPlace(nextPos, nextRc);
+		double hscore = calc(confIndex, rcs);
+		confIndex.unassignInPlace(nextPos);
+		return hscore;
+	}
 }
@@ -328,7 +328,7 @@ public class MARKStarBound implements PartitionFunction.WithConfDB {
     BoltzmannCalculator bc = new BoltzmannCalculator(PartitionFunction.decimalPrecision);
     private boolean computedCorrections = false;
     private long loopPartialTime = 0;
-    private Set<String> correctedTuples = Collections.synchronizedSet(new HashSet<>());
+    private Set<PackedRCTuple> correctedTuples = Collections.synchronizedSet(new HashSet<>());
     private BigDecimal stabilityThreshold;
     private double leafTimeSum = 0;
     private double internalTimeSum = 0;
@@ -1056,9 +1056,8 @@ public class MARKStarBound implements PartitionFunction.WithConfDB {
 
     private void computeDifference(RCTuple tuple, ConfEnergyCalculator ecalc) {
         computedCorrections = true;
-        if(correctedTuples.contains(tuple.stringListing()))
+        if(!correctedTuples.add(PackedRCTuple.of(tuple)))
             return;
-        correctedTuples.add(tuple.stringListing());
         if(correctionMatrix.hasHigherOrderTermFor(tuple))
             return;
         minimizingEcalc.calcEnergyAsync(tuple, (minimizedTuple) -> {
@@ -44,6 +44,7 @@ import edu.duke.cs.osprey.astar.conf.scoring.TraditionalPairwiseHScorer;
 import edu.duke.cs.osprey.astar.conf.scoring.mplp.EdgeUpdater;
 import edu.duke.cs.osprey.astar.conf.scoring.mplp.MPLPUpdater;
 import edu.duke.cs.osprey.confspace.ConfSearch;
+import edu.duke.cs.osprey.confspace.PackedRCTuple;
 import edu.duke.cs.osprey.confspace.RCTuple;
 import edu.duke.cs.osprey.confspace.SimpleConfSpace;
 import edu.duke.cs.osprey.confspace.TupE;
@@ -290,7 +291,7 @@ public class MARKStarBoundAsync implements PartitionFunction {
     BoltzmannCalculator bc = new BoltzmannCalculator(PartitionFunction.decimalPrecision);
     private boolean computedCorrections = false;
     private long loopPartialTime = 0;
-    private Set<String> correctedTuples = Collections.synchronizedSet(new HashSet<String>());
+    private Set<PackedRCTuple> correctedTuples = Collections.synchronizedSet(new HashSet<>());
     private State state;
     private BigDecimal stabilityThreshold;
     BlockingQueue<MARKStarNode> asyncQueue = new PriorityBlockingQueue<>();
@@ -1241,9 +1242,8 @@ public class MARKStarBoundAsync implements PartitionFunction {
 
     private void computeDifference(RCTuple tuple, ConfEnergyCalculator ecalc) {
         computedCorrections = true;
-        if(correctedTuples.contains(tuple.stringListing()))
+        if(!correctedTuples.add(PackedRCTuple.of(tuple)))
             return;
-        correctedTuples.add(tuple.stringListing());
         if(correctionMatrix.hasHigherOrderTermFor(tuple))
             return;
         synchronized (this) {
@@ -0,0 +1,17 @@
+package edu.duke.cs.osprey.minimization;
+
+import cern.colt.matrix.DoubleMatrix1D;
+
+
+/**
+ * An objective function that can also compute its gradient,
+ * for use with gradient-based minimizers like {@link LBFGSMinimizer}.
+ */
+public interface DifferentiableObjectiveFunction extends ObjectiveFunction {
+
+	/**
+	 * Sets the DOFs to x, and returns the value of the function there.
+	 * Also writes the gradient of the function at x into the gradient vector.
+	 */
+	double getValueAndGradient(DoubleMatrix1D x, DoubleMatrix1D gradient);
+}
@@ -0,0 +1,237 @@
+package edu.duke.cs.osprey.minimization;
+
+import cern.colt.matrix.DoubleFactory1D;
+import cern.colt.matrix.DoubleMatrix1D;
+
+
+/**
+ * A limited-memory BFGS minimizer that keeps the DOFs within their bounds by projection.
+ *
+ * Needs the gradient of the objective function, but in exchange usually needs
+ * far fewer function evaluations than coordinate descent, since each step moves all the DOFs at once.
+ *
+ * Variables at a bound whose gradient pushes them outwards are held fixed for the step,
+ * and the step itself is a backtracking line search along the projected path.
+ */
+public class LBFGSMinimizer implements Minimizer {
+
+	public static final int DefaultNumCorrections = 6;
+
+	private static final int MaxIterations = 100;
+	private static final int MaxLineSearchSteps = 30;
+	private static final double ConvergenceThreshold = 1e-6; // in units of the objective function
+	private static final double GradientThreshold = 1e-4; // largest projected gradient component
+	private static final double ArmijoCoefficient = 1e-4;
+	private static final double FirstStepScale = 10.0; // in units of the DOFs' initial step sizes
+
+	public final DifferentiableObjectiveFunction f;
+	public final int numCorrections;
+
+	private final int n;
+	private final double[] mins;
+	private final double[] maxs;
+
+	private int numEvaluations = 0;
+
+	public LBFGSMinimizer(DifferentiableObjectiveFunction f) {
+		this(f, DefaultNumCorrections);
+	}
+
+	public LBFGSMinimizer(DifferentiableObjectiveFunction f, int numCorrections) {
+
+		this.f = f;
+		this.numCorrections = numCorrections;
+
+		n = f.getNumDOFs();
+		DoubleMatrix1D[] constraints = f.getConstraints();
+		mins = constraints[0].toArray();
+		maxs = constraints[1].toArray();
+	}
+
+	/** the number of times the objective function (and its gradient) was evaluated during the last minimization */
+	public int getNumEvaluations() {
+		return numEvaluations;
+	}
+
+	@Override
+	public Minimizer.Result minimizeFromCenter() {
+		return minimizeFrom(f.getDOFsCenter());
+	}
+
+	@Override
+	public Minimizer.Result minimizeFrom(DoubleMatrix1D startx) {
+
+		numEvaluations = 0;
+
+		// allocate space
+		DoubleMatrix1D xbuf = DoubleFactory1D.dense.make(n);
+		DoubleMatrix1D gbuf = DoubleFactory1D.dense.make(n);
+		double[] x = new double[n];
+		double[] g = new double[n];
+		double[] nextx = new double[n];
+		double[] nextg = new double[n];
+		double[] dir = new double[n];
+		double[] alphas = new double[numCorrections];
+		boolean[] isFree = new boolean[n];
+
+		// the correction pairs, in a ring buffer
+		double[][] s = new double[numCorrections][n];
+		double[][] y = new double[numCorrections][n];
+		double[] rho = new double[numCorrections];
+		int numStored = 0;
+		int next = 0;
+
+		// start inside the bounds
+		for (int d=0; d<n; d++) {
+			x[d] = clamp(d, startx.get(d));
+		}
+		double fx = evaluate(x, g, xbuf, gbuf);
+
+		for (int iter=0; iter<MaxIterations; iter++) {
+
+			// find the free variables, and check the projected gradient for convergence
+			double maxProjectedGradient = 0.0;
+			for (int d=0; d<n; d++) {
+				maxProjectedGradient = Math.max(maxProjectedGradient, Math.abs(clamp(d, x[d] - g[d]) - x[d]));
+				isFree[d] = mins[d] < maxs[d]
+					&& !(x[d] <= mins[d] && g[d] > 0)
+					&& !(x[d] >= maxs[d] && g[d] < 0);
+			}
+			if (maxProjectedGradient < GradientThreshold) {
+				break;
+			}
+
+			// compute the search direction with the usual two-loop recursion, over just the free variables
+			for (int d=0; d<n; d++) {
+				dir[d] = isFree[d] ? -g[d] : 0.0;
+			}
+			for (int i=0; i<numStored; i++) {
+				int k = Math.floorMod(next - 1 - i, numCorrections);
+				alphas[k] = rho[k]*dot(s[k], dir, isFree);
+				axpy(-alphas[k], y[k], dir, isFree);
+			}
+			if (numStored > 0) {
+				int k = Math.floorMod(next - 1, numCorrections);
+				double gamma = dot(s[k], y[k], isFree)/dot(y[k], y[k], isFree);
+				if (gamma > 0 && Double.isFinite(gamma)) {
+					for (int d=0; d<n; d++) {
+						dir[d] *= gamma;
+					}
+				}
+			}
+			for (int i=numStored-1; i>=0; i--) {
+				int k = Math.floorMod(next - 1 - i, numCorrections);
+				double beta = rho[k]*dot(y[k], dir, isFree);
+				axpy(alphas[k] - beta, s[k], dir, isFree);
+			}
+
+			// make sure we're going downhill, or start over with steepest descent
+			double slope = dot(dir, g, isFree);
+			if (!(slope < 0)) {
+				numStored = 0;
+				for (int d=0; d<n; d++) {
+					dir[d] = isFree[d] ? -g[d] : 0.0;
+				}
+				slope = dot(dir, g, isFree);
+				if (!(slope < 0)) {
+					break;
+				}
+			}
+
+			// without curvature information, limit the first step to something reasonable for the DOFs
+			double step = 1.0;
+			if (numStored == 0) {
+				for (int d=0; d<n; d++) {
+					if (dir[d] != 0.0) {
+						step = Math.min(step, FirstStepScale*f.getInitStepSize(d)/Math.abs(dir[d]));
+					}
+				}
+			}
+
+			// backtracking line search along the projected path
+			boolean accepted = false;
+			double nextfx = fx;
+			for (int i=0; i<MaxLineSearchSteps; i++) {
+
+				double expectedDecrease = 0.0;
+				for (int d=0; d<n; d++) {
+					nextx[d] = clamp(d, x[d] + step*dir[d]);
+					expectedDecrease += g[d]*(nextx[d] - x[d]);
+				}
+
+				nextfx = evaluate(nextx, nextg, xbuf, gbuf);
+				if (nextfx <= fx + ArmijoCoefficient*expectedDecrease) {
+					accepted = true;
+					break;
+				}
+
+				step /= 2;
+			}
+			if (!accepted) {
+				break;
+			}
+
+			// update the corrections, if the curvature is positive
+			double[] sk = s[next];
+			double[] yk = y[next];
+			for (int d=0; d<n; d++) {
+				sk[d] = nextx[d] - x[d];
+				yk[d] = nextg[d] - g[d];
+			}
+			double sy = dot(sk, yk, null);
+			if (sy > 1e-10) {
+				rho[next] = 1.0/sy;
+				next = (next + 1) % numCorrections;
+				numStored = Math.min(numStored + 1, numCorrections);
+			}
+
+			// take the step
+			double improvement = fx - nextfx;
+			System.arraycopy(nextx, 0, x, 0, n);
+			System.arraycopy(nextg, 0, g, 0, n);
+			fx = nextfx;
+
+			if (improvement < ConvergenceThreshold) {
+				break;
+			}
+		}
+
+		// update the protein conf, one last time
+		DoubleMatrix1D herex = DoubleFactory1D.dense.make(x);
+		f.setDOFs(herex);
+
+		return new Minimizer.Result(herex, fx);
+	}
+
+	private double evaluate(double[] x, double[] g, DoubleMatrix1D xbuf, DoubleMatrix1D gbuf) {
+		xbuf.assign(x);
+		double fx = f.getValueAndGradient(xbuf, gbuf);
+		for (int d=0; d<n; d++) {
+			g[d] = gbuf.get(d);
+		}
+		numEvaluations++;
+		return fx;
+	}
+
+	private double clamp(int d, double xd) {
+		return Math.max(mins[d], Math.min(maxs[d], xd));
+	}
+
+	private double dot(double[] a, double[] b, boolean[] mask) {
+		double sum = 0.0;
+		for (int d=0; d<n; d++) {
+			if (mask == null || mask[d]) {
+				sum += a[d]*b[d];
+			}
+		}
+		return sum;
+	}
+
+	private void axpy(double alpha, double[] x, double[] y, boolean[] mask) {
+		for (int d=0; d<n; d++) {
+			if (mask[d]) {
+				y[d] += alpha*x[d];
+			}
+		}
+	}
+}
@@ -4,25 +4,41 @@ import com.hazelcast.client.HazelcastClient;
 import com.hazelcast.client.config.ClientConfig;
 import com.hazelcast.collection.IList;
 import com.hazelcast.collection.IQueue;
+import com.hazelcast.cluster.MembershipEvent;
+import com.hazelcast.cluster.MembershipListener;
 import com.hazelcast.config.Config;
+import com.hazelcast.config.JoinConfig;
 import com.hazelcast.core.*;
+import com.hazelcast.map.IMap;
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.DataSerializable;
 import edu.duke.cs.osprey.tools.Log;
 
-import java.io.Serializable;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.*;
+import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 
 /**
  * Provides parallelism across a compute cluster using Hazelcast.
+ *
+ * The client node packs tasks into batches and sends each batch through the scatter queue as one item.
+ * Each batch comes back through the gather queue as one batch of results.
+ * A member leases each batch it takes. If the member leaves the cluster before it answers,
+ * the client sends the batch out again.
+ * Both queues are bounded, so a slow client holds back the members, and slow members hold back the client.
  */
 public class Cluster {
 
 	private static final String TasksActiveIdName = "tasks-activeContextId";
 	private static final String TasksScatterName = "tasks-scatter";
 	private static final String TasksGatherName = "tasks-gather";
+	private static final String TasksLeasesName = "tasks-leases";
 
 	public static final boolean DefaultClientIsMember = true;
 
@@ -36,6 +52,12 @@ public class Cluster {
 
 	public final String id;
 
+	/**
+	 * If true, members find each other over TCP on 127.0.0.1 instead of by multicast,
+	 * eg, to run a cluster of several JVMs on one machine.
+	 */
+	public boolean joinLocalhost = false;
+
 	public Cluster(String name, String jobId, int nodeId, int numNodes) {
 		this(name, jobId, nodeId, numNodes, DefaultClientIsMember);
 	}
@@ -79,6 +101,21 @@ public class Cluster {
 		}
 	}
 
+	private void configureNetwork(Config cfg) {
+		if (joinLocalhost) {
+			JoinConfig join = cfg.getNetworkConfig().getJoin();
+			join.getMulticastConfig().setEnabled(false);
+			join.getTcpIpConfig().setEnabled(true).addMember("127.0.0.1");
+			cfg.getNetworkConfig().getInterfaces().setEnabled(true).addInterface("127.0.0.1");
+		}
+	}
+
+	private void configureNetwork(ClientConfig cfg) {
+		if (joinLocalhost) {
+			cfg.getNetworkConfig().addAddress("127.0.0.1");
+		}
+	}
+
 	public TaskExecutor makeTaskExecutor(Parallelism parallelism) {
 		if (nodeId == 0) {
 			return new Client(parallelism);
@@ -127,6 +164,7 @@ public class Cluster {
 		}
 	}
 
+
 	public class Member extends ConcurrentTaskExecutor {
 
 		public final Parallelism parallelism;
@@ -136,12 +174,13 @@ public class Cluster {
 
 		private final String name;
 		private final HazelcastInstance inst;
+		private final UUID memberId;
 		private final Value<ActiveId> activeId;
-		private final IQueue<Cluster.Task<?,Object>> scatter;
-		private final IQueue<TaskResult<?>> gather;
+		private final IQueue<ResultBatch> gather;
+		private final IMap<Long,UUID> leases;
 
 		private int nextContextGroupId = 0;
-		private Cluster.Task<?,Object> deferredTask = null;
+		private TaskBatch deferredBatch = null;
 
 		public Member(Parallelism parallelism) {
 
@@ -152,18 +191,23 @@ public class Cluster {
 			Config cfg = new Config();
 			cfg.setClusterName(id);
 			cfg.setInstanceName(name);
+			configureNetwork(cfg);
+
+			// bound both queues, so nobody gets too far ahead of everyone else
 			cfg.getQueueConfig(TasksScatterName).setMaxSize(numMembers()*2);
+			cfg.getQueueConfig(TasksGatherName).setMaxSize(numMembers()*4);
 
 			// disable Hazelcast's automatic phone home "feature", which is on by default
 			cfg.setProperty("hazelcast.phone.home.enabled", "false");
 
 			inst = Hazelcast.newHazelcastInstance(cfg);
+			memberId = inst.getCluster().getLocalMember().getUuid();
 
 			log("node started on cluster %s", id);
 
 			activeId = new Value<>(inst, TasksActiveIdName);
-			scatter = inst.getQueue(TasksScatterName);
 			gather = inst.getQueue(TasksGatherName);
+			leases = inst.getMap(TasksLeasesName);
 		}
 
 		@Override
@@ -200,7 +244,13 @@ public class Cluster {
 				long stopNs = System.nanoTime() + timeoutS*1_000_000_000L;
 				do {
 
-					ActiveId id = activeId.get();
+					ActiveId id;
+					try {
+						id = activeId.get();
+					} catch (HazelcastException ex) {
+						// probably a member left and the cluster is moving data around, try again later
+						id = null;
+					}
 					if (id == null) {
 
 						// found nothing, wait a bit before trying again
@@ -224,10 +274,10 @@ public class Cluster {
 				// start a thread pool
 				try (Threads threads = new Threads(parallelism.getParallelism(), 0)) {
 
-					// handle any deferred tasks from previous groups
-					if (deferredTask != null) {
-						processTask(threads, deferredTask);
-						deferredTask = null;
+					// handle any deferred batches from previous groups
+					if (deferredBatch != null) {
+						processBatch(threads, deferredBatch);
+						deferredBatch = null;
 					}
 
 					while (true) {
@@ -239,24 +289,28 @@ public class Cluster {
 						}
 
 						// look for tasks in the queue to process
-						Cluster.Task<?,Object> task;
+						TaskBatch batch;
 						try {
-							task = scatter.poll(1000, TimeUnit.MILLISECONDS);
+							batch = takeBatch();
 						} catch (InterruptedException ex) {
 							// interrupted, stop looking for new tasks
 							break;
+						} catch (HazelcastException ex) {
+							// probably a member left in the middle of the transaction, which was rolled back
+							// so just try again
+							continue;
 						}
 
-						// did the group change while we were waiting for this task?
+						// did the group change while we were waiting for this batch?
 						activeId = getActiveId();
 						if (activeId.id > contextGroupId) {
-							// yup, defer this task until we get to the next context
-							deferredTask = task;
+							// yup, defer this batch until we get to the next context
+							deferredBatch = batch;
 							break;
 						}
 
-						if (task != null) {
-							processTask(threads, task);
+						if (batch != null) {
+							processBatch(threads, batch);
 						}
 					}
 
@@ -270,33 +324,113 @@ public class Cluster {
 				}
 			}
 
-			private void processTask(Threads threads, Cluster.Task<?,Object> task) {
-
-				// process the task on the thread pool
-				threads.submitLoop(400, TimeUnit.MILLISECONDS, () -> {
+			private TaskBatch takeBatch()
+			throws InterruptedException {
 
-					// run the task
-					TaskResult<?> result;
+				// take the batch and lease it in one transaction,
+				// so the batch can't get lost if this member dies in between
+				TaskBatch batch = inst.executeTransaction(ctx -> {
+					TaskBatch b;
 					try {
-						result = TaskResult.success(task.id, task.run(getContext(task)));
-					} catch (Throwable t) {
-						result = TaskResult.failure(task.id, t);
+						b = ctx.<TaskBatch>getQueue(TasksScatterName).poll(1000, TimeUnit.MILLISECONDS);
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+						return null;
+					}
+					if (b != null) {
+						ctx.<Long,UUID>getMap(TasksLeasesName).put(b.id, memberId);
 					}
+					return b;
+				});
 
-					// send the result back
-					// TODO: what if the queue is full?
-					try {
-						boolean wasOffered = false;
-						while (!wasOffered) {
-							wasOffered = gather.offer(result, 1000, TimeUnit.MILLISECONDS);
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+				return batch;
+			}
+
+			private void processBatch(Threads threads, TaskBatch batch) {
+
+				List<Cluster.Task<?,Object>> tasks;
+				try {
+					tasks = batch.readTasks();
+				} catch (Throwable t) {
+					// can't even read the tasks, so fail all of them
+					Throwable[] failures = new Throwable[batch.size];
+					Arrays.fill(failures, t);
+					sendResults(new ResultBatch(batch.id, new Object[batch.size], failures));
+					return;
+				}
+
+				// process the tasks on the thread pool
+				Object[] results = new Object[tasks.size()];
+				Throwable[] failures = new Throwable[tasks.size()];
+				AtomicInteger numRemaining = new AtomicInteger(tasks.size());
+				for (int i=0; i<tasks.size(); i++) {
+					final int fi = i;
+					Cluster.Task<?,Object> task = tasks.get(i);
+					task.setHazelcastInstance(inst);
+					threads.submitLoop(400, TimeUnit.MILLISECONDS, () -> {
+
+						// run the task
+						try {
+							results[fi] = task.run(getContext(task));
+						} catch (Throwable t) {
+							failures[fi] = t;
+						}
+
+						// the last task to finish sends back the whole batch
+						if (numRemaining.decrementAndGet() == 0) {
+							sendResults(new ResultBatch(batch.id, results, failures));
+						}
+					});
+				}
+			}
+
+			private void sendResults(ResultBatch results) {
+
+				try {
+
+					// wait for room in the queue, so a slow client holds back the members
+					long startNs = System.nanoTime();
+					long warnNs = startNs + 60_000_000_000L;
+					while (true) {
+						try {
+							if (gather.offer(results, 1000, TimeUnit.MILLISECONDS)) {
+								break;
+							}
+						} catch (HazelcastException ex) {
+							if (!inst.getLifecycleService().isRunning()) {
+								throw ex;
+							}
+							// probably a member left in the middle of the offer, so try again
+							// if the first offer went through after all, the client will ignore the second one
+							continue;
+						}
+						if (System.nanoTime() >= warnNs) {
+							log("WARNING: gather queue has been full for %d s, still waiting for the client node",
+								(System.nanoTime() - startNs)/1_000_000_000L
+							);
+							warnNs += 60_000_000_000L;
 						}
-					} catch (InterruptedException ex) {
-						// we're in a thread pool, just abort this task
-					} catch (Exception ex) {
-						log("ERROR: can't send task result to client node");
-						ex.printStackTrace(System.out);
 					}
-				});
+
+				} catch (InterruptedException ex) {
+					// we're in a thread pool, just abort this batch
+					return;
+				} catch (Exception ex) {
+					log("ERROR: can't send task results to client node");
+					ex.printStackTrace(System.out);
+					return;
+				}
+
+				// the client has the results now, so we're done with the batch
+				// (if this fails, the client will clean up the lease when we leave the cluster)
+				try {
+					leases.remove(results.batchId);
+				} catch (HazelcastException ex) {
+					log("WARNING: can't release lease for batch %d: %s", results.batchId, ex);
+				}
 			}
 		}
 
@@ -310,17 +444,40 @@ public class Cluster {
 
 		public final Parallelism parallelism;
 
+		public static final int DefaultBatchSize = 16;
+		public static final int DefaultBatchDelayMs = 10;
+		public static final int DefaultLeaseCheckMs = 5000;
+
+		/** max number of tasks to send to the cluster at once */
+		public int batchSize = DefaultBatchSize;
+
+		/** max time a partial batch waits for more tasks before it's sent anyway */
+		public int batchDelayMs = DefaultBatchDelayMs;
+
+		/** how often to look for batches leased to members that have left the cluster */
+		public int leaseCheckMs = DefaultLeaseCheckMs;
+
 		private final String name;
 		private final Member member;
 		private final HazelcastInstance inst;
 
 		private final Value<ActiveId> activeId;
-		private final IQueue<Cluster.Task<?,?>> scatter;
-		private final IQueue<TaskResult<?>> gather;
+		private final IQueue<TaskBatch> scatter;
+		private final IQueue<ResultBatch> gather;
+		private final IMap<Long,UUID> leases;
+
+		private final AtomicLong nextBatchId = new AtomicLong(0);
+		private final Map<Long,SentBatch> sentBatches = new ConcurrentHashMap<>();
+		private final BlockingQueue<TaskBatch> resends = new LinkedBlockingQueue<>();
+		private final AtomicBoolean checkLeasesNow = new AtomicBoolean(false);
 
-		private final Map<Long,TaskAndListener<?,?>> tasks = new HashMap<>();
-		private final AtomicBoolean listenerActive = new AtomicBoolean(true);
+		/** the batch we're filling now, guarded by this */
+		private List<TaskAndListener<?,?>> batch = new ArrayList<>();
+		private long batchStartNs = 0;
+
+		private final AtomicBoolean threadsActive = new AtomicBoolean(true);
 		private final Thread listener;
+		private final Thread sender;
 
 		private int nextContextGroupId = 0;
 
@@ -341,6 +498,7 @@ public class Cluster {
 			ClientConfig cfg = new ClientConfig();
 			cfg.setClusterName(id);
 			cfg.setInstanceName(name);
+			configureNetwork(cfg);
 
 			// disable Hazelcast's automatic phone home "feature", which is on by default
 			cfg.setProperty("hazelcast.phone.home.enabled", "false");
@@ -354,35 +512,39 @@ public class Cluster {
 			activeId = new Value<>(inst, TasksActiveIdName);
 			scatter = inst.getQueue(TasksScatterName);
 			gather = inst.getQueue(TasksGatherName);
+			leases = inst.getMap(TasksLeasesName);
 
-			listener = new Thread(() -> {
-				try {
-					while (listenerActive.get()) {
+			// when a member leaves, don't wait for the next lease check to rescue its batches
+			inst.getCluster().addMembershipListener(new MembershipListener() {
 
-						// get the next task result, if any
-						TaskResult<?> taskResult = gather.poll(400, TimeUnit.MILLISECONDS);
-						if (taskResult != null) {
-
-							// find the task for this result
-							TaskAndListener<?,?> tal = tasks.get(taskResult.taskId);
-							if (tal == null) {
-								log("WARNING: received result for unknown task: %d", taskResult.taskId);
-								continue;
-							}
+				@Override
+				public void memberAdded(MembershipEvent event) {
+					// nothing to do
+				}
 
-							try {
+				@Override
+				public void memberRemoved(MembershipEvent event) {
+					checkLeasesNow.set(true);
+				}
+			});
 
-								// handle the task result
-								if (taskResult.t != null) {
-									taskFailure(tal.task, tal.listener, taskResult.t);
-								} else {
-									taskSuccessCoerceTypes(tal.task, tal.listener, taskResult.result);
-								}
+			listener = new Thread(() -> {
+				try {
+					while (threadsActive.get()) {
 
-							} finally {
-								// clean up the handled task
-								tasks.remove(taskResult.taskId);
+						// get the next batch of results, if any
+						ResultBatch results;
+						try {
+							results = gather.poll(400, TimeUnit.MILLISECONDS);
+						} catch (HazelcastException ex) {
+							if (!inst.getLifecycleService().isRunning()) {
+								throw ex;
 							}
+							// probably a member left in the middle of the poll, so try again
+							continue;
+						}
+						if (results != null) {
+							handleResults(results);
 						}
 					}
 				} catch (InterruptedException ex) {
@@ -394,6 +556,49 @@ public class Cluster {
 			listener.setName("ClusterClientListener");
 			listener.setDaemon(true);
 			listener.start();
+
+			sender = new Thread(() -> {
+				try {
+					long leaseCheckNs = System.nanoTime() + leaseCheckMs*1_000_000L;
+					while (threadsActive.get()) {
+
+						// send any batches that need to go out again
+						TaskBatch resend = resends.poll(Math.max(1, batchDelayMs), TimeUnit.MILLISECONDS);
+						if (resend != null) {
+							send(resend);
+						}
+
+						// don't let a partial batch wait too long
+						TaskBatch partial;
+						synchronized (this) {
+							partial = null;
+							if (!batch.isEmpty() && System.nanoTime() - batchStartNs >= batchDelayMs*1_000_000L) {
+								partial = packBatch();
+							}
+						}
+						if (partial != null) {
+							send(partial);
+						}
+
+						if (checkLeasesNow.getAndSet(false) || System.nanoTime() >= leaseCheckNs) {
+							try {
+								checkLeases();
+							} catch (HazelcastException ex) {
+								// probably the cluster is still recovering from a member leaving, try again soon
+								checkLeasesNow.set(true);
+							}
+							leaseCheckNs = System.nanoTime() + leaseCheckMs*1_000_000L;
+						}
+					}
+				} catch (InterruptedException ex) {
+					// exit the thread
+				} catch (Throwable t) {
+					t.printStackTrace(System.err);
+				}
+			});
+			sender.setName("ClusterClientSender");
+			sender.setDaemon(true);
+			sender.start();
 		}
 
 		private void log(String fmt, Object ... args) {
@@ -457,10 +662,11 @@ public class Cluster {
 		@Override
 		public void clean() {
 
-			// turn off the listener thread
-			listenerActive.set(false);
+			// turn off the listener and sender threads
+			threadsActive.set(false);
 			try {
 				listener.join();
+				sender.join();
 			} catch (InterruptedException ex) {
 				throw new RuntimeException(ex);
 			}
@@ -476,35 +682,175 @@ public class Cluster {
 
 		@Override
 		public int getParallelism() {
-			return numMembers();
+			// each member runs tasks on its own thread pool
+			return numMembers()*parallelism.getParallelism();
 		}
 
 		/**
 		 * Submits a task to run on the cluster.
 		 * The parameter type must be Serializable.
 		 * The task must extend Cluster.Task or an exception will be thrown.
+		 *
+		 * Tasks are sent to the cluster in batches, when the batch fills up,
+		 * or after a short delay, or when someone waits for the tasks to finish.
 		 */
 		@Override
 		public <T> void submit(TaskExecutor.Task<T> task, TaskListener<T> listener) {
-			try {
 
-				// create and store the cluster task
-				Cluster.Task<T,Object> clusterTask = Cluster.Task.cast(task);
-				tasks.put(clusterTask.id, new TaskAndListener<>(clusterTask, listener));
+			checkException();
+
+			// add the task to the current batch
+			Cluster.Task<T,Object> clusterTask = Cluster.Task.cast(task);
+			startedTask();
+			TaskBatch fullBatch = null;
+			synchronized (this) {
+				if (batch.isEmpty()) {
+					batchStartNs = System.nanoTime();
+				}
+				batch.add(new TaskAndListener<>(clusterTask, listener));
+				if (batch.size() >= batchSize) {
+					fullBatch = packBatch();
+				}
+			}
+
+			if (fullBatch != null) {
+				sendFromAnyThread(fullBatch);
+			}
+		}
+
+		@Override
+		public void waitForFinish() {
+
+			// don't leave anyone waiting on a partial batch
+			TaskBatch partial = null;
+			synchronized (this) {
+				if (!batch.isEmpty()) {
+					partial = packBatch();
+				}
+			}
+			if (partial != null) {
+				sendFromAnyThread(partial);
+			}
+
+			super.waitForFinish();
+		}
+
+		/** call only while synchronized on this */
+		private TaskBatch packBatch() {
 
-				// send the task to the cluster
-				boolean wasAdded = false;
-				while (!wasAdded) {
-					checkException();
-					wasAdded = scatter.offer(clusterTask, 400, TimeUnit.MILLISECONDS);
+			List<TaskAndListener<?,?>> tasks = batch;
+			batch = new ArrayList<>();
+
+			TaskBatch taskBatch;
+			try {
+				taskBatch = new TaskBatch(nextBatchId.getAndIncrement(), tasks);
+			} catch (Throwable t) {
+				// the tasks can't go anywhere, so fail them all here
+				for (TaskAndListener<?,?> tal : tasks) {
+					taskFailure(tal.task, tal.listener, t);
 				}
+				return null;
+			}
+
+			// remember the batch before sending it, so we're ready for the results
+			sentBatches.put(taskBatch.id, new SentBatch(taskBatch, tasks));
+			return taskBatch;
+		}
 
-				startedTask();
+		private void sendFromAnyThread(TaskBatch taskBatch) {
+			if (Thread.currentThread() == listener) {
+				// the listener thread can't block on the scatter queue,
+				// or it could deadlock with members waiting on the gather queue
+				resends.add(taskBatch);
+			} else {
+				send(taskBatch);
+			}
+		}
+
+		private void send(TaskBatch taskBatch) {
+			try {
+
+				// wait for room in the queue, so the client doesn't get too far ahead of the members
+				while (threadsActive.get()) {
+					try {
+						if (scatter.offer(taskBatch, 400, TimeUnit.MILLISECONDS)) {
+							break;
+						}
+					} catch (HazelcastException ex) {
+						if (!inst.getLifecycleService().isRunning()) {
+							throw ex;
+						}
+						// probably a member left in the middle of the offer, so try again
+						// if the first offer went through after all, we'll ignore the second batch of results
+					}
+				}
 
 			} catch (InterruptedException ex) {
 				throw new Error(ex);
 			}
 		}
+
+		private void handleResults(ResultBatch results) {
+
+			// find the tasks for these results
+			SentBatch sentBatch = sentBatches.remove(results.batchId);
+			if (sentBatch == null) {
+				// we already handled this batch,
+				// eg a member answered after we thought it left and sent its batch out again
+				return;
+			}
+
+			List<Object> values;
+			try {
+				values = results.readResults();
+			} catch (Throwable t) {
+				for (TaskAndListener<?,?> tal : sentBatch.tasks) {
+					taskFailure(tal.task, tal.listener, t);
+				}
+				return;
+			}
+
+			// handle the task results
+			for (int i=0; i<sentBatch.tasks.size(); i++) {
+				TaskAndListener<?,?> tal = sentBatch.tasks.get(i);
+				Throwable t = (Throwable)values.get(i*2);
+				if (t != null) {
+					taskFailure(tal.task, tal.listener, t);
+				} else {
+					taskSuccessCoerceTypes(tal.task, tal.listener, values.get(i*2 + 1));
+				}
+			}
+		}
+
+		private void checkLeases() {
+
+			Set<UUID> memberIds = inst.getCluster().getMembers().stream()
+				.map(m -> m.getUuid())
+				.collect(Collectors.toSet());
+
+			for (Map.Entry<Long,UUID> lease : leases.entrySet()) {
+
+				if (memberIds.contains(lease.getValue())) {
+					continue;
+				}
+
+				// the member holding this lease left the cluster, so release the lease
+				// (only one release can win the conditional remove)
+				long batchId = lease.getKey();
+				if (!leases.remove(batchId, lease.getValue())) {
+					continue;
+				}
+
+				// and send the batch out again, if we still need it
+				SentBatch sentBatch = sentBatches.get(batchId);
+				if (sentBatch != null) {
+					log("member %s left the cluster, sending its batch of %d tasks to another member",
+						lease.getValue(), sentBatch.tasks.size()
+					);
+					resends.add(sentBatch.batch);
+				}
+			}
+		}
 	}
 
 	private static long nextTaskId = 0L;
@@ -552,29 +898,162 @@ public class Cluster {
 		}
 	}
 
-	private static class TaskResult<T> implements Serializable {
+	private static class SentBatch {
+
+		public final TaskBatch batch;
+		public final List<TaskAndListener<?,?>> tasks;
+
+		public SentBatch(TaskBatch batch, List<TaskAndListener<?,?>> tasks) {
+			this.batch = batch;
+			this.tasks = tasks;
+		}
+	}
+
+	/**
+	 * Writes all the objects to one Java serialization stream,
+	 * so class descriptors and shared references are only written once.
+	 */
+	private static byte[] writeObjects(List<?> objects)
+	throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(buf)) {
+			for (Object obj : objects) {
+				out.writeObject(obj);
+			}
+		}
+		return buf.toByteArray();
+	}
 
-		long taskId;
-		T result;
-		Throwable t;
+	private static List<Object> readObjects(byte[] bytes, int num)
+	throws IOException, ClassNotFoundException {
+		List<Object> objects = new ArrayList<>(num);
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			for (int i=0; i<num; i++) {
+				objects.add(in.readObject());
+			}
+		}
+		return objects;
+	}
 
-		private TaskResult(long taskId, T result, Throwable t) {
-			this.taskId = taskId;
-			this.result = result;
-			this.t = t;
+	static class TaskBatch implements DataSerializable {
+
+		long id;
+		int size;
+		byte[] tasks;
+
+		public TaskBatch() {
+			// for Hazelcast
+		}
+
+		TaskBatch(long id, List<TaskAndListener<?,?>> tasks)
+		throws IOException {
+			this.id = id;
+			this.size = tasks.size();
+			this.tasks = writeObjects(tasks.stream()
+				.map(tal -> tal.task)
+				.collect(Collectors.toList())
+			);
 		}
 
-		public static <T> TaskResult<T> success(long taskId, T result) {
-			return new TaskResult<>(taskId, result, null);
+		@SuppressWarnings("unchecked")
+		List<Cluster.Task<?,Object>> readTasks()
+		throws IOException, ClassNotFoundException {
+			return (List<Cluster.Task<?,Object>>)(List<?>)readObjects(tasks, size);
 		}
 
-		public static <T> TaskResult<T> failure(long taskId, Throwable t) {
-			return new TaskResult<>(taskId, null, t);
+		@Override
+		public void writeData(ObjectDataOutput out)
+		throws IOException {
+			out.writeLong(id);
+			out.writeInt(size);
+			out.writeByteArray(tasks);
+		}
+
+		@Override
+		public void readData(ObjectDataInput in)
+		throws IOException {
+			id = in.readLong();
+			size = in.readInt();
+			tasks = in.readByteArray();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("TaskBatch[id=%d, size=%d, bytes=%d]", id, size, tasks.length);
+		}
+	}
+
+	static class ResultBatch implements DataSerializable {
+
+		long batchId;
+		int size;
+
+		/** (failure, result) pairs, in task order */
+		byte[] results;
+
+		public ResultBatch() {
+			// for Hazelcast
+		}
+
+		ResultBatch(long batchId, Object[] values, Throwable[] failures) {
+
+			this.batchId = batchId;
+			this.size = values.length;
+
+			try {
+				results = writeObjects(pairs(values, failures));
+			} catch (IOException ex) {
+
+				// some results can't be serialized, so turn those into failures
+				for (int i=0; i<size; i++) {
+					try {
+						writeObjects(Arrays.asList(failures[i], values[i]));
+					} catch (IOException ex2) {
+						failures[i] = new RuntimeException("can't serialize task result: " + ex2);
+						values[i] = null;
+					}
+				}
+				try {
+					results = writeObjects(pairs(values, failures));
+				} catch (IOException ex2) {
+					throw new UncheckedIOException(ex2);
+				}
+			}
+		}
+
+		private static List<Object> pairs(Object[] values, Throwable[] failures) {
+			List<Object> pairs = new ArrayList<>(values.length*2);
+			for (int i=0; i<values.length; i++) {
+				pairs.add(failures[i]);
+				pairs.add(failures[i] == null ? values[i] : null);
+			}
+			return pairs;
+		}
+
+		List<Object> readResults()
+		throws IOException, ClassNotFoundException {
+			return readObjects(results, size*2);
+		}
+
+		@Override
+		public void writeData(ObjectDataOutput out)
+		throws IOException {
+			out.writeLong(batchId);
+			out.writeInt(size);
+			out.writeByteArray(results);
+		}
+
+		@Override
+		public void readData(ObjectDataInput in)
+		throws IOException {
+			batchId = in.readLong();
+			size = in.readInt();
+			results = in.readByteArray();
 		}
 
 		@Override
 		public String toString() {
-			return String.format("TaskResult[id=%d, %s]", taskId, t == null ? "success" : "failure");
+			return String.format("ResultBatch[id=%d, size=%d, bytes=%d]", batchId, size, results.length);
 		}
 	}
 }
@@ -1,11 +1,16 @@
 package edu.duke.cs.osprey.parallelism;
 
+import edu.duke.cs.osprey.tools.Metrics;
+
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 
 public abstract class ConcurrentTaskExecutor extends TaskExecutor {
 
+	/** includes any time submit() spent blocked waiting for a free thread */
+	protected static final Metrics.Histogram queueWaitNs = Metrics.histogram("tasks_queue_wait_ns", "time from submitting a task to starting it on a thread (ns)");
+
 	private final AtomicLong numTasksStarted = new AtomicLong(0);
 	private final AtomicLong numTasksFinished = new AtomicLong(0);
 	private Signal taskSignal = new Signal();
@@ -0,0 +1,214 @@
+package edu.duke.cs.osprey.parallelism;
+
+import edu.duke.cs.osprey.tools.Metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Runs tasks on a work-stealing {@link ForkJoinPool}.
+ *
+ * Unlike {@link ThreadPoolTaskExecutor}, there's no separate listener thread.
+ * Listeners run on the worker threads, so results don't have to be handed off to one listener thread.
+ * By default, listeners still run one at a time (in whichever worker is free), so they don't need to be thread-safe.
+ * Listeners that implement {@link TaskListener.ThreadSafe} run concurrently, right after their tasks finish.
+ *
+ * Like the thread pool, submit() blocks while all the threads are busy (plus any queue),
+ * so callers don't make more tasks than they need.
+ */
+public class ForkJoinTaskExecutor extends ConcurrentTaskExecutor {
+
+	/**
+	 * Controls how many tasks can wait for a thread, see {@link ThreadPoolTaskExecutor#queueSize}.
+	 * Must be set before calling start().
+	 */
+	public int queueSize = 0;
+
+	private ForkJoinPool pool = null;
+	private Semaphore permits = null;
+	private int numThreads = 0;
+
+	// listeners that aren't thread-safe wait here, and get run by whichever worker thread got here first
+	private final ConcurrentLinkedQueue<Runnable> listenerQueue = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger listenerQueueSize = new AtomicInteger(0);
+
+	public void start(int numThreads) {
+
+		this.numThreads = numThreads;
+
+		AtomicInteger threadIndex = new AtomicInteger(0);
+		pool = new ForkJoinPool(
+			numThreads,
+			p -> {
+				ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+				thread.setName(String.format("ForkJoinTaskExecutor-%d", threadIndex.getAndIncrement()));
+				thread.setDaemon(true);
+				return thread;
+			},
+			null,
+			false
+		);
+		permits = new Semaphore(numThreads + queueSize);
+	}
+
+	public void stop() {
+		if (pool != null) {
+			pool.shutdownNow();
+			pool = null;
+		}
+	}
+
+	public void stopAndWait(int timeoutMs) {
+		if (pool != null) {
+			pool.shutdown();
+			try {
+				pool.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException ex) {
+				throw new RuntimeException(ex);
+			}
+			pool = null;
+		}
+	}
+
+	@Override
+	public void clean() {
+		stop();
+	}
+
+	@Override
+	public int getParallelism() {
+		return numThreads;
+	}
+
+	private void acquirePermit() {
+		try {
+
+			if (ForkJoinTask.inForkJoinPool()) {
+
+				// a listener is submitting tasks from a worker thread,
+				// let the pool add another thread while we wait, so we don't starve the queued tasks
+				ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+
+					@Override
+					public boolean block()
+					throws InterruptedException {
+						permits.acquire();
+						return true;
+					}
+
+					@Override
+					public boolean isReleasable() {
+						return permits.tryAcquire();
+					}
+				});
+
+			} else {
+
+				boolean wasAcquired = false;
+				while (!wasAcquired) {
+					checkException();
+					wasAcquired = permits.tryAcquire(400, TimeUnit.MILLISECONDS);
+				}
+			}
+
+		} catch (InterruptedException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	private <T> void finish(Task<?> task, TaskListener<T> listener, T result) {
+
+		if (listener instanceof TaskListener.ThreadSafe) {
+			taskSuccessCoerceTypes(task, listener, result);
+			return;
+		}
+
+		// otherwise, run the listeners one at a time, but without making any worker threads wait on a lock
+		listenerQueue.add(() -> taskSuccessCoerceTypes(task, listener, result));
+		if (listenerQueueSize.getAndIncrement() == 0) {
+			do {
+				listenerQueue.poll().run();
+			} while (listenerQueueSize.decrementAndGet() > 0);
+		}
+	}
+
+	@Override
+	public <T> void submit(Task<T> task, TaskListener<T> listener) {
+
+		long submitNs = Metrics.startNs();
+
+		acquirePermit();
+		startedTask();
+
+		pool.execute(() -> {
+
+			queueWaitNs.recordSince(submitNs);
+
+			T result;
+			try {
+				result = runTask(task);
+			} catch (Throwable t) {
+				permits.release();
+				taskFailure(task, listener, t);
+				return;
+			}
+
+			// free up the thread before calling the listener,
+			// in case the listener wants to submit more tasks
+			permits.release();
+
+			finish(task, listener, result);
+		});
+	}
+
+	/**
+	 * Runs the whole batch as one submission, but forks each task into the pool,
+	 * so idle threads can steal them.
+	 */
+	@Override
+	public <T> void submitAll(List<? extends Task<T>> tasks, TaskListener<List<T>> listener) {
+
+		acquirePermit();
+		startedTask();
+
+		Task<List<T>> batch = () -> {
+
+			List<ForkJoinTask<T>> forks = new ArrayList<>(tasks.size());
+			for (Task<T> task : tasks) {
+				forks.add(ForkJoinTask.adapt((Callable<T>)() -> runTask(task)));
+			}
+			ForkJoinTask.invokeAll(forks);
+
+			List<T> results = new ArrayList<>(forks.size());
+			for (ForkJoinTask<T> fork : forks) {
+				results.add(fork.join());
+			}
+			return results;
+		};
+
+		pool.execute(() -> {
+
+			List<T> results;
+			try {
+				results = batch.run();
+			} catch (Throwable t) {
+				permits.release();
+				taskFailure(batch, listener, t);
+				return;
+			}
+
+			permits.release();
+
+			finish(batch, listener, results);
+		});
+	}
+}
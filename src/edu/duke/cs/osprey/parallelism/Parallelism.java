@@ -50,6 +50,9 @@ public class Parallelism {
 		/** The number of simultaneous tasks that should be given to each GPU */
 		private int numStreamsPerGpu = 1;
 
+		/** How to run tasks on the CPU threads */
+		private ExecutorType executorType = ExecutorType.ThreadPool;
+
 		public Builder setNumCpus(int val) {
 			numCpus = val;
 			return this;
@@ -65,8 +68,13 @@ public class Parallelism {
 			return this;
 		}
 
+		public Builder setExecutorType(ExecutorType val) {
+			executorType = val;
+			return this;
+		}
+
 		public Parallelism build() {
-			return new Parallelism(numCpus, numGpus, numStreamsPerGpu);
+			return new Parallelism(numCpus, numGpus, numStreamsPerGpu, executorType);
 		}
 	}
 
@@ -88,9 +96,23 @@ public class Parallelism {
 		public abstract int getParallelism(Parallelism parallelism);
 	}
 	
+	/** The kind of task executor to use for multiple threads */
+	public static enum ExecutorType {
+
+		/** see {@link ThreadPoolTaskExecutor} */
+		ThreadPool,
+
+		/** see {@link ForkJoinTaskExecutor} */
+		ForkJoin
+	}
+
 	public static Parallelism makeCpu(int numThreads) {
 		return new Parallelism(numThreads, 0, 0);
 	}
+
+	public static Parallelism makeCpu(int numThreads, ExecutorType executorType) {
+		return new Parallelism(numThreads, 0, 0, executorType);
+	}
 	
 	public static int getMaxNumCPUs() {
 		return Runtime.getRuntime().availableProcessors();
@@ -117,13 +139,19 @@ public class Parallelism {
 	public final int numThreads;
 	public final int numGpus;
 	public final int numStreamsPerGpu;
+	public final ExecutorType executorType;
 
 	public final Type type;
 
 	public Parallelism(int numThreads, int numGpus, int numStreamsPerGpu) {
+		this(numThreads, numGpus, numStreamsPerGpu, ExecutorType.ThreadPool);
+	}
+
+	public Parallelism(int numThreads, int numGpus, int numStreamsPerGpu, ExecutorType executorType) {
 		this.numThreads = numThreads;
 		this.numGpus = numGpus;
 		this.numStreamsPerGpu = numStreamsPerGpu;
+		this.executorType = executorType;
 
 		// prefer gpus over threads
 		if (numGpus > 0) {
@@ -155,12 +183,27 @@ public class Parallelism {
 	 */
 	public TaskExecutor makeTaskExecutor(Integer queueSize) {
 		if (getParallelism() > 1) {
-			ThreadPoolTaskExecutor tasks = new ThreadPoolTaskExecutor();
-			if (queueSize != null) {
-				tasks.queueSize = queueSize;
+			switch (executorType) {
+
+				case ForkJoin: {
+					ForkJoinTaskExecutor tasks = new ForkJoinTaskExecutor();
+					if (queueSize != null) {
+						tasks.queueSize = queueSize;
+					}
+					tasks.start(getParallelism());
+					return tasks;
+				}
+
+				case ThreadPool:
+				default: {
+					ThreadPoolTaskExecutor tasks = new ThreadPoolTaskExecutor();
+					if (queueSize != null) {
+						tasks.queueSize = queueSize;
+					}
+					tasks.start(getParallelism());
+					return tasks;
+				}
 			}
-			tasks.start(getParallelism());
-			return tasks;
 		} else {
 			return new TaskExecutor();
 		}
@@ -34,9 +34,14 @@ package edu.duke.cs.osprey.parallelism;
 
 import edu.duke.cs.osprey.tools.AutoCleanable;
 import edu.duke.cs.osprey.tools.HashCalculator;
+import edu.duke.cs.osprey.tools.Metrics;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class TaskExecutor implements AutoCleanable {
 
@@ -86,13 +91,23 @@ public class TaskExecutor implements AutoCleanable {
 	}
 
 	public interface TaskListener<T> {
+
 		void onFinished(T result);
+
+		/**
+		 * Marks a listener that's safe to call from many threads at once.
+		 * Executors that support it (eg {@link ForkJoinTaskExecutor}) will run these listeners
+		 * on the worker threads as soon as their tasks finish, instead of one at a time.
+		 */
+		interface ThreadSafe<T> extends TaskListener<T> {}
 	}
 
 	public int getParallelism() {
 		return 1;
 	}
 
+	private static final Metrics.Histogram runNs = Metrics.histogram("tasks_run_ns", "time to run a task (ns)");
+
 	private ContextGroup contextGroup = null;
 
 	public class ContextGroup implements AutoCloseable {
@@ -153,19 +168,48 @@ public class TaskExecutor implements AutoCleanable {
 		listener.onFinished(runTask(task));
 	}
 
-	protected <T> T runTask(Task<T> task) {
-		if (task instanceof Task.WithContext) {
-			Task.WithContext<T,Object> taskWithContext = (Task.WithContext<T,Object>)task;
+	/**
+	 * Submits a batch of tasks, and sends all the results to the listener at once, in task order,
+	 * after the last task finishes.
+	 */
+	public <T> void submitAll(List<? extends Task<T>> tasks, TaskListener<List<T>> listener) {
 
-			// get the context
-			if (contextGroup == null) {
-				throw new IllegalStateException("task with context was submitted, but no context group was active");
-			}
-			Object ctx = contextGroup.getContext(taskWithContext);
+		if (tasks.isEmpty()) {
+			submit(() -> new ArrayList<T>(), listener);
+			return;
+		}
 
-			return taskWithContext.run(ctx);
-		} else {
-			return task.run();
+		List<T> results = new ArrayList<>(Collections.nCopies(tasks.size(), null));
+		AtomicInteger numRemaining = new AtomicInteger(tasks.size());
+		for (int i=0; i<tasks.size(); i++) {
+			final int fi = i;
+			submit(tasks.get(i), result -> {
+				results.set(fi, result);
+				if (numRemaining.decrementAndGet() == 0) {
+					listener.onFinished(results);
+				}
+			});
+		}
+	}
+
+	protected <T> T runTask(Task<T> task) {
+		long startNs = Metrics.startNs();
+		try {
+			if (task instanceof Task.WithContext) {
+				Task.WithContext<T,Object> taskWithContext = (Task.WithContext<T,Object>)task;
+
+				// get the context
+				if (contextGroup == null) {
+					throw new IllegalStateException("task with context was submitted, but no context group was active");
+				}
+				Object ctx = contextGroup.getContext(taskWithContext);
+
+				return taskWithContext.run(ctx);
+			} else {
+				return task.run();
+			}
+		} finally {
+			runNs.recordSince(startNs);
 		}
 	}
 
@@ -34,6 +34,7 @@ package edu.duke.cs.osprey.parallelism;
 
 import java.util.concurrent.TimeUnit;
 
+import edu.duke.cs.osprey.tools.Metrics;
 import edu.duke.cs.tpie.Cleaner;
 import edu.duke.cs.tpie.Cleaner.GarbageDetectable;
 
@@ -89,6 +90,8 @@ public class ThreadPoolTaskExecutor extends ConcurrentTaskExecutor implements Ga
 	@Override
 	public <T> void submit(Task<T> task, TaskListener<T> listener) {
 
+		long submitNs = Metrics.startNs();
+
 		boolean wasAdded = false;
 		while (!wasAdded) {
 
@@ -98,6 +101,7 @@ public class ThreadPoolTaskExecutor extends ConcurrentTaskExecutor implements Ga
 				try {
 
 					// run the task
+					queueWaitNs.recordSince(submitNs);
 					T result = runTask(task);
 
 					// send the result to the listener thread
@@ -0,0 +1,169 @@
+package edu.duke.cs.osprey.pruning;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+
+import edu.duke.cs.osprey.confspace.RCTuple;
+import edu.duke.cs.osprey.confspace.TupleMatrixFile;
+import edu.duke.cs.osprey.tools.ObjectIO.BadFileException;
+import edu.duke.cs.osprey.tools.ObjectIO.CantWriteException;
+
+
+/**
+ * A read-only pruning matrix whose flags are read straight from a memory-mapped {@link TupleMatrixFile},
+ * rather than from bit sets on the heap.
+ *
+ * When serialized (eg, to send to cluster members), mapped matrices are copied into regular pruning matrices.
+ */
+public class MappedPruningMatrix extends PruningMatrix {
+
+	private static final long serialVersionUID = -4385209113616329532L;
+
+	/**
+	 * Writes the pruning matrix to the flat binary format
+	 * @throws IllegalArgumentException if the matrix has pruned higher-order tuples
+	 */
+	public static void write(PruningMatrix pmat, File file)
+	throws CantWriteException {
+
+		TupleMatrixFile.checkWritable(pmat);
+
+		TupleMatrixFile.Header header = new TupleMatrixFile.Header(TupleMatrixFile.Kind.Pruning, pmat, 0.0);
+		TupleMatrixFile.write(file, header, (h, out) -> {
+
+			// pack the bits into words, in the same order as the bit sets
+			class Packer {
+
+				long word = 0;
+				int numBits = 0;
+
+				void add(boolean val) throws IOException {
+					if (val) {
+						word |= 1L << numBits;
+					}
+					numBits++;
+					if (numBits == Long.SIZE) {
+						flush();
+					}
+				}
+
+				void flush() throws IOException {
+					if (numBits > 0) {
+						out.putLong(word);
+						word = 0;
+						numBits = 0;
+					}
+				}
+			}
+
+			Packer packer = new Packer();
+			for (int pos1=0; pos1<pmat.getNumPos(); pos1++) {
+				for (int rc1=0; rc1<pmat.getNumConfAtPos(pos1); rc1++) {
+					packer.add(pmat.getOneBody(pos1, rc1));
+				}
+			}
+			packer.flush();
+
+			for (int pos1=0; pos1<pmat.getNumPos(); pos1++) {
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc1=0; rc1<pmat.getNumConfAtPos(pos1); rc1++) {
+						for (int rc2=0; rc2<pmat.getNumConfAtPos(pos2); rc2++) {
+							packer.add(pmat.getPairwise(pos1, rc1, pos2, rc2));
+						}
+					}
+				}
+			}
+			packer.flush();
+		});
+	}
+
+	/**
+	 * Maps a pruning matrix from a file written by {@link #write}
+	 * @return the mapped matrix, or null if the file doesn't exist
+	 */
+	public static MappedPruningMatrix open(File file)
+	throws BadFileException {
+		return TupleMatrixFile.map(file, TupleMatrixFile.Kind.Pruning, (mapping) ->
+			new MappedPruningMatrix(mapping.header, mapping.mapOneBodyBits(), mapping.mapPairwiseBits())
+		);
+	}
+
+	private final transient LongBuffer oneBody;
+	private final transient LongBuffer pairwise;
+
+	private MappedPruningMatrix(TupleMatrixFile.Header header, LongBuffer oneBody, LongBuffer pairwise) {
+		super(header.numPos, header.numConfAtPos, header.pruningInterval);
+		this.oneBody = oneBody;
+		this.pairwise = pairwise;
+	}
+
+	@Override
+	protected void allocate(int numOneBody, int numPairwise) {
+		// don't allocate anything, the flags are in the mapped file
+	}
+
+	private static boolean getBit(LongBuffer words, int i) {
+		return (words.get(i >>> 6) & (1L << (i & 63))) != 0;
+	}
+
+	@Override
+	public Boolean getOneBody(int pos, int rc) {
+		return getBit(oneBody, getOneBodyIndex(pos, rc));
+	}
+
+	@Override
+	public Boolean getPairwise(int pos1, int rc1, int pos2, int rc2) {
+		return getBit(pairwise, getPairwiseIndex(pos1, rc1, pos2, rc2));
+	}
+
+	@Override
+	public void setOneBody(int pos, int rc, Boolean val) {
+		throw new UnsupportedOperationException("mapped pruning matrices are read-only");
+	}
+
+	@Override
+	public void setOneBody(int pos, ArrayList<Boolean> val) {
+		throw new UnsupportedOperationException("mapped pruning matrices are read-only");
+	}
+
+	@Override
+	public void setPairwise(int pos1, int rc1, int pos2, int rc2, Boolean val) {
+		throw new UnsupportedOperationException("mapped pruning matrices are read-only");
+	}
+
+	@Override
+	public void setPairwise(int pos1, int pos2, ArrayList<ArrayList<Boolean>> val) {
+		throw new UnsupportedOperationException("mapped pruning matrices are read-only");
+	}
+
+	@Override
+	public void setHigherOrder(RCTuple tup, Boolean val) {
+		throw new UnsupportedOperationException("mapped pruning matrices are read-only");
+	}
+
+	/** copies the flags into a regular pruning matrix on the heap */
+	public PruningMatrix copyToHeap() {
+		PruningMatrix pmat = new PruningMatrix(getNumPos(), getNumConfAtPos().clone(), getPruningInterval());
+		pmat.fill(false);
+		for (int pos1=0; pos1<getNumPos(); pos1++) {
+			for (int rc1=0; rc1<getNumConfAtPos(pos1); rc1++) {
+				pmat.setOneBody(pos1, rc1, getOneBody(pos1, rc1));
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<getNumConfAtPos(pos2); rc2++) {
+						pmat.setPairwise(pos1, rc1, pos2, rc2, getPairwise(pos1, rc1, pos2, rc2));
+					}
+				}
+			}
+		}
+		return pmat;
+	}
+
+	private Object writeReplace()
+	throws ObjectStreamException {
+		// mapped buffers can't be serialized, so send a copy instead
+		return copyToHeap();
+	}
+}
@@ -34,6 +34,7 @@ package edu.duke.cs.osprey.pruning;
 
 import edu.duke.cs.osprey.astar.conf.RCs;
 import edu.duke.cs.osprey.confspace.SimpleConfSpace;
+import edu.duke.cs.osprey.confspace.TupleMatrixFile;
 import edu.duke.cs.osprey.ematrix.EnergyMatrix;
 import edu.duke.cs.osprey.parallelism.Parallelism;
 import edu.duke.cs.osprey.parallelism.TaskExecutor;
@@ -122,9 +123,22 @@ public class SimpleDEE {
 
 
 	/**
-	 * Reads a saved pruning matrix from disk, or throws an exception
+	 * Reads a saved pruning matrix from disk, or throws an exception.
+	 * Files in the flat binary format are memory-mapped.
 	 */
 	public static PruningMatrix read(SimpleConfSpace confSpace, File cacheFile) {
+		if (TupleMatrixFile.isMatrixFile(cacheFile)) {
+			try {
+				PruningMatrix pmat = MappedPruningMatrix.open(cacheFile);
+				System.out.println("mapped pruning matrix from file: " + cacheFile.getAbsolutePath());
+				if (!pmat.matches(confSpace)) {
+					throw new RuntimeException("pruning matrix from file is invalid");
+				}
+				return pmat;
+			} catch (ObjectIO.BadFileException ex) {
+				throw new RuntimeException(ex);
+			}
+		}
 		return ObjectIO.readOrThrow(
 			cacheFile,
 			PruningMatrix.class,
@@ -158,6 +172,7 @@ public class SimpleDEE {
 		private boolean triplesTransitivePruning = false;
 		private boolean showProgress = false;
 		private File cacheFile = null;
+		private boolean mapCacheFile = false;
 		private Parallelism parallelism = Parallelism.makeCpu(1);
 
 		public Runner setSinglesThreshold(Double val) {
@@ -267,6 +282,16 @@ public class SimpleDEE {
 			return this;
 		}
 
+		/**
+		 * Store the cache file in the flat binary format ({@link TupleMatrixFile}) instead of
+		 * Java serialization, and read the cached pruning flags straight from a memory-mapped file.
+		 * Mapped pruning matrices are read-only.
+		 */
+		public Runner setMapCacheFile(boolean val) {
+			mapCacheFile = val;
+			return this;
+		}
+
 		public Runner setParallelism(Parallelism val) {
 			parallelism = val;
 			return this;
@@ -275,7 +300,16 @@ public class SimpleDEE {
 		public PruningMatrix run(SimpleConfSpace confSpace, EnergyMatrix emat) {
 
 			// check the cache file first
-			if (cacheFile != null) {
+			if (cacheFile != null && mapCacheFile) {
+				return TupleMatrixFile.readOrMake(
+					cacheFile,
+					"pruning matrix",
+					MappedPruningMatrix::open,
+					MappedPruningMatrix::write,
+					(pmat) -> pmat.matches(confSpace),
+					(context) -> reallyRun(confSpace, emat)
+				);
+			} else if (cacheFile != null) {
 				return ObjectIO.readOrMake(
 					cacheFile,
 					PruningMatrix.class,
@@ -471,7 +505,7 @@ public class SimpleDEE {
 
 	public void pruneSinglesByThreshold(double energyThreshold) {
 		pmat.forEachUnprunedSingle((pos, rc) -> {
-			if (emat.getOneBody(pos, rc) > energyThreshold) {
+			if (emat.getOneBodyDouble(pos, rc) > energyThreshold) {
 				pmat.pruneSingle(pos, rc);
 			}
 			return PruningMatrix.IteratorCommand.Continue;
@@ -480,7 +514,7 @@ public class SimpleDEE {
 
 	public void prunePairsByThreshold(double energyThreshold) {
 		pmat.forEachUnprunedPair((pos1, rc1, pos2, rc2) -> {
-			if (emat.getPairwise(pos1, rc1, pos2, rc2) > energyThreshold) {
+			if (emat.getPairwiseDouble(pos1, rc1, pos2, rc2) > energyThreshold) {
 				pmat.prunePair(pos1, rc1, pos2, rc2);
 			}
 			return PruningMatrix.IteratorCommand.Continue;
@@ -510,8 +544,8 @@ public class SimpleDEE {
 
 				// start with singles energy diff
 				double energyDiffSum = 0
-					+ emat.getOneBody(candidatePos, candidateRc)
-					- emat.getOneBody(competitorPos, competitorRc);
+					+ emat.getOneBodyDouble(candidatePos, candidateRc)
+					- emat.getOneBodyDouble(competitorPos, competitorRc);
 
 				// sum over witness positions
 				for (int witnessPos=0; witnessPos<confSpace.positions.size(); witnessPos++) {
@@ -533,8 +567,8 @@ public class SimpleDEE {
 
 						// compute the energy diff between the candidate and competitor, from the point of view of the witness
 						double energyDiff = 0
-							+ emat.getPairwise(candidatePos, candidateRc, witnessPos, witnessRc)
-							- emat.getPairwise(competitorPos, competitorRc, witnessPos, witnessRc);
+							+ emat.getPairwiseDouble(candidatePos, candidateRc, witnessPos, witnessRc)
+							- emat.getPairwiseDouble(competitorPos, competitorRc, witnessPos, witnessRc);
 						minEnergyDiff = Math.min(minEnergyDiff, energyDiff);
 					}
 
@@ -600,12 +634,12 @@ public class SimpleDEE {
 
 							// start with fragment energy diff
 							double energyDiffSum = 0
-								+ emat.getOneBody(candidatePos1, candidateRc1)
-								+ emat.getOneBody(candidatePos2, candidateRc2)
-								+ emat.getPairwise(candidatePos1, candidateRc1, candidatePos2, candidateRc2)
-								- emat.getOneBody(competitorPos1, competitorRc1)
-								- emat.getOneBody(competitorPos2, competitorRc2)
-								- emat.getPairwise(competitorPos1, competitorRc1, competitorPos2, competitorRc2);
+								+ emat.getOneBodyDouble(candidatePos1, candidateRc1)
+								+ emat.getOneBodyDouble(candidatePos2, candidateRc2)
+								+ emat.getPairwiseDouble(candidatePos1, candidateRc1, candidatePos2, candidateRc2)
+								- emat.getOneBodyDouble(competitorPos1, competitorRc1)
+								- emat.getOneBodyDouble(competitorPos2, competitorRc2)
+								- emat.getPairwiseDouble(competitorPos1, competitorRc1, competitorPos2, competitorRc2);
 
 							// sum over witness positions
 							for (int witnessPos=0; witnessPos<confSpace.positions.size(); witnessPos++) {
@@ -628,10 +662,10 @@ public class SimpleDEE {
 
 									// compute the energy diff between the candidate and competitor, from the point of view of the witness
 									double energyDiff = 0
-										+ emat.getPairwise(candidatePos1, candidateRc1, witnessPos, witnessRc)
-										+ emat.getPairwise(candidatePos2, candidateRc2, witnessPos, witnessRc)
-										- emat.getPairwise(competitorPos1, competitorRc1, witnessPos, witnessRc)
-										- emat.getPairwise(competitorPos2, competitorRc2, witnessPos, witnessRc);
+										+ emat.getPairwiseDouble(candidatePos1, candidateRc1, witnessPos, witnessRc)
+										+ emat.getPairwiseDouble(candidatePos2, candidateRc2, witnessPos, witnessRc)
+										- emat.getPairwiseDouble(competitorPos1, competitorRc1, witnessPos, witnessRc)
+										- emat.getPairwiseDouble(competitorPos2, competitorRc2, witnessPos, witnessRc);
 									minEnergyDiff = Math.min(minEnergyDiff, energyDiff);
 								}
 								energyDiffSum += minEnergyDiff;
@@ -703,18 +737,18 @@ public class SimpleDEE {
 
 							// start with fragment energy diff
 							double energyDiffSum = 0
-								+ emat.getOneBody(candidatePos1, candidateRc1)
-								+ emat.getOneBody(candidatePos2, candidateRc2)
-								+ emat.getOneBody(candidatePos3, candidateRc3)
-								+ emat.getPairwise(candidatePos1, candidateRc1, candidatePos2, candidateRc2)
-								+ emat.getPairwise(candidatePos1, candidateRc1, candidatePos3, candidateRc3)
-								+ emat.getPairwise(candidatePos2, candidateRc2, candidatePos3, candidateRc3)
-								- emat.getOneBody(competitorPos1, competitorRc1)
-								- emat.getOneBody(competitorPos2, competitorRc2)
-								- emat.getOneBody(competitorPos3, competitorRc3)
-								- emat.getPairwise(competitorPos1, competitorRc1, competitorPos2, competitorRc2)
-								- emat.getPairwise(competitorPos1, competitorRc1, competitorPos3, competitorRc3)
-								- emat.getPairwise(competitorPos2, competitorRc2, competitorPos3, competitorRc3);
+								+ emat.getOneBodyDouble(candidatePos1, candidateRc1)
+								+ emat.getOneBodyDouble(candidatePos2, candidateRc2)
+								+ emat.getOneBodyDouble(candidatePos3, candidateRc3)
+								+ emat.getPairwiseDouble(candidatePos1, candidateRc1, candidatePos2, candidateRc2)
+								+ emat.getPairwiseDouble(candidatePos1, candidateRc1, candidatePos3, candidateRc3)
+								+ emat.getPairwiseDouble(candidatePos2, candidateRc2, candidatePos3, candidateRc3)
+								- emat.getOneBodyDouble(competitorPos1, competitorRc1)
+								- emat.getOneBodyDouble(competitorPos2, competitorRc2)
+								- emat.getOneBodyDouble(competitorPos3, competitorRc3)
+								- emat.getPairwiseDouble(competitorPos1, competitorRc1, competitorPos2, competitorRc2)
+								- emat.getPairwiseDouble(competitorPos1, competitorRc1, competitorPos3, competitorRc3)
+								- emat.getPairwiseDouble(competitorPos2, competitorRc2, competitorPos3, competitorRc3);
 
 							// sum over witness positions
 							for (int witnessPos=0; witnessPos<confSpace.positions.size(); witnessPos++) {
@@ -738,12 +772,12 @@ public class SimpleDEE {
 
 									// compute the energy diff between the candidate and competitor, from the point of view of the witness
 									double energyDiff = 0
-										+ emat.getPairwise(candidatePos1, candidateRc1, witnessPos, witnessRc)
-										+ emat.getPairwise(candidatePos2, candidateRc2, witnessPos, witnessRc)
-										+ emat.getPairwise(candidatePos3, candidateRc3, witnessPos, witnessRc)
-										- emat.getPairwise(competitorPos1, competitorRc1, witnessPos, witnessRc)
-										- emat.getPairwise(competitorPos2, competitorRc2, witnessPos, witnessRc)
-										- emat.getPairwise(competitorPos3, competitorRc3, witnessPos, witnessRc);
+										+ emat.getPairwiseDouble(candidatePos1, candidateRc1, witnessPos, witnessRc)
+										+ emat.getPairwiseDouble(candidatePos2, candidateRc2, witnessPos, witnessRc)
+										+ emat.getPairwiseDouble(candidatePos3, candidateRc3, witnessPos, witnessRc)
+										- emat.getPairwiseDouble(competitorPos1, competitorRc1, witnessPos, witnessRc)
+										- emat.getPairwiseDouble(competitorPos2, competitorRc2, witnessPos, witnessRc)
+										- emat.getPairwiseDouble(competitorPos3, competitorRc3, witnessPos, witnessRc);
 									minEnergyDiff = Math.min(minEnergyDiff, energyDiff);
 								}
 								energyDiffSum += minEnergyDiff;
@@ -38,6 +38,14 @@ import edu.duke.cs.osprey.tools.*;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 
@@ -55,11 +63,28 @@ import java.util.NoSuchElementException;
  * The FIFO queue is implemented by a fixed-size circular buffer.
  * If the queue fills up, no new child nodes can be written, but
  * the current queue can continue to be swept as many times as needed.
+ *
+ * The database file is memory-mapped, and transactions are safe to use concurrently from different threads
+ * (although each transaction should only be used by one thread at a time).
+ * Reading a node only claims it from the queue while holding the database lock, then decodes it outside the lock.
+ * Similarly, committing a transaction only reserves space at the end of the queue while holding the lock,
+ * then copies the nodes into the reserved space outside the lock. So many workers can sweep at once.
+ *
+ * Each transaction keeps track of the ranges of the queue it has claimed. Claimed ranges are released
+ * in queue order as their transactions commit, and a committed transaction's nodes are appended to the queue
+ * only once all of its claimed ranges have been released. So the read/write state in the file header
+ * (updated and flushed to storage whenever no released range is still waiting on its nodes) always
+ * describes a consistent queue that can be resumed, and the space for released nodes is reused right away.
+ * A transaction that can't commit should be rolled back (or closed), which puts the nodes it claimed
+ * back into the queue for the next sweep.
  */
 public class FringeDB implements AutoCloseable {
 
 	static final byte[] Magic = { 'f', 'r', 'i', 'n', 'g', 'e', 'd', 'b' };
 
+	/** the largest memory mapping we'll make of the entries */
+	private static final int MaxSegmentBytes = 1 << 30;
+
 
 	private class IOState {
 
@@ -77,21 +102,6 @@ public class FringeDB implements AutoCloseable {
 			}
 		}
 
-		void copyTo(IOState other) {
-			System.arraycopy(this.readZSumMax, 0, other.readZSumMax, 0, confSpace.states.size());
-			System.arraycopy(this.writeZSumMax, 0, other.writeZSumMax, 0, confSpace.states.size());
-			other.readIndex = this.readIndex;
-			other.numToRead = this.numToRead;
-			other.writeIndex = this.writeIndex;
-			other.numWritten = this.numWritten;
-		}
-
-		IOState copy() {
-			IOState copy = new IOState();
-			this.copyTo(copy);
-			return copy;
-		}
-
 		void advanceRead(int count) {
 			readIndex = advanceEntryIndex(readIndex, count);
 			numToRead -= count;
@@ -107,22 +117,91 @@ public class FringeDB implements AutoCloseable {
 		}
 	}
 
+	/** a range of entries claimed by a transaction, that can't be reused until the claim is released */
+	private static class Claim {
+
+		final Transaction tx;
+		final long index;
+		int count;
+		Commit commit = null;
+
+		Claim(Transaction tx, long index, int count) {
+			this.tx = tx;
+			this.index = index;
+			this.count = count;
+		}
+	}
+
+	/** the nodes written by a transaction, waiting for the transaction's claims to be released */
+	private class Commit {
+
+		byte[] entries;
+		final int numEntries;
+		final BigExp[] zSumMax = new BigExp[confSpace.states.size()];
+		int numClaims;
+		boolean released = false;
+
+		Commit(byte[] entries, int numEntries, BigExp[] zSumMax, int numClaims) {
+			this.entries = entries;
+			this.numEntries = numEntries;
+			for (MultiStateConfSpace.State state : confSpace.states) {
+				this.zSumMax[state.index] = new BigExp(zSumMax[state.index]);
+			}
+			this.numClaims = numClaims;
+		}
+	}
+
+	/** committed nodes with reserved space, waiting to be copied into the entries */
+	private static class Write {
+
+		final long index;
+		final Commit commit;
+
+		Write(long index, Commit commit) {
+			this.index = index;
+			this.commit = commit;
+		}
+	}
+
+	public static class Node {
+
+		public final MultiStateConfSpace.State state;
+		public final int[] conf;
+		public final BigExp zSumUpper;
+
+		public Node(MultiStateConfSpace.State state, int[] conf, BigExp zSumUpper) {
+			this.state = state;
+			this.conf = conf;
+			this.zSumUpper = zSumUpper;
+		}
+	}
+
 	public final MultiStateConfSpace confSpace;
 	public final File file;
 
-	private final RandomAccessFile io;
-	private final IOState iostate;
+	private final FileChannel channel;
+	private final MappedByteBuffer header;
+	private final MappedByteBuffer[] segments;
+	private final int segmentEntries;
 
 	private final IntEncoding stateEncoding;
 	private final IntEncoding confEncoding;
 	private final int confBytes;
 	private final int entryBytes;
 
-	private final long posIOState;
-	private final long posZStats;
-	private final long posEntries;
+	private final int posIOState;
+	private final int posZStats;
+	private final int posEntries;
 	private final long maxNumEntries;
 
+	// all guarded by this
+	private final IOState iostate;
+	private final Deque<Claim> claims = new ArrayDeque<>(); // in queue order
+	private long numClaimed = 0; // nodes in the claimed ranges
+	private long numPendingWrites = 0; // nodes committed by transactions whose claims haven't all been released
+	private int numPartialCommits = 0; // commits with some, but not all, claims released
+	private int numWritesInFlight = 0;
+
 	/** create a new fringe node database, reserving the desired spase on the filesystem */
 	public static FringeDB create(MultiStateConfSpace confSpace, File file, long sizeBytes) {
 
@@ -231,73 +310,81 @@ public class FringeDB implements AutoCloseable {
 		);
 		confEncoding = getConfEncoding(confSpace);
 
+		// the header layout is fixed by the number of states
+		posIOState = 16;
+		posZStats = 64;
+		posEntries = posZStats + MathTools.roundUpToMultiple(confSpace.states.size()*BigExp.NumBytes*2, 32);
+
 		// open the file and read the header
 		try {
 
-			io = new RandomAccessFile(file, "rw");
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+			if (channel.size() < posEntries) {
+				throw new IOException("not a fringe db file");
+			}
+			header = channel.map(FileChannel.MapMode.READ_WRITE, 0, posEntries);
 
 			// check the magic number
 			for (int i=0; i<8; i++) {
-				if (io.readByte() != Magic[i]) {
+				if (header.get(i) != Magic[i]) {
 					throw new IOException("not a fringe db file");
 				}
 			}
 
 			// check the version
-			int version = io.readInt();
+			int version = header.getInt(8);
 			if (version != 2) {
 				throw new IOException("unrecognized fringe db version: " + version);
 			}
 
 			// read the sizes
-			confBytes = io.readInt();
+			confBytes = header.getInt(12);
 			entryBytes = calcEntrySize();
 
 			// read the read/write state
-			posIOState = io.getFilePointer();
 			iostate = new IOState();
-			iostate.readIndex = io.readLong();
-			iostate.numToRead = io.readLong();
-			iostate.writeIndex = io.readLong();
-			iostate.numWritten = io.readLong();
-
-			// skip to alignment boundary
-			for (int i=48; i<64; i++) {
-				io.readByte();
-			}
-			assert (io.getFilePointer() % 32 == 0);
+			iostate.readIndex = header.getLong(posIOState);
+			iostate.numToRead = header.getLong(posIOState + 8);
+			iostate.writeIndex = header.getLong(posIOState + 16);
+			iostate.numWritten = header.getLong(posIOState + 24);
 
 			// read the z stats
-			posZStats = io.getFilePointer();
-			for (MultiStateConfSpace.State state : confSpace.states) {
-				iostate.readZSumMax[state.index].readFrom(io);
-			}
 			for (MultiStateConfSpace.State state : confSpace.states) {
-				iostate.writeZSumMax[state.index].readFrom(io);
+				readBigExp(header, posZStats + state.index*BigExp.NumBytes, iostate.readZSumMax[state.index]);
+				readBigExp(header, posZStats + (confSpace.states.size() + state.index)*BigExp.NumBytes, iostate.writeZSumMax[state.index]);
 			}
 
-			// pad to 32 bytes
-			int numBytesRead = confSpace.states.size()*BigExp.NumBytes*2;
-			int numBytesNeeded = MathTools.roundUpToMultiple(numBytesRead, 32);
-			for (int i=numBytesRead; i<numBytesNeeded; i++) {
-				io.readByte();
-			}
-			assert (io.getFilePointer() % 32 == 0);
-
-			posEntries = io.getFilePointer();
-
 			// how many entries can we have?
-			maxNumEntries = (file.length() - posEntries)/entryBytes;
+			maxNumEntries = (channel.size() - posEntries)/entryBytes;
+
+			// map the entries in segments of whole entries, since one mapping can't be bigger than 2 GiB
+			segmentEntries = Math.max(1, MaxSegmentBytes/entryBytes);
+			int numSegments = (int)((maxNumEntries + segmentEntries - 1)/segmentEntries);
+			segments = new MappedByteBuffer[numSegments];
+			for (int i=0; i<numSegments; i++) {
+				long firstEntry = (long)i*segmentEntries;
+				long numEntries = Math.min(segmentEntries, maxNumEntries - firstEntry);
+				segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, posEntries + firstEntry*entryBytes, numEntries*entryBytes);
+			}
 
 		} catch (IOException ex) {
 			throw new RuntimeException("can't open db file: " + file.getAbsolutePath(), ex);
 		}
 	}
 
+	private static void readBigExp(ByteBuffer buf, int pos, BigExp out) {
+		out.set(buf.getDouble(pos), buf.getInt(pos + Double.BYTES));
+	}
+
+	private static void writeBigExp(ByteBuffer buf, int pos, BigExp val) {
+		buf.putDouble(pos, val.fp);
+		buf.putInt(pos + Double.BYTES, val.exp);
+	}
+
 	@Override
 	public void close() {
 		try {
-			io.close();
+			channel.close();
 		} catch (IOException ex) {
 			// don't care
 		}
@@ -310,8 +397,8 @@ public class FringeDB implements AutoCloseable {
 	/**
 	 * Returns the total number of nodes in the database
 	 */
-	public long getNumNodes() {
-		return iostate.numToRead + iostate.numWritten;
+	public synchronized long getNumNodes() {
+		return iostate.numToRead + numClaimed + iostate.numWritten;
 	}
 
 	/**
@@ -329,12 +416,12 @@ public class FringeDB implements AutoCloseable {
 	}
 
 	/** number of unread nodes left in this sweep */
-	public long numNodesToRead() {
+	public synchronized long numNodesToRead() {
 		return iostate.numToRead;
 	}
 
 	/** returns true if there are no remaining nodes to read in this sweep, false otherwise */
-	public boolean hasNodesToRead() {
+	public synchronized boolean hasNodesToRead() {
 		return iostate.numToRead > 0;
 	}
 
@@ -342,21 +429,198 @@ public class FringeDB implements AutoCloseable {
 	 * Returns the largest Z value for the nodes to read.
 	 * Ignores pending Z values in the written nodes.
 	 */
-	public BigExp getZSumMax(MultiStateConfSpace.State state) {
+	public synchronized BigExp getZSumMax(MultiStateConfSpace.State state) {
 		return iostate.readZSumMax[state.index];
 	}
 
-	public class Transaction {
+	private ByteBuffer segment(long index) {
+		return segments[(int)(index/segmentEntries)];
+	}
+
+	private int segmentOffset(long index) {
+		return (int)(index % segmentEntries)*entryBytes;
+	}
+
+	private int readEncoded(ByteBuffer buf, int pos, IntEncoding encoding) {
+		switch (encoding) {
+			case Byte: return buf.get(pos) & 0xff;
+			case Short: return buf.getShort(pos) & 0xffff;
+			default: return buf.getInt(pos);
+		}
+	}
+
+	private Node readEntry(long index) {
+
+		ByteBuffer buf = segment(index);
+		int pos = segmentOffset(index);
+
+		MultiStateConfSpace.State state = confSpace.states.get(readEncoded(buf, pos, stateEncoding));
+		pos += stateEncoding.numBytes;
+
+		// read the conf, and undo the shift
+		int[] conf = new int[state.confSpace.positions.size()];
+		for (int i=0; i<conf.length; i++) {
+			conf[i] = readEncoded(buf, pos + i*confEncoding.numBytes, confEncoding) - 1;
+		}
+		pos += confBytes;
+
+		BigExp zSumUpper = new BigExp(0.0, 0);
+		readBigExp(buf, pos, zSumUpper);
+
+		return new Node(state, conf, zSumUpper);
+	}
+
+	/** copies whole entries into the entries region, starting at index and wrapping if needed */
+	private void writeEntries(long index, byte[] src, int numEntries) {
+		int srcEntry = 0;
+		while (srcEntry < numEntries) {
+
+			// write as many entries as we can without changing segments or wrapping around
+			long segmentEnd = Math.min((index/segmentEntries + 1)*segmentEntries, maxNumEntries);
+			int count = (int)Math.min(numEntries - srcEntry, segmentEnd - index);
+
+			ByteBuffer buf = segment(index).duplicate();
+			buf.position(segmentOffset(index));
+			buf.put(src, srcEntry*entryBytes, count*entryBytes);
+
+			srcEntry += count;
+			index = (index + count) % maxNumEntries;
+		}
+	}
+
+	/** copies whole entries out of the entries region, starting at index and wrapping if needed */
+	private void readEntries(long index, byte[] dst, int dstEntry, int numEntries) {
+		int count;
+		for (int i=0; i<numEntries; i+=count) {
+
+			// read as many entries as we can without changing segments or wrapping around
+			long segmentEnd = Math.min((index/segmentEntries + 1)*segmentEntries, maxNumEntries);
+			count = (int)Math.min(numEntries - i, segmentEnd - index);
+
+			ByteBuffer buf = segment(index).duplicate();
+			buf.position(segmentOffset(index));
+			buf.get(dst, (dstEntry + i)*entryBytes, count*entryBytes);
+
+			index = (index + count) % maxNumEntries;
+		}
+	}
+
+	/**
+	 * Hands the writes for a transaction to the database,
+	 * and releases any claims at the head of the queue whose transactions have committed.
+	 * Must be called while synchronized.
+	 * Returns the writes that are ready to copy into the entries.
+	 */
+	private List<Write> addCommit(List<Claim> txClaims, Commit commit) {
+
+		for (Claim claim : txClaims) {
+			claim.commit = commit;
+		}
+		numPendingWrites += commit.numEntries;
+
+		List<Write> writes = new ArrayList<>();
+		if (commit.numClaims == 0) {
+			// no claims to wait for
+			writes.add(reserveWrite(commit));
+		}
+
+		// release claims in queue order, so the header always describes a consistent queue
+		while (!claims.isEmpty() && claims.peekFirst().commit != null) {
+			Claim claim = claims.removeFirst();
+			numClaimed -= claim.count;
+			Commit claimCommit = claim.commit;
+			if (!claimCommit.released) {
+				claimCommit.released = true;
+				numPartialCommits++;
+			}
+			claimCommit.numClaims--;
+			if (claimCommit.numClaims == 0) {
+				numPartialCommits--;
+				writes.add(reserveWrite(claimCommit));
+			}
+		}
+
+		numWritesInFlight += writes.size();
+		return writes;
+	}
+
+	/** reserves space at the end of the queue for the committed nodes, must be called while synchronized */
+	private Write reserveWrite(Commit commit) {
 
-		private final IOState iostate = FringeDB.this.iostate.copy();
+		Write write = new Write(iostate.writeIndex, commit);
+		iostate.advanceWrite(commit.numEntries);
+		numPendingWrites -= commit.numEntries;
+
+		for (MultiStateConfSpace.State state : confSpace.states) {
+			BigExp zSumMax = iostate.writeZSumMax[state.index];
+			BigExp val = commit.zSumMax[state.index];
+			if (!val.isNaN() && (zSumMax.isNaN() || val.greaterThan(zSumMax))) {
+				zSumMax.set(val);
+			}
+		}
+
+		return write;
+	}
+
+	/**
+	 * Copies the writes into the entries, then updates the header if the queue is consistent.
+	 * Must be called while not synchronized.
+	 */
+	private void finishWrites(List<Write> writes) {
+
+		// no one else can write to the space we reserved
+		for (Write write : writes) {
+			writeEntries(write.index, write.commit.entries, write.commit.numEntries);
+		}
+
+		// if every released claim has its nodes written, persist the io state
+		boolean persisted = false;
+		synchronized (this) {
+			numWritesInFlight -= writes.size();
+			if (numWritesInFlight == 0 && numPartialCommits == 0) {
+				writeHeader();
+				persisted = true;
+			}
+		}
+
+		if (persisted) {
+			force();
+		}
+	}
+
+	/** write the read/write state into the header, must be called while synchronized */
+	private void writeHeader() {
+
+		// any claimed nodes are still unread as far as the file is concerned
+		long readIndex = claims.isEmpty() ? iostate.readIndex : claims.peekFirst().index;
+
+		header.putLong(posIOState, readIndex);
+		header.putLong(posIOState + 8, iostate.numToRead + numClaimed);
+		header.putLong(posIOState + 16, iostate.writeIndex);
+		header.putLong(posIOState + 24, iostate.numWritten);
+		for (MultiStateConfSpace.State state : confSpace.states) {
+			writeBigExp(header, posZStats + state.index*BigExp.NumBytes, iostate.readZSumMax[state.index]);
+			writeBigExp(header, posZStats + (confSpace.states.size() + state.index)*BigExp.NumBytes, iostate.writeZSumMax[state.index]);
+		}
+	}
+
+	/** flush changes to storage, the entries first and then the header */
+	private void force() {
+		for (MappedByteBuffer segment : segments) {
+			segment.force();
+		}
+		header.force();
+	}
+
+	public class Transaction implements AutoCloseable {
+
+		private final BigExp[] writeZSumMax = new BigExp[confSpace.states.size()];
 
 		private MultiStateConfSpace.State state;
 		private int[] conf;
 		private BigExp zSumUpper;
 
-		private final ByteBuffer readBuf = ByteBuffer.allocate(1024*1024);
-		private final DataInput readIn = new DataInputStream(new ByteBufferInputStream(readBuf));
-		private final int maxReadEntries = readBuf.capacity()/entryBytes;
+		private final List<Claim> claims = new ArrayList<>(); // since the last commit
 
 		private final ByteBuffer writeBuf = ByteBuffer.allocate(1024*1024);
 		private final DataOutput writeOut = new DataOutputStream(new ByteBufferOutputStream(writeBuf));
@@ -366,106 +630,86 @@ public class FringeDB implements AutoCloseable {
 		private Transaction() {
 			// keep the constructor private
 
-			readBuf.limit(0);
+			for (MultiStateConfSpace.State state : confSpace.states) {
+				writeZSumMax[state.index] = new BigExp(Double.NaN);
+			}
 		}
 
 		/** number of unread nodes left in this sweep */
 		public long numNodesToRead() {
-			return iostate.numToRead;
+			return FringeDB.this.numNodesToRead();
 		}
 
 		/** returns true if there are no remaining nodes to read in this sweep, false otherwise */
 		public boolean hasNodesToRead() {
-			return iostate.numToRead > 0;
+			return FringeDB.this.hasNodesToRead();
 		}
 
-		/** reads and removes the node at the head of the queue */
-		public void readNode() {
-
-			if (iostate.numToRead <= 0) {
-				throw new NoSuchElementException("out of fringe nodes to read");
-			}
+		/**
+		 * claims up to the desired number of nodes from the head of the queue
+		 * and returns the index of the first node
+		 */
+		private long claim(int count) {
+			synchronized (FringeDB.this) {
 
-			try {
+				long index = iostate.readIndex;
+				if (count <= 0) {
+					return index;
+				}
+				iostate.advanceRead(count);
+				numClaimed += count;
 
-				// if the read buffer is empty, fill it up
-				if (readBuf.position() == readBuf.limit()) {
-
-					// what's the most entries we could read without wrapping around?
-					long numToRead = maxNumEntries - iostate.readIndex;
-
-					// but don't read more entries than are waiting
-					numToRead = Math.min(numToRead, iostate.numToRead);
-
-					// but don't read more than the buffer
-					numToRead = Math.min(numToRead, maxReadEntries);
-
-					try {
-
-						int readSize = (int)(numToRead*entryBytes);
-						io.seek(posEntries + iostate.readIndex*entryBytes);
-						io.readFully(readBuf.array(), 0, readSize);
-						readBuf.position(0);
-						readBuf.limit(readSize);
-
-					} catch (IOException ex) {
-
-						// this actually happened, so add more debugging info to the exception
-						throw new IOException(
-							String.format(
-								"can't fill read buffer."
-									+ "\n\tmaxReadEntries=%d"
-									+ "\n\tiostate.numToRead=%d"
-									+ "\n\tmaxNumToRead=%d"
-									+ "\n\tnumToRead=%d"
-									+ "\n\tposEntries=%d"
-									+ "\n\tiostate.readIndex=%d"
-									+ "\n\tentryBytes=%d"
-									+ "\n\tseek pos=%d"
-									+ "\n\tread len=%d"
-									+ "\n\tend read pos=%d"
-									+ "\n\tcapacity=%d",
-								maxReadEntries,
-								iostate.numToRead,
-								maxNumEntries - iostate.readIndex,
-								numToRead,
-								posEntries,
-								iostate.readIndex,
-								entryBytes,
-								posEntries + iostate.readIndex*entryBytes,
-								numToRead*entryBytes,
-								posEntries + iostate.readIndex*entryBytes + numToRead*entryBytes,
-								io.length()
-							),
-							ex
-						);
-					}
+				// extend our last claim if no one else has claimed since, otherwise start a new one
+				Claim last = FringeDB.this.claims.peekLast();
+				if (last != null && last.tx == this && last.commit == null && (last.index + last.count) % maxNumEntries == index) {
+					last.count += count;
+				} else {
+					Claim claim = new Claim(this, index, count);
+					FringeDB.this.claims.addLast(claim);
+					claims.add(claim);
 				}
 
-				// read the next entry out of the read buffer
+				return index;
+			}
+		}
 
-				state = confSpace.states.get(stateEncoding.read(readIn));
+		/** reads and removes the node at the head of the queue */
+		public void readNode() {
 
-				// read the conf, and undo the shift
-				conf = new int[state.confSpace.positions.size()];
-				for (int i=0; i<conf.length; i++) {
-					conf[i] = confEncoding.read(readIn) - 1;
+			long index;
+			synchronized (FringeDB.this) {
+				if (iostate.numToRead <= 0) {
+					throw new NoSuchElementException("out of fringe nodes to read");
 				}
+				index = claim(1);
+			}
 
-				// pad the conf if needed
-				int numBytesRead = confEncoding.numBytes*conf.length;
-				for (int i=numBytesRead; i<confBytes; i++) {
-					readIn.readByte();
-				}
+			// no one else can write over the node once we've claimed it, so we don't need the lock anymore
+			Node node = readEntry(index);
+			state = node.state;
+			conf = node.conf;
+			zSumUpper = node.zSumUpper;
+		}
 
-				zSumUpper = BigExp.read(readIn);
+		/**
+		 * Reads and removes up to the desired number of nodes at the head of the queue.
+		 * Useful for workers that want to process batches of nodes.
+		 * Returns an empty list if there are no more nodes to read in this sweep.
+		 */
+		public List<Node> readNodes(int maxCount) {
 
-			} catch (IOException ex) {
-				throw new RuntimeException("can't advance to next fringe node", ex);
+			long index;
+			int count;
+			synchronized (FringeDB.this) {
+				count = (int)Math.min(maxCount, iostate.numToRead);
+				index = claim(count);
 			}
 
-			// advance the read offset, wrapping if needed
-			iostate.advanceRead(1);
+			List<Node> nodes = new ArrayList<>(count);
+			for (int i=0; i<count; i++) {
+				nodes.add(readEntry((index + i) % maxNumEntries));
+			}
+			return nodes;
 		}
 
 		public MultiStateConfSpace.State state() {
@@ -481,8 +725,8 @@ public class FringeDB implements AutoCloseable {
 		}
 
 		private void updateZMax(int stateIndex, BigExp val) {
-			if (iostate.writeZSumMax[stateIndex].isNaN() || val.greaterThan(iostate.writeZSumMax[stateIndex])) {
-				iostate.writeZSumMax[stateIndex].set(val);
+			if (writeZSumMax[stateIndex].isNaN() || val.greaterThan(writeZSumMax[stateIndex])) {
+				writeZSumMax[stateIndex].set(val);
 			}
 		}
 
@@ -557,9 +801,20 @@ public class FringeDB implements AutoCloseable {
 		 * Is there enough room in the database to add more nodes?
 		 */
 		public boolean dbHasRoomFor(int count) {
-			long usedEntries = iostate.numToRead + iostate.numWritten + writtenEntries;
-			long freeEntries = maxNumEntries - usedEntries;
-			return count <= freeEntries;
+			synchronized (FringeDB.this) {
+				long usedEntries = iostate.numToRead + numClaimed + iostate.numWritten + numPendingWrites + writtenEntries;
+
+				// our commit will release any claims at the head of the queue that are ours or already committed
+				for (Claim claim : FringeDB.this.claims) {
+					if (claim.tx != this && claim.commit == null) {
+						break;
+					}
+					usedEntries -= claim.count;
+				}
+
+				long freeEntries = maxNumEntries - usedEntries;
+				return count <= freeEntries;
+			}
 		}
 
 		/**
@@ -571,68 +826,96 @@ public class FringeDB implements AutoCloseable {
 
 		/**
 		 * Flushes all pending writes to the database file.
-		 * All writes are flushed to the underlying storage device by the time this method returns.
+		 * The nodes are added to the queue once every transaction that read nodes before this one has committed.
+		 * If no other transactions have uncommitted reads, all writes are flushed
+		 * to the underlying storage device by the time this method returns.
 		 */
 		public void commit() {
 
 			// short circuit
-			if (writtenEntries <= 0 && iostate.numToRead == FringeDB.this.iostate.numToRead) {
+			if (writtenEntries <= 0 && claims.isEmpty()) {
 				return;
 			}
 
-			if (!dbHasRoomForCommit()) {
-				throw new IllegalStateException("transaction too big to commit");
-			}
+			Commit commit;
+			List<Write> writes;
+			synchronized (FringeDB.this) {
 
-			try {
+				if (!dbHasRoomForCommit()) {
+					throw new IllegalStateException("transaction too big to commit");
+				}
 
-				// write the replacement entries
-				writeBuf.flip();
-				long maxNumToWriteAtOnce = maxNumEntries - iostate.writeIndex;
-				if (writtenEntries <= maxNumToWriteAtOnce) {
+				commit = new Commit(writeBuf.array(), writtenEntries, writeZSumMax, claims.size());
+				writes = addCommit(claims, commit);
 
-					// write it all in one pass
-					io.seek(posEntries + iostate.writeIndex*entryBytes);
-					io.write(writeBuf.array(), 0, writtenEntries*entryBytes);
-					iostate.advanceWrite(writtenEntries);
+				// if our writes have to wait for someone else's claims, keep a copy of them
+				if (commit.numClaims > 0) {
+					commit.entries = Arrays.copyOf(writeBuf.array(), writtenEntries*entryBytes);
+				}
+			}
 
-				} else {
+			finishWrites(writes);
+			clear();
+		}
 
-					// write in two passes
-					int numWrittenPass1 = (int)maxNumToWriteAtOnce;
-					io.seek(posEntries + iostate.writeIndex*entryBytes);
-					io.write(writeBuf.array(), 0, numWrittenPass1*entryBytes);
-					iostate.advanceWrite(numWrittenPass1);
+		/**
+		 * Discards all pending writes, and puts the nodes read since the last commit
+		 * back at the end of the queue, as if they had been requeued unchanged.
+		 */
+		public void rollback() {
 
-					int numWrittenPass2 = writtenEntries - (int)maxNumToWriteAtOnce;
-					io.seek(posEntries + iostate.writeIndex*entryBytes);
-					io.write(writeBuf.array(), numWrittenPass1*entryBytes, numWrittenPass2*entryBytes);
-					iostate.advanceWrite(numWrittenPass2);
-				}
-				writeBuf.clear();
-				writtenEntries = 0;
+			// short circuit
+			if (claims.isEmpty()) {
+				clear();
+				return;
+			}
 
-				// write zSumMax
-				io.seek(posZStats + BigExp.NumBytes*confSpace.states.size());
-				for (MultiStateConfSpace.State state : confSpace.states) {
-					iostate.writeZSumMax[state.index].writeTo(io);
+			// copy the claimed nodes, no one else can write over them until we commit
+			int numEntries = claims.stream()
+				.mapToInt(claim -> claim.count)
+				.sum();
+			byte[] entries = new byte[numEntries*entryBytes];
+			BigExp[] zSumMax = new BigExp[confSpace.states.size()];
+			for (MultiStateConfSpace.State state : confSpace.states) {
+				zSumMax[state.index] = new BigExp(Double.NaN);
+			}
+			int numCopied = 0;
+			for (Claim claim : claims) {
+				readEntries(claim.index, entries, numCopied, claim.count);
+				numCopied += claim.count;
+				for (int i=0; i<claim.count; i++) {
+					Node node = readEntry((claim.index + i) % maxNumEntries);
+					BigExp val = zSumMax[node.state.index];
+					if (val.isNaN() || node.zSumUpper.greaterThan(val)) {
+						val.set(node.zSumUpper);
+					}
 				}
+			}
 
-				// persist io state
-				io.seek(posIOState);
-				io.writeLong(iostate.readIndex);
-				io.writeLong(iostate.numToRead);
-				io.writeLong(iostate.writeIndex);
-				io.writeLong(iostate.numWritten);
+			// the copies take exactly the space our claims give back, so there's always room
+			List<Write> writes;
+			synchronized (FringeDB.this) {
+				writes = addCommit(claims, new Commit(entries, numEntries, zSumMax, claims.size()));
+			}
 
-				// copy io state outside of transaction
-				iostate.copyTo(FringeDB.this.iostate);
+			finishWrites(writes);
+			clear();
+		}
 
-				// flush changes to storage
-				io.getChannel().force(false);
+		/**
+		 * Rolls back anything that hasn't been committed.
+		 */
+		@Override
+		public void close() {
+			rollback();
+		}
 
-			} catch (IOException ex) {
-				throw new RuntimeException("commit failed", ex);
+		private void clear() {
+			claims.clear();
+			writeBuf.clear();
+			writtenEntries = 0;
+			for (MultiStateConfSpace.State state : confSpace.states) {
+				writeZSumMax[state.index].set(Double.NaN);
 			}
 		}
 	}
@@ -648,39 +931,29 @@ public class FringeDB implements AutoCloseable {
 	 */
 	public void finishStep() {
 
-		if (iostate.numToRead > 0) {
-			throw new IllegalStateException("sweep not finished, " + iostate.numToRead + " nodes left to read");
-		}
+		synchronized (this) {
 
-		try {
+			if (iostate.numToRead > 0) {
+				throw new IllegalStateException("sweep not finished, " + iostate.numToRead + " nodes left to read");
+			}
+			if (numClaimed > 0 || numPartialCommits > 0 || numWritesInFlight > 0) {
+				throw new IllegalStateException("sweep not finished, " + numClaimed + " nodes read by uncommitted transactions");
+			}
 
 			// update the entry counts
 			iostate.numToRead = iostate.numWritten;
 			iostate.numWritten = 0;
 
 			// update the z stats
-			io.seek(posZStats);
 			for (MultiStateConfSpace.State state : confSpace.states) {
 				iostate.readZSumMax[state.index].set(iostate.writeZSumMax[state.index]);
-				iostate.readZSumMax[state.index].writeTo(io);
-			}
-			for (MultiStateConfSpace.State state : confSpace.states) {
 				iostate.writeZSumMax[state.index].set(Double.NaN);
-				iostate.writeZSumMax[state.index].writeTo(io);
 			}
 
 			// persist read state
-			io.seek(posIOState);
-			io.writeLong(iostate.readIndex);
-			io.writeLong(iostate.numToRead);
-			io.writeLong(iostate.writeIndex);
-			io.writeLong(iostate.numWritten);
-
-			// flush changes to storage
-			io.getChannel().force(false);
-
-		} catch (IOException ex) {
-			throw new RuntimeException("finish failed", ex);
+			writeHeader();
 		}
+
+		force();
 	}
 }
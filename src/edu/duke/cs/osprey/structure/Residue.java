@@ -223,6 +223,42 @@ public class Residue implements Serializable {
 		return copy;
 	}
 
+	/**
+	 * Turns this residue back into a copy of the other residue, in place,
+	 * so the residue keeps its spot in the molecule.
+	 * Inter-res bonds should be removed before calling this, and reconnected afterwards.
+	 */
+	public void copyFrom(Residue other) {
+
+		// copy the simple properties
+		this.fullName = other.fullName;
+		this.resNum = other.resNum;
+		this.template = other.template;
+		this.confProblems = new ArrayList<>(other.confProblems);
+		this.pucker = other.pucker;
+		this.secondaryStruct = other.secondaryStruct;
+
+		// copy the atoms and intra-res bonds
+		this.atoms = new ArrayList<>();
+		for (Atom atom : other.atoms) {
+			atom.copyToRes(this);
+		}
+		for (int i=0; i<other.atoms.size(); i++) {
+			Atom otherAtom = other.atoms.get(i);
+			Atom thisAtom = this.atoms.get(i);
+			for (Atom otherBondedAtom : otherAtom.bonds) {
+				if (otherBondedAtom.res == other) {
+					thisAtom.bonds.add(this.atoms.get(otherBondedAtom.indexInRes));
+				}
+			}
+		}
+		this.intraResBondsMarked = other.intraResBondsMarked;
+		this.interResBondsMarked = false;
+
+		// copy the coords
+		this.coords = Arrays.copyOf(other.coords, other.coords.length);
+	}
+
 	// private constructor just for the optimized copyToMol() method,
 	// so we can bypass the other slower constructors without breaking existing code
 	private Residue() {}
@@ -0,0 +1,227 @@
+package edu.duke.cs.osprey.tools;
+
+
+/**
+ * Accumulates sums of exponentials, like Boltzmann weights, exp(x1) + exp(x2) + ...,
+ * using only double arithmetic, so it's much faster than BigDecimal and makes no garbage.
+ *
+ * The sum is stored as exp(shift)*s, where the shift is the largest exponent seen so far,
+ * so s never overflows and the individual terms are at most 1.
+ * The additions use Kahan compensation, and the accumulator also keeps a conservative bound
+ * on its total rounding error, so it can report guaranteed lower and upper bounds on the exact sum.
+ * That matters for partition functions, where epsilon convergence relies on the bounds being true bounds.
+ */
+public class LogSumExp {
+
+	/**
+	 * A relative error larger than any single correctly-rounded double operation or Math.exp/Math.log call,
+	 * (the JDK guarantees those are within 1 ulp), with some room to spare.
+	 */
+	public static final double Eps = 0x1p-50;
+
+	private static final double Ln10 = Math.log(10.0);
+
+	private double shift = Double.NEGATIVE_INFINITY;
+	private double sum = 0.0;
+	private double comp = 0.0;
+	private double err = 0.0;
+
+	public LogSumExp() {
+		// nothing to do
+	}
+
+	public LogSumExp(LogSumExp other) {
+		set(other);
+	}
+
+	public void set(LogSumExp other) {
+		this.shift = other.shift;
+		this.sum = other.sum;
+		this.comp = other.comp;
+		this.err = other.err;
+	}
+
+	public void clear() {
+		shift = Double.NEGATIVE_INFINITY;
+		sum = 0.0;
+		comp = 0.0;
+		err = 0.0;
+	}
+
+	/** adds exp(x) to the sum */
+	public void add(double x) {
+
+		if (!Double.isFinite(sum) || x == Double.NEGATIVE_INFINITY) {
+			// the sum is already infinite or NaN, or we're adding zero
+			return;
+		} else if (Double.isNaN(x) || x == Double.POSITIVE_INFINITY) {
+			setNonFinite(x);
+			return;
+		}
+
+		if (x > shift) {
+			rescale(x);
+		}
+
+		// the exponent difference is inexact, and its error is amplified by the exponential
+		double d = x - shift;
+		double term = Math.exp(d);
+		addScaled(term, term*(Eps + Math.ulp(d)) + Double.MIN_VALUE);
+	}
+
+	/** adds the other sum to this sum */
+	public void add(LogSumExp other) {
+
+		if (!Double.isFinite(sum) || other.isZero()) {
+			return;
+		} else if (!Double.isFinite(other.sum)) {
+			setNonFinite(other.sum);
+			return;
+		}
+
+		if (other.shift > shift) {
+			rescale(other.shift);
+		}
+
+		addScaled(other.scaledValue(shift), other.scaledError(shift));
+	}
+
+	private void setNonFinite(double x) {
+		shift = 0.0;
+		sum = x;
+		comp = 0.0;
+		err = 0.0;
+	}
+
+	private void addScaled(double term, double termErr) {
+
+		// Kahan summation
+		double y = term - comp;
+		double t = sum + y;
+		comp = (t - sum) - y;
+		sum = t;
+
+		// the compensated sum is at least as accurate as the naive sum, which loses at most an ulp per step
+		err += termErr + Math.ulp(sum);
+	}
+
+	private void rescale(double newShift) {
+
+		if (shift == Double.NEGATIVE_INFINITY) {
+			// the sum is still zero, just move the shift
+			shift = newShift;
+			return;
+		}
+
+		double d = shift - newShift;
+		double f = Math.exp(d);
+		double fErr = Eps + Math.ulp(d);
+		sum *= f;
+		comp *= f;
+		err = (err*f + Math.abs(sum)*fErr)*(1 + Eps) + Math.ulp(sum) + Double.MIN_VALUE;
+		shift = newShift;
+	}
+
+	public boolean isZero() {
+		return shift == Double.NEGATIVE_INFINITY;
+	}
+
+	public boolean isFinite() {
+		return Double.isFinite(sum);
+	}
+
+	/** the natural log of the scale of the sum, ie, the largest exponent added so far */
+	public double getShift() {
+		return shift;
+	}
+
+	/** the best estimate of the sum, divided by exp(shift) */
+	public double getScaledValue() {
+		return sum - comp;
+	}
+
+	/** a bound on the absolute error of {@link #getScaledValue()} */
+	public double getScaledError() {
+		return err*(1 + Eps) + Math.ulp(sum);
+	}
+
+	/** the best estimate of the sum, divided by exp(otherShift), where otherShift >= the shift */
+	public double scaledValue(double otherShift) {
+		if (isZero()) {
+			return 0.0;
+		} else if (!Double.isFinite(sum)) {
+			return sum;
+		}
+		return getScaledValue()*Math.exp(shift - otherShift);
+	}
+
+	/** a bound on the absolute error of {@link #scaledValue(double)} */
+	public double scaledError(double otherShift) {
+		if (isZero() || !Double.isFinite(sum)) {
+			return 0.0;
+		}
+		double d = shift - otherShift;
+		double f = Math.exp(d);
+		return (getScaledError() + Math.abs(getScaledValue())*(Eps + Math.ulp(d)))*f*(1 + Eps) + Double.MIN_VALUE;
+	}
+
+	/** the natural log of the best estimate of the sum */
+	public double log() {
+		if (!Double.isFinite(sum)) {
+			return sum;
+		}
+		return Math.log(getScaledValue()) + shift;
+	}
+
+	public BigExp toBigExp() {
+		return toBigExp(getScaledValue(), shift, 0);
+	}
+
+	/** a guaranteed lower bound on the exact sum */
+	public BigExp toBigExpLower() {
+		return toBigExp(Math.max(0.0, (getScaledValue() - getScaledError())*(1 - Eps)), shift, -1);
+	}
+
+	/** a guaranteed upper bound on the exact sum */
+	public BigExp toBigExpUpper() {
+		return toBigExp((getScaledValue() + getScaledError())*(1 + Eps), shift, 1);
+	}
+
+	/**
+	 * Converts scaledValue*exp(shift) to a BigExp, rounding in the given direction (-1 down, 0 nearest, 1 up).
+	 */
+	public static BigExp toBigExp(double scaledValue, double shift, int direction) {
+
+		if (Double.isNaN(scaledValue) || Double.isInfinite(scaledValue)) {
+			return new BigExp(scaledValue);
+		} else if (scaledValue == 0.0 || shift == Double.NEGATIVE_INFINITY) {
+			return new BigExp(0.0);
+		} else if (shift == Double.POSITIVE_INFINITY) {
+			return new BigExp(Math.signum(scaledValue)*Double.POSITIVE_INFINITY);
+		}
+
+		// exp(shift) = 10^(shift/ln10) = 10^(exp + frac)
+		double log10 = shift/Ln10;
+		double exp = Math.floor(log10);
+		double fp = scaledValue*Math.pow(10.0, log10 - exp);
+
+		if (direction != 0) {
+			// the division, subtraction, and power are all inexact
+			double relErr = (Eps + Math.ulp(log10)*2)*Ln10 + Eps*2;
+			if ((direction > 0) == (fp > 0)) {
+				fp *= 1 + relErr;
+			} else {
+				fp *= 1 - relErr;
+			}
+		}
+
+		BigExp out = new BigExp(fp, (int)exp);
+		out.normalize(true);
+		return out;
+	}
+
+	@Override
+	public String toString() {
+		return toBigExp().toString();
+	}
+}
@@ -580,6 +580,12 @@ public class MathTools {
 		return Math.log10(x + 1);
 	}
 
+	/** returns the natural log of x, even when x is too big to fit in a double */
+	public static double log(BigInteger x) {
+		int shift = Math.max(0, x.bitLength() - 1000);
+		return Math.log(x.shiftRight(shift).doubleValue()) + shift*Math.log(2.0);
+	}
+
 	public static String formatBytes(long bytes) {
 		if (bytes < 1024) {
 			return String.format("%d B", bytes);
@@ -0,0 +1,425 @@
+package edu.duke.cs.osprey.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Process-wide counters and latency histograms for the hot paths
+ * (e.g., A* search, energy calculations, ConfDB, task queues),
+ * so we can see where the time goes across all the threads of a long design, not just the main thread.
+ *
+ * Metrics are off by default. While they're off, recording costs one volatile read and nothing else.
+ * Turn them on with {@link #enable()}, or with {@link #startDumping(File, long)}
+ * to also write snapshots to a file periodically, for other tools to pick up.
+ *
+ * Instrumented code keeps its metrics in static fields, e.g.:
+ * <pre>
+ * private static final Metrics.Histogram fooNs = Metrics.histogram("foo_ns", "time to do foo (ns)");
+ * ...
+ * long startNs = Metrics.startNs();
+ * foo();
+ * fooNs.recordSince(startNs);
+ * </pre>
+ */
+public class Metrics {
+
+	public enum Format {
+
+		/** the Prometheus text exposition format */
+		Prometheus,
+
+		Json;
+
+		public static Format of(File file) {
+			return file.getName().endsWith(".json") ? Json : Prometheus;
+		}
+	}
+
+	/** returned by {@link #startNs()} when metrics are off, so the matching record does nothing */
+	public static final long NotTiming = Long.MIN_VALUE;
+
+	private static volatile boolean enabled = false;
+
+	private static final Map<String,Metric> metrics = new TreeMap<>();
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	public static void enable() {
+		enabled = true;
+	}
+
+	public static void disable() {
+		enabled = false;
+	}
+
+	/** clears all the recorded values, but keeps the metrics themselves */
+	public static void reset() {
+		for (Metric metric : all()) {
+			metric.reset();
+		}
+	}
+
+	/** returns the current time for timing something, or {@link #NotTiming} if metrics are off */
+	public static long startNs() {
+		return enabled ? System.nanoTime() : NotTiming;
+	}
+
+	public static Counter counter(String name, String help) {
+		return register(new Counter(name, help));
+	}
+
+	public static Histogram histogram(String name, String help) {
+		return register(new Histogram(name, help));
+	}
+
+	private static <T extends Metric> T register(T metric) {
+		synchronized (metrics) {
+			Metric existing = metrics.putIfAbsent(metric.name(), metric);
+			if (existing != null) {
+				throw new IllegalArgumentException("metric " + metric.name() + " is already registered");
+			}
+		}
+		return metric;
+	}
+
+	public static Metric get(String name) {
+		synchronized (metrics) {
+			return metrics.get(name);
+		}
+	}
+
+	private static List<Metric> all() {
+		synchronized (metrics) {
+			return new ArrayList<>(metrics.values());
+		}
+	}
+
+	public interface Metric {
+		String name();
+		String help();
+		void reset();
+		void writePrometheus(StringBuilder buf);
+		void writeJson(StringBuilder buf);
+	}
+
+	/**
+	 * A count of events. Threads increment separate cells (see {@link LongAdder}),
+	 * so even very hot counters don't fight over one cache line.
+	 */
+	public static class Counter implements Metric {
+
+		public final String name;
+		public final String help;
+
+		private final LongAdder value = new LongAdder();
+
+		private Counter(String name, String help) {
+			this.name = name;
+			this.help = help;
+		}
+
+		@Override
+		public String name() {
+			return name;
+		}
+
+		@Override
+		public String help() {
+			return help;
+		}
+
+		public void increment() {
+			if (enabled) {
+				value.increment();
+			}
+		}
+
+		public void add(long n) {
+			if (enabled) {
+				value.add(n);
+			}
+		}
+
+		public long get() {
+			return value.sum();
+		}
+
+		@Override
+		public void reset() {
+			value.reset();
+		}
+
+		@Override
+		public void writePrometheus(StringBuilder buf) {
+			String fullName = "osprey_" + name;
+			buf.append("# HELP ").append(fullName).append(' ').append(help).append('\n');
+			buf.append("# TYPE ").append(fullName).append(" counter\n");
+			buf.append(fullName).append(' ').append(get()).append('\n');
+		}
+
+		@Override
+		public void writeJson(StringBuilder buf) {
+			buf.append(get());
+		}
+	}
+
+	/**
+	 * A distribution of non-negative values (usually nanoseconds), in the style of HdrHistogram:
+	 * values are counted in log-linear buckets, so each recorded value is off by at most
+	 * 1/{@link #SubBuckets} of itself, over the whole range of a long, in a fixed amount of memory.
+	 *
+	 * Recording is lock-free: one atomic increment for the bucket, plus the striped totals.
+	 */
+	public static class Histogram implements Metric {
+
+		/** sub-buckets per power of two, ie the relative precision */
+		public static final int SubBuckets = 32;
+		private static final int SubBucketBits = 5;
+		private static final int NumBuckets = (63 - SubBucketBits + 1)*SubBuckets;
+
+		public static final double[] Quantiles = { 0.5, 0.9, 0.99, 0.999 };
+
+		public final String name;
+		public final String help;
+
+		private final AtomicLongArray counts = new AtomicLongArray(NumBuckets);
+		private final LongAdder count = new LongAdder();
+		private final LongAdder sum = new LongAdder();
+		private final AtomicLong max = new AtomicLong(0);
+
+		private Histogram(String name, String help) {
+			this.name = name;
+			this.help = help;
+		}
+
+		@Override
+		public String name() {
+			return name;
+		}
+
+		@Override
+		public String help() {
+			return help;
+		}
+
+		static int bucketIndex(long value) {
+
+			// values small enough are counted exactly
+			if (value < 2*SubBuckets) {
+				return (int)value;
+			}
+
+			// otherwise, keep only the highest bits of the value
+			int shift = 63 - Long.numberOfLeadingZeros(value) - SubBucketBits;
+			return shift*SubBuckets + (int)(value >>> shift);
+		}
+
+		/** the smallest value counted by the bucket */
+		static long bucketMin(int index) {
+			if (index < 2*SubBuckets) {
+				return index;
+			}
+			int shift = index/SubBuckets - 1;
+			return (long)(index % SubBuckets + SubBuckets) << shift;
+		}
+
+		/** the largest value counted by the bucket */
+		static long bucketMax(int index) {
+			if (index + 1 >= NumBuckets) {
+				return Long.MAX_VALUE;
+			}
+			return bucketMin(index + 1) - 1;
+		}
+
+		public void record(long value) {
+
+			if (!enabled) {
+				return;
+			}
+
+			// clamp negative values, eg from clocks going backwards
+			value = Math.max(0, value);
+
+			counts.incrementAndGet(bucketIndex(value));
+			count.increment();
+			sum.add(value);
+			if (value > max.get()) {
+				max.accumulateAndGet(value, Math::max);
+			}
+		}
+
+		/** records the time since {@link Metrics#startNs()} */
+		public void recordSince(long startNs) {
+			if (startNs != NotTiming) {
+				record(System.nanoTime() - startNs);
+			}
+		}
+
+		public long getCount() {
+			return count.sum();
+		}
+
+		public long getSum() {
+			return sum.sum();
+		}
+
+		public long getMax() {
+			return max.get();
+		}
+
+		/**
+		 * Returns an upper bound on the value at the quantile, or 0 if nothing was recorded.
+		 * The bound is within 1/{@link #SubBuckets} of the true value.
+		 */
+		public long getQuantile(double quantile) {
+
+			// make a consistent-enough copy of the buckets
+			long[] snapshot = new long[NumBuckets];
+			long total = 0;
+			for (int i=0; i<NumBuckets; i++) {
+				snapshot[i] = counts.get(i);
+				total += snapshot[i];
+			}
+			if (total == 0) {
+				return 0;
+			}
+
+			long rank = Math.max(1, (long)Math.ceil(quantile*total));
+			long seen = 0;
+			for (int i=0; i<NumBuckets; i++) {
+				seen += snapshot[i];
+				if (seen >= rank) {
+					return Math.min(bucketMax(i), getMax());
+				}
+			}
+			return getMax();
+		}
+
+		@Override
+		public void reset() {
+			for (int i=0; i<NumBuckets; i++) {
+				counts.set(i, 0);
+			}
+			count.reset();
+			sum.reset();
+			max.set(0);
+		}
+
+		@Override
+		public void writePrometheus(StringBuilder buf) {
+			String fullName = "osprey_" + name;
+			buf.append("# HELP ").append(fullName).append(' ').append(help).append('\n');
+			buf.append("# TYPE ").append(fullName).append(" summary\n");
+			for (double quantile : Quantiles) {
+				buf.append(fullName).append("{quantile=\"").append(quantile).append("\"} ").append(getQuantile(quantile)).append('\n');
+			}
+			buf.append(fullName).append("_sum ").append(getSum()).append('\n');
+			buf.append(fullName).append("_count ").append(getCount()).append('\n');
+		}
+
+		@Override
+		public void writeJson(StringBuilder buf) {
+			buf.append("{\"count\":").append(getCount());
+			buf.append(",\"sum\":").append(getSum());
+			buf.append(",\"max\":").append(getMax());
+			for (double quantile : Quantiles) {
+				buf.append(",\"").append(quantile).append("\":").append(getQuantile(quantile));
+			}
+			buf.append('}');
+		}
+	}
+
+	/** renders a snapshot of all the metrics */
+	public static String snapshot(Format format) {
+
+		StringBuilder buf = new StringBuilder();
+		List<Metric> metrics = all();
+
+		switch (format) {
+
+			case Prometheus:
+				for (Metric metric : metrics) {
+					metric.writePrometheus(buf);
+				}
+			break;
+
+			case Json:
+				buf.append("{\"timestampMs\":").append(System.currentTimeMillis());
+				for (Metric metric : metrics) {
+					buf.append(",\n\"").append(metric.name()).append("\":");
+					metric.writeJson(buf);
+				}
+				buf.append("}\n");
+			break;
+		}
+
+		return buf.toString();
+	}
+
+	/**
+	 * Writes a snapshot of all the metrics to the file.
+	 * The snapshot is written to a temp file first and then moved into place,
+	 * so readers never see a partial snapshot.
+	 */
+	public static void dump(File file, Format format) {
+		File tmpFile = new File(file.getAbsolutePath() + ".tmp");
+		try {
+			Files.write(tmpFile.toPath(), snapshot(format).getBytes(StandardCharsets.UTF_8));
+			Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException ex) {
+			throw new RuntimeException("can't write metrics to " + file.getAbsolutePath(), ex);
+		}
+	}
+
+	/**
+	 * Turns on metrics, and writes a snapshot to the file every interval, until closed.
+	 * Closing writes one last snapshot and turns metrics back off.
+	 * The format is JSON if the file name ends with .json, otherwise Prometheus text.
+	 */
+	public static AutoCloseableNoEx startDumping(File file, long intervalMs) {
+
+		Format format = Format.of(file);
+		enable();
+
+		ScheduledExecutorService thread = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+			Thread t = new Thread(runnable, "Metrics");
+			t.setDaemon(true);
+			return t;
+		});
+		thread.scheduleAtFixedRate(() -> {
+			try {
+				dump(file, format);
+			} catch (Throwable t) {
+				// don't let one bad write stop all the future ones
+				t.printStackTrace(System.err);
+			}
+		}, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+
+		return () -> {
+			thread.shutdown();
+			try {
+				thread.awaitTermination(10, TimeUnit.SECONDS);
+			} catch (InterruptedException ex) {
+				throw new RuntimeException(ex);
+			}
+			disable();
+			dump(file, format);
+		};
+	}
+}
@@ -0,0 +1,319 @@
+package edu.duke.cs.osprey.tools;
+
+import edu.duke.cs.osprey.parallelism.TaskExecutor;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+
+/**
+ * Solves sparse linear least squares problems: min_x |Ax - b|^2
+ * where every non-zero entry of A is 1, like the tuple design matrices used by LUTE and the tuple expander.
+ *
+ * A is stored in compressed sparse row (CSR) format, along with its transpose,
+ * so both Ax and A^t y can be split among threads by output row, without any locking or reductions.
+ * The solver is CGLS, ie conjugate gradient on the normal equations A^tAx = A^tb,
+ * but without ever forming A^tA.
+ */
+public class SparseLeastSquares {
+
+	public static class Builder {
+
+		public final int numCols;
+
+		private int numRows = 0;
+		private int[] rowStarts = new int[1024];
+		private int[] cols = new int[1024];
+		private int numEntries = 0;
+
+		public Builder(int numCols) {
+			this.numCols = numCols;
+		}
+
+		/** adds an entry to the current row */
+		public Builder add(int col) {
+			if (col < 0 || col >= numCols) {
+				throw new IllegalArgumentException("column " + col + " out of range [0," + numCols + ")");
+			}
+			if (numEntries == cols.length) {
+				cols = Arrays.copyOf(cols, cols.length*2);
+			}
+			cols[numEntries++] = col;
+			return this;
+		}
+
+		/** finishes the current row and starts the next one */
+		public Builder endRow() {
+			numRows++;
+			if (numRows == rowStarts.length) {
+				rowStarts = Arrays.copyOf(rowStarts, rowStarts.length*2);
+			}
+			rowStarts[numRows] = numEntries;
+			return this;
+		}
+
+		public SparseLeastSquares build() {
+			if (rowStarts[numRows] != numEntries) {
+				throw new IllegalStateException("last row wasn't finished, call endRow()");
+			}
+			return new SparseLeastSquares(
+				numRows,
+				numCols,
+				Arrays.copyOf(rowStarts, numRows + 1),
+				Arrays.copyOf(cols, numEntries)
+			);
+		}
+	}
+
+	public final int numRows;
+	public final int numCols;
+
+	private final int[] rowStarts;
+	private final int[] cols;
+	private final int[] colStarts;
+	private final int[] rows;
+
+	public int maxIterations = 100000;
+
+	/** stop when |A^t(b - Ax)| <= tolerance*|A^tb| */
+	public double tolerance = 1e-6;
+
+	private SparseLeastSquares(int numRows, int numCols, int[] rowStarts, int[] cols) {
+
+		this.numRows = numRows;
+		this.numCols = numCols;
+		this.rowStarts = rowStarts;
+		this.cols = cols;
+
+		// transpose, by counting sort on the columns
+		colStarts = new int[numCols + 1];
+		for (int col : cols) {
+			colStarts[col + 1]++;
+		}
+		for (int c=0; c<numCols; c++) {
+			colStarts[c + 1] += colStarts[c];
+		}
+		rows = new int[cols.length];
+		int[] colSizes = new int[numCols];
+		for (int r=0; r<numRows; r++) {
+			for (int i=rowStarts[r]; i<rowStarts[r + 1]; i++) {
+				int c = cols[i];
+				rows[colStarts[c] + colSizes[c]++] = r;
+			}
+		}
+	}
+
+	public int getNumEntries() {
+		return cols.length;
+	}
+
+	public void forEachInRow(int row, IntConsumer callback) {
+		for (int i=rowStarts[row]; i<rowStarts[row + 1]; i++) {
+			callback.accept(cols[i]);
+		}
+	}
+
+	private interface RowRange {
+		void run(int start, int stop);
+	}
+
+	/**
+	 * Splits the rows into one chunk per thread, with about the same number of entries in each chunk.
+	 */
+	private static void forEachChunk(int[] starts, int numRows, TaskExecutor tasks, RowRange range) {
+
+		int numChunks = Math.max(1, Math.min(tasks.getParallelism(), numRows));
+		if (numChunks == 1) {
+			range.run(0, numRows);
+			return;
+		}
+
+		int numEntries = starts[numRows];
+		int start = 0;
+		for (int i=1; i<=numChunks; i++) {
+
+			// find the first row past this chunk's share of the entries
+			int stop;
+			if (i == numChunks) {
+				stop = numRows;
+			} else {
+				long target = (long)numEntries*i/numChunks;
+				stop = Arrays.binarySearch(starts, start, numRows + 1, (int)target);
+				if (stop < 0) {
+					stop = -stop - 1;
+				}
+				stop = Math.min(stop, numRows);
+			}
+
+			int fstart = start;
+			int fstop = stop;
+			tasks.submit(
+				() -> {
+					range.run(fstart, fstop);
+					return null;
+				},
+				(ignored) -> {}
+			);
+
+			start = stop;
+		}
+		tasks.waitForFinish();
+	}
+
+	/** out = Ax */
+	public void multA(double[] x, double[] out, TaskExecutor tasks) {
+		forEachChunk(rowStarts, numRows, tasks, (start, stop) -> {
+			for (int r=start; r<stop; r++) {
+				double sum = 0.0;
+				for (int i=rowStarts[r]; i<rowStarts[r + 1]; i++) {
+					sum += x[cols[i]];
+				}
+				out[r] = sum;
+			}
+		});
+	}
+
+	public double[] multA(double[] x, TaskExecutor tasks) {
+		double[] out = new double[numRows];
+		multA(x, out, tasks);
+		return out;
+	}
+
+	/** out = A^ty */
+	public void multAt(double[] y, double[] out, TaskExecutor tasks) {
+		forEachChunk(colStarts, numCols, tasks, (start, stop) -> {
+			for (int c=start; c<stop; c++) {
+				double sum = 0.0;
+				for (int i=colStarts[c]; i<colStarts[c + 1]; i++) {
+					sum += y[rows[i]];
+				}
+				out[c] = sum;
+			}
+		});
+	}
+
+	public double[] multAt(double[] y, TaskExecutor tasks) {
+		double[] out = new double[numCols];
+		multAt(y, out, tasks);
+		return out;
+	}
+
+	private static double dot(double[] a, double[] b) {
+		double sum = 0.0;
+		for (int i=0; i<a.length; i++) {
+			sum += a[i]*b[i];
+		}
+		return sum;
+	}
+
+	public double[] solve(double[] b, double[] x0, TaskExecutor tasks) {
+		return solve(b, null, x0, tasks);
+	}
+
+	/**
+	 * Solves the weighted problem: min_x sum_r w_r((Ax)_r - b_r)^2
+	 *
+	 * @param weights the weight of each row, or null for all ones
+	 * @param x0 the starting point, or null for all zeros. Good starting points (eg, a previous fit) save lots of iterations.
+	 */
+	public double[] solve(double[] b, double[] weights, double[] x0, TaskExecutor tasks) {
+
+		if (b.length != numRows) {
+			throw new IllegalArgumentException("b has " + b.length + " rows, but A has " + numRows);
+		}
+
+		// weighted least squares is just least squares on sqrt(W)A and sqrt(W)b
+		double[] sqrtWeights = null;
+		if (weights != null) {
+			sqrtWeights = new double[numRows];
+			for (int r=0; r<numRows; r++) {
+				sqrtWeights[r] = Math.sqrt(weights[r]);
+			}
+		}
+
+		double[] x = new double[numCols];
+		if (x0 != null) {
+			System.arraycopy(x0, 0, x, 0, numCols);
+		}
+
+		// r = b - Ax
+		double[] r = new double[numRows];
+		multA(x, r, tasks);
+		for (int i=0; i<numRows; i++) {
+			r[i] = b[i] - r[i];
+			if (sqrtWeights != null) {
+				r[i] *= sqrtWeights[i];
+			}
+		}
+
+		// s = A^tr, the residual of the normal equations
+		double[] s = new double[numCols];
+		double[] temp = new double[numRows];
+		multAtWeighted(r, sqrtWeights, temp, s, tasks);
+
+		// get the stopping threshold relative to A^tb, like commons-math's ConjugateGradient
+		for (int i=0; i<numRows; i++) {
+			temp[i] = b[i];
+			if (sqrtWeights != null) {
+				temp[i] *= sqrtWeights[i];
+			}
+		}
+		double[] Atb = new double[numCols];
+		multAtWeighted(temp, sqrtWeights, temp, Atb, tasks);
+		double threshold = tolerance*Math.sqrt(dot(Atb, Atb));
+
+		double[] p = s.clone();
+		double[] q = new double[numRows];
+		double gamma = dot(s, s);
+
+		for (int iter=0; iter<maxIterations; iter++) {
+
+			if (Math.sqrt(gamma) <= threshold) {
+				break;
+			}
+
+			// q = Ap
+			multA(p, q, tasks);
+			if (sqrtWeights != null) {
+				for (int i=0; i<numRows; i++) {
+					q[i] *= sqrtWeights[i];
+				}
+			}
+
+			double qq = dot(q, q);
+			if (qq == 0.0) {
+				break;
+			}
+			double alpha = gamma/qq;
+
+			for (int i=0; i<numCols; i++) {
+				x[i] += alpha*p[i];
+			}
+			for (int i=0; i<numRows; i++) {
+				r[i] -= alpha*q[i];
+			}
+
+			multAtWeighted(r, sqrtWeights, temp, s, tasks);
+			double nextGamma = dot(s, s);
+			double beta = nextGamma/gamma;
+			gamma = nextGamma;
+
+			for (int i=0; i<numCols; i++) {
+				p[i] = s[i] + beta*p[i];
+			}
+		}
+
+		return x;
+	}
+
+	/** out = (sqrt(W)A)^ty, where y is already in weighted space */
+	private void multAtWeighted(double[] y, double[] sqrtWeights, double[] temp, double[] out, TaskExecutor tasks) {
+		if (sqrtWeights != null) {
+			for (int i=0; i<numRows; i++) {
+				temp[i] = y[i]*sqrtWeights[i];
+			}
+			y = temp;
+		}
+		multAt(y, out, tasks);
+	}
+}
@@ -37,10 +37,9 @@ package edu.duke.cs.osprey.tupexp;
  * @author mhall44
  */
 
+import edu.duke.cs.osprey.parallelism.TaskExecutor;
+import edu.duke.cs.osprey.tools.SparseLeastSquares;
 import java.util.ArrayList;
-import org.apache.commons.math3.exception.DimensionMismatchException;
-import org.apache.commons.math3.linear.ArrayRealVector;
-import org.apache.commons.math3.linear.ConjugateGradient;
 import org.apache.commons.math3.linear.RealLinearOperator;
 import org.apache.commons.math3.linear.RealVector;
 
@@ -70,9 +69,15 @@ public class CGTupleFitter {
     
     ArrayList<Double> weights;//weights for samples
     
+    SparseLeastSquares A;//samples x tuples, 1 where the tuple is in the sample
+    double b[];//true vals
+    double sampleWeights[];
+    
+    TaskExecutor tasks;//runs the matrix-vector products (a thread pool parallelizes them)
+    
     public CGTupleFitter(){}//for subclassing
     
-    public CGTupleFitter(TupleIndexMatrix tim, ArrayList<int[]> samp, int numTuples, double[] trueVals, ArrayList<Double> weights){
+    public CGTupleFitter(TupleIndexMatrix tim, ArrayList<int[]> samp, int numTuples, double[] trueVals, ArrayList<Double> weights, TaskExecutor tasks){
         //We'll fit the specified (sample,trueVal) pairs to an expansion in the tuples in tim
         
         samples = samp;
@@ -80,67 +85,37 @@ public class CGTupleFitter {
         numTup = numTuples;
         tupIndMat = tim;
         this.weights = weights;
+        this.tasks = tasks;
         
         
-        AtA = new RealLinearOperator(){
-
-            @Override
-            public int getRowDimension() {
-                return numTup;
-            }
-
-            @Override
-            public int getColumnDimension() {
-                return numTup;
-            }
-
-            @Override
-            public RealVector operate(RealVector rv) throws DimensionMismatchException {
-                //first apply A
-                double Arv[] = new double[numSamp];
-                for(int s=0; s<numSamp; s++){
-                    ArrayList<Integer> sampTup = tupIndMat.calcSampleTuples(samples.get(s));
-                    for(int t : sampTup)
-                        Arv[s] += rv.getEntry(t);
-                }
-                
-                //then apply A^T to Arv
-                double ans[] = new double[numTup];
-                for(int s=0; s<numSamp; s++){
-                    ArrayList<Integer> sampTup = tupIndMat.calcSampleTuples(samples.get(s));
-                    for(int t : sampTup)
-                        ans[t] += Arv[s] * weights.get(s);
-                }
-                
-                return new ArrayRealVector(ans,false);//make RealVector without copying ans
-            }
-            
-        };
-        
-        
-        double atb[] = new double[numTup];
-        //apply A^T to true vals
+        //build the sparse sample-tuple matrix once, instead of re-deriving each sample's tuples
+        //every time CG needs a matrix-vector product
+        SparseLeastSquares.Builder builder = new SparseLeastSquares.Builder(numTup);
         for(int s=0; s<numSamp; s++){
-            ArrayList<Integer> sampTup = tupIndMat.calcSampleTuples(samples.get(s));
-            for(int t : sampTup)
-                atb[t] += trueVals[s] * weights.get(s);
+            for(int t : tupIndMat.calcSampleTuples(samples.get(s)))
+                builder.add(t);
+            builder.endRow();
         }
+        A = builder.build();
         
-        Atb = new ArrayRealVector(atb);
+        b = trueVals;
+        sampleWeights = new double[numSamp];
+        for(int s=0; s<numSamp; s++)
+            sampleWeights[s] = weights.get(s);
     }
     
     
     double[] doFit(){
         //return fit tuple coefficients
         
-        ConjugateGradient cg = new ConjugateGradient(100000,1e-6,false);//max_iter; delta; whether to check pos def
-        //delta is target ratio of residual norm to true vals norm
+        //weighted least squares by conjugate gradient, starting from 0
+        //(A.tolerance is target ratio of normal-equation residual norm to A^T b norm)
         
         long startTime = System.currentTimeMillis();
-        RealVector ans = cg.solve(AtA, Atb);
+        double ans[] = A.solve(b, sampleWeights, null, tasks);
         
         System.out.println( "Conjugate gradient fitting time (ms): " + (System.currentTimeMillis()-startTime) );
         
-        return ans.toArray();
+        return ans;
     }
 }
@@ -32,6 +32,7 @@
 
 package edu.duke.cs.osprey.tupexp;
 
+import edu.duke.cs.osprey.parallelism.TaskExecutor;
 import java.util.ArrayList;
 
 /**
@@ -111,7 +112,7 @@ class FittingObjFcn {
     }*/
     
     
-    CGTupleFitter makeTupleFitter(TupleIndexMatrix tim, ArrayList<int[]> samp, int numTuples, double[] trueVals){
+    CGTupleFitter makeTupleFitter(TupleIndexMatrix tim, ArrayList<int[]> samp, int numTuples, double[] trueVals, TaskExecutor tasks){
        
         ArrayList<Double> tv = new ArrayList<>();//trueVals as ArrayList for use by computeWeights
         for(double tvv : trueVals)
@@ -120,7 +121,7 @@ class FittingObjFcn {
         
         
         //if(thresh==Double.POSITIVE_INFINITY)//basic least squares//DEBUG!!!
-            return new CGTupleFitter(tim, samp, numTuples, trueVals, weights);
+            return new CGTupleFitter(tim, samp, numTuples, trueVals, weights, tasks);
         
             //DEBUG!!!!
         /*ArrayList<double[]> goodRegionBounds = new ArrayList<>();
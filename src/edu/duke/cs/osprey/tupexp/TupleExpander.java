@@ -34,6 +34,7 @@ package edu.duke.cs.osprey.tupexp;
 
 import edu.duke.cs.osprey.confspace.RCTuple;
 import edu.duke.cs.osprey.ematrix.EnergyMatrix;
+import edu.duke.cs.osprey.parallelism.TaskExecutor;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -70,6 +71,8 @@ public abstract class TupleExpander implements Serializable {
     
     FittingObjFcn fof = new FittingObjFcn();//the objective function for fitting (e.g. basic or modified least squares)
     
+    transient TaskExecutor tasks = null;//runs the fitting (null means serially); not saved with the expansion
+    
     
     double pruningInterval;//what pruning interval is this expansion valid up to?
        
@@ -98,6 +101,12 @@ public abstract class TupleExpander implements Serializable {
     }
     
     
+    public void setTaskExecutor(TaskExecutor tasks){
+        //e.g. a thread pool, to parallelize the least-squares fits
+        this.tasks = tasks;
+    }
+    
+    
     
     
     
@@ -437,7 +446,8 @@ public abstract class TupleExpander implements Serializable {
                     bCutoffs, bCutoffs2, 1, null);*/
         
         TupleIndexMatrix tim = getTupleIndexMatrix();
-        CGTupleFitter fitter = fof.makeTupleFitter(tim, trainingSamples.samples, tuples.size(), trueVals);
+        CGTupleFitter fitter = fof.makeTupleFitter(tim, trainingSamples.samples, tuples.size(), trueVals,
+                tasks != null ? tasks : new TaskExecutor());
         //CGTupleFitter fitter = new CGTupleFitter(tim, trainingSamples.samples, tuples.size(), trueVals);
         
         double fitTerms[] = fitter.doFit();
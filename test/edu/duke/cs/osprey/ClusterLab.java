@@ -58,7 +58,9 @@ public class ClusterLab {
 			int id = Integer.parseInt(idStr);
 			int size = Integer.parseInt(System.getProperty("fork.size"));
 
-			run(new Cluster(clusterName, jobId, id, size, clientIsMember));
+			Cluster cluster = new Cluster(clusterName, jobId, id, size, clientIsMember);
+			cluster.joinLocalhost = true;
+			run(cluster);
 			return;
 		}
 
@@ -73,7 +75,9 @@ public class ClusterLab {
 		log("MAIN: forked!");
 
 		// run the client here, so we can cancel it from the IDE
-		run(new Cluster(clusterName, jobId, 0, numNodes, clientIsMember));
+		Cluster cluster = new Cluster(clusterName, jobId, 0, numNodes, clientIsMember);
+		cluster.joinLocalhost = true;
+		run(cluster);
 
 		// wait for the forks to finish
 		for (Fork fork : forks) {
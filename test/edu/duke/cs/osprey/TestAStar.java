@@ -48,6 +48,7 @@ import org.junit.Test;
 
 import edu.duke.cs.osprey.astar.ConfTree;
 import edu.duke.cs.osprey.astar.conf.ConfAStarTree;
+import edu.duke.cs.osprey.astar.conf.ConfIndex;
 import edu.duke.cs.osprey.astar.conf.RCs;
 import edu.duke.cs.osprey.astar.conf.order.DynamicHMeanAStarOrder;
 import edu.duke.cs.osprey.astar.conf.order.StaticScoreHMeanAStarOrder;
@@ -226,6 +227,82 @@ public class TestAStar extends TestBase {
 		checkDagkRigid(tree, search);
 	}
 	
+	private static ConfIndex makeMPLPParentIndex(RCs rcs) {
+
+		// assign the first few positions from the GMEC
+		ConfIndex index = new ConfIndex(rcs.getNumPos());
+		int[] gmec = { 0, 6, 7, 0 };
+		for (int pos=0; pos<gmec.length; pos++) {
+			index.assignInPlace(pos, gmec[pos]);
+		}
+		return index;
+	}
+
+	@Test
+	public void testMPLPWarmStart0IterMatchesTraditional() {
+		SearchProblem search = makeSearchProblemDagkRigid();
+		RCs rcs = new RCs(search.pruneMat);
+		ConfIndex parent = makeMPLPParentIndex(rcs);
+
+		// with no iterations, the warm start should just be the traditional A* heuristic
+		MPLPPairwiseHScorer hscorer = new MPLPPairwiseHScorer(null, search.emat, 0, 0.0001);
+		int nextPos = parent.undefinedPos[0];
+		for (int rc : rcs.get(nextPos)) {
+			double expected = hscorer.calc(parent.assign(nextPos, rc), rcs);
+			assertThat(hscorer.calcDifferential(parent, rcs, nextPos, rc), isAbsolutely(expected, 1e-9));
+		}
+	}
+
+	@Test
+	public void testMPLPWarmStartIsSound() {
+		SearchProblem search = makeSearchProblemDagkRigid();
+		EnergyMatrix emat = search.emat;
+		RCs rcs = new RCs(search.pruneMat);
+		ConfIndex parent = makeMPLPParentIndex(rcs);
+
+		MPLPPairwiseHScorer hscorer = new MPLPPairwiseHScorer(new NodeUpdater(), emat, 20, 0.0001);
+		int nextPos = parent.undefinedPos[0];
+		for (int rc : rcs.get(nextPos)) {
+			ConfIndex child = parent.assign(nextPos, rc);
+
+			// brute force the min energy of the undefined positions
+			double minEnergy = Double.POSITIVE_INFINITY;
+			int n = child.numUndefined;
+			int[] rcis = new int[n];
+			while (true) {
+
+				double energy = 0;
+				for (int i1=0; i1<n; i1++) {
+					int pos1 = child.undefinedPos[i1];
+					int rc1 = rcs.get(pos1, rcis[i1]);
+					energy += emat.getOneBodyDouble(pos1, rc1);
+					for (int d=0; d<child.numDefined; d++) {
+						energy += emat.getPairwiseDouble(pos1, rc1, child.definedPos[d], child.definedRCs[d]);
+					}
+					for (int i2=0; i2<i1; i2++) {
+						int pos2 = child.undefinedPos[i2];
+						energy += emat.getPairwiseDouble(pos1, rc1, pos2, rcs.get(pos2, rcis[i2]));
+					}
+				}
+				minEnergy = Math.min(minEnergy, energy);
+
+				// advance to the next assignment
+				int i = 0;
+				for (; i<n; i++) {
+					if (++rcis[i] < rcs.getNum(child.undefinedPos[i])) {
+						break;
+					}
+					rcis[i] = 0;
+				}
+				if (i == n) {
+					break;
+				}
+			}
+
+			assertThat(hscorer.calcDifferential(parent, rcs, nextPos, rc), lessThanOrEqualTo(minEnergy + 1e-6));
+		}
+	}
+	
 	
 	// RIGID TESTS (with pruning)
 	
@@ -539,6 +616,73 @@ public class TestAStar extends TestBase {
 		});
 	}
 
+
+	// BATCH EXPANSION TESTS
+
+	@Test
+	public void testExpansionBatch() {
+		SearchProblem search = makeSearchProblemDagkContinuous();
+
+		ConfAStarTree tree = new ConfAStarTree.Builder(search.emat, search.pruneMat)
+			.setTraditional()
+			.setExpansionBatchSize(16)
+			.build();
+		tree.setParallelism(Parallelism.makeCpu(4));
+
+		checkDagkContinuous(tree, search);
+	}
+
+	@Test
+	public void testExpansionBatchMatchesSequential() {
+		SearchProblem search = makeSearchProblemDagkRigid();
+
+		ConfAStarTree sequentialTree = new ConfAStarTree.Builder(search.emat, search.pruneMat)
+			.setTraditional()
+			.build();
+
+		ConfAStarTree batchTree = new ConfAStarTree.Builder(search.emat, search.pruneMat)
+			.setTraditional()
+			.setExpansionBatchSize(8)
+			.build();
+		batchTree.setParallelism(Parallelism.makeCpu(3));
+
+		// the confs should come out in the same order, give or take ties
+		for (int i=0; i<200; i++) {
+			ConfSearch.ScoredConf expected = sequentialTree.nextConf();
+			ConfSearch.ScoredConf observed = batchTree.nextConf();
+			assertThat(observed.getScore(), isAbsolutely(expected.getScore(), 1e-9));
+		}
+	}
+
+
+	// PACKED MEMORY TESTS
+
+	@Test
+	public void testPackedMemory() {
+		SearchProblem search = makeSearchProblemDagkContinuous();
+
+		ConfAStarTree tree = new ConfAStarTree.Builder(search.emat, search.pruneMat)
+			.setTraditional()
+			.usePackedMemory()
+			.build();
+
+		checkDagkContinuous(tree, search);
+	}
+
+	@Test
+	public void testPackedMemoryMPLP() {
+		SearchProblem search = makeSearchProblemDagkContinuous();
+
+		ConfAStarTree tree = new ConfAStarTree.Builder(search.emat, search.pruneMat)
+			.setMPLP(new ConfAStarTree.MPLPBuilder()
+				.setNumIterations(1)
+			)
+			.usePackedMemory()
+			.build();
+
+		checkDagkContinuous(tree, search);
+	}
+
 	@Test
 	public void optimization() {
 
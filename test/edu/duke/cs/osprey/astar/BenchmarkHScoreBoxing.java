@@ -0,0 +1,137 @@
+package edu.duke.cs.osprey.astar;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+import edu.duke.cs.osprey.astar.conf.ConfAStarNode;
+import edu.duke.cs.osprey.astar.conf.ConfIndex;
+import edu.duke.cs.osprey.astar.conf.RCs;
+import edu.duke.cs.osprey.astar.conf.linked.LinkedConfAStarNode;
+import edu.duke.cs.osprey.astar.conf.scoring.TraditionalPairwiseHScorer;
+import edu.duke.cs.osprey.confspace.RCTuple;
+import edu.duke.cs.osprey.confspace.TupleMatrixDouble;
+import edu.duke.cs.osprey.ematrix.EnergyMatrix;
+import edu.duke.cs.osprey.pruning.PruningMatrix;
+import edu.duke.cs.osprey.tools.Stopwatch;
+
+
+/**
+ * Compares the boxed and primitive energy matrix accessors on the A* h-score hot path,
+ * and measures the bytes allocated per call, to make sure boxing doesn't sneak back in.
+ */
+public class BenchmarkHScoreBoxing {
+
+	private static final int NumPos = 12;
+	private static final int NumRCs = 40;
+
+	public static void main(String[] args) {
+
+		// make a random energy matrix
+		int[] numRCsAtPos = new int[NumPos];
+		Arrays.fill(numRCsAtPos, NumRCs);
+		EnergyMatrix emat = new EnergyMatrix(NumPos, numRCsAtPos, Double.POSITIVE_INFINITY);
+		Random rand = new Random(12345);
+		for (int pos1=0; pos1<NumPos; pos1++) {
+			for (int rc1=0; rc1<NumRCs; rc1++) {
+				emat.setOneBody(pos1, rc1, rand.nextDouble());
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<NumRCs; rc2++) {
+						emat.setPairwise(pos1, rc1, pos2, rc2, rand.nextGaussian());
+					}
+				}
+			}
+		}
+		RCs rcs = new RCs(new PruningMatrix(NumPos, numRCsAtPos, Double.POSITIVE_INFINITY));
+
+		// assign the first few positions
+		ConfAStarNode node = new LinkedConfAStarNode();
+		for (int pos=0; pos<4; pos++) {
+			node = node.assign(pos, rand.nextInt(NumRCs));
+		}
+		node.setGScore(0.0);
+		ConfIndex index = new ConfIndex(NumPos);
+		node.index(index);
+
+		TraditionalPairwiseHScorer hscorer = new TraditionalPairwiseHScorer(emat, rcs);
+		TupleMatrixDouble.PairwiseSlice slice = new TupleMatrixDouble.PairwiseSlice();
+		int[] conf = new int[NumPos];
+		for (int pos=0; pos<NumPos; pos++) {
+			conf[pos] = rand.nextInt(NumRCs);
+		}
+
+		final int n = 200_000;
+		for (int i=0; i<3; i++) {
+			System.out.println("round " + i);
+
+			benchmark("pair rows boxed", n, () -> sumPairRowsBoxed(emat, index, rcs, 5, 7));
+			benchmark("pair rows sliced", n, () -> sumPairRowsSliced(emat, index, rcs, 5, 7, slice));
+			benchmark("h-score differential", n, () -> hscorer.calcDifferential(index, rcs, 5, 7));
+
+			benchmark("confE boxed", n*10, () -> emat.getInternalEnergy(new RCTuple(conf)) + emat.getConstTerm());
+			benchmark("confE primitive", n*10, () -> emat.confE(conf));
+		}
+	}
+
+	private interface Op {
+		double run();
+	}
+
+	private static void benchmark(String name, int n, Op op) {
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		// warm up
+		double sum = 0;
+		for (int i=0; i<n/10; i++) {
+			sum += op.run();
+		}
+
+		long bytesBefore = threads.getThreadAllocatedBytes(threadId);
+		Stopwatch stopwatch = new Stopwatch().start();
+		for (int i=0; i<n; i++) {
+			sum += op.run();
+		}
+		stopwatch.stop();
+		long bytes = threads.getThreadAllocatedBytes(threadId) - bytesBefore;
+
+		System.out.println(String.format("%20s: %8.1f ns/op   %8.1f bytes/op   (checksum %.4f)",
+			name,
+			(double)stopwatch.getTimeNs()/n,
+			(double)bytes/n,
+			sum
+		));
+	}
+
+	/** the inner loop of the h-score differential, the way it was written with the boxed accessors */
+	private static double sumPairRowsBoxed(EnergyMatrix emat, ConfIndex confIndex, RCs rcs, int nextPos, int nextRc) {
+		double sum = 0;
+		for (int i=0; i<confIndex.numUndefined; i++) {
+			int pos = confIndex.undefinedPos[i];
+			if (pos == nextPos) {
+				continue;
+			}
+			for (int rc : rcs.get(pos)) {
+				sum += emat.getPairwise(nextPos, nextRc, pos, rc);
+			}
+		}
+		return sum;
+	}
+
+	/** the same loop using pairwise slices */
+	private static double sumPairRowsSliced(EnergyMatrix emat, ConfIndex confIndex, RCs rcs, int nextPos, int nextRc, TupleMatrixDouble.PairwiseSlice slice) {
+		double sum = 0;
+		for (int i=0; i<confIndex.numUndefined; i++) {
+			int pos = confIndex.undefinedPos[i];
+			if (pos == nextPos) {
+				continue;
+			}
+			TupleMatrixDouble.PairwiseSlice energies = emat.getPairwiseSlice(nextPos, nextRc, pos, slice);
+			for (int rc : rcs.get(pos)) {
+				sum += energies.get(rc);
+			}
+		}
+		return sum;
+	}
+}
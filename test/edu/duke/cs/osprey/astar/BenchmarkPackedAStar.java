@@ -0,0 +1,127 @@
+package edu.duke.cs.osprey.astar;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import edu.duke.cs.osprey.astar.conf.ConfAStarFactory;
+import edu.duke.cs.osprey.astar.conf.ConfAStarNode;
+import edu.duke.cs.osprey.astar.conf.RCs;
+import edu.duke.cs.osprey.astar.conf.linked.LinkedConfAStarFactory;
+import edu.duke.cs.osprey.astar.conf.packed.PackedConfAStarFactory;
+import edu.duke.cs.osprey.astar.conf.packed.PackedConfAStarQueue;
+import edu.duke.cs.osprey.externalMemory.Queue;
+import edu.duke.cs.osprey.tools.MathTools;
+import edu.duke.cs.osprey.tools.Stopwatch;
+
+
+/**
+ * Compares the memory use and throughput of the linked and packed A* node storage,
+ * using a synthetic A* search with random scores, so the results don't depend on the scorers.
+ */
+public class BenchmarkPackedAStar {
+
+	public static void main(String[] args) {
+
+		final int numPos = 20;
+		final int numRCs = 40;
+		final long numNodes = 10_000_000L;
+
+		List<List<Integer>> rcsAtPos = new ArrayList<>();
+		for (int pos=0; pos<numPos; pos++) {
+			List<Integer> rcs = new ArrayList<>();
+			for (int rc=0; rc<numRCs; rc++) {
+				rcs.add(rc);
+			}
+			rcsAtPos.add(rcs);
+		}
+		RCs rcs = new RCs(rcsAtPos);
+
+		// warm up the JIT
+		benchmark("warmup", new LinkedConfAStarFactory(), rcs, numNodes/10);
+		benchmark("warmup", new PackedConfAStarFactory(), rcs, numNodes/10);
+
+		benchmark("linked", new LinkedConfAStarFactory(), rcs, numNodes);
+		benchmark("packed", new PackedConfAStarFactory(), rcs, numNodes);
+
+		// Java 11, -Xmx6g -XX:MaxDirectMemorySize=6g, 20 pos, 40 RCs, 9.4m nodes in the queue:
+		// linked:   ~70 bytes/node, ~15.3m nodes/GiB, ~1.9m nodes/s, 627 MiB heap
+		// packed:   ~36 bytes/node, ~30.0m nodes/GiB, ~1.8m nodes/s, ~0 heap, 320 MiB off-heap
+		// (packed records are 32 bytes here, the rest is the spare chunk)
+	}
+
+	private static void benchmark(String name, ConfAStarFactory factory, RCs rcs, long numNodes) {
+
+		int numPos = rcs.getNumPos();
+		Random rand = new Random(12345);
+
+		long heapBytesBefore = getUsedHeapBytes();
+
+		Stopwatch stopwatch = new Stopwatch().start();
+		Queue<ConfAStarNode> q = factory.makeQueue(rcs);
+		ConfAStarNode root = factory.makeRootNode(numPos);
+		root.setGScore(0.0);
+		root.setHScore(0.0);
+		q.push(root);
+
+		// expand nodes in A* order until we've queued enough nodes
+		long numQueued = 1;
+		long numExpanded = 0;
+		int[] conf = new int[numPos];
+		while (numQueued < numNodes && !q.isEmpty()) {
+
+			ConfAStarNode node = q.poll();
+			numExpanded++;
+			if (node.getLevel() == numPos) {
+				continue;
+			}
+
+			// pick the first unassigned pos
+			node.getConf(conf);
+			int nextPos = 0;
+			while (conf[nextPos] != -1) {
+				nextPos++;
+			}
+
+			for (int rc : rcs.get(nextPos)) {
+				ConfAStarNode child = node.assign(nextPos, rc);
+				child.setGScore(node.getGScore() + rand.nextDouble());
+				child.setHScore(rand.nextDouble()*(numPos - child.getLevel())/numPos);
+				q.push(child);
+				numQueued++;
+			}
+		}
+		stopwatch.stop();
+
+		long heapBytes = getUsedHeapBytes() - heapBytesBefore;
+		long offHeapBytes = 0;
+		if (q instanceof PackedConfAStarQueue) {
+			offHeapBytes = ((PackedConfAStarQueue)q).getNumBytes();
+		}
+		long bytes = heapBytes + offHeapBytes;
+
+		System.out.println(String.format("%8s:  queued %10d, expanded %8d, in queue %10d   heap %10s   off-heap %10s   %6.1f bytes/node   %6.2fm nodes/GiB   %6.2fm nodes/s   %s",
+			name,
+			numQueued, numExpanded, q.size(),
+			MathTools.formatBytes(heapBytes),
+			MathTools.formatBytes(offHeapBytes),
+			(double)bytes/q.size(),
+			q.size()/((double)bytes/1024/1024/1024)/1e6,
+			(numQueued + numExpanded)/stopwatch.getTimeS()/1e6,
+			stopwatch.getTime(2)
+		));
+
+		// keep the queue reachable until after we measure it
+		if (q.size() < 0) {
+			throw new Error();
+		}
+	}
+
+	private static long getUsedHeapBytes() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i=0; i<4; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,182 @@
+package edu.duke.cs.osprey.astar;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.duke.cs.osprey.astar.conf.ConfAStarNode;
+import edu.duke.cs.osprey.astar.conf.ConfIndex;
+import edu.duke.cs.osprey.astar.conf.RCs;
+import edu.duke.cs.osprey.astar.conf.packed.PackedConfAStarNode;
+import edu.duke.cs.osprey.astar.conf.packed.PackedConfAStarQueue;
+
+
+public class TestPackedConfAStarQueue {
+
+	private static RCs makeRCs(int numPos, int numRCs) {
+		List<List<Integer>> rcsAtPos = new ArrayList<>();
+		for (int pos=0; pos<numPos; pos++) {
+			List<Integer> rcs = new ArrayList<>();
+			for (int rc=0; rc<numRCs; rc++) {
+				rcs.add(rc);
+			}
+			rcsAtPos.add(rcs);
+		}
+		return new RCs(rcsAtPos);
+	}
+
+	private static void assertRoundTrip(PackedConfAStarQueue.Encoding encoding, int ... conf) {
+		long[] words = new long[encoding.numWords + 1];
+		encoding.pack(conf, words, 1);
+		int[] unpacked = new int[conf.length];
+		int numAssigned = encoding.unpack(words, 1, unpacked);
+		assertThat(unpacked, is(conf));
+		assertThat(numAssigned, is((int)Arrays.stream(conf).filter(rc -> rc != PackedConfAStarNode.NotAssigned).count()));
+	}
+
+	@Test
+	public void encodingSizes() {
+
+		// 3 bits per pos: rc+1 <= 7
+		PackedConfAStarQueue.Encoding encoding = new PackedConfAStarQueue.Encoding(30, 6);
+		assertThat(encoding.bitsPerPos, is(3));
+		assertThat(encoding.posPerWord, is(21));
+		assertThat(encoding.numWords, is(2));
+
+		// 4 bits per pos: rc+1 == 8
+		encoding = new PackedConfAStarQueue.Encoding(16, 7);
+		assertThat(encoding.bitsPerPos, is(4));
+		assertThat(encoding.numWords, is(1));
+
+		// no positions
+		encoding = new PackedConfAStarQueue.Encoding(0, 0);
+		assertThat(encoding.numWords, is(0));
+	}
+
+	@Test
+	public void encodingRoundTrip() {
+		assertRoundTrip(new PackedConfAStarQueue.Encoding(5, 6), -1, -1, -1, -1, -1);
+		assertRoundTrip(new PackedConfAStarQueue.Encoding(5, 6), 0, 6, -1, 3, 1);
+		assertRoundTrip(new PackedConfAStarQueue.Encoding(30, 6), 6, 5, 4, 3, 2, 1, 0, -1, 0, 1, 2, 3, 4, 5, 6, 6, 5, 4, 3, 2, 1, 0, -1, 0, 1, 2, 3, 4, 5, 6);
+		assertRoundTrip(new PackedConfAStarQueue.Encoding(3, 1000), 1000, -1, 512);
+		assertRoundTrip(new PackedConfAStarQueue.Encoding(2, Integer.MAX_VALUE - 1), Integer.MAX_VALUE - 1, 0);
+	}
+
+	@Test
+	public void node() {
+
+		PackedConfAStarNode node = new PackedConfAStarNode(5)
+			.assign(3, 6)
+			.assign(0, 5);
+
+		assertThat(node.getLevel(), is(2));
+		assertThat(node.makeConf(5), is(new int[] { 5, -1, -1, 6, -1 }));
+
+		ConfIndex confIndex = new ConfIndex(5);
+		node.index(confIndex);
+		assertThat(confIndex.numDefined, is(2));
+		assertThat(Arrays.copyOf(confIndex.definedPos, 2), is(new int[] { 0, 3 }));
+		assertThat(Arrays.copyOf(confIndex.definedRCs, 2), is(new int[] { 5, 6 }));
+		assertThat(confIndex.numUndefined, is(3));
+		assertThat(Arrays.copyOf(confIndex.undefinedPos, 3), is(new int[] { 1, 2, 4 }));
+	}
+
+	@Test
+	public void empty() {
+		PackedConfAStarQueue q = new PackedConfAStarQueue(makeRCs(4, 3));
+		assertThat(q.isEmpty(), is(true));
+		assertThat(q.size(), is(0L));
+		assertThat(q.peek(), is(nullValue()));
+		assertThat(q.getNumBytes(), is(0L));
+	}
+
+	@Test
+	public void matchesPriorityQueue() {
+
+		final int numPos = 7;
+		final int numRCs = 20;
+
+		// use tiny chunks so we exercise chunk growth and release
+		PackedConfAStarQueue q = new PackedConfAStarQueue(makeRCs(numPos, numRCs), 1024);
+		PriorityQueue<ConfAStarNode> expected = new PriorityQueue<>();
+
+		Random rand = new Random(12345);
+		for (int round=0; round<20; round++) {
+
+			// push a bunch of random nodes
+			int numPush = rand.nextInt(500);
+			for (int i=0; i<numPush; i++) {
+				ConfAStarNode node = new PackedConfAStarNode(numPos);
+				for (int pos=0; pos<numPos; pos++) {
+					if (rand.nextBoolean()) {
+						node = node.assign(pos, rand.nextInt(numRCs));
+					}
+				}
+				node.setGScore(rand.nextGaussian());
+				node.setHScore(rand.nextInt(4));
+				q.push(node);
+				expected.add(node);
+			}
+			assertThat(q.size(), is((long)expected.size()));
+
+			// pop some of them
+			int numPop = rand.nextInt(expected.size() + 1);
+			for (int i=0; i<numPop; i++) {
+				ConfAStarNode exp = expected.poll();
+				ConfAStarNode obs = q.poll();
+				assertThat(obs.getScore(), is(exp.getScore()));
+				assertThat(obs.getLevel(), is(exp.getLevel()));
+			}
+			assertThat(q.size(), is((long)expected.size()));
+		}
+
+		// drain the queue
+		double prevScore = Double.NEGATIVE_INFINITY;
+		while (!q.isEmpty()) {
+			ConfAStarNode node = q.poll();
+			assertThat(node.getScore(), greaterThanOrEqualTo(prevScore));
+			assertThat(node.getScore(), is(expected.poll().getScore()));
+			prevScore = node.getScore();
+		}
+		assertThat(expected.isEmpty(), is(true));
+
+		// we should have released all but one spare chunk
+		assertThat(q.getNumBytes(), lessThanOrEqualTo((long)q.recordsPerChunk*q.getRecordBytes()));
+	}
+
+	@Test
+	public void assignmentsSurviveQueue() {
+
+		PackedConfAStarQueue q = new PackedConfAStarQueue(makeRCs(3, 100));
+
+		ConfAStarNode a = new PackedConfAStarNode(3).assign(0, 99).assign(2, 0);
+		a.setGScore(2.0);
+		a.setHScore(0.5);
+		ConfAStarNode b = new PackedConfAStarNode(3).assign(1, 42);
+		b.setGScore(1.0);
+		b.setHScore(0.25);
+		q.push(a);
+		q.push(b);
+
+		ConfAStarNode node = q.poll();
+		assertThat(node.makeConf(3), is(new int[] { -1, 42, -1 }));
+		assertThat(node.getGScore(), is(1.0));
+		assertThat(node.getHScore(), is(0.25));
+		assertThat(node.getLevel(), is(1));
+
+		node = q.poll();
+		assertThat(node.makeConf(3), is(new int[] { 99, -1, 0 }));
+		assertThat(node.getGScore(), is(2.0));
+		assertThat(node.getHScore(), is(0.5));
+		assertThat(node.getLevel(), is(2));
+
+		assertThat(q.isEmpty(), is(true));
+	}
+}
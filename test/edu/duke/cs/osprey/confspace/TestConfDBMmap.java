@@ -0,0 +1,334 @@
+package edu.duke.cs.osprey.confspace;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import edu.duke.cs.osprey.structure.PDBIO;
+import org.apache.commons.io.FileUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+
+/**
+ * Tests for the parts of ConfDB specific to the mmap engine.
+ */
+public class TestConfDBMmap {
+
+	private static SimpleConfSpace confSpace;
+
+	private static File file = new File("conf.mmapdb");
+
+	@BeforeClass
+	public static void beforeClass() {
+
+		Strand strand = new Strand.Builder(PDBIO.readResource("/1CC8.ss.pdb")).build();
+		strand.flexibility.get("A5").setLibraryRotamers(Strand.WildType, "ALA").addWildTypeRotamers();
+		strand.flexibility.get("A7").setLibraryRotamers(Strand.WildType, "ALA").addWildTypeRotamers();
+		strand.flexibility.get("A9").setLibraryRotamers(Strand.WildType, "ALA").addWildTypeRotamers();
+
+		confSpace = new SimpleConfSpace.Builder()
+			.addStrand(strand)
+			.build();
+	}
+
+	private ConfDB openDB() {
+		return new ConfDB(confSpace, file, ConfDB.Engine.Mmap);
+	}
+
+	private void cleanDB() {
+		try {
+			FileUtils.deleteDirectory(file);
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		assertThat(file.exists(), is(false));
+	}
+
+	private void withDB(Consumer<ConfDB> block) {
+		cleanDB();
+		ConfDB db = openDB();
+		try {
+			block.accept(db);
+		} finally {
+			try {
+				db.close();
+			} catch (Throwable t2) {}
+			cleanDB();
+		}
+	}
+
+	private void withDBTwice(Consumer<ConfDB> block1, Consumer<ConfDB> block2) {
+		cleanDB();
+		ConfDB db = openDB();
+		try {
+			block1.accept(db);
+			db.close();
+		} catch (Throwable t) {
+			try {
+				db.close();
+			} catch (Throwable t2) {}
+			cleanDB();
+			throw t;
+		}
+		db = openDB();
+		try {
+			block2.accept(db);
+		} finally {
+			try {
+				db.close();
+			} catch (Throwable t2) {}
+			cleanDB();
+		}
+	}
+
+	private void assertConf(ConfDB.Conf conf, int[] assignments, double lower, long lowerNs, double upper, long upperNs) {
+		assertThat(conf.assignments, is(assignments));
+		assertThat(conf.lower.energy, is(lower));
+		assertThat(conf.lower.timestampNs, is(lowerNs));
+		assertThat(conf.upper.energy, is(upper));
+		assertThat(conf.upper.timestampNs, is(upperNs));
+	}
+
+	@Test
+	public void createEmpty() {
+
+		cleanDB();
+
+		openDB().close();
+
+		assertThat(file.exists(), is(true));
+		cleanDB();
+	}
+
+	private static int[] makeAssignments(Random rand) {
+		// the db doesn't check RCs against the conf space, so use a bigger range to get more confs
+		int[] assignments = new int[confSpace.positions.size()];
+		for (int i=0; i<assignments.length; i++) {
+			assignments[i] = rand.nextInt(60) - 1;
+		}
+		return assignments;
+	}
+
+	@Test
+	public void detectEngine() {
+		withDB((db) -> {
+			db.close();
+			try (ConfDB db2 = new ConfDB(confSpace, file)) {
+				assertThat(db2.engine, is(ConfDB.Engine.Mmap));
+			}
+		});
+	}
+
+	@Test
+	public void lotsOfConfs() {
+
+		// enough confs to grow the index a few times
+		Random rand = new Random(12345);
+		Map<List<Integer>,Double> expected = new HashMap<>();
+		for (int i=0; i<5000; i++) {
+			int[] assignments = makeAssignments(rand);
+			expected.put(toList(assignments), rand.nextDouble());
+		}
+
+		withDBTwice((db) -> {
+
+			ConfDB.ConfTable table = db.table("foo");
+			for (Map.Entry<List<Integer>,Double> entry : expected.entrySet()) {
+				table.setLowerBound(toArray(entry.getKey()), entry.getValue(), 5L);
+			}
+			assertThat(table.size(), is((long)expected.size()));
+
+		}, (db) -> {
+
+			ConfDB.ConfTable table = db.table("foo");
+			assertThat(table.size(), is((long)expected.size()));
+
+			for (Map.Entry<List<Integer>,Double> entry : expected.entrySet()) {
+				ConfDB.Conf conf = table.get(toArray(entry.getKey()));
+				assertThat(conf.lower.energy, is(entry.getValue()));
+			}
+
+			// check sorted order
+			double prev = Double.NEGATIVE_INFINITY;
+			int count = 0;
+			for (ConfSearch.ScoredConf conf : table.scoredConfs(ConfDB.SortOrder.Score)) {
+				assertThat(conf.getScore(), greaterThanOrEqualTo(prev));
+				prev = conf.getScore();
+				count++;
+			}
+			assertThat(count, is(expected.size()));
+		});
+	}
+
+	@Test
+	public void removeConfs() {
+
+		Random rand = new Random(12345);
+		Set<List<Integer>> confs = new HashSet<>();
+		while (confs.size() < 500) {
+			confs.add(toList(makeAssignments(rand)));
+		}
+
+		withDBTwice((db) -> {
+
+			ConfDB.ConfTable table = db.table("foo");
+			for (List<Integer> conf : confs) {
+				table.setUpperBound(toArray(conf), 1.0, 5L);
+			}
+
+			// remove every other conf
+			int i = 0;
+			for (List<Integer> conf : confs) {
+				if (i++ % 2 == 0) {
+					table.remove(toArray(conf));
+				}
+			}
+
+		}, (db) -> {
+
+			ConfDB.ConfTable table = db.table("foo");
+			assertThat(table.size(), is(250L));
+
+			int i = 0;
+			for (List<Integer> conf : confs) {
+				if (i++ % 2 == 0) {
+					assertThat(table.get(toArray(conf)), is(nullValue()));
+				} else {
+					assertThat(table.get(toArray(conf)).upper.energy, is(1.0));
+				}
+			}
+		});
+	}
+
+	@Test
+	public void rebuildIndex() {
+
+		int[] assignments = { 1, 2, 3 };
+
+		withDBTwice((db) -> {
+
+			db.new ConfTable("foo").setBounds(assignments, 4.0, 5.0, 6L);
+
+		}, (db) -> {
+
+			// lose the index, it should be rebuilt from the records
+			db.close();
+			for (File f : file.listFiles((dir, name) -> name.endsWith(".index"))) {
+				assertThat(f.delete(), is(true));
+			}
+
+			try (ConfDB db2 = openDB()) {
+				ConfDB.Conf conf = db2.new ConfTable("foo").get(assignments);
+				assertConf(conf, assignments, 4.0, 6L, 5.0, 6L);
+			}
+		});
+	}
+
+	@Test
+	public void concurrentReadsAndWrites() {
+		withDB((db) -> {
+
+			ConfDB.ConfTable table = db.table("foo");
+
+			int numThreads = 4;
+			int numConfsPerThread = 2000;
+			List<Thread> threads = new ArrayList<>();
+			List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+			for (int t=0; t<numThreads; t++) {
+				final int threadId = t;
+				threads.add(new Thread(() -> {
+					try {
+						Random rand = new Random(threadId);
+						for (int i=0; i<numConfsPerThread; i++) {
+
+							// each thread writes its own confs, but reads everyone's
+							int[] assignments = { threadId, i/100, i%100 };
+							table.setBounds(assignments, i, -i, 5L);
+							ConfDB.Conf conf = table.get(assignments);
+							assertThat(conf.lower.energy, is((double)i));
+
+							int[] other = { rand.nextInt(numThreads), rand.nextInt(20), rand.nextInt(100) };
+							conf = table.get(other);
+							if (conf != null) {
+								assertThat(conf.upper.energy + conf.lower.energy, is(0.0));
+							}
+						}
+					} catch (Throwable ex) {
+						errors.add(ex);
+					}
+				}));
+			}
+			for (Thread thread : threads) {
+				thread.start();
+			}
+			for (Thread thread : threads) {
+				try {
+					thread.join();
+				} catch (InterruptedException ex) {
+					throw new RuntimeException(ex);
+				}
+			}
+
+			assertThat(errors, is(empty()));
+			assertThat(table.size(), is((long)numThreads*numConfsPerThread));
+		});
+	}
+
+	@Test
+	public void migrate() {
+
+		Sequence sequence = confSpace.makeWildTypeSequence();
+		File mapdbFile = new File("conf.migrate.db");
+		mapdbFile.delete();
+
+		try {
+
+			try (ConfDB src = new ConfDB(confSpace, mapdbFile, ConfDB.Engine.MapDB)) {
+				ConfDB.SequenceDB sdb = src.getSequence(sequence);
+				sdb.setBounds(new int[] { 1, 2, 3 }, 4.0, 5.0, 6L);
+				sdb.setLowerBound(new int[] { 3, 2, 1 }, 7.0, 8L);
+				sdb.setLowerEnergyOfUnsampledConfs(4.2);
+				src.table("foo").setUpperBound(new int[] { 0, 0, 0 }, 9.0, 10L);
+			}
+
+			cleanDB();
+			ConfDB.migrate(confSpace, mapdbFile, file);
+
+			try (ConfDB dst = openDB()) {
+
+				assertThat(dst.getTableIds(), containsInAnyOrder("foo", dst.getSequence(sequence).id));
+				assertThat(dst.getNumSequences(), is(1L));
+
+				ConfDB.SequenceDB sdb = dst.getSequence(sequence);
+				assertThat(sdb.getLowerEnergyOfUnsampledConfs(), is(4.2));
+				assertThat(sdb.size(), is(2L));
+				assertConf(sdb.get(new int[] { 1, 2, 3 }), new int[] { 1, 2, 3 }, 4.0, 6L, 5.0, 6L);
+				assertThat(sdb.get(new int[] { 3, 2, 1 }).lower.energy, is(7.0));
+				assertThat(sdb.get(new int[] { 3, 2, 1 }).upper, is(nullValue()));
+				assertThat(sdb.lowerBounds(), contains(4.0, 7.0));
+				assertThat(sdb.upperBounds(), contains(5.0));
+
+				assertThat(dst.table("foo").get(new int[] { 0, 0, 0 }).upper.energy, is(9.0));
+			}
+
+		} finally {
+			mapdbFile.delete();
+			cleanDB();
+		}
+	}
+
+	private static List<Integer> toList(int[] assignments) {
+		return Arrays.stream(assignments).boxed().collect(Collectors.toList());
+	}
+
+	private static int[] toArray(List<Integer> conf) {
+		return conf.stream().mapToInt(i -> i).toArray();
+	}
+}
@@ -0,0 +1,147 @@
+package edu.duke.cs.osprey.confspace;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import edu.duke.cs.osprey.TestBase;
+import edu.duke.cs.osprey.dof.DegreeOfFreedom;
+import edu.duke.cs.osprey.energy.ConfEnergyCalculator;
+import edu.duke.cs.osprey.energy.EnergyCalculator;
+import edu.duke.cs.osprey.energy.ResidueInteractions;
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
+import edu.duke.cs.osprey.parallelism.Parallelism;
+import edu.duke.cs.osprey.restypes.ResidueTemplateLibrary;
+import edu.duke.cs.osprey.structure.Atom;
+import edu.duke.cs.osprey.structure.Molecule;
+import edu.duke.cs.osprey.structure.PDBIO;
+import edu.duke.cs.osprey.structure.Residue;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+
+public class TestMoleculeWorkspace extends TestBase {
+
+	private static SimpleConfSpace confSpace;
+
+	@BeforeClass
+	public static void beforeClass() {
+
+		Molecule mol = PDBIO.readResource("/2RL0.min.reduce.pdb");
+		ResidueTemplateLibrary templateLib = new ResidueTemplateLibrary.Builder().build();
+
+		Strand protein = new Strand.Builder(mol)
+			.setTemplateLibrary(templateLib)
+			.setResidues("G648", "G654")
+			.build();
+		protein.flexibility.get("G649").setLibraryRotamers(Strand.WildType, "TYR", "ALA", "VAL", "PRO").addWildTypeRotamers().setContinuous();
+		protein.flexibility.get("G650").setLibraryRotamers(Strand.WildType, "GLU").addWildTypeRotamers().setContinuous();
+		protein.flexibility.get("G651").setLibraryRotamers(Strand.WildType, "ASP").addWildTypeRotamers().setContinuous();
+
+		Strand ligand = new Strand.Builder(mol)
+			.setTemplateLibrary(templateLib)
+			.setResidues("A155", "A194")
+			.build();
+		ligand.flexibility.get("A156").setLibraryRotamers(Strand.WildType, "ALA").addWildTypeRotamers().setContinuous();
+		ligand.flexibility.get("A172").setLibraryRotamers(Strand.WildType).addWildTypeRotamers().setContinuous();
+
+		confSpace = new SimpleConfSpace.Builder()
+			.addStrand(protein)
+			.addStrand(ligand, new StrandFlex.TranslateRotate())
+			.build();
+	}
+
+	/** makes random fragments, with some positions left unassigned */
+	private static List<RCTuple> makeFrags(int numFrags) {
+		Random rand = new Random(12345);
+		List<RCTuple> frags = new ArrayList<>();
+		for (int i=0; i<numFrags; i++) {
+			int[] conf = new int[confSpace.positions.size()];
+			for (SimpleConfSpace.Position pos : confSpace.positions) {
+				if (rand.nextInt(4) == 0) {
+					conf[pos.index] = -1;
+				} else {
+					conf[pos.index] = rand.nextInt(pos.resConfs.size());
+				}
+			}
+			frags.add(new RCTuple(conf));
+		}
+		return frags;
+	}
+
+	private static List<String> bonds(Atom atom) {
+		List<String> bonds = new ArrayList<>();
+		for (Atom bondedAtom : atom.bonds) {
+			bonds.add(bondedAtom.res.getPDBResNumber() + ":" + bondedAtom.name);
+		}
+		Collections.sort(bonds);
+		return bonds;
+	}
+
+	private static void assertSameMolecule(Molecule observed, Molecule expected) {
+		assertThat(observed.residues.size(), is(expected.residues.size()));
+		for (int i=0; i<expected.residues.size(); i++) {
+			Residue obsRes = observed.residues.get(i);
+			Residue expRes = expected.residues.get(i);
+			assertThat(obsRes.fullName, is(expRes.fullName));
+			assertThat(obsRes.template, sameInstance(expRes.template));
+			assertThat(obsRes.coords, is(expRes.coords));
+			assertThat(obsRes.confProblems.size(), is(expRes.confProblems.size()));
+			assertThat(obsRes.atoms.size(), is(expRes.atoms.size()));
+			for (int a=0; a<expRes.atoms.size(); a++) {
+				assertThat(obsRes.atoms.get(a).name, is(expRes.atoms.get(a).name));
+				assertThat(bonds(obsRes.atoms.get(a)), is(bonds(expRes.atoms.get(a))));
+			}
+		}
+	}
+
+	@Test
+	public void sameMolecules() {
+
+		MoleculeWorkspace workspace = new MoleculeWorkspace(confSpace);
+		Random rand = new Random(12345);
+
+		for (RCTuple frag : makeFrags(40)) {
+
+			ParametricMolecule observed = workspace.makeMolecule(frag);
+			ParametricMolecule expected = confSpace.makeMolecule(frag);
+
+			assertSameMolecule(observed.mol, expected.mol);
+			assertThat(observed.dofs.size(), is(expected.dofs.size()));
+			for (int d=0; d<expected.dofs.size(); d++) {
+				assertThat(observed.dofs.get(d).getName(), is(expected.dofs.get(d).getName()));
+				assertThat(observed.dofBounds.getMin(d), is(expected.dofBounds.getMin(d)));
+				assertThat(observed.dofBounds.getMax(d), is(expected.dofBounds.getMax(d)));
+			}
+
+			// move the dofs around, like a minimizer would, so the next molecule has to undo the motion
+			for (int d=0; d<observed.dofs.size(); d++) {
+				DegreeOfFreedom dof = observed.dofs.get(d);
+				double min = observed.dofBounds.getMin(d);
+				double max = observed.dofBounds.getMax(d);
+				dof.apply(min + (max - min)*rand.nextDouble());
+			}
+		}
+	}
+
+	@Test
+	public void sameEnergies() {
+
+		try (EnergyCalculator ecalc = new EnergyCalculator.Builder(confSpace, new ForcefieldParams())
+			.setParallelism(Parallelism.makeCpu(1))
+			.build()
+		) {
+			ConfEnergyCalculator confEcalc = new ConfEnergyCalculator.Builder(confSpace, ecalc).build();
+
+			for (RCTuple frag : makeFrags(20)) {
+				ResidueInteractions inters = confEcalc.makeFragInters(frag);
+				double expected = confEcalc.calcEnergy(frag, inters).energy;
+				assertThat(confEcalc.calcEnergyValue(frag, inters), is(expected));
+			}
+		}
+	}
+}
@@ -41,8 +41,10 @@ import edu.duke.cs.osprey.tools.Streams;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.stream.Collectors;
 
 public class TestSequence {
@@ -218,4 +220,29 @@ public class TestSequence {
 
 		assertThat(s.calcCellSize(), is(3));
 	}
+
+	@Test
+	public void mutants() {
+
+		Strand strand = new Strand.Builder(mol).build();
+		strand.flexibility.get("A5").setLibraryRotamers(Strand.WildType, "ALA", "VAL");
+		strand.flexibility.get("A6").setLibraryRotamers(Strand.WildType, "ALA");
+		strand.flexibility.get("A7").setLibraryRotamers(Strand.WildType, "ALA", "GLY", "SER");
+		strand.flexibility.get("A8").setLibraryRotamers(Strand.WildType);
+		SeqSpace seqSpace = new SimpleConfSpace.Builder()
+			.addStrand(strand)
+			.build()
+			.seqSpace;
+
+		// the lazy mutants should match the explicit ones exactly, in the same order
+		for (int maxMutations=0; maxMutations<=4; maxMutations++) {
+			for (boolean reverse : Arrays.asList(false, true)) {
+				List<Sequence> expected = seqSpace.getMutants(maxMutations, reverse);
+				List<Sequence> observed = new ArrayList<>();
+				seqSpace.mutants(maxMutations, reverse).forEach(observed::add);
+				assertThat(observed, is(expected));
+				assertThat(seqSpace.countMutants(maxMutations), is((long)expected.size()));
+			}
+		}
+	}
 }
@@ -0,0 +1,247 @@
+package edu.duke.cs.osprey.confspace;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import edu.duke.cs.osprey.ematrix.EnergyMatrix;
+import edu.duke.cs.osprey.ematrix.MappedEnergyMatrix;
+import edu.duke.cs.osprey.pruning.MappedPruningMatrix;
+import edu.duke.cs.osprey.pruning.PruningMatrix;
+import edu.duke.cs.osprey.structure.PDBIO;
+import edu.duke.cs.osprey.tools.ObjectIO;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+
+public class TestTupleMatrixFile {
+
+	private static SimpleConfSpace confSpace;
+
+	private final File file = new File("matrix.test.bin");
+
+	@BeforeClass
+	public static void beforeClass() {
+		Strand strand = new Strand.Builder(PDBIO.readResource("/1CC8.ss.pdb")).build();
+		strand.flexibility.get("A2").setLibraryRotamers("VAL");
+		strand.flexibility.get("A3").setLibraryRotamers("LEU", "ALA");
+		strand.flexibility.get("A4").setLibraryRotamers("GLY");
+		strand.flexibility.get("A5").setLibraryRotamers("ILE", "SER");
+		confSpace = new SimpleConfSpace.Builder().addStrand(strand).build();
+	}
+
+	@After
+	public void after() {
+		file.delete();
+	}
+
+	private static EnergyMatrix makeEmat() {
+		Random rand = new Random(12345);
+		EnergyMatrix emat = new EnergyMatrix(confSpace);
+		for (int pos1=0; pos1<emat.getNumPos(); pos1++) {
+			for (int rc1=0; rc1<emat.getNumConfAtPos(pos1); rc1++) {
+				emat.setOneBody(pos1, rc1, rand.nextGaussian());
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<emat.getNumConfAtPos(pos2); rc2++) {
+						emat.setPairwise(pos1, rc1, pos2, rc2, rand.nextGaussian());
+					}
+				}
+			}
+		}
+		emat.setPairwise(1, 0, 0, 0, Double.POSITIVE_INFINITY);
+		emat.setConstTerm(4.2);
+		return emat;
+	}
+
+	private static PruningMatrix makePmat() {
+		Random rand = new Random(12345);
+		PruningMatrix pmat = new PruningMatrix(confSpace);
+		for (int pos1=0; pos1<pmat.getNumPos(); pos1++) {
+			for (int rc1=0; rc1<pmat.getNumConfAtPos(pos1); rc1++) {
+				pmat.setOneBody(pos1, rc1, rand.nextBoolean());
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<pmat.getNumConfAtPos(pos2); rc2++) {
+						pmat.setPairwise(pos1, rc1, pos2, rc2, rand.nextBoolean());
+					}
+				}
+			}
+		}
+		return pmat;
+	}
+
+	private static void assertEnergies(EnergyMatrix observed, EnergyMatrix expected) {
+		assertThat(observed.matches(confSpace), is(true));
+		assertThat(observed.getConstTerm(), is(expected.getConstTerm()));
+		assertThat(observed.getPruningInterval(), is(expected.getPruningInterval()));
+		for (int pos1=0; pos1<expected.getNumPos(); pos1++) {
+			for (int rc1=0; rc1<expected.getNumConfAtPos(pos1); rc1++) {
+				assertThat(observed.getOneBody(pos1, rc1), is(expected.getOneBody(pos1, rc1)));
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<expected.getNumConfAtPos(pos2); rc2++) {
+						assertThat(observed.getPairwise(pos1, rc1, pos2, rc2), is(expected.getPairwise(pos1, rc1, pos2, rc2)));
+						assertThat(observed.getPairwise(pos2, rc2, pos1, rc1), is(expected.getPairwise(pos2, rc2, pos1, rc1)));
+					}
+				}
+			}
+		}
+	}
+
+	private static void assertPruning(PruningMatrix observed, PruningMatrix expected) {
+		assertThat(observed.matches(confSpace), is(true));
+		for (int pos1=0; pos1<expected.getNumPos(); pos1++) {
+			for (int rc1=0; rc1<expected.getNumConfAtPos(pos1); rc1++) {
+				assertThat(observed.getOneBody(pos1, rc1), is(expected.getOneBody(pos1, rc1)));
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<expected.getNumConfAtPos(pos2); rc2++) {
+						assertThat(observed.getPairwise(pos1, rc1, pos2, rc2), is(expected.getPairwise(pos1, rc1, pos2, rc2)));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void energies()
+	throws Exception {
+		EnergyMatrix emat = makeEmat();
+		MappedEnergyMatrix.write(emat, file);
+		assertThat(TupleMatrixFile.isMatrixFile(file), is(true));
+
+		MappedEnergyMatrix mapped = MappedEnergyMatrix.open(file);
+		assertEnergies(mapped, emat);
+		assertThat(mapped.sum(), is(emat.sum()));
+
+		int[] conf = { 1, 3, 0, 2 };
+		assertThat(mapped.confE(conf), is(emat.confE(conf)));
+
+		// slices should work too
+		TupleMatrixDouble.PairwiseSlice slice = mapped.getPairwiseSlice(3, 1, 1, null);
+		for (int rc=0; rc<mapped.getNumConfAtPos(1); rc++) {
+			assertThat(slice.get(rc), is(emat.getPairwiseDouble(3, 1, 1, rc)));
+		}
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void energiesReadOnly()
+	throws Exception {
+		MappedEnergyMatrix.write(makeEmat(), file);
+		MappedEnergyMatrix.open(file).setOneBody(0, 0, 5.0);
+	}
+
+	@Test
+	public void energiesSerialize()
+	throws Exception {
+		EnergyMatrix emat = makeEmat();
+		MappedEnergyMatrix.write(emat, file);
+
+		// serialized mapped matrices should come back as regular matrices
+		Object copy = ObjectIO.deepCopy(MappedEnergyMatrix.open(file));
+		assertThat(copy.getClass() == EnergyMatrix.class, is(true));
+		assertEnergies((EnergyMatrix)copy, emat);
+	}
+
+	@Test
+	public void energiesCopy()
+	throws Exception {
+		EnergyMatrix emat = makeEmat();
+		MappedEnergyMatrix.write(emat, file);
+
+		// copies of mapped matrices should land on the heap
+		EnergyMatrix copy = new EnergyMatrix(MappedEnergyMatrix.open(file));
+		assertEnergies(copy, emat);
+		copy.setOneBody(0, 0, 5.0);
+		assertThat(copy.getOneBody(0, 0), is(5.0));
+	}
+
+	@Test
+	public void pruning()
+	throws Exception {
+		PruningMatrix pmat = makePmat();
+		MappedPruningMatrix.write(pmat, file);
+
+		MappedPruningMatrix mapped = MappedPruningMatrix.open(file);
+		assertPruning(mapped, pmat);
+		assertThat(mapped.countPrunedRCs(), is(pmat.countPrunedRCs()));
+		assertThat(mapped.countPrunedPairs(), is(pmat.countPrunedPairs()));
+
+		Object copy = ObjectIO.deepCopy(mapped);
+		assertThat(copy.getClass() == PruningMatrix.class, is(true));
+		assertPruning((PruningMatrix)copy, pmat);
+	}
+
+	@Test
+	public void pruningCopy()
+	throws Exception {
+		PruningMatrix pmat = makePmat();
+		MappedPruningMatrix.write(pmat, file);
+
+		MappedPruningMatrix mapped = MappedPruningMatrix.open(file);
+		assertPruning(new PruningMatrix(mapped), pmat);
+		assertThat(mapped.calcUnprunedConfsLowerBound(), is(pmat.calcUnprunedConfsLowerBound()));
+	}
+
+	@Test
+	public void missingFile()
+	throws Exception {
+		assertThat(MappedEnergyMatrix.open(file), is(nullValue()));
+		assertThat(TupleMatrixFile.isMatrixFile(file), is(false));
+	}
+
+	@Test(expected = ObjectIO.BadFileException.class)
+	public void wrongKind()
+	throws Exception {
+		MappedPruningMatrix.write(makePmat(), file);
+		MappedEnergyMatrix.open(file);
+	}
+
+	@Test(expected = ObjectIO.BadFileException.class)
+	public void truncated()
+	throws Exception {
+		MappedEnergyMatrix.write(makeEmat(), file);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(raf.length() - 8);
+		}
+		MappedEnergyMatrix.open(file);
+	}
+
+	@Test
+	public void serializedFileIsNotMatrixFile()
+	throws Exception {
+		ObjectIO.write(makeEmat(), file);
+		assertThat(TupleMatrixFile.isMatrixFile(file), is(false));
+	}
+
+	@Test
+	public void readOrMake() {
+
+		EnergyMatrix emat = makeEmat();
+		int[] numMade = { 0 };
+		ObjectIO.Validator<EnergyMatrix> validator = (m) -> m.matches(confSpace);
+
+		// the first time should make and write the matrix, the second time should just map it
+		for (int i=0; i<2; i++) {
+			EnergyMatrix cached = TupleMatrixFile.readOrMake(file, "energy matrix", MappedEnergyMatrix::open, MappedEnergyMatrix::write, validator, (context) -> {
+				numMade[0]++;
+				return emat;
+			});
+			assertThat(cached, instanceOf(MappedEnergyMatrix.class));
+			assertEnergies(cached, emat);
+		}
+		assertThat(numMade[0], is(1));
+	}
+
+	@Test
+	public void readOrMakeHigherOrder() {
+
+		// matrices with higher-order terms can't be written, so they shouldn't be cached
+		EnergyMatrix emat = makeEmat();
+		emat.setTupleValue(new RCTuple(0, 0, 1, 0, 3, 0), 1.0);
+		EnergyMatrix cached = TupleMatrixFile.readOrMake(file, "energy matrix", MappedEnergyMatrix::open, MappedEnergyMatrix::write, (m) -> true, (context) -> emat);
+		assertThat(cached, sameInstance(emat));
+		assertThat(file.exists(), is(false));
+	}
+}
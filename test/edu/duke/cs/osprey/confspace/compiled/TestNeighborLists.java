@@ -0,0 +1,258 @@
+package edu.duke.cs.osprey.confspace.compiled;
+
+import static edu.duke.cs.osprey.TestBase.isAbsolutely;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import cern.colt.matrix.DoubleFactory1D;
+import cern.colt.matrix.DoubleMatrix1D;
+import edu.duke.cs.osprey.energy.compiled.CPUConfEnergyCalculator;
+import edu.duke.cs.osprey.energy.compiled.EnergyCalculator;
+import edu.duke.cs.osprey.energy.compiled.FusedEnergyKernel;
+import edu.duke.cs.osprey.minimization.DifferentiableObjectiveFunction;
+import edu.duke.cs.osprey.tools.FileTools;
+import org.hamcrest.Matcher;
+import org.junit.Test;
+
+import java.util.*;
+
+
+public class TestNeighborLists {
+
+	private static ConfSpace dipeptide() {
+		return ConfSpace.fromBytes(FileTools.readResourceBytes("/confSpaces/dipeptide.5hydrophobic.ccsx"));
+	}
+
+	private static ConfSpace complex2RL0() {
+		return TestConfSpace.Design2RL0Interface7Mut.makeCompiled().complex;
+	}
+
+	private static ConfSpace complex4tu5() {
+		// this conf space has translation and rotation dofs for the ligands
+		return ConfSpace.fromBytes(FileTools.readFileBytes("examples/python.ccs/F98Y/4tu5.complex.ccsx"));
+	}
+
+	private static Matcher<Double> isEnergy(double expected) {
+		return isAbsolutely(expected, 1e-9*Math.max(1.0, Math.abs(expected)));
+	}
+
+	private static double calcGeneric(AssignedCoords coords, List<PosInter> inters) {
+		double energy = 0.0;
+		for (EnergyCalculator ecalc : coords.confSpace.ecalcs) {
+			energy += ecalc.calcEnergy(coords, inters);
+		}
+		return energy;
+	}
+
+	@Test
+	public void grid() {
+
+		Random rand = new Random(12345);
+		CoordsList coords = new CoordsList(1000);
+		for (int i=0; i<coords.size; i++) {
+			coords.set(i, rand.nextDouble()*40.0 - 20.0, rand.nextDouble()*30.0, rand.nextDouble()*10.0 + 5.0);
+		}
+		NeighborGrid grid = new NeighborGrid(coords, 4.0);
+		assertThat(grid.numCells(), greaterThan(1));
+
+		for (int q=0; q<20; q++) {
+
+			double x = rand.nextDouble()*50.0 - 25.0;
+			double y = rand.nextDouble()*40.0 - 5.0;
+			double z = rand.nextDouble()*20.0;
+			double w = rand.nextDouble()*10.0;
+
+			Set<Integer> expected = new HashSet<>();
+			for (int i=0; i<coords.size; i++) {
+				if (coords.x(i) >= x - w && coords.x(i) <= x + w
+					&& coords.y(i) >= y - w && coords.y(i) <= y + w
+					&& coords.z(i) >= z - w && coords.z(i) <= z + w) {
+					expected.add(i);
+				}
+			}
+
+			Set<Integer> observed = new HashSet<>();
+			grid.forEachInBox(x - w, y - w, z - w, x + w, y + w, z + w, observed::add);
+			assertThat(observed, is(expected));
+		}
+	}
+
+	@Test
+	public void switching() {
+
+		NeighborLists lists = new NeighborLists.Builder(dipeptide())
+			.setCutoff(8.0)
+			.setSwitchWidth(2.0)
+			.build();
+
+		assertThat(lists.switching(5.0*5.0), is(1.0));
+		assertThat(lists.switching(6.0*6.0), is(1.0));
+		assertThat(lists.switching(8.0*8.0), is(0.0));
+		assertThat(lists.switching(9.0*9.0), is(0.0));
+
+		// should fall smoothly from 1 to 0, with a matching derivative
+		double prev = 1.0;
+		for (double r=6.05; r<8.0; r+=0.1) {
+			double s = lists.switching(r*r);
+			assertThat(s, lessThan(prev));
+			assertThat(s, greaterThan(0.0));
+			prev = s;
+
+			double h = 1e-6;
+			double expected = (lists.switching((r + h)*(r + h)) - lists.switching((r - h)*(r - h)))/(2*h);
+			assertThat(lists.switchingDerivative(r, r*r), isAbsolutely(expected, 1e-6));
+		}
+
+		// the derivative should vanish at both ends
+		assertThat(lists.switchingDerivative(6.0 + 1e-9, Math.pow(6.0 + 1e-9, 2)), isAbsolutely(0.0, 1e-6));
+		assertThat(lists.switchingDerivative(8.0 - 1e-9, Math.pow(8.0 - 1e-9, 2)), isAbsolutely(0.0, 1e-6));
+	}
+
+	@Test
+	public void hugeCutoffMatchesAllPairs() {
+
+		ConfSpace confSpace = complex2RL0();
+		int[] conf = TestConfSpace.Design2RL0Interface7Mut.makeCompiled().makeConfComplexWt();
+		List<PosInter> inters = PosInterDist.all(confSpace, null, conf);
+
+		AssignedCoords coords = confSpace.makeCoords(conf);
+		double expected = calcGeneric(coords, inters);
+
+		confSpace.setNeighborLists(new NeighborLists.Builder(confSpace)
+			.setCutoff(1000.0)
+			.build()
+		);
+		assertThat(calcGeneric(coords, inters), is(expected));
+	}
+
+	/**
+	 * The filtered lists should give exactly the same energies as applying the cutoff to every atom pair,
+	 * at any dof values.
+	 */
+	private static void assertFilteredEnergies(ConfSpace confSpace) {
+
+		NeighborLists filtered = new NeighborLists.Builder(confSpace)
+			.setCutoff(7.0)
+			.setSwitchWidth(2.0)
+			.build();
+		NeighborLists unfiltered = new NeighborLists.Builder(confSpace)
+			.setCutoff(7.0)
+			.setSwitchWidth(2.0)
+			.setSkin(Double.POSITIVE_INFINITY)
+			.build();
+
+		FusedEnergyKernel kernel = FusedEnergyKernel.of(confSpace);
+
+		Random rand = new Random(12345);
+		for (int i=0; i<10; i++) {
+
+			// pick a random conf
+			int[] conf = new int[confSpace.numPos()];
+			for (int posi=0; posi<conf.length; posi++) {
+				conf[posi] = rand.nextInt(confSpace.numConf(posi));
+			}
+			List<PosInter> inters = PosInterDist.all(confSpace, null, conf);
+
+			// move the dofs around
+			AssignedCoords coords = confSpace.makeCoords(conf);
+			for (DegreeOfFreedom dof : coords.dofs) {
+				dof.set(dof.min() + (dof.max() - dof.min())*rand.nextDouble());
+			}
+
+			confSpace.setNeighborLists(unfiltered);
+			double expected = calcGeneric(coords, inters);
+			double expectedRigid = kernel.calcEnergy(conf, inters);
+			long numAllPairs = kernel.countAtomPairs(conf, inters);
+
+			confSpace.setNeighborLists(filtered);
+			assertThat(calcGeneric(coords, inters), isEnergy(expected));
+			assertThat(kernel.calcEnergy(coords, inters), isEnergy(expected));
+			assertThat(kernel.calcEnergy(conf, inters), isEnergy(expectedRigid));
+			assertThat(kernel.countAtomPairs(conf, inters), lessThanOrEqualTo(numAllPairs));
+		}
+
+		confSpace.setNeighborLists(null);
+	}
+
+	@Test
+	public void filteredEnergiesDipeptide() {
+		assertFilteredEnergies(dipeptide());
+	}
+
+	@Test
+	public void filteredEnergies2RL0() {
+		assertFilteredEnergies(complex2RL0());
+	}
+
+	@Test
+	public void filteredEnergies4tu5() {
+		assertFilteredEnergies(complex4tu5());
+	}
+
+	@Test
+	public void fewerPairs() {
+
+		ConfSpace confSpace = complex2RL0();
+		int[] conf = TestConfSpace.Design2RL0Interface7Mut.makeCompiled().makeConfComplexWt();
+		List<PosInter> inters = PosInterDist.all(confSpace, null, conf);
+		FusedEnergyKernel kernel = FusedEnergyKernel.of(confSpace);
+
+		long numAllPairs = kernel.countAtomPairs(conf, inters);
+		confSpace.setNeighborLists(new NeighborLists.Builder(confSpace).build());
+		long numPairs = kernel.countAtomPairs(conf, inters);
+
+		assertThat(numPairs, greaterThan(0L));
+		assertThat(numPairs, lessThan(numAllPairs));
+	}
+
+	@Test
+	public void gradients() {
+
+		ConfSpace confSpace = dipeptide();
+
+		// use a short cutoff, so lots of pairs land in the switching region
+		confSpace.setNeighborLists(new NeighborLists.Builder(confSpace)
+			.setCutoff(5.0)
+			.setSwitchWidth(3.0)
+			.build()
+		);
+
+		CPUConfEnergyCalculator confEcalc = new CPUConfEnergyCalculator(confSpace);
+		Random rand = new Random(12345);
+		for (int confi=0; confi<confSpace.numConf(0); confi+=3) {
+
+			int[] conf = new int[confSpace.numPos()];
+			conf[0] = confi;
+			AssignedCoords coords = confSpace.makeCoords(conf);
+			DifferentiableObjectiveFunction f = confEcalc.makeObjectiveFunction(coords, PosInterDist.all(confSpace, null, conf));
+
+			int n = f.getNumDOFs();
+			DoubleMatrix1D[] bounds = f.getConstraints();
+			DoubleMatrix1D x = DoubleFactory1D.dense.make(n);
+			for (int d=0; d<n; d++) {
+				double min = bounds[0].get(d);
+				double max = bounds[1].get(d);
+				x.set(d, min + (max - min)*(0.25 + 0.5*rand.nextDouble()));
+			}
+
+			DoubleMatrix1D gradient = DoubleFactory1D.dense.make(n);
+			double energy = f.getValueAndGradient(x, gradient);
+			assertThat(energy, isAbsolutely(f.getValue(x), 1e-9));
+
+			for (int d=0; d<n; d++) {
+				double h = 1e-6;
+				DoubleMatrix1D xp = x.copy();
+				xp.set(d, x.get(d) + h);
+				DoubleMatrix1D xm = x.copy();
+				xm.set(d, x.get(d) - h);
+				double expected = (f.getValue(xp) - f.getValue(xm))/(2*h);
+				assertThat(coords.dofs.get(d).name(), gradient.get(d), isAbsolutely(expected, 1e-3*Math.max(1.0, Math.abs(expected))));
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void wrongConfSpace() {
+		dipeptide().setNeighborLists(new NeighborLists.Builder(dipeptide()).build());
+	}
+}
@@ -0,0 +1,122 @@
+package edu.duke.cs.osprey.ematrix;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import edu.duke.cs.osprey.confspace.RCTuple;
+import edu.duke.cs.osprey.confspace.SimpleConfSpace;
+import edu.duke.cs.osprey.confspace.Strand;
+import edu.duke.cs.osprey.confspace.TupleMatrixDouble;
+import edu.duke.cs.osprey.structure.PDBIO;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Random;
+
+
+public class TestEnergyMatrixAccessors {
+
+	private static SimpleConfSpace confSpace;
+
+	@BeforeClass
+	public static void beforeClass() {
+		Strand strand = new Strand.Builder(PDBIO.readResource("/1CC8.ss.pdb")).build();
+		strand.flexibility.get("A2").setLibraryRotamers("VAL");
+		strand.flexibility.get("A3").setLibraryRotamers("LEU", "ALA");
+		strand.flexibility.get("A4").setLibraryRotamers("GLY");
+		strand.flexibility.get("A5").setLibraryRotamers("ILE", "SER");
+		confSpace = new SimpleConfSpace.Builder().addStrand(strand).build();
+	}
+
+	private static EnergyMatrix makeEmat(Random rand) {
+
+		// fill the matrix with random energies, we only care about the accessors here
+		EnergyMatrix emat = new EnergyMatrix(confSpace);
+		for (int pos1=0; pos1<emat.getNumPos(); pos1++) {
+			for (int rc1=0; rc1<emat.getNumConfAtPos(pos1); rc1++) {
+				emat.setOneBody(pos1, rc1, rand.nextGaussian());
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<emat.getNumConfAtPos(pos2); rc2++) {
+						emat.setPairwise(pos1, rc1, pos2, rc2, rand.nextGaussian());
+					}
+				}
+			}
+		}
+		emat.setConstTerm(rand.nextGaussian());
+		return emat;
+	}
+
+	private static void assertAccessors(EnergyMatrix emat) {
+
+		TupleMatrixDouble.PairwiseSlice slice = new TupleMatrixDouble.PairwiseSlice();
+
+		for (int pos1=0; pos1<emat.getNumPos(); pos1++) {
+			for (int rc1=0; rc1<emat.getNumConfAtPos(pos1); rc1++) {
+
+				assertThat(emat.getOneBodyDouble(pos1, rc1), is(emat.getOneBody(pos1, rc1)));
+
+				for (int pos2=0; pos2<emat.getNumPos(); pos2++) {
+					if (pos2 == pos1) {
+						continue;
+					}
+
+					// check slices in both directions, since the storage is only triangular
+					emat.getPairwiseSlice(pos1, rc1, pos2, slice);
+					for (int rc2=0; rc2<emat.getNumConfAtPos(pos2); rc2++) {
+						double energy = emat.getPairwise(pos1, rc1, pos2, rc2);
+						assertThat(emat.getPairwiseDouble(pos1, rc1, pos2, rc2), is(energy));
+						assertThat(slice.get(rc2), is(energy));
+					}
+				}
+			}
+		}
+	}
+
+	private static void assertConfE(EnergyMatrix emat, Random rand) {
+		for (int i=0; i<20; i++) {
+			int[] conf = new int[emat.getNumPos()];
+			for (int pos=0; pos<conf.length; pos++) {
+				conf[pos] = rand.nextInt(emat.getNumConfAtPos(pos));
+			}
+
+			// partial confs too
+			if (i % 2 == 1) {
+				conf[rand.nextInt(conf.length)] = -1;
+			}
+
+			double expected = emat.getInternalEnergy(new RCTuple(conf)) + emat.getConstTerm();
+			assertThat(emat.confE(conf), closeTo(expected, 1e-12));
+		}
+	}
+
+	@Test
+	public void plain() {
+		Random rand = new Random(12345);
+		EnergyMatrix emat = makeEmat(rand);
+		assertAccessors(emat);
+		assertConfE(emat, rand);
+	}
+
+	@Test
+	public void negated() {
+		Random rand = new Random(12345);
+		EnergyMatrix emat = new NegatedEnergyMatrix(confSpace, makeEmat(rand));
+		assertAccessors(emat);
+
+		// slices of negated matrices shouldn't clobber the target matrix
+		EnergyMatrix target = ((NegatedEnergyMatrix)emat).target;
+		double energy = target.getPairwiseDouble(1, 2, 0, 1);
+		emat.getPairwiseSlice(1, 2, 0, null);
+		assertThat(target.getPairwiseDouble(1, 2, 0, 1), is(energy));
+		assertThat(emat.getPairwiseDouble(1, 2, 0, 1), is(-energy));
+	}
+
+	@Test
+	public void proxy() {
+		Random rand = new Random(12345);
+		EnergyMatrix target = makeEmat(rand);
+		EnergyMatrix emat = new ProxyEnergyMatrix(confSpace, target);
+		assertAccessors(emat);
+		assertThat(emat.getPairwiseDouble(3, 1, 1, 4), is(target.getPairwiseDouble(3, 1, 1, 4)));
+	}
+}
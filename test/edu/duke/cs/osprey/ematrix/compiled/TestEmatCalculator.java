@@ -0,0 +1,174 @@
+package edu.duke.cs.osprey.ematrix.compiled;
+
+import static edu.duke.cs.osprey.TestBase.TempFile;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import edu.duke.cs.osprey.confspace.compiled.ConfSpace;
+import edu.duke.cs.osprey.confspace.compiled.NeighborLists;
+import edu.duke.cs.osprey.confspace.compiled.PosInter;
+import edu.duke.cs.osprey.ematrix.EnergyMatrix;
+import edu.duke.cs.osprey.energy.compiled.CPUConfEnergyCalculator;
+import edu.duke.cs.osprey.energy.compiled.ConfEnergyCalculator;
+import edu.duke.cs.osprey.parallelism.Parallelism;
+import edu.duke.cs.osprey.parallelism.TaskExecutor;
+import edu.duke.cs.osprey.tools.FileTools;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class TestEmatCalculator {
+
+	private static final ConfSpace confSpace = ConfSpace.fromBytes(FileTools.readResourceBytes("/confSpaces/dipeptide.5hydrophobic.ccsx"));
+
+	/** counts the energy calculations, so we can tell when the cache was used */
+	private static class CountingConfEcalc implements ConfEnergyCalculator {
+
+		final ConfEnergyCalculator confEcalc = new CPUConfEnergyCalculator(confSpace);
+		final AtomicInteger count = new AtomicInteger(0);
+
+		@Override
+		public void close() {
+			confEcalc.close();
+		}
+
+		@Override
+		public ConfSpace confSpace() {
+			return confSpace;
+		}
+
+		@Override
+		public EnergiedCoords calc(int[] conf, List<PosInter> inters) {
+			count.incrementAndGet();
+			return confEcalc.calc(conf, inters);
+		}
+
+		@Override
+		public EnergiedCoords minimize(int[] conf, List<PosInter> inters) {
+			count.incrementAndGet();
+			return confEcalc.minimize(conf, inters);
+		}
+	}
+
+	private static EnergyMatrix calc(ConfEnergyCalculator confEcalc, TaskExecutor tasks, TempFile cacheFile, boolean minimize) {
+		return new EmatCalculator.Builder(confEcalc)
+			.setMinimize(minimize)
+			.setIncludeStaticStatic(true)
+			.setTasks(tasks)
+			.setCacheFile(cacheFile)
+			.build()
+			.calc();
+	}
+
+	private static int numEntries() {
+		return 1 + confSpace.countSingles() + confSpace.countPairs();
+	}
+
+	@Test
+	public void parallel() {
+
+		EnergyMatrix expected = calc(new CPUConfEnergyCalculator(confSpace), null, null, true);
+
+		try (TaskExecutor tasks = Parallelism.makeCpu(4).makeTaskExecutor()) {
+			EnergyMatrix emat = calc(new CPUConfEnergyCalculator(confSpace), tasks, null, true);
+			assertThat(emat, is(expected));
+			assertThat(emat.getConstTerm(), is(expected.getConstTerm()));
+		}
+	}
+
+	@Test
+	public void cache() {
+
+		try (TempFile cacheFile = new TempFile("emat.compiled.cache")) {
+
+			// the first time, calculate everything
+			CountingConfEcalc confEcalc = new CountingConfEcalc();
+			EnergyMatrix expected = calc(confEcalc, null, cacheFile, false);
+			assertThat(confEcalc.count.get(), is(numEntries()));
+			assertThat(cacheFile.exists(), is(true));
+
+			// the second time, calculate nothing
+			confEcalc = new CountingConfEcalc();
+			EnergyMatrix emat = calc(confEcalc, null, cacheFile, false);
+			assertThat(confEcalc.count.get(), is(0));
+			assertThat(emat, is(expected));
+			assertThat(emat.getConstTerm(), is(expected.getConstTerm()));
+
+			// with different settings, calculate everything again
+			confEcalc = new CountingConfEcalc();
+			emat = calc(confEcalc, null, cacheFile, true);
+			assertThat(confEcalc.count.get(), is(numEntries()));
+			assertThat(emat, is(not(expected)));
+		}
+	}
+
+	@Test
+	public void cacheNeighborLists() {
+
+		try (TempFile cacheFile = new TempFile("emat.compiled.cache")) {
+
+			// fill the cache without a cutoff
+			calc(new CountingConfEcalc(), null, cacheFile, false);
+
+			try {
+
+				// with a cutoff, calculate everything again
+				confSpace.setNeighborLists(new NeighborLists.Builder(confSpace).build());
+				CountingConfEcalc confEcalc = new CountingConfEcalc();
+				calc(confEcalc, null, cacheFile, false);
+				assertThat(confEcalc.count.get(), is(numEntries()));
+
+				// with a different cutoff, calculate everything again
+				confSpace.setNeighborLists(new NeighborLists.Builder(confSpace)
+					.setCutoff(6.0)
+					.build()
+				);
+				confEcalc = new CountingConfEcalc();
+				calc(confEcalc, null, cacheFile, false);
+				assertThat(confEcalc.count.get(), is(numEntries()));
+
+			} finally {
+				confSpace.setNeighborLists(null);
+			}
+
+			// and again without a cutoff
+			CountingConfEcalc confEcalc = new CountingConfEcalc();
+			calc(confEcalc, null, cacheFile, false);
+			assertThat(confEcalc.count.get(), is(numEntries()));
+		}
+	}
+
+	@Test
+	public void resume()
+	throws IOException {
+
+		try (TempFile cacheFile = new TempFile("emat.compiled.cache")) {
+
+			try (TaskExecutor tasks = Parallelism.makeCpu(2).makeTaskExecutor()) {
+				EnergyMatrix expected = calc(new CountingConfEcalc(), tasks, cacheFile, false);
+
+				// simulate an interrupted calculation by chopping off the end of the file, in the middle of a block
+				try (RandomAccessFile file = new RandomAccessFile(cacheFile, "rw")) {
+					file.setLength(file.length()/2 - 3);
+				}
+
+				// we should only calculate the missing energies
+				CountingConfEcalc confEcalc = new CountingConfEcalc();
+				EnergyMatrix emat = calc(confEcalc, tasks, cacheFile, false);
+				assertThat(confEcalc.count.get(), greaterThan(0));
+				assertThat(confEcalc.count.get(), lessThan(numEntries()));
+				assertThat(emat, is(expected));
+				assertThat(emat.getConstTerm(), is(expected.getConstTerm()));
+
+				// and then the cache should be complete
+				confEcalc = new CountingConfEcalc();
+				calc(confEcalc, tasks, cacheFile, false);
+				assertThat(confEcalc.count.get(), is(0));
+			}
+		}
+	}
+}
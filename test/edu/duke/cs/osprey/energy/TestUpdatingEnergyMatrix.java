@@ -32,7 +32,11 @@
 
 package edu.duke.cs.osprey.energy;
 
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
 import edu.duke.cs.osprey.confspace.*;
+import edu.duke.cs.osprey.ematrix.EnergyMatrix;
 import edu.duke.cs.osprey.ematrix.UpdatingEnergyMatrix;
 import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
 import edu.duke.cs.osprey.restypes.ResidueTemplateLibrary;
@@ -41,10 +45,8 @@ import edu.duke.cs.osprey.structure.PDBIO;
 import edu.duke.cs.osprey.tools.FileTools;
 import org.junit.Test;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.*;
+import java.util.stream.Collectors;
 
 public class TestUpdatingEnergyMatrix {
     public static final int NUM_FLEX = 10;
@@ -76,6 +78,100 @@ public class TestUpdatingEnergyMatrix {
         runManual(trie);
     }
 
+    @Test
+    public void testTupleTrieMatchesBruteForce() {
+
+        SimpleConfSpace confSpace = make1GUASmall(6);
+        Random rand = new Random(12345);
+
+        UpdatingEnergyMatrix.TupleTrie trie = new UpdatingEnergyMatrix.TupleTrie(confSpace.positions);
+        List<TupE> inserted = new ArrayList<>();
+        for (int i=0; i<200; i++) {
+            int[] conf = makeRandomConf(confSpace, rand);
+            if (new RCTuple(conf).size() == 0) {
+                continue;
+            }
+            TupE tupE = new TupE(new RCTuple(conf), -40*rand.nextDouble());
+            trie.insert(tupE);
+            inserted.add(tupE);
+            assertThat(trie.contains(tupE.tup), is(true));
+        }
+        assertThat(trie.size(), is(inserted.size()));
+
+        // the trie should find exactly the corrections that are subsets of the query
+        for (int i=0; i<200; i++) {
+            int[] conf = makeRandomConf(confSpace, rand);
+            Set<TupE> expected = inserted.stream()
+                .filter(tupE -> isSubset(tupE.tup, conf))
+                .collect(Collectors.toSet());
+            assertThat(new HashSet<>(trie.getCorrections(new RCTuple(conf))), is(expected));
+        }
+    }
+
+    @Test
+    public void testConfEMatchesTuples() {
+
+        SimpleConfSpace confSpace = make1GUASmall(6);
+        Random rand = new Random(12345);
+
+        EnergyMatrix emat = new EnergyMatrix(confSpace);
+        for (int pos1=0; pos1<emat.getNumPos(); pos1++) {
+            for (int rc1=0; rc1<emat.getNumConfAtPos(pos1); rc1++) {
+                emat.setOneBody(pos1, rc1, rand.nextDouble());
+                for (int pos2=0; pos2<pos1; pos2++) {
+                    for (int rc2=0; rc2<emat.getNumConfAtPos(pos2); rc2++) {
+                        emat.setPairwise(pos1, rc1, pos2, rc2, rand.nextDouble());
+                    }
+                }
+            }
+        }
+        UpdatingEnergyMatrix corrected = new UpdatingEnergyMatrix(confSpace, emat);
+
+        // add some triples
+        for (int i=0; i<100; i++) {
+            int[] conf = makeRandomConf(confSpace, rand);
+            RCTuple tup = new RCTuple(conf);
+            if (tup.size() >= 3) {
+                corrected.setHigherOrder(tup, 10*rand.nextDouble());
+            }
+        }
+        assertThat(corrected.hasHigherOrderTerms(), is(true));
+
+        // the unboxed path should match the tuple path, for full and partial confs
+        for (int i=0; i<200; i++) {
+            int[] conf = makeRandomConf(confSpace, rand);
+            if (i % 2 == 0) {
+                for (int pos=0; pos<conf.length; pos++) {
+                    conf[pos] = rand.nextInt(Math.min(3, confSpace.positions.get(pos).resConfs.size()));
+                }
+            }
+            double expected = corrected.getInternalEnergy(new RCTuple(conf)) + corrected.getConstTerm();
+            assertThat(corrected.confE(conf), closeTo(expected, 1e-12));
+        }
+    }
+
+    /** make a partial conf, using only the first few RCs at each position, so we get lots of overlaps */
+    private static int[] makeRandomConf(SimpleConfSpace confSpace, Random rand) {
+        int[] conf = new int[confSpace.positions.size()];
+        for (SimpleConfSpace.Position pos : confSpace.positions) {
+            if (rand.nextBoolean()) {
+                conf[pos.index] = rand.nextInt(Math.min(3, pos.resConfs.size()));
+            } else {
+                conf[pos.index] = -1;
+            }
+        }
+        return conf;
+    }
+
+    private static boolean isSubset(RCTuple tup, int[] conf) {
+        for (int i=0; i<tup.size(); i++) {
+            if (conf[tup.pos.get(i)] != tup.RCs.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private void runManual(UpdatingEnergyMatrix.TupleTrie trie) {
         for(TupE tupE : makeManualTupE()) {
             System.out.println("Inserting "+tupE.tup.stringListing()+":"+tupE.E);
@@ -0,0 +1,60 @@
+package edu.duke.cs.osprey.energy.compiled;
+
+import static edu.duke.cs.osprey.tools.Log.log;
+
+import edu.duke.cs.osprey.Benchmark;
+import edu.duke.cs.osprey.confspace.compiled.AssignedCoords;
+import edu.duke.cs.osprey.confspace.compiled.ConfSpace;
+import edu.duke.cs.osprey.confspace.compiled.PosInter;
+import edu.duke.cs.osprey.confspace.compiled.PosInterDist;
+import edu.duke.cs.osprey.confspace.compiled.TestConfSpace;
+
+import java.util.List;
+
+
+/**
+ * Compares the atom pair throughput of the fused energy kernel against the generic energy calculators.
+ */
+public class BenchmarkFusedEnergyKernel {
+
+	public static void main(String[] args) {
+
+		TestConfSpace.AffinityCompiled compiled = TestConfSpace.Design2RL0Interface7Mut.makeCompiled();
+		ConfSpace confSpace = compiled.complex;
+		int[] conf = compiled.makeConfComplexWt();
+		List<PosInter> inters = PosInterDist.dynamic(confSpace, null, conf);
+
+		FusedEnergyKernel kernel = FusedEnergyKernel.of(confSpace);
+		long numPairs = kernel.countAtomPairs(conf, inters);
+		log("%d atom pairs per energy", numPairs);
+
+		// the old rigid path: make the coords, then call each forcefield
+		Benchmark bmGeneric = new Benchmark(200, 5000, () -> {
+			AssignedCoords coords = confSpace.makeCoords(conf);
+			for (EnergyCalculator ecalc : confSpace.ecalcs) {
+				ecalc.calcEnergy(coords, inters);
+			}
+		});
+		log("%20s: %s   %.1f M atom pairs/s", "generic", bmGeneric, bmGeneric.opsPerSecond*numPairs/1e6);
+
+		// just the forcefields, on existing coords
+		AssignedCoords coords = confSpace.makeCoords(conf);
+		Benchmark bmGenericCoords = new Benchmark(200, 5000, () -> {
+			for (EnergyCalculator ecalc : confSpace.ecalcs) {
+				ecalc.calcEnergy(coords, inters);
+			}
+		});
+		log("%20s: %s   %.1f M atom pairs/s", "generic (coords)", bmGenericCoords.toString(bmGeneric), bmGenericCoords.opsPerSecond*numPairs/1e6);
+
+		Benchmark bmKernelCoords = new Benchmark(200, 5000, () -> {
+			kernel.calcEnergy(coords, inters);
+		});
+		log("%20s: %s   %.1f M atom pairs/s", "kernel (coords)", bmKernelCoords.toString(bmGeneric), bmKernelCoords.opsPerSecond*numPairs/1e6);
+
+		// the new rigid path, straight from the conf space
+		Benchmark bmKernel = new Benchmark(200, 5000, () -> {
+			kernel.calcEnergy(conf, inters);
+		});
+		log("%20s: %s   %.1f M atom pairs/s", "kernel", bmKernel.toString(bmGeneric), bmKernel.opsPerSecond*numPairs/1e6);
+	}
+}
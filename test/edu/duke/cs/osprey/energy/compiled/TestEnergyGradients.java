@@ -0,0 +1,147 @@
+package edu.duke.cs.osprey.energy.compiled;
+
+import static edu.duke.cs.osprey.TestBase.isAbsolutely;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import cern.colt.matrix.DoubleFactory1D;
+import cern.colt.matrix.DoubleMatrix1D;
+import edu.duke.cs.osprey.confspace.compiled.AssignedCoords;
+import edu.duke.cs.osprey.confspace.compiled.ConfSpace;
+import edu.duke.cs.osprey.confspace.compiled.PosInter;
+import edu.duke.cs.osprey.confspace.compiled.PosInterDist;
+import edu.duke.cs.osprey.confspace.compiled.TestConfSpace;
+import edu.duke.cs.osprey.minimization.DifferentiableObjectiveFunction;
+import edu.duke.cs.osprey.minimization.LBFGSMinimizer;
+import edu.duke.cs.osprey.minimization.Minimizer;
+import edu.duke.cs.osprey.minimization.SimpleCCDMinimizer;
+import edu.duke.cs.osprey.tools.FileTools;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+
+public class TestEnergyGradients {
+
+	private static final ConfSpace dipeptide = ConfSpace.fromBytes(FileTools.readResourceBytes("/confSpaces/dipeptide.5hydrophobic.ccsx"));
+	private static final ConfSpace complex = TestConfSpace.Design2RL0Interface7Mut.makeCompiled().complex;
+
+	private static void assertForcefieldDerivatives(EnergyCalculator ecalc, double[] params) {
+		for (double r=1.0; r<8.0; r+=0.37) {
+			double h = 1e-6;
+			double rp = r + h;
+			double rm = r - h;
+			double expected = (ecalc.calcEnergy(rp, rp*rp, params) - ecalc.calcEnergy(rm, rm*rm, params))/(2*h);
+			double observed = ecalc.calcDerivative(r, r*r, params);
+			assertThat("r=" + r, observed, isAbsolutely(expected, 1e-4*Math.max(1.0, Math.abs(expected))));
+		}
+	}
+
+	@Test
+	public void amberDerivative() {
+		for (EnergyCalculator ecalc : dipeptide.ecalcs) {
+			if (ecalc instanceof AmberEnergyCalculator) {
+				assertForcefieldDerivatives(ecalc, new double[] { -12.3, 4000.0, 45.6 });
+				assertForcefieldDerivatives(ecalc, new double[] { 8.9, 120000.0, 210.0 });
+			}
+		}
+	}
+
+	@Test
+	public void eef1Derivative() {
+		for (EnergyCalculator ecalc : dipeptide.ecalcs) {
+			if (ecalc instanceof EEF1EnergyCalculator) {
+				assertForcefieldDerivatives(ecalc, new double[] { 1.9, 3.5, 2.1, 3.5, -0.8, 1.2 });
+			}
+		}
+	}
+
+	/** returns the number of DoFs checked */
+	private static int assertDofDerivatives(ConfSpace confSpace, int[] conf) {
+
+		CPUConfEnergyCalculator confEcalc = new CPUConfEnergyCalculator(confSpace);
+		AssignedCoords coords = confSpace.makeCoords(conf);
+		List<PosInter> inters = PosInterDist.all(confSpace, null, conf);
+		DifferentiableObjectiveFunction f = confEcalc.makeObjectiveFunction(coords, inters);
+
+		int n = f.getNumDOFs();
+
+		// check the gradient at a few random points inside the bounds
+		Random rand = new Random(12345);
+		DoubleMatrix1D[] bounds = f.getConstraints();
+		for (int i=0; i<3; i++) {
+
+			DoubleMatrix1D x = DoubleFactory1D.dense.make(n);
+			for (int d=0; d<n; d++) {
+				double min = bounds[0].get(d);
+				double max = bounds[1].get(d);
+				x.set(d, min + (max - min)*(0.25 + 0.5*rand.nextDouble()));
+			}
+
+			DoubleMatrix1D gradient = DoubleFactory1D.dense.make(n);
+			double energy = f.getValueAndGradient(x, gradient);
+			assertThat(energy, isAbsolutely(f.getValue(x), 1e-9));
+
+			for (int d=0; d<n; d++) {
+				double h = 1e-6;
+				DoubleMatrix1D xp = x.copy();
+				xp.set(d, x.get(d) + h);
+				DoubleMatrix1D xm = x.copy();
+				xm.set(d, x.get(d) - h);
+				double expected = (f.getValue(xp) - f.getValue(xm))/(2*h);
+				assertThat(coords.dofs.get(d).name(), gradient.get(d), isAbsolutely(expected, 1e-3*Math.max(1.0, Math.abs(expected))));
+			}
+		}
+
+		return n;
+	}
+
+	@Test
+	public void dihedralDerivatives() {
+		int numDofs = 0;
+		for (int confi=0; confi<dipeptide.numConf(0); confi+=3) {
+			int[] conf = new int[dipeptide.numPos()];
+			conf[0] = confi;
+			numDofs += assertDofDerivatives(dipeptide, conf);
+		}
+		assertThat(numDofs, greaterThan(0));
+	}
+
+	@Test
+	public void complexDerivatives() {
+		int numDofs = assertDofDerivatives(complex, TestConfSpace.Design2RL0Interface7Mut.makeCompiled().makeConfComplexWt());
+		assertThat(numDofs, greaterThan(0));
+	}
+
+	@Test
+	public void rigidBodyDerivatives() {
+
+		// this conf space has translation and rotation dofs for the ligands
+		ConfSpace complex = ConfSpace.fromBytes(FileTools.readFileBytes("examples/python.ccs/F98Y/4tu5.complex.ccsx"));
+
+		int numDofs = assertDofDerivatives(complex, new int[complex.numPos()]);
+		assertThat(numDofs, greaterThan(0));
+	}
+
+	@Test
+	public void lbfgsMatchesCcd() {
+
+		int[] conf = TestConfSpace.Design2RL0Interface7Mut.makeCompiled().makeConfComplexWt();
+		List<PosInter> inters = PosInterDist.all(complex, null, conf);
+
+		CPUConfEnergyCalculator confEcalc = new CPUConfEnergyCalculator(complex);
+
+		Minimizer.Result ccd = new SimpleCCDMinimizer(confEcalc.makeObjectiveFunction(complex.makeCoords(conf), inters)).minimizeFromCenter();
+
+		LBFGSMinimizer lbfgs = new LBFGSMinimizer(confEcalc.makeObjectiveFunction(complex.makeCoords(conf), inters));
+		Minimizer.Result result = lbfgs.minimizeFromCenter();
+
+		assertThat(result.energy, lessThanOrEqualTo(ccd.energy + 0.01));
+		assertThat(lbfgs.getNumEvaluations(), greaterThan(0));
+
+		// the calculator should pick the same minimizer
+		double energy = new CPUConfEnergyCalculator(complex, CPUConfEnergyCalculator.MinimizerType.LBFGS).minimizeEnergy(conf, inters);
+		assertThat(energy, isAbsolutely(result.energy, 1e-9));
+	}
+}
@@ -0,0 +1,88 @@
+package edu.duke.cs.osprey.energy.compiled;
+
+import static edu.duke.cs.osprey.TestBase.isAbsolutely;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import edu.duke.cs.osprey.confspace.compiled.AssignedCoords;
+import edu.duke.cs.osprey.confspace.compiled.ConfSpace;
+import edu.duke.cs.osprey.confspace.compiled.DegreeOfFreedom;
+import edu.duke.cs.osprey.confspace.compiled.PosInter;
+import edu.duke.cs.osprey.confspace.compiled.PosInterDist;
+import edu.duke.cs.osprey.confspace.compiled.TestConfSpace;
+import edu.duke.cs.osprey.tools.FileTools;
+import org.hamcrest.Matcher;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+
+public class TestFusedEnergyKernel {
+
+	/** the kernel sums in a slightly different order, so allow for some roundoff error in big clash energies */
+	private static Matcher<Double> isEnergy(double expected) {
+		return isAbsolutely(expected, 1e-9*Math.max(1.0, Math.abs(expected)));
+	}
+
+	private static double calcGeneric(AssignedCoords coords, List<PosInter> inters) {
+		double energy = 0.0;
+		for (EnergyCalculator ecalc : coords.confSpace.ecalcs) {
+			energy += ecalc.calcEnergy(coords, inters);
+		}
+		return energy;
+	}
+
+	private static void assertEnergies(ConfSpace confSpace) {
+
+		FusedEnergyKernel kernel = FusedEnergyKernel.of(confSpace);
+		assertThat(kernel, is(not(nullValue())));
+
+		Random rand = new Random(12345);
+		for (int i=0; i<10; i++) {
+
+			// pick a random conf
+			int[] conf = new int[confSpace.numPos()];
+			for (int posi=0; posi<conf.length; posi++) {
+				conf[posi] = rand.nextInt(confSpace.numConf(posi));
+			}
+			List<PosInter> inters = PosInterDist.all(confSpace, null, conf);
+
+			// rigid energies
+			AssignedCoords coords = confSpace.makeCoords(conf);
+			double expected = calcGeneric(coords, inters);
+			assertThat(kernel.calcEnergy(conf, inters), isEnergy(expected));
+			assertThat(kernel.calcEnergy(coords, inters), isEnergy(expected));
+
+			// move the dofs around and check again
+			for (DegreeOfFreedom dof : coords.dofs) {
+				dof.set(dof.min() + (dof.max() - dof.min())*rand.nextDouble());
+			}
+			assertThat(kernel.calcEnergy(coords, inters), isEnergy(calcGeneric(coords, inters)));
+
+			// check sub energies too
+			for (DegreeOfFreedom dof : coords.dofs) {
+				double expectedSub = 0.0;
+				for (EnergyCalculator ecalc : confSpace.ecalcs) {
+					expectedSub += ecalc.calcSubEnergy(coords, inters, dof.modifiedPosIndices());
+				}
+				assertThat(kernel.calcSubEnergy(coords, inters, dof.modifiedPosIndices()), isEnergy(expectedSub));
+			}
+		}
+	}
+
+	@Test
+	public void dipeptide() {
+		assertEnergies(ConfSpace.fromBytes(FileTools.readResourceBytes("/confSpaces/dipeptide.5hydrophobic.ccsx")));
+	}
+
+	@Test
+	public void complex2RL0() {
+		assertEnergies(TestConfSpace.Design2RL0Interface7Mut.makeCompiled().complex);
+	}
+
+	@Test
+	public void complex4tu5() {
+		assertEnergies(ConfSpace.fromBytes(FileTools.readFileBytes("examples/python.ccs/F98Y/4tu5.complex.ccsx")));
+	}
+}
@@ -0,0 +1,125 @@
+package edu.duke.cs.osprey.energy.forcefield;
+
+import static edu.duke.cs.osprey.TestBase.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import edu.duke.cs.osprey.energy.ResidueInteractions;
+import edu.duke.cs.osprey.structure.AtomConnectivity;
+import edu.duke.cs.osprey.structure.Residues;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+public class TestResPairCache {
+
+	private static Residues residues;
+	private static ResidueInteractions inters;
+	private static ForcefieldParams ffparams;
+
+	@BeforeClass
+	public static void before() {
+		TestForcefieldEnergy.before();
+
+		TestForcefieldEnergy.TestResidues r = new TestForcefieldEnergy.TestResidues();
+		residues = new Residues(r.gly15, r.ser17, r.trp18, r.trp25);
+		inters = TestForcefieldEnergy.IntersType.AllPairs.makeInters(residues);
+		ffparams = TestForcefieldEnergy.FFType.EEF1.makeFFParams();
+	}
+
+	private static ResPairCache makeCache(long maxBytes) {
+		return new ResPairCache(ffparams, new AtomConnectivity.Builder().build(), maxBytes);
+	}
+
+	@Test
+	public void hitsAndMisses() {
+
+		ResPairCache cache = makeCache(ResPairCache.DefaultMaxBytes);
+
+		// residue pairs with the same templates share atom pairs, so we can get hits right away
+		new ResidueForcefieldEnergy(cache, inters, residues);
+		long numMisses = cache.getNumMisses();
+		assertThat(cache.getNumHits() + numMisses, is((long)inters.size()));
+		assertThat(cache.size(), is((int)numMisses));
+		assertThat(cache.getNumBytes(), greaterThan(0L));
+
+		// but the second time, everything should hit
+		new ResidueForcefieldEnergy(cache, inters, residues);
+		assertThat(cache.getNumHits() + cache.getNumMisses(), is(2L*inters.size()));
+		assertThat(cache.getNumMisses(), is(numMisses));
+		assertThat(cache.getNumEvictions(), is(0L));
+		assertThat(cache.getHitRate(), greaterThanOrEqualTo(0.5));
+	}
+
+	@Test
+	public void evictions() {
+
+		double expected = new ResidueForcefieldEnergy(makeCache(ResPairCache.DefaultMaxBytes), inters, residues).getEnergy();
+
+		// no room for anything, but we should still get the right energies
+		ResPairCache cache = makeCache(0);
+		for (int i=0; i<3; i++) {
+			double energy = new ResidueForcefieldEnergy(cache, inters, residues).getEnergy();
+			assertThat(energy, isAbsolutely(expected, 1e-12));
+		}
+
+		assertThat(cache.size(), is(1));
+		assertThat(cache.getNumEvictions(), is(cache.getNumMisses() - 1));
+	}
+
+	@Test
+	public void concurrent() throws Exception {
+
+		double expected = new ResidueForcefieldEnergy(makeCache(ResPairCache.DefaultMaxBytes), inters, residues).getEnergy();
+
+		// use a small cache, so we get lots of evictions while the threads race each other
+		ResPairCache cache = makeCache(8*1024);
+		AtomicReference<Throwable> error = new AtomicReference<>(null);
+		List<Thread> threads = new ArrayList<>();
+		for (int i=0; i<4; i++) {
+			threads.add(new Thread(() -> {
+				try {
+					for (int j=0; j<50; j++) {
+						double energy = new ResidueForcefieldEnergy(cache, inters, residues).getEnergy();
+						assertThat(energy, isAbsolutely(expected, 1e-12));
+					}
+				} catch (Throwable t) {
+					error.set(t);
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		if (error.get() != null) {
+			throw new Error(error.get());
+		}
+		assertThat(cache.getNumHits() + cache.getNumMisses(), is(4L*50*inters.size()));
+		assertThat(cache.getNumBytes() <= 8*1024 || cache.size() == 1, is(true));
+	}
+
+	@Test
+	public void subsetsReuseResPairs() {
+
+		ResPairCache cache = makeCache(ResPairCache.DefaultMaxBytes);
+		ResidueForcefieldEnergy efunc = new ResidueForcefieldEnergy(cache, inters, residues);
+		long numLookups = cache.getNumHits() + cache.getNumMisses();
+
+		for (ResidueInteractions.Pair pair : inters) {
+			ResidueForcefieldEnergy subset = efunc.makeSubset(pair);
+			ResidueForcefieldEnergy fresh = new ResidueForcefieldEnergy(makeCache(ResPairCache.DefaultMaxBytes), new ResidueInteractions(pair), residues);
+			assertThat(subset.getEnergy(), isAbsolutely(fresh.getEnergy(), 1e-12));
+		}
+
+		// the subsets shouldn't have needed the cache at all
+		assertThat(cache.getNumHits() + cache.getNumMisses(), is(numLookups));
+	}
+}
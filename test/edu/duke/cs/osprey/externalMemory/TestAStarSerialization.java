@@ -37,11 +37,8 @@ import static org.junit.Assert.*;
 
 import edu.duke.cs.osprey.astar.conf.ConfAStarNode;
 import edu.duke.cs.osprey.astar.conf.RCs;
-import edu.duke.cs.tpie.EntrySize;
-import edu.duke.cs.tpie.serialization.SerializingDoublePriorityQueue;
 import org.junit.Test;
 
-import java.lang.reflect.Field;
 import java.util.Arrays;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -54,7 +51,7 @@ public class TestAStarSerialization {
 		ExternalMemory.use(16, () -> {
 
 			Queue<EMConfAStarNode> q = makeQueue(10); // 21 bytes
-			assertQueue(q, EntrySize.Bytes32, AssignmentsSerializer.Encoding.Byte);
+			assertQueue(q, 21, AssignmentsSerializer.Encoding.Byte);
 
 			q.push(makeNode(7, 4.2, 7.9, 1));
 
@@ -67,7 +64,7 @@ public class TestAStarSerialization {
 		ExternalMemory.use(16, () -> {
 
 			Queue<EMConfAStarNode> q = makeQueue(10, 10); // 22 bytes
-			assertQueue(q, EntrySize.Bytes32, AssignmentsSerializer.Encoding.Byte);
+			assertQueue(q, 22, AssignmentsSerializer.Encoding.Byte);
 
 			q.push(makeNode(7, 4.2, 7.9, 7, 2));
 
@@ -80,7 +77,7 @@ public class TestAStarSerialization {
 		ExternalMemory.use(16, () -> {
 
 			Queue<EMConfAStarNode> q = makeQueue(10, 20, 30, 40, 50, 60, 70, 80, 90, 100, 110, 120); // 32 bytes
-			assertQueue(q, EntrySize.Bytes32, AssignmentsSerializer.Encoding.Byte);
+			assertQueue(q, 32, AssignmentsSerializer.Encoding.Byte);
 
 			q.push(makeNode(7, 4.2, 7.9, 9, 19, 29, 39, 49, 59, 69, 79, 89, 99, 109, 119));
 
@@ -93,7 +90,7 @@ public class TestAStarSerialization {
 		ExternalMemory.use(16, () -> {
 
 			Queue<EMConfAStarNode> q = makeQueue(10, 10, 10, 10, 10, 10, 10, 10, 10, 10, 10, 10, 10); // 33 bytes
-			assertQueue(q, EntrySize.Bytes64, AssignmentsSerializer.Encoding.Byte);
+			assertQueue(q, 33, AssignmentsSerializer.Encoding.Byte);
 
 			q.push(makeNode(8, 0.3, 4.0, 1, 2, 3, 4, 5, 1, 2, 3, 4, 5, 1, 2, 3));
 			q.push(makeNode(2, 3.8, 2.4, 6, 6, 6, 6, 6, 6, 6, 6, 6, 6, 6, 6, 6));
@@ -112,7 +109,7 @@ public class TestAStarSerialization {
 		ExternalMemory.use(16, () -> {
 
 			Queue<EMConfAStarNode> q = makeQueue(128); // 21 bytes
-			assertQueue(q, EntrySize.Bytes32, AssignmentsSerializer.Encoding.Byte);
+			assertQueue(q, 21, AssignmentsSerializer.Encoding.Byte);
 
 			q.push(makeNode(7, 4.2, 7.9, 0));
 			q.push(makeNode(2, 3.8, 2.4, 1));
@@ -131,7 +128,7 @@ public class TestAStarSerialization {
 		ExternalMemory.use(16, () -> {
 
 			Queue<EMConfAStarNode> q = makeQueue(128); // 21 bytes
-			assertQueue(q, EntrySize.Bytes32, AssignmentsSerializer.Encoding.Byte);
+			assertQueue(q, 21, AssignmentsSerializer.Encoding.Byte);
 
 			q.push(makeNode(7, 4.2, 7.9, 128));
 		});
@@ -141,7 +138,7 @@ public class TestAStarSerialization {
 	public void astarNode1x129() {
 		ExternalMemory.use(16, () -> {
 			Queue<EMConfAStarNode> q = makeQueue(129); // 22 bytes
-			assertQueue(q, EntrySize.Bytes32, AssignmentsSerializer.Encoding.Short);
+			assertQueue(q, 22, AssignmentsSerializer.Encoding.Short);
 		});
 	}
 
@@ -150,7 +147,7 @@ public class TestAStarSerialization {
 		ExternalMemory.use(16, () -> {
 
 			Queue<EMConfAStarNode> q = makeQueue(32768); // 22 bytes
-			assertQueue(q, EntrySize.Bytes32, AssignmentsSerializer.Encoding.Short);
+			assertQueue(q, 22, AssignmentsSerializer.Encoding.Short);
 
 			q.push(makeNode(7, 4.2, 7.9, 0));
 			q.push(makeNode(2, 3.8, 2.4, 1));
@@ -169,7 +166,7 @@ public class TestAStarSerialization {
 		ExternalMemory.use(16, () -> {
 
 			Queue<EMConfAStarNode> q = makeQueue(32768); // 22 bytes
-			assertQueue(q, EntrySize.Bytes32, AssignmentsSerializer.Encoding.Short);
+			assertQueue(q, 22, AssignmentsSerializer.Encoding.Short);
 
 			q.push(makeNode(7, 4.2, 7.9, 32768));
 		});
@@ -179,7 +176,7 @@ public class TestAStarSerialization {
 	public void astarNode1x32769() {
 		ExternalMemory.use(16, () -> {
 			Queue<EMConfAStarNode> q = makeQueue(32769); // 24 bytes
-			assertQueue(q, EntrySize.Bytes32, AssignmentsSerializer.Encoding.Int);
+			assertQueue(q, 24, AssignmentsSerializer.Encoding.Int);
 		});
 	}
 
@@ -188,7 +185,7 @@ public class TestAStarSerialization {
 		ExternalMemory.use(16, () -> {
 
 			Queue<EMConfAStarNode> q = makeQueue(200, 200, 200, 200, 200, 200, 200, 200, 200); // 38 bytes
-			assertQueue(q, EntrySize.Bytes64, AssignmentsSerializer.Encoding.Short);
+			assertQueue(q, 38, AssignmentsSerializer.Encoding.Short);
 
 			q.push(makeNode(8, 0.3, 4.0,  10,  20,  30,  40,  50,  60,  70,  80,  90));
 			q.push(makeNode(2, 3.8, 2.4,   0,   0,   0,   0,   0,   0,   0,   0,   0));
@@ -210,7 +207,7 @@ public class TestAStarSerialization {
 				200, 200, 200, 200, 200, 200, 200, 200, 200, 200, 200,
 				200, 200, 200, 200, 200, 200, 200, 200, 200, 200, 200
 			); // 64 bytes
-			assertQueue(q, EntrySize.Bytes64, AssignmentsSerializer.Encoding.Short);
+			assertQueue(q, 64, AssignmentsSerializer.Encoding.Short);
 
 			q.push(makeNode(8, 0.3, 4.0,  10,  20,  30,  40,  50,  60,  70,  80,  90,   4,   2,  10,  20,  30,  40,  50,  60,  70,  80,  90,   5,   5));
 			q.push(makeNode(2, 3.8, 2.4,   0,   0,   0,   0,   0,   0,   0,   0,   0,   4,   2,   0,   0,   0,   0,   0,   0,   0,   0,   0,   5,   5));
@@ -232,7 +229,7 @@ public class TestAStarSerialization {
 				{ 1, 2, 3, 4, 5 },
 				{ 201, 202, 203, 204, 205 }
 			}); // 24 bytes
-			assertQueue(q, EntrySize.Bytes32, AssignmentsSerializer.Encoding.Short);
+			assertQueue(q, 24, AssignmentsSerializer.Encoding.Short);
 
 			q.push(makeNode(8, 0.3, 4.0, 1, 205));
 			q.push(makeNode(2, 3.8, 2.4, 3, 202));
@@ -299,20 +296,9 @@ public class TestAStarSerialization {
 		assertThat(node.getConf(), is(assignments));
 	}
 
-	private static void assertQueue(Queue<EMConfAStarNode> q, EntrySize entrySize, AssignmentsSerializer.Encoding encoding) {
-
-		SerializingDoublePriorityQueue<?> pq;
-		try {
-			// hack out the wrapped queue using reflection
-			Field field = q.getClass().getDeclaredField("q");
-			field.setAccessible(true);
-			pq = (SerializingDoublePriorityQueue<?>)field.get(q);
-		} catch (Exception ex) {
-			throw new Error(ex);
-		}
-
-		AssignmentsSerializer serializer = (AssignmentsSerializer)pq.serializer;
-		assertThat(serializer.entrySize, is(entrySize));
+	private static void assertQueue(Queue<EMConfAStarNode> q, int numBytes, AssignmentsSerializer.Encoding encoding) {
+		AssignmentsSerializer serializer = (AssignmentsSerializer)((ExternalPriorityQueue<?>)q).serializer;
+		assertThat(serializer.numBytes, is(numBytes));
 		assertThat(serializer.encoding, is(encoding));
 	}
 }
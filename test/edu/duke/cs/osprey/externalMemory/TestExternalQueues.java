@@ -0,0 +1,299 @@
+package edu.duke.cs.osprey.externalMemory;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+
+public class TestExternalQueues {
+
+	private static class PrioritySerializer implements ExternalPriorityQueue.Serializer<double[]> {
+
+		@Override
+		public int getNumBytes() {
+			return Double.BYTES;
+		}
+
+		@Override
+		public double serialize(double[] val, ByteBuffer buf) {
+			buf.putDouble(val[1]);
+			return val[0];
+		}
+
+		@Override
+		public double[] deserialize(double score, ByteBuffer buf) {
+			return new double[] { score, buf.getDouble() };
+		}
+	}
+
+	private static class FIFOSerializer implements ExternalFIFOQueue.Serializer<Long> {
+
+		@Override
+		public int getNumBytes() {
+			return Long.BYTES;
+		}
+
+		@Override
+		public void serialize(Long val, ByteBuffer buf) {
+			buf.putLong(val);
+		}
+
+		@Override
+		public Long deserialize(ByteBuffer buf) {
+			return buf.getLong();
+		}
+	}
+
+	@Test
+	public void priorityEmpty() {
+		ExternalMemory.use(1, () -> {
+			ExternalPriorityQueue<double[]> q = new ExternalPriorityQueue<>(new PrioritySerializer());
+			assertThat(q.isEmpty(), is(true));
+			assertThat(q.peek(), is(nullValue()));
+			assertThat(q.poll(), is(nullValue()));
+		});
+	}
+
+	@Test
+	public void priorityInMemory() {
+		ExternalMemory.use(1, () -> {
+			ExternalPriorityQueue<double[]> q = new ExternalPriorityQueue<>(new PrioritySerializer());
+			checkPriority(q, 1000, 1000, 0.5);
+			assertThat(ExternalMemory.getExternalBytes(), is(0L));
+		});
+	}
+
+	@Test
+	public void prioritySpill() {
+		ExternalMemory.use(1, () -> {
+			ExternalPriorityQueue<double[]> q = new ExternalPriorityQueue<>(new PrioritySerializer());
+			checkPriority(q, 200000, 200000, 0.0);
+		});
+	}
+
+	@Test
+	public void prioritySpillInterleaved() {
+
+		// like A*, pop one and push a few
+		ExternalMemory.use(1, () -> {
+			ExternalPriorityQueue<double[]> q = new ExternalPriorityQueue<>(new PrioritySerializer());
+			checkPriority(q, 300000, 300000, 0.6);
+		});
+	}
+
+	@Test
+	public void priorityManyRuns() {
+
+		// with no internal memory, the heap stays small,
+		// so we make more runs than the queue will keep around, and it has to merge them
+		ExternalMemory.use(0, () -> {
+			ExternalPriorityQueue<double[]> q = new ExternalPriorityQueue<>(new PrioritySerializer());
+			checkPriority(q, ExternalPriorityQueue.MinHeapSize*ExternalPriorityQueue.MergeFanIn*3, Integer.MAX_VALUE, 0.1);
+		});
+	}
+
+	@Test
+	public void priorityMergeTiers() {
+		ExternalMemory.use(0, () -> {
+
+			// with no internal memory, every spill is one minimal heap,
+			// so push enough for two full sets of tier-1 runs (the last push triggers the last spill)
+			ExternalPriorityQueue<double[]> q = new ExternalPriorityQueue<>(new PrioritySerializer());
+			int numSpills = ExternalPriorityQueue.MergeFanIn*ExternalPriorityQueue.MergeFanIn*2;
+			Random rand = new Random(12345);
+			PriorityQueue<double[]> expected = new PriorityQueue<>((a, b) -> Double.compare(a[0], b[0]));
+			for (int i=0; i<ExternalPriorityQueue.MinHeapSize*numSpills + 1; i++) {
+				double[] val = { rand.nextDouble(), i };
+				q.push(val);
+				expected.add(val);
+			}
+
+			// the spills should have been merged all the way up into two tier-2 runs
+			assertThat(q.getNumRuns(), is(2));
+
+			while (!expected.isEmpty()) {
+				checkPop(q, expected);
+			}
+			assertThat(q.isEmpty(), is(true));
+			assertThat(q.getNumRuns(), is(0));
+		});
+	}
+
+	@Test
+	public void priorityClose() {
+		ExternalMemory.use(1, () -> {
+
+			// queues from other tests might still be waiting for the GC, so only count our own memory
+			// (if the GC gets to them in the meantime, the counts can only go down)
+			long internalBytes = ExternalMemory.getInternalBytes();
+			long externalBytes = ExternalMemory.getExternalBytes();
+
+			try (ExternalPriorityQueue<double[]> q = new ExternalPriorityQueue<>(new PrioritySerializer())) {
+				for (int i=0; i<200000; i++) {
+					q.push(new double[] { i, i });
+				}
+				assertThat(q.getNumRuns(), greaterThan(0));
+			}
+
+			// closing should release everything, without waiting for the GC
+			assertThat(ExternalMemory.getInternalBytes(), lessThanOrEqualTo(internalBytes));
+			assertThat(ExternalMemory.getExternalBytes(), lessThanOrEqualTo(externalBytes));
+		});
+	}
+
+	@Test
+	public void priorityCleanup() {
+
+		ExternalPriorityQueue<double[]>[] q = new ExternalPriorityQueue[1];
+		ExternalMemory.use(1, () -> {
+			q[0] = new ExternalPriorityQueue<>(new PrioritySerializer());
+			for (int i=0; i<200000; i++) {
+				q[0].push(new double[] { i, i });
+			}
+			assertThat(q[0].getNumRuns(), greaterThan(0));
+		});
+
+		// cleanup should release everything, even for queues that weren't closed
+		assertThat(ExternalMemory.getInternalBytes(), is(0L));
+		assertThat(ExternalMemory.getExternalBytes(), is(0L));
+
+		// and closing the queue late shouldn't make the counts go negative
+		q[0].close();
+		assertThat(ExternalMemory.getInternalBytes(), is(0L));
+		assertThat(ExternalMemory.getExternalBytes(), is(0L));
+	}
+
+	private static void checkPriority(ExternalPriorityQueue<double[]> q, int numPushes, int numPops, double popRate) {
+
+		Random rand = new Random(12345);
+		PriorityQueue<double[]> expected = new PriorityQueue<>((a, b) -> Double.compare(a[0], b[0]));
+
+		// push everything, and pop some along the way
+		for (int i=0; i<numPushes; i++) {
+			double[] val = { rand.nextDouble(), i };
+			q.push(val);
+			expected.add(val);
+			if (rand.nextDouble() < popRate) {
+				checkPop(q, expected);
+			}
+			assertThat(q.size(), is((long)expected.size()));
+		}
+
+		// then pop the rest
+		for (int i=0; i<numPops && !expected.isEmpty(); i++) {
+			checkPop(q, expected);
+		}
+
+		if (expected.isEmpty()) {
+			assertThat(q.isEmpty(), is(true));
+			assertThat(q.getNumRuns(), is(0));
+			assertThat(ExternalMemory.getExternalBytes(), is(0L));
+		}
+	}
+
+	private static void checkPop(ExternalPriorityQueue<double[]> q, PriorityQueue<double[]> expected) {
+		double[] exp = expected.poll();
+		double[] obs = q.poll();
+		assertThat(obs[0], is(exp[0]));
+		assertThat(obs[1], is(exp[1]));
+	}
+
+	@Test
+	public void fifoEmpty() {
+		ExternalMemory.use(1, () -> {
+			ExternalFIFOQueue<Long> q = new ExternalFIFOQueue<>(new FIFOSerializer());
+			assertThat(q.isEmpty(), is(true));
+			assertThat(q.peek(), is(nullValue()));
+			assertThat(q.poll(), is(nullValue()));
+		});
+	}
+
+	@Test
+	public void fifoInMemory() {
+		ExternalMemory.use(1, () -> {
+			ExternalFIFOQueue<Long> q = new ExternalFIFOQueue<>(new FIFOSerializer());
+			checkFIFO(q, 1000, 0.5);
+			assertThat(ExternalMemory.getExternalBytes(), is(0L));
+		});
+	}
+
+	@Test
+	public void fifoSpill() {
+		ExternalMemory.use(1, () -> {
+			ExternalFIFOQueue<Long> q = new ExternalFIFOQueue<>(new FIFOSerializer());
+			checkFIFO(q, 500000, 0.0);
+		});
+	}
+
+	@Test
+	public void fifoSpillInterleaved() {
+		ExternalMemory.use(1, () -> {
+			ExternalFIFOQueue<Long> q = new ExternalFIFOQueue<>(new FIFOSerializer());
+			checkFIFO(q, 500000, 0.4);
+		});
+	}
+
+	@Test
+	public void fifoFilter() {
+		ExternalMemory.use(1, () -> {
+			ExternalFIFOQueue<Long> q = new ExternalFIFOQueue<>(new FIFOSerializer());
+			for (long i=0; i<300000; i++) {
+				q.push(i);
+			}
+			q.filter((val) -> val % 3 == 0);
+			assertThat(q.size(), is(100000L));
+			for (long i=0; i<300000; i+=3) {
+				assertThat(q.poll(), is(i));
+			}
+			assertThat(q.isEmpty(), is(true));
+		});
+	}
+
+	@Test
+	public void fifoClose() {
+		ExternalMemory.use(1, () -> {
+
+			// queues from other tests might still be waiting for the GC, so only count our own memory
+			// (if the GC gets to them in the meantime, the counts can only go down)
+			long internalBytes = ExternalMemory.getInternalBytes();
+			long externalBytes = ExternalMemory.getExternalBytes();
+
+			try (ExternalFIFOQueue<Long> q = new ExternalFIFOQueue<>(new FIFOSerializer())) {
+				// enough to spill, like fifoSpill()
+				for (long i=0; i<500000; i++) {
+					q.push(i);
+				}
+			}
+
+			// closing should release everything, without waiting for the GC
+			assertThat(ExternalMemory.getInternalBytes(), lessThanOrEqualTo(internalBytes));
+			assertThat(ExternalMemory.getExternalBytes(), lessThanOrEqualTo(externalBytes));
+		});
+	}
+
+	private static void checkFIFO(ExternalFIFOQueue<Long> q, int numPushes, double popRate) {
+
+		Random rand = new Random(12345);
+		ArrayDeque<Long> expected = new ArrayDeque<>();
+
+		for (long i=0; i<numPushes; i++) {
+			q.push(i);
+			expected.add(i);
+			if (rand.nextDouble() < popRate) {
+				assertThat(q.poll(), is(expected.poll()));
+			}
+			assertThat(q.size(), is((long)expected.size()));
+		}
+
+		while (!expected.isEmpty()) {
+			assertThat(q.poll(), is(expected.poll()));
+		}
+		assertThat(q.isEmpty(), is(true));
+	}
+}
@@ -38,7 +38,10 @@ import static org.junit.Assert.*;
 
 import edu.duke.cs.osprey.astar.conf.ConfAStarTree;
 import edu.duke.cs.osprey.astar.conf.RCs;
+import edu.duke.cs.osprey.astar.seq.RTs;
+import edu.duke.cs.osprey.astar.seq.nodes.SeqAStarNode;
 import edu.duke.cs.osprey.confspace.ConfSearch;
+import edu.duke.cs.osprey.confspace.SeqSpace;
 import edu.duke.cs.osprey.confspace.Sequence;
 import edu.duke.cs.osprey.confspace.SimpleConfSpace;
 import edu.duke.cs.osprey.confspace.Strand;
@@ -507,6 +510,88 @@ public class TestComets {
 		prepStates(comets, () -> check2RL0SpaceWithoutWildType(comets));
 	}
 
+	@Test
+	public void seqHScorer2RL0() {
+		checkSeqHScorer(make2RL0Small(false));
+		checkSeqHScorer(make2RL0PPI(false));
+	}
+
+	private static void checkSeqHScorer(Comets comets) {
+
+		Comets.SeqHScorer hscorer = comets.new SeqHScorer();
+		RTs rts = new RTs(comets.seqSpace);
+
+		// check every node in the sequence tree, scored from scratch and differentially against the parent
+		SeqAStarNode.Assignments assignments = new SeqAStarNode.Assignments(rts.numPos);
+		checkSeqHScorer(comets, hscorer, rts, assignments, 0);
+	}
+
+	private static void checkSeqHScorer(Comets comets, Comets.SeqHScorer hscorer, RTs rts, SeqAStarNode.Assignments assignments, int pos) {
+
+		assertThat(hscorer.calc(assignments), isAbsolutely(calcSeqHScore(comets, assignments), 1e-9));
+
+		if (pos == rts.numPos) {
+			return;
+		}
+
+		for (int rt : rts.indicesAt(pos)) {
+
+			double score = hscorer.calcDifferential(assignments, pos, rt);
+
+			assignments.assign(pos, rt);
+			assertThat(score, isAbsolutely(calcSeqHScore(comets, assignments), 1e-9));
+			checkSeqHScorer(comets, hscorer, rts, assignments, pos + 1);
+			assignments.unassign(pos);
+		}
+	}
+
+	/** the COMETS A* heuristic for partial sequences, computed directly from the definition */
+	private static double calcSeqHScore(Comets comets, SeqAStarNode.Assignments assignments) {
+
+		double score = comets.objective.offset;
+		for (Comets.WeightedState wstate : comets.objective.states) {
+			List<SimpleConfSpace.Position> positions = wstate.state.confSpace.positions;
+			for (SimpleConfSpace.Position pos1 : positions) {
+
+				// min over RCs at pos1
+				double bestPos1Energy = Double.POSITIVE_INFINITY;
+				for (SimpleConfSpace.ResidueConf rc1 : getSeqHRCs(comets, pos1, assignments)) {
+
+					double rc1Energy = wstate.getSingleEnergy(pos1.index, rc1.index);
+					for (SimpleConfSpace.Position pos2 : positions.subList(0, pos1.index)) {
+
+						// min over the res types at pos2, then the RCs at pos2
+						Map<String,Double> bestRT2Energies = new HashMap<>();
+						for (SimpleConfSpace.ResidueConf rc2 : getSeqHRCs(comets, pos2, assignments)) {
+							bestRT2Energies.merge(rc2.template.name, wstate.getPairEnergy(pos1.index, rc1.index, pos2.index, rc2.index), Math::min);
+						}
+						rc1Energy += bestRT2Energies.values().stream()
+							.mapToDouble(e -> e)
+							.min()
+							.orElse(Double.POSITIVE_INFINITY);
+					}
+
+					bestPos1Energy = Math.min(bestPos1Energy, rc1Energy);
+				}
+
+				score += bestPos1Energy;
+			}
+		}
+		return score;
+	}
+
+	private static List<SimpleConfSpace.ResidueConf> getSeqHRCs(Comets comets, SimpleConfSpace.Position confPos, SeqAStarNode.Assignments assignments) {
+		SeqSpace.Position seqPos = comets.seqSpace.getPosition(confPos.resNum);
+		if (seqPos != null) {
+			Integer rt = assignments.getAssignment(seqPos.index);
+			return confPos.resConfs.stream()
+				.filter(rc -> seqPos.getResType(rc.template.name) != null)
+				.filter(rc -> rt == null || seqPos.resTypes.get(rt).name.equals(rc.template.name))
+				.collect(Collectors.toList());
+		}
+		return confPos.resConfs;
+	}
+
 	public static void assertSequence(Comets comets, List<Comets.SequenceInfo> sequences, String seqStr, double objective, double[] constraints) {
 
 		// find the sequence
@@ -0,0 +1,59 @@
+package edu.duke.cs.osprey.kstar;
+
+import static edu.duke.cs.osprey.tools.Log.log;
+
+import edu.duke.cs.osprey.Benchmark;
+import edu.duke.cs.osprey.kstar.pfunc.BoltzmannCalculator;
+import edu.duke.cs.osprey.kstar.pfunc.PartitionFunction;
+import edu.duke.cs.osprey.tools.BigMath;
+import edu.duke.cs.osprey.tools.LogSumExp;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Random;
+
+
+/**
+ * Compares the cost of accumulating Boltzmann weights with BigDecimal arithmetic
+ * (the pfunc decimal mode) against log-space double arithmetic (the pfunc log mode),
+ * and checks the two sums agree.
+ */
+public class BenchmarkPfuncArithmetic {
+
+	public static void main(String[] args) {
+
+		// make some energies that look like conformation energies for a big design
+		Random rand = new Random(12345);
+		double[] energies = new double[10000];
+		for (int i=0; i<energies.length; i++) {
+			energies[i] = -80.0 + rand.nextDouble()*40.0;
+		}
+
+		BoltzmannCalculator bcalc = new BoltzmannCalculator(PartitionFunction.decimalPrecision);
+
+		BigDecimal[] decimalSum = { null };
+		Benchmark bmDecimal = new Benchmark(5, 20, () -> {
+			BigDecimal sum = BigDecimal.ZERO;
+			for (double energy : energies) {
+				sum = new BigMath(PartitionFunction.decimalPrecision)
+					.set(sum)
+					.add(bcalc.calc(energy))
+					.get();
+			}
+			decimalSum[0] = sum;
+		});
+		log("%10s: %s   %.2f M weights/s", "decimal", bmDecimal, bmDecimal.opsPerSecond*energies.length/1e6);
+
+		LogSumExp logSum = new LogSumExp();
+		Benchmark bmLog = new Benchmark(5, 20, () -> {
+			logSum.clear();
+			for (double energy : energies) {
+				logSum.add(bcalc.calcLog(energy));
+			}
+		});
+		log("%10s: %s   %.2f M weights/s", "log", bmLog.toString(bmDecimal), bmLog.opsPerSecond*energies.length/1e6);
+
+		log("decimal sum: %s", decimalSum[0].round(new MathContext(12)));
+		log("    log sum: %s  in [%s,%s]", logSum.toBigExp(), logSum.toBigExpLower(), logSum.toBigExpUpper());
+	}
+}
@@ -80,6 +80,14 @@ public class TestKStar {
 	}
 
 	public static Result runKStar(ConfSpaces confSpaces, double epsilon, String confDBPattern, boolean useExternalMemory, int maxSimultaneousMutations) {
+		return runKStar(confSpaces, epsilon, confDBPattern, useExternalMemory, maxSimultaneousMutations, 1);
+	}
+
+	public static Result runKStar(ConfSpaces confSpaces, double epsilon, String confDBPattern, boolean useExternalMemory, int maxSimultaneousMutations, int maxSimultaneousSequences) {
+		return runKStar(confSpaces, epsilon, confDBPattern, useExternalMemory, maxSimultaneousMutations, maxSimultaneousSequences, null, 0, 1);
+	}
+
+	public static Result runKStar(ConfSpaces confSpaces, double epsilon, String confDBPattern, boolean useExternalMemory, int maxSimultaneousMutations, int maxSimultaneousSequences, File resultsFile, int shardIndex, int numShards) {
 
 		Parallelism parallelism = Parallelism.makeCpu(4);
 
@@ -117,6 +125,9 @@ public class TestKStar {
 				.addScoreConsoleWriter(testFormatter)
 				.setExternalMemory(useExternalMemory)
 				.setMaxSimultaneousMutations(maxSimultaneousMutations)
+				.setMaxSimultaneousSequences(maxSimultaneousSequences)
+				.setResultsFile(resultsFile)
+				.setShard(shardIndex, numShards)
 				//.setShowPfuncProgress(true)
 				.build();
 			KStar kstar = new KStar(confSpaces.protein, confSpaces.ligand, confSpaces.complex, settings);
@@ -137,6 +148,9 @@ public class TestKStar {
 					.build()
 					.calcEnergyMatrix();
 
+				// only count the energy calculations for K* itself
+				info.confEcalc.resetCounters();
+
 				// how should we score a sequence?
 				if (useExternalMemory) {
 					info.pfuncFactory = (rcs) -> {
@@ -388,6 +402,14 @@ public class TestKStar {
 		assert2RL0(result, epsilon);
 	}
 
+	@Test
+	public void test2RL0ConcurrentSequences() {
+
+		double epsilon = 0.95;
+		Result result = runKStar(make2RL0(), epsilon, null, false, 1, 3);
+		assert2RL0(result, epsilon);
+	}
+
 	@Test
 	public void test2RL0WithExternalMemory() {
 
@@ -644,6 +666,107 @@ public class TestKStar {
 		assertThat(result.scores.get(1).sequence.toString(Sequence.Renderer.AssignmentMutations), is("G654=thr A193=VAL"));
 	}
 
+	@Test
+	public void test2RL0SpaceWithoutWildTypeConcurrentSequences() {
+
+		double epsilon = 0.99;
+		Result serial = runKStar(make2RL0SpaceWithoutWildType(), epsilon, null, false, 2, 1);
+		Result concurrent = runKStar(make2RL0SpaceWithoutWildType(), epsilon, null, false, 2, 2);
+
+		// the scores should come back in the same order, with the same answers
+		assertThat(concurrent.scores.size(), is(serial.scores.size()));
+		for (int i=0; i<serial.scores.size(); i++) {
+			KStar.ScoredSequence expected = serial.scores.get(i);
+			KStar.ScoredSequence observed = concurrent.scores.get(i);
+			assertThat(observed.sequence.toString(Sequence.Renderer.AssignmentMutations), is(expected.sequence.toString(Sequence.Renderer.AssignmentMutations)));
+			assertResult(observed.score.protein, expected.score.protein.values.qstar.doubleValue(), epsilon);
+			assertResult(observed.score.ligand, expected.score.ligand.values.qstar.doubleValue(), epsilon);
+			assertResult(observed.score.complex, expected.score.complex.values.qstar.doubleValue(), epsilon);
+		}
+	}
+
+	@Test
+	public void test2RL0SpaceWithoutWildTypeResume() {
+
+		double epsilon = 0.99;
+		ConfSpaces confSpaces = make2RL0SpaceWithoutWildType();
+
+		try (TempFile resultsFile = new TempFile("kstar.results.db")) {
+
+			// the first run computes all the pfuncs
+			Result first = runKStar(confSpaces, epsilon, null, false, 2, 1, resultsFile, 0, 1);
+			assertThat(resultsFile.exists(), is(true));
+
+			// the second run should find all the pfuncs in the results file
+			Result second = runKStar(confSpaces, epsilon, null, false, 2, 1, resultsFile, 0, 1);
+			for (KStar.ConfSpaceInfo info : second.kstar.confSpaceInfos()) {
+				assertThat(info.confEcalc.getNumCalculations(), is(0L));
+			}
+
+			assertThat(second.scores.size(), is(first.scores.size()));
+			for (int i=0; i<first.scores.size(); i++) {
+				KStar.ScoredSequence expected = first.scores.get(i);
+				KStar.ScoredSequence observed = second.scores.get(i);
+				assertThat(observed.sequence, is(expected.sequence));
+				assertThat(observed.score.protein.values.qstar, is(expected.score.protein.values.qstar));
+				assertThat(observed.score.ligand.values.qstar, is(expected.score.ligand.values.qstar));
+				assertThat(observed.score.complex.values.qstar, is(expected.score.complex.values.qstar));
+			}
+		}
+	}
+
+	@Test
+	public void test2RL0SpaceWithoutWildTypeResumeOtherEpsilon() {
+
+		ConfSpaces confSpaces = make2RL0SpaceWithoutWildType();
+
+		try (TempFile resultsFile = new TempFile("kstar.results.db")) {
+
+			runKStar(confSpaces, 0.99, null, false, 2, 1, resultsFile, 0, 1);
+
+			// results for a looser epsilon shouldn't be re-used for a tighter one
+			try {
+				runKStar(confSpaces, 0.9, null, false, 2, 1, resultsFile, 0, 1);
+				fail("should have refused the results file");
+			} catch (IllegalArgumentException ex) {
+				assertThat(ex.getMessage(), containsString("epsilon"));
+			}
+		}
+	}
+
+	@Test
+	public void test2RL0SpaceWithoutWildTypeResumeOtherConfSpace() {
+
+		try (TempFile resultsFile = new TempFile("kstar.results.db")) {
+
+			runKStar(make2RL0SpaceWithoutWildType(), 0.99, null, false, 2, 1, resultsFile, 0, 1);
+
+			// results for different conf spaces shouldn't be re-used, even with the same settings
+			try {
+				runKStar(make2RL0OnlyOneMutant(), 0.99, null, false, 2, 1, resultsFile, 0, 1);
+				fail("should have refused the results file");
+			} catch (IllegalArgumentException ex) {
+				assertThat(ex.getMessage(), containsString("different protein state"));
+			}
+		}
+	}
+
+	@Test
+	public void test2RL0SpaceWithoutWildTypeShards() {
+
+		double epsilon = 0.99;
+		ConfSpaces confSpaces = make2RL0SpaceWithoutWildType();
+
+		Result shard0 = runKStar(confSpaces, epsilon, null, false, 2, 1, null, 0, 2);
+		Result shard1 = runKStar(confSpaces, epsilon, null, false, 2, 1, null, 1, 2);
+
+		// the shards should split the sequences round-robin
+		assertThat(shard0.scores.size(), is(1));
+		assertThat(shard0.scores.get(0).sequence.toString(Sequence.Renderer.AssignmentMutations), is("G654=VAL A193=VAL"));
+		assertThat(shard1.scores.size(), is(1));
+		assertThat(shard1.scores.get(0).sequence.toString(Sequence.Renderer.AssignmentMutations), is("G654=thr A193=VAL"));
+	}
+
 	public static void assertSequence(Result result, int sequenceIndex, String sequence, Double proteinQStar, Double ligandQStar, Double complexQStar, double epsilon) {
 
 		KStar.ScoredSequence scoredSequence = result.scores.get(sequenceIndex);
@@ -145,6 +145,11 @@ public class TestSimplePartitionFunction {
 
 	private static PfuncFactory simplePfuncs = (confEcalc, confSearch) -> new SimplePartitionFunction(confEcalc, confSearch, new RCs(confEcalc.confSpace).getNumConformations());
 	private static PfuncFactory gdPfuncs = (confEcalc, confSearch) -> new GradientDescentPfunc(confEcalc, confSearch, new RCs(confEcalc.confSpace).getNumConformations());
+	private static PfuncFactory gdLogPfuncs = (confEcalc, confSearch) -> {
+		GradientDescentPfunc pfunc = new GradientDescentPfunc(confEcalc, confSearch, new RCs(confEcalc.confSpaceIteration()).getNumConformations());
+		pfunc.setNumericMode(PartitionFunction.NumericMode.LogSpace);
+		return pfunc;
+	};
 
 	public static void testStrand(ForcefieldParams ffparams, SimpleConfSpace confSpace, Parallelism parallelism, double targetEpsilon, String approxQStar, EnergyMatrix emat, PfuncFactory pfuncs) {
 
@@ -232,6 +237,8 @@ public class TestSimplePartitionFunction {
 	@Test public void test2RL0ProteinGD2Cpus() { calc2RL0Protein(gdPfuncs, Parallelism.make(2, 0, 0)); }
 	@Test public void test2RL0ProteinGD1GpuStream() { calc2RL0Protein(gdPfuncs, Parallelism.make(1, 1, 1)); }
 	@Test public void test2RL0ProteinGD4GpuStreams() { calc2RL0Protein(gdPfuncs, Parallelism.make(2, 1, 4)); }
+	@Test public void test2RL0ProteinGDLog1Cpu() { calc2RL0Protein(gdLogPfuncs, Parallelism.make(1, 0, 0)); }
+	@Test public void test2RL0ProteinGDLog2Cpus() { calc2RL0Protein(gdLogPfuncs, Parallelism.make(2, 0, 0)); }
 
 	private static EnergyMatrix calc2RL0LigandEmat = null;
 	public void calc2RL0LigandPfunc(PfuncFactory pfuncs, Parallelism parallelism) {
@@ -254,6 +261,8 @@ public class TestSimplePartitionFunction {
 	@Test public void test2RL0LigandGD2Cpus() { calc2RL0LigandPfunc(gdPfuncs, Parallelism.make(2, 0, 0)); }
 	@Test public void test2RL0LigandGD1GpuStream() { calc2RL0LigandPfunc(gdPfuncs, Parallelism.make(1, 1, 1)); }
 	@Test public void test2RL0LigandGD4GpuStreams() { calc2RL0LigandPfunc(gdPfuncs, Parallelism.make(2, 1, 4)); }
+	@Test public void test2RL0LigandGDLog1Cpu() { calc2RL0LigandPfunc(gdLogPfuncs, Parallelism.make(1, 0, 0)); }
+	@Test public void test2RL0LigandGDLog2Cpus() { calc2RL0LigandPfunc(gdLogPfuncs, Parallelism.make(2, 0, 0)); }
 
 	private static EnergyMatrix calc2RL0ComplexEmat = null;
 	public void calc2RL0Complex(PfuncFactory pfuncs, Parallelism parallelism) {
@@ -287,6 +296,7 @@ public class TestSimplePartitionFunction {
 	@Test public void test2RL0ComplexGD4Cpus() { calc2RL0Complex(gdPfuncs, Parallelism.make(4, 0, 0)); }
 	@Test public void test2RL0ComplexGD1GpuStream() { calc2RL0Complex(gdPfuncs, Parallelism.make(1, 1, 1)); }
 	@Test public void test2RL0ComplexGD4GpuStreams() { calc2RL0Complex(gdPfuncs, Parallelism.make(2, 1, 4)); }
+	@Test public void test2RL0ComplexGDLog1Cpu() { calc2RL0Complex(gdLogPfuncs, Parallelism.make(1, 0, 0)); }
 
 
 	public static TestInfo make1GUA11TestInfo() {
@@ -512,5 +522,6 @@ public class TestSimplePartitionFunction {
 	@Test public void testNoPositionsProteinGD2Cpus() { calcNoPositionsProtein(gdPfuncs, Parallelism.make(2, 0, 0)); }
 	@Test public void testNoPositionsProteinGD1GpuStream() { calcNoPositionsProtein(gdPfuncs, Parallelism.make(1, 1, 1)); }
 	@Test public void testNoPositionsProteinGD4GpuStreams() { calcNoPositionsProtein(gdPfuncs, Parallelism.make(2, 1, 4)); }
+	@Test public void testNoPositionsProteinGDLog1Cpu() { calcNoPositionsProtein(gdLogPfuncs, Parallelism.make(1, 0, 0)); }
 
 }
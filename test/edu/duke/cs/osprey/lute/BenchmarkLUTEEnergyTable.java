@@ -0,0 +1,115 @@
+package edu.duke.cs.osprey.lute;
+
+import edu.duke.cs.osprey.confspace.*;
+import edu.duke.cs.osprey.structure.PDBIO;
+import edu.duke.cs.osprey.tools.Stopwatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static edu.duke.cs.osprey.tools.Log.log;
+
+
+public class BenchmarkLUTEEnergyTable {
+
+	public static void main(String[] args) {
+
+		Strand strand = new Strand.Builder(PDBIO.readResource("/1CC8.ss.pdb")).build();
+		for (String resNum : Arrays.asList("A38", "A39")) {
+			strand.flexibility.get(resNum)
+				.setLibraryRotamers(Strand.WildType, "VAL", "LEU")
+				.addWildTypeRotamers()
+				.setContinuous();
+		}
+		for (String resNum : Arrays.asList("A40", "A41", "A42", "A43", "A44")) {
+			strand.flexibility.get(resNum)
+				.setLibraryRotamers(Strand.WildType)
+				.addWildTypeRotamers()
+				.setContinuous();
+		}
+
+		SimpleConfSpace confSpace = new SimpleConfSpace.Builder()
+			.addStrand(strand)
+			.build();
+
+		Random rand = new Random(12345);
+
+		// use all the pairs, and a random 1% of the triples, like a typical LUTE fit
+		List<RCTuple> tuples = new ArrayList<>();
+		for (SimpleConfSpace.Position pos1 : confSpace.positions) {
+			for (SimpleConfSpace.Position pos2 : confSpace.positions.subList(0, pos1.index)) {
+				for (SimpleConfSpace.ResidueConf rc1 : pos1.resConfs) {
+					for (SimpleConfSpace.ResidueConf rc2 : pos2.resConfs) {
+
+						tuples.add(new RCTuple(pos2.index, rc2.index, pos1.index, rc1.index));
+
+						for (SimpleConfSpace.Position pos3 : confSpace.positions.subList(0, pos2.index)) {
+							for (SimpleConfSpace.ResidueConf rc3 : pos3.resConfs) {
+								if (rand.nextInt(100) == 0) {
+									tuples.add(new RCTuple(pos3.index, rc3.index, pos2.index, rc2.index, pos1.index, rc1.index));
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+		LUTEState state = new LUTEState(tuples.size());
+		for (int i=0; i<tuples.size(); i++) {
+			state.tuples[i] = tuples.get(i);
+			state.tupleEnergies[i] = rand.nextDouble();
+		}
+
+		// pick a bunch of random conformations
+		final int numConfs = 2000000;
+		List<int[]> confs = new ArrayList<>(numConfs);
+		for (int i=0; i<numConfs; i++) {
+			int[] conf = Conf.make(confSpace);
+			for (SimpleConfSpace.Position pos : confSpace.positions) {
+				conf[pos.index] = rand.nextInt(pos.resConfs.size());
+			}
+			confs.add(conf);
+		}
+
+		TuplesIndex tindex = new TuplesIndex(confSpace, state.tuples);
+		LUTEEnergyTable table = new LUTEEnergyTable(confSpace.getNumResConfsByPos(), state);
+
+		log("%d tuples, %d triples", tuples.size(), table.getNumTriples());
+
+		// warm up the JIT, then benchmark
+		for (int i=0; i<2; i++) {
+
+			double[] sum = { 0.0 };
+			Stopwatch tindexSw = new Stopwatch().start();
+			for (int[] conf : confs) {
+				tindex.forEachIn(conf, false, true, (t) -> sum[0] += state.tupleEnergies[t]);
+			}
+			tindexSw.stop();
+
+			double tableSum = 0.0;
+			Stopwatch tableSw = new Stopwatch().start();
+			for (int[] conf : confs) {
+				tableSum += table.calcEnergy(conf);
+			}
+			tableSw.stop();
+
+			// score A* children differentially, from the conf with the last position unassigned
+			double diffSum = 0.0;
+			int lastPos = confSpace.positions.size() - 1;
+			Stopwatch diffSw = new Stopwatch().start();
+			for (int[] conf : confs) {
+				int rc = conf[lastPos];
+				conf[lastPos] = Conf.Unassigned;
+				diffSum += table.calcDifferential(conf, lastPos, rc);
+				conf[lastPos] = rc;
+			}
+			diffSw.stop();
+
+			log("tindex   %s   %10.0f confs/s   (sum %.6f)", tindexSw.getTime(2), numConfs/tindexSw.getTimeS(), sum[0]);
+			log("table    %s   %10.0f confs/s   (sum %.6f)   %.2fx speedup", tableSw.getTime(2), numConfs/tableSw.getTimeS(), tableSum, tindexSw.getTimeS()/tableSw.getTimeS());
+			log("diff     %s   %10.0f confs/s   (sum %.6f)", diffSw.getTime(2), numConfs/diffSw.getTimeS(), diffSum);
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package edu.duke.cs.osprey.lute;
+
+import static edu.duke.cs.osprey.TestBase.isAbsolutely;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import edu.duke.cs.osprey.confspace.*;
+import edu.duke.cs.osprey.structure.PDBIO;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.*;
+
+
+public class TestLUTEEnergyTable {
+
+	private static SimpleConfSpace confSpace;
+	private static TuplesIndex tuples;
+	private static double[] energies;
+	private static LUTEEnergyTable table;
+
+	@BeforeClass
+	public static void beforeClass() {
+
+		Strand strand = new Strand.Builder(PDBIO.readResource("/1CC8.ss.pdb")).build();
+		strand.flexibility.get("A16").setLibraryRotamers("VAL");
+		strand.flexibility.get("A17").setLibraryRotamers("VAL", "LEU");
+		strand.flexibility.get("A18").setLibraryRotamers("ILE");
+		strand.flexibility.get("A19").setLibraryRotamers("VAL");
+		strand.flexibility.get("A20").setLibraryRotamers("LEU");
+		confSpace = new SimpleConfSpace.Builder().addStrands(strand).build();
+
+		Random rand = new Random(12345);
+
+		// some singles, all the pairs except a few, and some triples
+		tuples = new TuplesIndex(confSpace);
+		for (SimpleConfSpace.Position pos1 : confSpace.positions) {
+			for (SimpleConfSpace.ResidueConf rc1 : pos1.resConfs) {
+
+				if (rand.nextBoolean()) {
+					tuples.appendTuple(new RCTuple(pos1.index, rc1.index));
+				}
+
+				for (SimpleConfSpace.Position pos2 : confSpace.positions.subList(0, pos1.index)) {
+					for (SimpleConfSpace.ResidueConf rc2 : pos2.resConfs) {
+
+						if (rand.nextInt(20) != 0) {
+							tuples.appendTuple(new RCTuple(pos2.index, rc2.index, pos1.index, rc1.index));
+						}
+
+						for (SimpleConfSpace.Position pos3 : confSpace.positions.subList(0, pos2.index)) {
+							for (SimpleConfSpace.ResidueConf rc3 : pos3.resConfs) {
+								if (rand.nextInt(10) == 0) {
+									tuples.appendTuple(new RCTuple(pos3.index, rc3.index, pos2.index, rc2.index, pos1.index, rc1.index));
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+
+		energies = new double[tuples.size()];
+		for (int i=0; i<energies.length; i++) {
+			energies[i] = rand.nextDouble()*10.0 - 5.0;
+		}
+
+		RCTuple[] tupleArray = new RCTuple[tuples.size()];
+		for (int i=0; i<tupleArray.length; i++) {
+			tupleArray[i] = tuples.get(i);
+		}
+		table = new LUTEEnergyTable(confSpace.getNumResConfsByPos(), tupleArray, energies);
+	}
+
+	private static double getEnergy(Integer index) {
+		if (index == null) {
+			return 0.0;
+		}
+		return energies[index];
+	}
+
+	/** the slow way, using the tuples index */
+	private static double calcEnergy(int[] conf) {
+		double[] energy = { 0.0 };
+		try {
+			tuples.forEachIn(conf, false, true, (t) -> energy[0] += energies[t]);
+		} catch (TuplesIndex.NoSuchTupleException ex) {
+			return Double.NaN;
+		}
+		return energy[0];
+	}
+
+	private static void forEachConf(int[] conf, int pos, Runnable callback) {
+
+		if (pos == conf.length) {
+			callback.run();
+			return;
+		}
+
+		// try leaving the position unassigned too
+		for (int rc=Conf.Unassigned; rc<confSpace.positions.get(pos).resConfs.size(); rc++) {
+			conf[pos] = rc;
+			forEachConf(conf, pos + 1, callback);
+		}
+		conf[pos] = Conf.Unassigned;
+	}
+
+	private static void assertEnergy(double observed, double expected) {
+		if (Double.isNaN(expected)) {
+			assertThat(observed, is(Double.NaN));
+		} else {
+			assertThat(observed, isAbsolutely(expected, 1e-12));
+		}
+	}
+
+	@Test
+	public void numTriples() {
+		int numTriples = 0;
+		for (RCTuple tuple : tuples) {
+			if (tuple.size() == 3) {
+				numTriples++;
+			}
+		}
+		assertThat(numTriples, greaterThan(0));
+		assertThat(table.getNumTriples(), is(numTriples));
+	}
+
+	@Test
+	public void lookups() {
+		for (SimpleConfSpace.Position pos1 : confSpace.positions) {
+			for (SimpleConfSpace.ResidueConf rc1 : pos1.resConfs) {
+
+				assertThat(table.getEnergy(pos1.index, rc1.index), is(getEnergy(tuples.getIndex(pos1.index, rc1.index))));
+
+				for (SimpleConfSpace.Position pos2 : confSpace.positions) {
+					if (pos2 == pos1) {
+						continue;
+					}
+					for (SimpleConfSpace.ResidueConf rc2 : pos2.resConfs) {
+
+						Integer t = tuples.getIndex(pos1.index, rc1.index, pos2.index, rc2.index);
+						assertThat(table.hasPair(pos1.index, rc1.index, pos2.index, rc2.index), is(t != null));
+						assertThat(table.getEnergy(pos1.index, rc1.index, pos2.index, rc2.index), is(getEnergy(t)));
+
+						for (SimpleConfSpace.Position pos3 : confSpace.positions) {
+							if (pos3 == pos1 || pos3 == pos2) {
+								continue;
+							}
+							for (SimpleConfSpace.ResidueConf rc3 : pos3.resConfs) {
+								assertThat(
+									table.getEnergy(pos1.index, rc1.index, pos2.index, rc2.index, pos3.index, rc3.index),
+									is(getEnergy(tuples.getIndex(pos1.index, rc1.index, pos2.index, rc2.index, pos3.index, rc3.index)))
+								);
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void confs() {
+		int[] conf = Conf.make(confSpace);
+		forEachConf(conf, 0, () ->
+			assertEnergy(table.calcEnergy(conf), calcEnergy(conf))
+		);
+	}
+
+	@Test
+	public void differential() {
+		int[] conf = Conf.make(confSpace);
+		forEachConf(conf, 0, () -> {
+
+			double parentEnergy = calcEnergy(conf);
+
+			for (SimpleConfSpace.Position pos : confSpace.positions) {
+				if (conf[pos.index] != Conf.Unassigned) {
+					continue;
+				}
+				for (SimpleConfSpace.ResidueConf rc : pos.resConfs) {
+
+					double delta = table.calcDifferential(conf, pos.index, rc.index);
+
+					conf[pos.index] = rc.index;
+					double childEnergy = calcEnergy(conf);
+					conf[pos.index] = Conf.Unassigned;
+
+					assertEnergy(parentEnergy + delta, childEnergy);
+				}
+			}
+		});
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void quads() {
+		new LUTEEnergyTable(
+			confSpace.getNumResConfsByPos(),
+			new RCTuple[] { new RCTuple(0, 0, 1, 0, 2, 0, 3, 0) },
+			new double[] { 1.0 }
+		);
+	}
+}
@@ -0,0 +1,181 @@
+package edu.duke.cs.osprey.parallelism;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+
+/**
+ * Runs a small cluster of JVMs on this machine.
+ */
+public class TestCluster {
+
+	private static final String ClusterName = "TestCluster";
+	private static final int NumMembers = 2;
+	private static final int Offset = 1000;
+
+	private static class AddTask extends Cluster.Task<Integer,Integer> {
+
+		private static final long serialVersionUID = 7504816398346352641L;
+
+		final int value;
+		final int sleepMs;
+
+		AddTask(int value, int sleepMs) {
+			super(0);
+			this.value = value;
+			this.sleepMs = sleepMs;
+		}
+
+		@Override
+		public Integer run(Integer offset) {
+			if (sleepMs > 0) {
+				try {
+					Thread.sleep(sleepMs);
+				} catch (InterruptedException ex) {
+					throw new RuntimeException(ex);
+				}
+			}
+			return value + offset;
+		}
+	}
+
+	private static Cluster makeCluster(String jobId, int nodeId) {
+		Cluster cluster = new Cluster(ClusterName, jobId, nodeId, NumMembers + 1, false);
+		cluster.joinLocalhost = true;
+		return cluster;
+	}
+
+	/** runs a member node in a forked JVM */
+	public static void main(String[] args) {
+
+		String jobId = args[0];
+		int nodeId = Integer.parseInt(args[1]);
+
+		try (TaskExecutor tasks = makeCluster(jobId, nodeId).makeTaskExecutor(Parallelism.makeCpu(2))) {
+			try (TaskExecutor.ContextGroup ctxGroup = tasks.contextGroup()) {
+				ctxGroup.putContext(0, AddTask.class, Offset);
+			}
+		}
+	}
+
+	private static List<Process> forkMembers(String jobId) {
+		List<Process> processes = new ArrayList<>();
+		for (int nodeId=1; nodeId<=NumMembers; nodeId++) {
+			ProcessBuilder pb = new ProcessBuilder(
+				Paths.get(System.getProperty("java.home")).resolve("bin").resolve("java").toString(),
+				"-cp", System.getProperty("java.class.path"),
+				TestCluster.class.getCanonicalName(),
+				jobId,
+				Integer.toString(nodeId)
+			);
+			pb.directory(new File(System.getProperty("user.dir")));
+			pb.redirectErrorStream(true);
+			Process process;
+			try {
+				process = pb.start();
+			} catch (IOException ex) {
+				throw new RuntimeException("can't start JVM process", ex);
+			}
+			processes.add(process);
+
+			// wait for the member to join the cluster before starting the next one,
+			// otherwise members started at the same time can form separate clusters
+			BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()));
+			try {
+				String line;
+				do {
+					line = in.readLine();
+				} while (line != null && !line.contains("node started"));
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+
+			// keep draining the output, so the process doesn't block
+			Thread drain = new Thread(() -> {
+				try {
+					while (in.readLine() != null);
+				} catch (IOException ex) {
+					// process is gone, nothing to do
+				}
+			});
+			drain.setDaemon(true);
+			drain.start();
+		}
+		return processes;
+	}
+
+	private static void waitFor(List<Process> processes) {
+		try {
+			for (Process process : processes) {
+				if (!process.waitFor(60, TimeUnit.SECONDS)) {
+					process.destroyForcibly();
+				}
+			}
+		} catch (InterruptedException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * Sends the tasks to the cluster, and kills one of the members after the given number of tasks, if any.
+	 */
+	private static void assertTasks(String jobId, int numTasks, int sleepMs, Integer killAfter) {
+
+		List<Process> processes = forkMembers(jobId);
+		try {
+
+			AtomicIntegerArray results = new AtomicIntegerArray(numTasks);
+			AtomicIntegerArray numResults = new AtomicIntegerArray(numTasks);
+
+			Cluster.Client client = (Cluster.Client)makeCluster(jobId, 0).makeTaskExecutor(Parallelism.makeCpu(2));
+			try (TaskExecutor.ContextGroup ctxGroup = client.contextGroup()) {
+
+				// like real designs, every node puts the same contexts, but only the members use them here
+				ctxGroup.putContext(0, AddTask.class, Offset);
+
+				for (int i=0; i<numTasks; i++) {
+					if (killAfter != null && i == killAfter) {
+						processes.get(0).destroyForcibly();
+					}
+					final int fi = i;
+					client.submit(new AddTask(i, sleepMs), result -> {
+						results.set(fi, result);
+						numResults.incrementAndGet(fi);
+					});
+				}
+				client.waitForFinish();
+
+			} finally {
+				client.clean();
+			}
+
+			// every task should finish exactly once
+			for (int i=0; i<numTasks; i++) {
+				assertThat(numResults.get(i), is(1));
+				assertThat(results.get(i), is(i + Offset));
+			}
+
+		} finally {
+			waitFor(processes);
+		}
+	}
+
+	@Test
+	public void batches() {
+		assertTasks("batches", 1000, 0, null);
+	}
+
+	@Test
+	public void memberLeaves() {
+		assertTasks("memberLeaves", 400, 20, 100);
+	}
+}
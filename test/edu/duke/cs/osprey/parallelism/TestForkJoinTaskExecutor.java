@@ -0,0 +1,238 @@
+package edu.duke.cs.osprey.parallelism;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import edu.duke.cs.osprey.parallelism.TaskExecutor.Task;
+import edu.duke.cs.osprey.parallelism.TaskExecutor.TaskException;
+import edu.duke.cs.osprey.parallelism.TaskExecutor.TaskListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class TestForkJoinTaskExecutor {
+
+	private static ForkJoinTaskExecutor start(int numThreads) {
+		ForkJoinTaskExecutor tasks = new ForkJoinTaskExecutor();
+		tasks.start(numThreads);
+		return tasks;
+	}
+
+	@Test
+	public void countToTen() {
+
+		try (ForkJoinTaskExecutor tasks = start(1)) {
+
+			int[] count = { 0 };
+
+			for (int i=0; i<10; i++) {
+				tasks.submit(
+					() -> {
+						// no work to do
+						return null;
+					},
+					(Void ignore) -> {
+						// listeners run one at a time, so no need to synchronize
+						count[0]++;
+					}
+				);
+			}
+			tasks.waitForFinish();
+
+			assertThat(count[0], is(10));
+		}
+	}
+
+	@Test
+	public void countLotsOfTimes() {
+
+		try (ForkJoinTaskExecutor tasks = start(4)) {
+
+			for (int r=0; r<1000; r++) {
+
+				int[] count = { 0 };
+
+				for (int i=0; i<4; i++) {
+					tasks.submit(
+						() -> {
+							// on worker thread: no work to do
+							return null;
+						},
+						(Void ignore) -> {
+							// on worker thread, but one at a time: increment counter
+							count[0]++;
+						}
+					);
+				}
+				tasks.waitForFinish();
+
+				assertThat(count[0], is(4));
+			}
+		}
+	}
+
+	@Test
+	public void threadSafeListeners() {
+
+		try (ForkJoinTaskExecutor tasks = start(4)) {
+
+			AtomicInteger count = new AtomicInteger(0);
+			TaskListener.ThreadSafe<Integer> listener = (Integer val) -> count.addAndGet(val);
+
+			for (int i=0; i<1000; i++) {
+				tasks.submit(() -> 1, listener);
+			}
+			tasks.waitForFinish();
+
+			assertThat(count.get(), is(1000));
+		}
+	}
+
+	@Test
+	public void submitAll() {
+
+		try (ForkJoinTaskExecutor tasks = start(4)) {
+
+			List<Task<Integer>> batch = new ArrayList<>();
+			for (int i=0; i<100; i++) {
+				final int fi = i;
+				batch.add(() -> fi*fi);
+			}
+
+			List<List<Integer>> results = new ArrayList<>();
+			tasks.submitAll(batch, results::add);
+			tasks.waitForFinish();
+
+			// results should come back in task order
+			assertThat(results.size(), is(1));
+			for (int i=0; i<100; i++) {
+				assertThat(results.get(0).get(i), is(i*i));
+			}
+		}
+	}
+
+	@Test
+	public void submitAllDefault() {
+
+		// the default implementation should work with any executor
+		TaskExecutor tasks = new TaskExecutor();
+
+		List<Task<Integer>> batch = new ArrayList<>();
+		for (int i=0; i<10; i++) {
+			final int fi = i;
+			batch.add(() -> fi + 1);
+		}
+
+		List<List<Integer>> results = new ArrayList<>();
+		tasks.submitAll(batch, results::add);
+		tasks.waitForFinish();
+
+		assertThat(results.size(), is(1));
+		assertThat(results.get(0), contains(1, 2, 3, 4, 5, 6, 7, 8, 9, 10));
+	}
+
+	@Test
+	public void listenersCanSubmit() {
+
+		try (ForkJoinTaskExecutor tasks = start(2)) {
+
+			int[] count = { 0 };
+
+			for (int i=0; i<10; i++) {
+				tasks.submit(
+					() -> null,
+					(Void ignore) -> {
+						count[0]++;
+
+						// submitting from a listener shouldn't deadlock
+						tasks.submit(() -> null, (Void ignore2) -> count[0]++);
+					}
+				);
+			}
+			tasks.waitForFinish();
+
+			assertThat(count[0], is(20));
+		}
+	}
+
+	@Test
+	public void handleTaskExceptionsGracefully() {
+
+		try (ForkJoinTaskExecutor tasks = start(2)) {
+
+			for (int r=0; r<100; r++) {
+
+				try {
+					for (int i=0; i<10; i++) {
+						tasks.submit(
+							() -> {
+								// crash in the task
+								throw new Error("Oh No! a Bad Thing has happened");
+							},
+							(Void ignore) -> {
+								fail("task should not finish");
+							}
+						);
+					}
+					tasks.waitForFinish();
+
+					fail("should have thrown Error");
+
+				} catch (TaskException ex) {
+
+					assertThat(tasks.getNumRunningTasks(), is(0L));
+
+					// all is well
+					continue;
+				}
+			}
+		}
+	}
+
+	@Test
+	public void handleListenerExceptionsGracefully() {
+
+		try (ForkJoinTaskExecutor tasks = start(2)) {
+
+			for (int r=0; r<100; r++) {
+
+				try {
+					for (int i=0; i<10; i++) {
+						tasks.submit(
+							() -> {
+								// easiest task ever!
+								return null;
+							},
+							(Void ignore) -> {
+								// crash in the listener
+								throw new Error("Oh No! a Bad Thing has happened");
+							}
+						);
+					}
+					tasks.waitForFinish();
+
+					fail("should have thrown error");
+
+				} catch (TaskException ex) {
+
+					assertThat(tasks.getNumRunningTasks(), is(0L));
+
+					// all is well
+					continue;
+				}
+			}
+		}
+	}
+
+	@Test
+	public void parallelism() {
+		try (TaskExecutor tasks = Parallelism.makeCpu(2, Parallelism.ExecutorType.ForkJoin).makeTaskExecutor()) {
+			assertThat(tasks, instanceOf(ForkJoinTaskExecutor.class));
+			assertThat(tasks.getParallelism(), is(2));
+		}
+	}
+}
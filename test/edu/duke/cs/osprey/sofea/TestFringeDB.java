@@ -47,7 +47,10 @@ import org.hamcrest.Description;
 import org.hamcrest.Matcher;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 
 public class TestFringeDB {
@@ -457,6 +460,258 @@ public class TestFringeDB {
 		}
 	}
 
+	@Test
+	public void readNodes() {
+
+		MultiStateConfSpace confSpace = makeConfSpace();
+
+		try (TempFile file = new TempFile("fringe.db")) {
+			try (FringeDB db = FringeDB.create(confSpace, file, 1024)) {
+
+				FringeDB.Transaction tx = db.transaction();
+				tx.writeRootNode(confSpace.states.get(0), new BigExp(1024.5));
+				tx.writeRootNode(confSpace.states.get(1), new BigExp(10.4));
+				tx.writeRootNode(confSpace.states.get(2), new BigExp(7.3));
+				tx.commit();
+				db.finishStep();
+
+				tx = db.transaction();
+				List<FringeDB.Node> nodes = tx.readNodes(2);
+				assertThat(nodes.size(), is(2));
+				assertThat(nodes.get(0).state.index, is(0));
+				assertThat(nodes.get(0).conf, is(conf(-1, -1)));
+				assertThat(nodes.get(0).zSumUpper, is(new BigExp(1024.5)));
+				assertThat(nodes.get(1).state.index, is(1));
+				assertThat(nodes.get(1).conf, is(conf(-1, -1, -1, -1)));
+				assertThat(nodes.get(1).zSumUpper, is(new BigExp(10.4)));
+				assertThat(tx.numNodesToRead(), is(1L));
+
+				// ask for more nodes than are left
+				nodes = tx.readNodes(2);
+				assertThat(nodes.size(), is(1));
+				assertThat(nodes.get(0).state.index, is(2));
+				assertThat(tx.readNodes(2).isEmpty(), is(true));
+
+				tx.commit();
+				db.finishStep();
+				assertThat(db.getNumNodes(), is(0L));
+			}
+		}
+	}
+
+	@Test
+	public void concurrentTransactionsResume() {
+
+		MultiStateConfSpace confSpace = makeConfSpace();
+
+		try (TempFile file = new TempFile("fringe.db")) {
+
+			try (FringeDB db = FringeDB.create(confSpace, file, 1024)) {
+				FringeDB.Transaction tx = db.transaction();
+				tx.writeRootNode(confSpace.states.get(0), new BigExp(1024.5));
+				tx.writeRootNode(confSpace.states.get(1), new BigExp(10.4));
+				tx.writeRootNode(confSpace.states.get(2), new BigExp(7.3));
+				tx.commit();
+				db.finishStep();
+
+				// read a node in each of two transactions
+				FringeDB.Transaction tx1 = db.transaction();
+				FringeDB.Transaction tx2 = db.transaction();
+				tx1.readNode();
+				tx2.readNode();
+				assertThat(tx2.state().index, is(1));
+
+				// commit only the second one, the header shouldn't change yet
+				tx2.writeReplacementNode(tx2.state(), tx2.conf(), tx2.zSumUpper());
+				tx2.commit();
+				assertThat(db.getNumNodes(), is(3L));
+			}
+
+			// the uncommitted read never happened, so the whole sweep should still be there
+			try (FringeDB db = FringeDB.open(confSpace, file)) {
+				assertThat(db.getNumNodes(), is(3L));
+				assertThat(db.numNodesToRead(), is(3L));
+			}
+		}
+	}
+
+	@Test
+	public void concurrentWorkers() {
+
+		MultiStateConfSpace confSpace = makeConfSpace();
+		MultiStateConfSpace.State state = confSpace.states.get(1);
+		int numNodes = 1000;
+
+		try (TempFile file = new TempFile("fringe.db")) {
+			try (FringeDB db = FringeDB.create(confSpace, file, 1024*1024)) {
+
+				// write a bunch of nodes
+				FringeDB.Transaction tx = db.transaction();
+				for (int i=0; i<numNodes; i++) {
+					tx.writeReplacementNode(state, new int[] { i % 10, -1, -1, -1 }, new BigExp(i));
+				}
+				tx.commit();
+				db.finishStep();
+
+				// sweep with lots of workers, and keep all the nodes
+				List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+				List<Thread> threads = new ArrayList<>();
+				for (int t=0; t<4; t++) {
+					threads.add(new Thread(() -> {
+						try {
+							FringeDB.Transaction wtx = db.transaction();
+							while (true) {
+								List<FringeDB.Node> nodes = wtx.readNodes(7);
+								if (nodes.isEmpty()) {
+									break;
+								}
+								for (FringeDB.Node node : nodes) {
+									wtx.writeReplacementNode(node.state, node.conf, node.zSumUpper);
+								}
+								wtx.commit();
+							}
+						} catch (Throwable ex) {
+							errors.add(ex);
+						}
+					}));
+				}
+				for (Thread thread : threads) {
+					thread.start();
+				}
+				for (Thread thread : threads) {
+					try {
+						thread.join();
+					} catch (InterruptedException ex) {
+						throw new RuntimeException(ex);
+					}
+				}
+				assertThat(errors, is(empty()));
+				db.finishStep();
+
+				// all the nodes should still be there, in some order
+				assertThat(db.getNumNodes(), is((long)numNodes));
+				assertThat(db.getZSumMax(state), is(new BigExp(numNodes - 1)));
+				boolean[] found = new boolean[numNodes];
+				tx = db.transaction();
+				for (FringeDB.Node node : tx.readNodes(numNodes)) {
+					int i = (int)node.zSumUpper.toDouble();
+					assertThat(found[i], is(false));
+					found[i] = true;
+					assertThat(node.conf, is(conf(i % 10, -1, -1, -1)));
+				}
+				for (boolean f : found) {
+					assertThat(f, is(true));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void overlappingTransactionsFullDB() {
+
+		MultiStateConfSpace confSpace = makeConfSpace();
+		MultiStateConfSpace.State state = confSpace.states.get(1);
+
+		try (TempFile file = new TempFile("fringe.db")) {
+
+			long numNodes;
+			try (FringeDB db = FringeDB.create(confSpace, file, 1024)) {
+
+				// fill the db completely
+				numNodes = db.getCapacity();
+				FringeDB.Transaction tx = db.transaction();
+				for (int i=0; i<numNodes; i++) {
+					tx.writeReplacementNode(state, new int[] { i % 10, -1, -1, -1 }, new BigExp(i));
+				}
+				tx.commit();
+				db.finishStep();
+
+				// sweep a few times with two transactions, so there's always a read that hasn't committed yet
+				for (int step=0; step<3; step++) {
+					FringeDB.Transaction tx1 = db.transaction();
+					FringeDB.Transaction tx2 = db.transaction();
+					tx1.readNode();
+					while (true) {
+						tx2.readNode();
+						tx1.writeReplacementNode(tx1.state(), tx1.conf(), tx1.zSumUpper());
+						tx1.commit();
+						if (!tx1.hasNodesToRead()) {
+							tx2.writeReplacementNode(tx2.state(), tx2.conf(), tx2.zSumUpper());
+							tx2.commit();
+							break;
+						}
+
+						// swap roles
+						FringeDB.Transaction swap = tx1;
+						tx1 = tx2;
+						tx2 = swap;
+					}
+					db.finishStep();
+					assertThat(db.getNumNodes(), is(numNodes));
+				}
+
+				// stop in the middle of a sweep, with one read still uncommitted
+				FringeDB.Transaction tx1 = db.transaction();
+				FringeDB.Transaction tx2 = db.transaction();
+				tx1.readNode();
+				tx2.readNode();
+				tx1.writeReplacementNode(tx1.state(), tx1.conf(), tx1.zSumUpper());
+				tx1.commit();
+			}
+
+			// the committed read should be saved, but not the uncommitted one
+			try (FringeDB db = FringeDB.open(confSpace, file)) {
+				assertThat(db.getNumNodes(), is(numNodes));
+				assertThat(db.numNodesToRead(), is(numNodes - 1));
+			}
+		}
+	}
+
+	@Test
+	public void rollback() {
+
+		MultiStateConfSpace confSpace = makeConfSpace();
+
+		try (TempFile file = new TempFile("fringe.db")) {
+			try (FringeDB db = FringeDB.create(confSpace, file, 1024)) {
+
+				FringeDB.Transaction tx = db.transaction();
+				tx.writeRootNode(confSpace.states.get(0), new BigExp(1024.5));
+				tx.writeRootNode(confSpace.states.get(1), new BigExp(10.4));
+				tx.writeRootNode(confSpace.states.get(2), new BigExp(7.3));
+				tx.commit();
+				db.finishStep();
+
+				// read two nodes, but give up on them
+				try (FringeDB.Transaction tx1 = db.transaction()) {
+					assertThat(tx1.readNodes(2).size(), is(2));
+					tx1.writeReplacementNode(confSpace.states.get(0), new int[] { 0, 0 }, new BigExp(1.0));
+				}
+
+				// finish the sweep normally
+				tx = db.transaction();
+				tx.readNode();
+				assertThat(tx.state().index, is(2));
+				tx.writeReplacementNode(tx.state(), tx.conf(), tx.zSumUpper());
+				tx.commit();
+				db.finishStep();
+
+				// the rolled-back nodes should be unchanged in the next sweep
+				assertThat(db.getNumNodes(), is(3L));
+				assertThat(db.getZSumMax(confSpace.states.get(0)), is(new BigExp(1024.5)));
+				tx = db.transaction();
+				List<FringeDB.Node> nodes = tx.readNodes(3);
+				assertThat(nodes.get(0).state.index, is(0));
+				assertThat(nodes.get(0).conf, is(conf(-1, -1)));
+				assertThat(nodes.get(0).zSumUpper, is(new BigExp(1024.5)));
+				assertThat(nodes.get(1).state.index, is(1));
+				assertThat(nodes.get(1).zSumUpper, is(new BigExp(10.4)));
+				assertThat(nodes.get(2).state.index, is(2));
+				assertThat(nodes.get(2).zSumUpper, is(new BigExp(7.3)));
+			}
+		}
+	}
+
 	private static MultiStateConfSpace makeConfSpace() {
 
 		Molecule pdb = PDBIO.readResource("/1CC8.ss.pdb");
@@ -0,0 +1,160 @@
+package edu.duke.cs.osprey.tools;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import ch.obermuhlner.math.big.BigDecimalMath;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Random;
+
+
+public class TestLogSumExp {
+
+	private static final MathContext mc = new MathContext(100, RoundingMode.HALF_EVEN);
+
+	private static BigDecimal exactExp(double x) {
+		return BigDecimalMath.exp(new BigDecimal(x), mc);
+	}
+
+	private static void assertBounds(LogSumExp sum, BigDecimal exact, double maxRelErr) {
+
+		BigDecimal lower = sum.toBigExpLower().toBigDecimal();
+		BigDecimal upper = sum.toBigExpUpper().toBigDecimal();
+		BigDecimal value = sum.toBigExp().toBigDecimal();
+
+		assertThat(MathTools.isLessThanOrEqual(lower, exact), is(true));
+		assertThat(MathTools.isGreaterThanOrEqual(upper, exact), is(true));
+
+		// the bounds should still be tight
+		double gap = new BigMath(mc).set(upper).sub(lower).div(exact).get().doubleValue();
+		assertThat(gap, lessThanOrEqualTo(maxRelErr));
+		double err = new BigMath(mc).set(value).sub(exact).div(exact).get().abs().doubleValue();
+		assertThat(err, lessThanOrEqualTo(maxRelErr));
+	}
+
+	@Test
+	public void empty() {
+		LogSumExp sum = new LogSumExp();
+		assertThat(sum.isZero(), is(true));
+		assertThat(sum.log(), is(Double.NEGATIVE_INFINITY));
+		assertThat(sum.toBigExp().fp, is(0.0));
+		assertThat(sum.toBigExpLower().fp, is(0.0));
+		assertThat(sum.toBigExpUpper().fp, is(0.0));
+	}
+
+	@Test
+	public void single() {
+		LogSumExp sum = new LogSumExp();
+		sum.add(0.0);
+		assertThat(sum.log(), is(0.0));
+		assertBounds(sum, BigDecimal.ONE, 1e-13);
+	}
+
+	@Test
+	public void addZero() {
+		LogSumExp sum = new LogSumExp();
+		sum.add(2.0);
+		sum.add(Double.NEGATIVE_INFINITY);
+		assertBounds(sum, exactExp(2.0), 1e-13);
+	}
+
+	@Test
+	public void nonFinite() {
+
+		LogSumExp sum = new LogSumExp();
+		sum.add(5.0);
+		sum.add(Double.POSITIVE_INFINITY);
+		sum.add(7.0);
+		assertThat(sum.isFinite(), is(false));
+		assertThat(sum.log(), is(Double.POSITIVE_INFINITY));
+		assertThat(sum.toBigExp().isFinite(), is(false));
+
+		sum = new LogSumExp();
+		sum.add(Double.NaN);
+		assertThat(sum.isFinite(), is(false));
+		assertThat(sum.toBigExp().isNaN(), is(true));
+	}
+
+	@Test
+	public void huge() {
+
+		// way beyond the range of doubles, like the Boltzmann weights of big conf spaces
+		LogSumExp sum = new LogSumExp();
+		BigDecimal exact = BigDecimal.ZERO;
+		for (double x : new double[] { 5000.0, 5001.0, 4990.0, 5002.5 }) {
+			sum.add(x);
+			exact = exact.add(exactExp(x), mc);
+		}
+		// converting to base 10 loses a few more digits when the exponents are big
+		assertBounds(sum, exact, 1e-10);
+	}
+
+	@Test
+	public void tiny() {
+		LogSumExp sum = new LogSumExp();
+		BigDecimal exact = BigDecimal.ZERO;
+		for (double x : new double[] { -5000.0, -5001.0, -4990.0, -5002.5 }) {
+			sum.add(x);
+			exact = exact.add(exactExp(x), mc);
+		}
+		// converting to base 10 loses a few more digits when the exponents are big
+		assertBounds(sum, exact, 1e-10);
+	}
+
+	@Test
+	public void random() {
+
+		Random rand = new Random(12345);
+		for (int i=0; i<20; i++) {
+
+			LogSumExp sum = new LogSumExp();
+			BigDecimal exact = BigDecimal.ZERO;
+			for (int j=0; j<1000; j++) {
+
+				// use a wide range of exponents, so we get lots of rescalings
+				double x = (rand.nextDouble() - 0.5)*200.0;
+				sum.add(x);
+				exact = exact.add(exactExp(x), mc);
+			}
+			assertBounds(sum, exact, 1e-11);
+		}
+	}
+
+	@Test
+	public void addSums() {
+
+		Random rand = new Random(12345);
+		LogSumExp a = new LogSumExp();
+		LogSumExp b = new LogSumExp();
+		BigDecimal exact = BigDecimal.ZERO;
+		for (int i=0; i<500; i++) {
+			double x = rand.nextDouble()*50.0;
+			double y = rand.nextDouble()*50.0 + 30.0;
+			a.add(x);
+			b.add(y);
+			exact = exact.add(exactExp(x), mc).add(exactExp(y), mc);
+		}
+
+		LogSumExp sum = new LogSumExp(a);
+		sum.add(b);
+		assertBounds(sum, exact, 1e-11);
+
+		// in the other order too
+		sum = new LogSumExp(b);
+		sum.add(a);
+		assertBounds(sum, exact, 1e-11);
+	}
+
+	@Test
+	public void toBigExp() {
+		assertThat(LogSumExp.toBigExp(1.0, 0.0, 0).toDouble(), closeTo(1.0, 1e-14));
+		assertThat(LogSumExp.toBigExp(2.0, Math.log(10.0)*300, 0).toString(2), is("2.00e300"));
+		assertThat(LogSumExp.toBigExp(1.0, -Math.log(10.0)*5000, 0).toString(2), is("1.00e-5000"));
+		assertThat(LogSumExp.toBigExp(1.0, 1.0, -1).toDouble(), lessThan(Math.E));
+		assertThat(LogSumExp.toBigExp(1.0, 1.0, 1).toDouble(), greaterThan(Math.E));
+	}
+}
@@ -0,0 +1,233 @@
+package edu.duke.cs.osprey.tools;
+
+import static edu.duke.cs.osprey.TestBase.TempFile;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import edu.duke.cs.osprey.astar.conf.ConfAStarTree;
+import edu.duke.cs.osprey.astar.conf.RCs;
+import edu.duke.cs.osprey.confspace.ConfDB;
+import edu.duke.cs.osprey.confspace.SimpleConfSpace;
+import edu.duke.cs.osprey.confspace.Strand;
+import edu.duke.cs.osprey.ematrix.EnergyMatrix;
+import edu.duke.cs.osprey.ematrix.SimplerEnergyMatrixCalculator;
+import edu.duke.cs.osprey.energy.ConfEnergyCalculator;
+import edu.duke.cs.osprey.energy.EnergyCalculator;
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
+import edu.duke.cs.osprey.kstar.pfunc.GradientDescentPfunc;
+import edu.duke.cs.osprey.parallelism.Parallelism;
+import edu.duke.cs.osprey.parallelism.TaskExecutor;
+import edu.duke.cs.osprey.structure.PDBIO;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+
+public class TestMetrics {
+
+	private static final Metrics.Counter counter = Metrics.counter("test_counter_total", "a counter for tests");
+	private static final Metrics.Histogram histogram = Metrics.histogram("test_histogram", "a histogram for tests");
+
+	@After
+	public void after() {
+		Metrics.disable();
+		Metrics.reset();
+	}
+
+	@Test
+	public void disabled() {
+
+		Metrics.disable();
+
+		counter.increment();
+		counter.add(5);
+		histogram.record(42);
+		histogram.recordSince(Metrics.startNs());
+
+		assertThat(Metrics.startNs(), is(Metrics.NotTiming));
+		assertThat(counter.get(), is(0L));
+		assertThat(histogram.getCount(), is(0L));
+	}
+
+	@Test
+	public void counterThreads()
+	throws Exception {
+
+		Metrics.enable();
+
+		List<Thread> threads = new ArrayList<>();
+		for (int t=0; t<4; t++) {
+			threads.add(new Thread(() -> {
+				for (int i=0; i<100000; i++) {
+					counter.increment();
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertThat(counter.get(), is(400000L));
+	}
+
+	@Test
+	public void buckets() {
+
+		// the buckets should tile the whole range of longs, in order
+		assertThat(Metrics.Histogram.bucketMin(0), is(0L));
+		int lastIndex = Metrics.Histogram.bucketIndex(Long.MAX_VALUE);
+		for (int i=0; i<lastIndex; i++) {
+			long min = Metrics.Histogram.bucketMin(i);
+			long max = Metrics.Histogram.bucketMax(i);
+			assertThat(max, greaterThanOrEqualTo(min));
+			assertThat(Metrics.Histogram.bucketMin(i + 1), is(max + 1));
+			assertThat(Metrics.Histogram.bucketIndex(min), is(i));
+			assertThat(Metrics.Histogram.bucketIndex(max), is(i));
+
+			// and the buckets should be narrow enough
+			assertThat((double)(max - min), lessThanOrEqualTo((double)min/Metrics.Histogram.SubBuckets));
+		}
+		assertThat(Metrics.Histogram.bucketMax(lastIndex), is(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void quantiles() {
+
+		Metrics.enable();
+
+		// record a wide spread of values
+		Random rand = new Random(12345);
+		List<Long> values = new ArrayList<>();
+		for (int i=0; i<10000; i++) {
+			long value = (long)Math.exp(rand.nextDouble()*20);
+			values.add(value);
+			histogram.record(value);
+		}
+		values.sort(Long::compare);
+
+		assertThat(histogram.getCount(), is((long)values.size()));
+		assertThat(histogram.getSum(), is(values.stream().mapToLong(v -> v).sum()));
+		assertThat(histogram.getMax(), is(values.get(values.size() - 1)));
+
+		for (double quantile : Metrics.Histogram.Quantiles) {
+			long expected = values.get((int)Math.ceil(quantile*values.size()) - 1);
+			long observed = histogram.getQuantile(quantile);
+			assertThat(observed, greaterThanOrEqualTo(expected));
+			assertThat((double)observed, lessThanOrEqualTo(expected*(1.0 + 1.0/Metrics.Histogram.SubBuckets)));
+		}
+	}
+
+	@Test
+	public void prometheus() {
+
+		Metrics.enable();
+		counter.add(3);
+		histogram.record(7);
+
+		String text = Metrics.snapshot(Metrics.Format.Prometheus);
+		assertThat(text, containsString("# TYPE osprey_test_counter_total counter\nosprey_test_counter_total 3\n"));
+		assertThat(text, containsString("# TYPE osprey_test_histogram summary\n"));
+		assertThat(text, containsString("osprey_test_histogram{quantile=\"0.5\"} 7\n"));
+		assertThat(text, containsString("osprey_test_histogram_sum 7\n"));
+		assertThat(text, containsString("osprey_test_histogram_count 1\n"));
+	}
+
+	@Test
+	public void dump() {
+
+		try (TempFile file = new TempFile("metrics.json")) {
+
+			AutoCloseableNoEx dumper = Metrics.startDumping(file, 1000);
+			assertThat(Metrics.isEnabled(), is(true));
+			counter.increment();
+			dumper.close();
+
+			// closing the dumper should turn off metrics, and write the last snapshot
+			assertThat(Metrics.isEnabled(), is(false));
+			String json = FileTools.readFile(file);
+			assertThat(json, startsWith("{\"timestampMs\":"));
+			assertThat(json, containsString("\"test_counter_total\":1"));
+			assertThat(json, containsString("\"test_histogram\":{\"count\":0,"));
+		}
+	}
+
+	private static long count(String name) {
+		Metrics.Metric metric = Metrics.get(name);
+		if (metric instanceof Metrics.Counter) {
+			return ((Metrics.Counter)metric).get();
+		}
+		return ((Metrics.Histogram)metric).getCount();
+	}
+
+	@Test
+	public void instrumented() {
+
+		Strand strand = new Strand.Builder(PDBIO.readFile("examples/1CC8/1CC8.ss.pdb")).build();
+		for (String resNum : new String[] { "A2", "A3", "A4" }) {
+			strand.flexibility.get(resNum).setLibraryRotamers(Strand.WildType).setContinuous();
+		}
+		SimpleConfSpace confSpace = new SimpleConfSpace.Builder()
+			.addStrand(strand)
+			.build();
+
+		try (EnergyCalculator ecalc = new EnergyCalculator.Builder(confSpace, new ForcefieldParams())
+			.setParallelism(Parallelism.makeCpu(2))
+			.build()) {
+
+			ConfEnergyCalculator confEcalc = new ConfEnergyCalculator.Builder(confSpace, ecalc).build();
+			EnergyMatrix emat = new SimplerEnergyMatrixCalculator.Builder(confEcalc)
+				.build()
+				.calcEnergyMatrix();
+
+			Metrics.enable();
+
+			try (TempFile confDBFile = new TempFile("metrics.conf.db")) {
+				try (ConfDB confDB = new ConfDB(confSpace, confDBFile)) {
+					try (TaskExecutor.ContextGroup contexts = ecalc.tasks.contextGroup()) {
+
+						RCs rcs = new RCs(confEcalc.confSpaceIteration());
+						GradientDescentPfunc pfunc = new GradientDescentPfunc(
+							confEcalc,
+							new ConfAStarTree.Builder(emat, rcs)
+								.setTraditional()
+								.build(),
+							new ConfAStarTree.Builder(emat, rcs)
+								.setTraditional()
+								.build(),
+							rcs.getNumConformations()
+						);
+						pfunc.setInstanceId(0);
+						pfunc.setConfDB(confDB, new ConfDB.Key(confSpace.makeWildTypeSequence()));
+						pfunc.putTaskContexts(contexts);
+						pfunc.init(0.1);
+						pfunc.compute();
+					}
+				}
+			}
+		}
+
+		// all the hot paths should have recorded something
+		for (String name : new String[] {
+			"astar_nodes_expanded_total",
+			"astar_nodes_scored_total",
+			"astar_expand_batch_ns",
+			"astar_gscore_ns",
+			"astar_hscore_ns",
+			"energy_minimize_ns",
+			"confdb_read_ns",
+			"confdb_write_ns",
+			"tasks_queue_wait_ns",
+			"tasks_run_ns",
+			"pfunc_energy_update_ns",
+			"pfunc_scores_update_ns"
+		}) {
+			assertThat(name, count(name), greaterThan(0L));
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package edu.duke.cs.osprey.tools;
+
+import static edu.duke.cs.osprey.TestBase.isAbsolutely;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import edu.duke.cs.osprey.parallelism.Parallelism;
+import edu.duke.cs.osprey.parallelism.TaskExecutor;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.QRDecomposition;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.junit.Test;
+
+import java.util.Random;
+
+
+public class TestSparseLeastSquares {
+
+	private static class Problem {
+
+		final double[][] dense;
+		final SparseLeastSquares sparse;
+		final double[] b;
+		final double[] weights;
+
+		Problem(Random rand, int numRows, int numCols) {
+
+			dense = new double[numRows][numCols];
+			SparseLeastSquares.Builder builder = new SparseLeastSquares.Builder(numCols);
+			for (int r=0; r<numRows; r++) {
+
+				// make sure every column gets used, so the problem is well-conditioned
+				dense[r][r % numCols] = 1.0;
+				builder.add(r % numCols);
+
+				for (int c=0; c<numCols; c++) {
+					if (c != r % numCols && rand.nextInt(4) == 0) {
+						dense[r][c] = 1.0;
+						builder.add(c);
+					}
+				}
+				builder.endRow();
+			}
+			sparse = builder.build();
+
+			b = new double[numRows];
+			weights = new double[numRows];
+			for (int r=0; r<numRows; r++) {
+				b[r] = rand.nextDouble()*20.0 - 10.0;
+				weights[r] = rand.nextDouble() + 0.5;
+			}
+		}
+
+		double[] solveDense(boolean weighted) {
+			RealMatrix A = new Array2DRowRealMatrix(dense.length, dense[0].length);
+			double[] wb = new double[b.length];
+			for (int r=0; r<dense.length; r++) {
+				double w = weighted ? Math.sqrt(weights[r]) : 1.0;
+				for (int c=0; c<dense[r].length; c++) {
+					A.setEntry(r, c, dense[r][c]*w);
+				}
+				wb[r] = b[r]*w;
+			}
+			return new QRDecomposition(A).getSolver().solve(new ArrayRealVector(wb)).toArray();
+		}
+	}
+
+	private static void assertSolution(double[] observed, double[] expected) {
+		assertThat(observed.length, is(expected.length));
+		for (int i=0; i<expected.length; i++) {
+			assertThat(observed[i], isAbsolutely(expected[i], 1e-4));
+		}
+	}
+
+	@Test
+	public void mult() {
+
+		Random rand = new Random(12345);
+		Problem problem = new Problem(rand, 50, 20);
+
+		double[] x = new double[20];
+		for (int i=0; i<x.length; i++) {
+			x[i] = rand.nextDouble();
+		}
+
+		try (TaskExecutor tasks = Parallelism.makeCpu(3).makeTaskExecutor()) {
+
+			double[] Ax = problem.sparse.multA(x, tasks);
+			for (int r=0; r<50; r++) {
+				double expected = 0.0;
+				for (int c=0; c<20; c++) {
+					expected += problem.dense[r][c]*x[c];
+				}
+				assertThat(Ax[r], isAbsolutely(expected, 1e-12));
+			}
+
+			double[] Aty = problem.sparse.multAt(problem.b, tasks);
+			for (int c=0; c<20; c++) {
+				double expected = 0.0;
+				for (int r=0; r<50; r++) {
+					expected += problem.dense[r][c]*problem.b[r];
+				}
+				assertThat(Aty[c], isAbsolutely(expected, 1e-12));
+			}
+		}
+	}
+
+	@Test
+	public void solve() {
+		Problem problem = new Problem(new Random(12345), 200, 40);
+		assertSolution(problem.sparse.solve(problem.b, null, new TaskExecutor()), problem.solveDense(false));
+	}
+
+	@Test
+	public void solveWeighted() {
+		Problem problem = new Problem(new Random(12345), 200, 40);
+		assertSolution(problem.sparse.solve(problem.b, problem.weights, null, new TaskExecutor()), problem.solveDense(true));
+	}
+
+	@Test
+	public void solveParallel() {
+		Problem problem = new Problem(new Random(12345), 1000, 100);
+		try (TaskExecutor tasks = Parallelism.makeCpu(4).makeTaskExecutor()) {
+			assertSolution(problem.sparse.solve(problem.b, null, tasks), problem.solveDense(false));
+		}
+	}
+
+	@Test
+	public void warmStart() {
+		Problem problem = new Problem(new Random(12345), 200, 40);
+		double[] expected = problem.solveDense(false);
+
+		// starting from the answer shouldn't need any iterations at all
+		problem.sparse.maxIterations = 0;
+		assertSolution(problem.sparse.solve(problem.b, expected, new TaskExecutor()), expected);
+
+		// but starting from zero should
+		double[] x = problem.sparse.solve(problem.b, null, new TaskExecutor());
+		assertThat(x[0], is(0.0));
+	}
+}